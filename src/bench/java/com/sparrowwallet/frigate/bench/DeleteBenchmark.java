@@ -0,0 +1,162 @@
+package com.sparrowwallet.frigate.bench;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.sparrowwallet.drongo.protocol.HashIndex;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.frigate.index.DbManager;
+import com.sparrowwallet.frigate.index.Index;
+import org.duckdb.DuckDBAppender;
+import org.duckdb.DuckDBConnection;
+
+import java.io.File;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Compares deleting spent outputs with one batched point delete per outpoint against appending the outpoints to a key table and
+ * deleting them with a single join, as {@link Index#deleteSpentUtxos(Connection, Set)} does. A utxo database of the given size is
+ * generated, and each delete is timed in its own transaction, which is rolled back so that every run deletes from the same rows.
+ */
+public class DeleteBenchmark {
+    public static void main(String[] argv) throws Exception {
+        Args args = new Args();
+        JCommander jCommander = JCommander.newBuilder().addObject(args).programName("frigate-delete-benchmark").build();
+        jCommander.parse(argv);
+        if(args.help) {
+            jCommander.usage();
+            System.exit(0);
+        }
+
+        File dbFile = File.createTempFile("frigate-delete-benchmark", ".duckdb");
+        dbFile.delete();
+        dbFile.deleteOnExit();
+
+        Random random = new Random(args.seed);
+        try(DuckDBConnection connection = (DuckDBConnection)DriverManager.getConnection(DbManager.DB_PREFIX + dbFile.getAbsolutePath())) {
+            Index.createUtxoTables(connection);
+            Index.createKeyTables(connection);
+
+            System.out.println("Generating " + args.transactions + " transactions with " + args.outputs + " outputs each...");
+            List<HashIndex> outpoints = new ArrayList<>();
+            try(DuckDBAppender txAppender = connection.createAppender(DuckDBConnection.DEFAULT_SCHEMA, Index.UTXO_TX_TABLE);
+                DuckDBAppender outputAppender = connection.createAppender(DuckDBConnection.DEFAULT_SCHEMA, Index.UTXO_OUTPUT_TABLE)) {
+                byte[] tweakKey = new byte[64];
+                byte[] compressedKey = new byte[33];
+                for(int t = 0; t < args.transactions; t++) {
+                    byte[] txid = new byte[32];
+                    random.nextBytes(txid);
+                    random.nextBytes(tweakKey);
+                    random.nextBytes(compressedKey);
+                    txAppender.beginRow();
+                    txAppender.append(txid);
+                    txAppender.append(t / 1000);
+                    txAppender.append(tweakKey);
+                    txAppender.append(compressedKey);
+                    txAppender.endRow();
+
+                    for(int i = 0; i < args.outputs; i++) {
+                        outputAppender.beginRow();
+                        outputAppender.append(txid);
+                        outputAppender.append(i);
+                        outputAppender.append(random.nextLong());
+                        outputAppender.append(1000L);
+                        outputAppender.endRow();
+                        outpoints.add(new HashIndex(Sha256Hash.wrap(txid), i));
+                    }
+                }
+            }
+
+            System.out.printf("%n%-10s %14s %14s %10s%n", "Outpoints", "Batched (ms)", "Joined (ms)", "Speedup");
+            for(int size : args.sizes) {
+                Collections.shuffle(outpoints, random);
+                Set<HashIndex> spentOutpoints = new HashSet<>(outpoints.subList(0, Math.min(size, outpoints.size())));
+
+                double batched = time(connection, args.iterations, spentOutpoints, DeleteBenchmark::deleteBatched);
+                double joined = time(connection, args.iterations, spentOutpoints, Index::deleteSpentUtxos);
+                System.out.printf("%-10d %14.1f %14.1f %9.1fx%n", spentOutpoints.size(), batched, joined, batched / joined);
+            }
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * Returns the median time in milliseconds of the given delete, run in a transaction that is rolled back.
+     */
+    private static double time(Connection connection, int iterations, Set<HashIndex> spentOutpoints, Delete delete) throws SQLException {
+        double[] millis = new double[iterations];
+        for(int i = 0; i < iterations; i++) {
+            connection.setAutoCommit(false);
+            try {
+                long start = System.nanoTime();
+                int deleted = delete.execute(connection, spentOutpoints);
+                millis[i] = (System.nanoTime() - start) / 1e6d;
+                if(deleted != spentOutpoints.size()) {
+                    throw new IllegalStateException("Expected to delete " + spentOutpoints.size() + " outputs, deleted " + deleted);
+                }
+            } finally {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        }
+
+        Arrays.sort(millis);
+        return millis[iterations / 2];
+    }
+
+    /**
+     * The previous approach, with one parameterised delete per outpoint and per transaction sent as a batch.
+     */
+    private static int deleteBatched(Connection connection, Set<HashIndex> spentOutpoints) throws SQLException {
+        int count = 0;
+        Set<Sha256Hash> spentTxids = new HashSet<>();
+        try(PreparedStatement statement = connection.prepareStatement("DELETE FROM " + Index.UTXO_OUTPUT_TABLE + " WHERE txid = ? AND output_index = ?")) {
+            for(HashIndex outpoint : spentOutpoints) {
+                statement.setBytes(1, outpoint.getHash().getBytes());
+                statement.setInt(2, (int)outpoint.getIndex());
+                statement.addBatch();
+                spentTxids.add(outpoint.getHash());
+            }
+
+            for(int r : statement.executeBatch()) {
+                if(r > 0) count += r;
+            }
+        }
+
+        try(PreparedStatement statement = connection.prepareStatement("DELETE FROM " + Index.UTXO_TX_TABLE + " WHERE txid = ? AND NOT EXISTS (SELECT 1 FROM " +
+                Index.UTXO_OUTPUT_TABLE + " o WHERE o.txid = " + Index.UTXO_TX_TABLE + ".txid)")) {
+            for(Sha256Hash txid : spentTxids) {
+                statement.setBytes(1, txid.getBytes());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+
+        return count;
+    }
+
+    private interface Delete {
+        int execute(Connection connection, Set<HashIndex> spentOutpoints) throws SQLException;
+    }
+
+    public static class Args {
+        @Parameter(names = { "--transactions" }, description = "Number of transactions in the generated utxo tables")
+        public int transactions = 1_000_000;
+
+        @Parameter(names = { "--outputs" }, description = "Number of outputs per transaction")
+        public int outputs = 2;
+
+        @Parameter(names = { "--sizes" }, description = "Numbers of outpoints to delete, comma separated")
+        public List<Integer> sizes = List.of(1_000, 10_000, 100_000);
+
+        @Parameter(names = { "--iterations" }, description = "Number of times each delete is timed, reporting the median")
+        public int iterations = 5;
+
+        @Parameter(names = { "--seed" }, description = "Random seed")
+        public long seed = 1L;
+
+        @Parameter(names = { "--help" }, description = "Show usage", help = true)
+        public boolean help;
+    }
+}
@@ -0,0 +1,158 @@
+package com.sparrowwallet.frigate.bench;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.sparrowwallet.drongo.Network;
+import com.sparrowwallet.frigate.Frigate;
+import com.sparrowwallet.frigate.bitcoind.BitcoindClient;
+import com.sparrowwallet.frigate.index.Index;
+import com.sparrowwallet.frigate.index.IndexMode;
+import com.sparrowwallet.frigate.io.Config;
+import com.sparrowwallet.frigate.io.CoreAuthType;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Map;
+
+/**
+ * Drives BitcoindClient and Index against an in-process {@link MockBitcoind}, indexing a generated chain from height 1 to the tip
+ * into a fresh database, and reports blocks and transactions per second, RPC calls per block and allocation rate.
+ * Allocation is reported both for the indexing thread alone and for the whole process, which includes the mock server.
+ */
+public class IngestBenchmark {
+    public static void main(String[] argv) throws Exception {
+        Args args = new Args();
+        JCommander jCommander = JCommander.newBuilder().addObject(args).programName("frigate-ingest-benchmark").build();
+        jCommander.parse(argv);
+        if(args.help) {
+            jCommander.usage();
+            System.exit(0);
+        }
+
+        File home = Files.createTempDirectory("frigate-ingest").toFile();
+        System.setProperty(Frigate.APP_HOME_PROPERTY, home.getAbsolutePath());
+        Network.set(Network.REGTEST);
+
+        System.out.println("Generating " + args.blocks + " blocks of " + args.txs + " transactions...");
+        MockChain chain = new MockChain(args.seed, args.txs, args.outputs, args.spendDepth, false);
+        chain.mine(args.blocks);
+
+        MockBitcoind mockBitcoind = new MockBitcoind(chain, 0, args.latency);
+        mockBitcoind.start();
+
+        Config config = Config.get();
+        config.getCore().setServer("http://127.0.0.1:" + mockBitcoind.getPort());
+        config.getCore().setAuthType(CoreAuthType.USERPASS.name());
+        config.getCore().setAuth(MockBitcoind.RPC_USER + ":" + MockBitcoind.RPC_PASSWORD);
+        config.getIndex().setMode(args.mode);
+        config.getIndex().setCacheSize(args.cacheSize);
+        config.getIndex().setTweakThreads(args.tweakThreads);
+        config.getScan().setComputeBackend("CPU");
+
+        Index blocksIndex = new Index(1, false, config.getScan().getBatchSize(), args.mode);
+        Index mempoolIndex = new Index(0, true, config.getScan().getBatchSize(), args.mode);
+        BitcoindClient bitcoindClient = new BitcoindClient(blocksIndex, mempoolIndex);
+
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long gcCountBefore = getGcCount();
+        long gcTimeBefore = getGcTime();
+        long threadAllocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+        long totalAllocatedBefore = threadMXBean.getTotalThreadAllocatedBytes();
+        mockBitcoind.resetCallCounts();
+
+        long start = System.nanoTime();
+        try {
+            bitcoindClient.initialize();
+        } finally {
+            bitcoindClient.stop();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9d;
+
+        long threadAllocated = threadMXBean.getCurrentThreadAllocatedBytes() - threadAllocatedBefore;
+        long totalAllocated = threadMXBean.getTotalThreadAllocatedBytes() - totalAllocatedBefore;
+        Map<String, Long> callCounts = mockBitcoind.getCallCounts();
+        long totalCalls = callCounts.values().stream().mapToLong(Long::longValue).sum();
+        long txs = (long)args.blocks * (args.txs + 1);
+
+        System.out.println();
+        System.out.printf("Mode:                %s%n", args.mode);
+        System.out.printf("Tweak threads:       %d%n", config.getIndex().getTweakThreadCount());
+        System.out.printf("Blocks indexed:      %d (%d txs, %d ms RPC latency)%n", args.blocks, txs, args.latency);
+        System.out.printf("Elapsed:             %.2f s%n", seconds);
+        System.out.printf("Blocks/s:            %.1f%n", args.blocks / seconds);
+        System.out.printf("Txs/s:               %.0f%n", txs / seconds);
+        System.out.printf("RPC calls/block:     %.2f%n", (double)totalCalls / args.blocks);
+        for(Map.Entry<String, Long> entry : callCounts.entrySet()) {
+            System.out.printf("  %-18s %.2f%n", entry.getKey(), (double)entry.getValue() / args.blocks);
+        }
+        System.out.printf("Allocated/block:     %s (indexing thread), %s (process)%n", formatBytes(threadAllocated / args.blocks), formatBytes(totalAllocated / args.blocks));
+        System.out.printf("Allocation rate:     %s/s (indexing thread), %s/s (process)%n", formatBytes((long)(threadAllocated / seconds)), formatBytes((long)(totalAllocated / seconds)));
+        System.out.printf("GC:                  %d collections, %d ms%n", getGcCount() - gcCountBefore, getGcTime() - gcTimeBefore);
+
+        blocksIndex.close();
+        mempoolIndex.close();
+        mockBitcoind.stop();
+        deleteRecursively(home);
+        System.exit(0);
+    }
+
+    private static long getGcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).filter(count -> count > 0).sum();
+    }
+
+    private static long getGcTime() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).filter(time -> time > 0).sum();
+    }
+
+    private static String formatBytes(long bytes) {
+        if(bytes >= 1024 * 1024) {
+            return String.format("%.1f MiB", bytes / (1024d * 1024d));
+        }
+        return String.format("%.1f KiB", bytes / 1024d);
+    }
+
+    private static void deleteRecursively(File file) throws IOException {
+        File[] children = file.listFiles();
+        if(children != null) {
+            for(File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        Files.deleteIfExists(file.toPath());
+    }
+
+    public static class Args {
+        @Parameter(names = { "--mode" }, description = "Index mode (FULL or UTXO_ONLY)")
+        public IndexMode mode = IndexMode.FULL;
+
+        @Parameter(names = { "--blocks" }, description = "Number of blocks to index")
+        public int blocks = 500;
+
+        @Parameter(names = { "--txs" }, description = "Number of non-coinbase transactions per block")
+        public int txs = 200;
+
+        @Parameter(names = { "--outputs" }, description = "Number of taproot outputs per transaction")
+        public int outputs = 2;
+
+        @Parameter(names = { "--spendDepth" }, description = "Age in blocks of the output spent by each transaction's second input")
+        public int spendDepth = 100;
+
+        @Parameter(names = { "--latency" }, description = "Delay added to every RPC call in milliseconds")
+        public long latency = 0;
+
+        @Parameter(names = { "--cacheSize" }, description = "Size of the scriptPubKey cache (index cacheSize setting)")
+        public String cacheSize = "1M";
+
+        @Parameter(names = { "--tweakThreads" }, description = "Number of threads computing tweaks (index tweakThreads setting, default: number of CPU cores)")
+        public Integer tweakThreads;
+
+        @Parameter(names = { "--seed" }, description = "Random seed")
+        public long seed = 1L;
+
+        @Parameter(names = { "--help" }, description = "Show usage", help = true)
+        public boolean help;
+    }
+}
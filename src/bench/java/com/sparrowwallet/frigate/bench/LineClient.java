@@ -0,0 +1,77 @@
+package com.sparrowwallet.frigate.bench;
+
+import com.google.common.net.HostAndPort;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A minimal newline delimited JSON-RPC client for Electrum connections. Notifications received while waiting for a response are
+ * queued and returned by later calls to readNotification.
+ */
+class LineClient implements Closeable {
+    private static final Gson GSON = new Gson();
+
+    private final Socket socket;
+    private final BufferedReader reader;
+    private final Writer writer;
+    private final Deque<JsonObject> pendingNotifications = new ArrayDeque<>();
+    private long nextId = 1;
+
+    public LineClient(HostAndPort server, int timeoutSeconds) throws IOException {
+        this.socket = new Socket(server.getHost(), server.getPort());
+        this.socket.setSoTimeout(timeoutSeconds * 1000);
+        this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    public JsonObject request(String method, Object params) throws IOException {
+        long id = nextId++;
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("jsonrpc", "2.0");
+        request.put("method", method);
+        request.put("params", params);
+        request.put("id", id);
+        writer.write(GSON.toJson(request));
+        writer.write("\n");
+        writer.flush();
+
+        while(true) {
+            JsonObject message = readMessage();
+            if(message.has("id") && !message.get("id").isJsonNull() && message.get("id").getAsLong() == id) {
+                return message;
+            } else if(message.has("method")) {
+                pendingNotifications.add(message);
+            }
+        }
+    }
+
+    public JsonObject readNotification(String method) throws IOException {
+        while(true) {
+            JsonObject message = pendingNotifications.isEmpty() ? readMessage() : pendingNotifications.poll();
+            if(message.has("method") && method.equals(message.get("method").getAsString())) {
+                return message;
+            }
+        }
+    }
+
+    private JsonObject readMessage() throws IOException {
+        String line = reader.readLine();
+        if(line == null) {
+            throw new EOFException("Connection closed by server");
+        }
+        return GSON.fromJson(line, JsonObject.class);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
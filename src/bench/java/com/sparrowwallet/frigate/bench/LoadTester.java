@@ -0,0 +1,236 @@
+package com.sparrowwallet.frigate.bench;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.google.common.net.HostAndPort;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.sparrowwallet.frigate.electrum.ElectrumServerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens a number of concurrent Electrum connections against a server serving a {@link TweakDbGenerator} database, subscribes
+ * with a weighted mix of scan ranges, checks that exactly the planted transactions are returned, and reports latency percentiles
+ * and scan throughput.
+ */
+public class LoadTester {
+    private static final Logger log = LoggerFactory.getLogger(LoadTester.class);
+    private static final String SUBSCRIBE_METHOD = "blockchain.silentpayments.subscribe";
+    private static final String UNSUBSCRIBE_METHOD = "blockchain.silentpayments.unsubscribe";
+
+    private final HostAndPort server;
+    private final SyntheticManifest manifest;
+    private final int clients;
+    private final int scansPerClient;
+    private final NavigableMap<Double, Integer> rangeMix;
+    private final long seed;
+    private final int timeoutSeconds;
+
+    public LoadTester(HostAndPort server, SyntheticManifest manifest, int clients, int scansPerClient, String rangeMix, long seed, int timeoutSeconds) {
+        this.server = server;
+        this.manifest = manifest;
+        this.clients = clients;
+        this.scansPerClient = scansPerClient;
+        this.rangeMix = parseRangeMix(rangeMix, manifest.getBlocks());
+        this.seed = seed;
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    public List<ScanResult> run() throws InterruptedException {
+        List<ScanResult> results = new ArrayList<>();
+        long start = System.nanoTime();
+
+        try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<List<ScanResult>>> futures = new ArrayList<>();
+            for(int i = 0; i < clients; i++) {
+                Random random = new Random(seed + i);
+                futures.add(executor.submit(() -> runClient(random)));
+            }
+
+            for(Future<List<ScanResult>> future : futures) {
+                try {
+                    results.addAll(future.get());
+                } catch(Exception e) {
+                    log.error("Client failed", e);
+                }
+            }
+        }
+
+        printReport(results, System.nanoTime() - start);
+        return results;
+    }
+
+    private List<ScanResult> runClient(Random random) throws IOException {
+        List<ScanResult> results = new ArrayList<>();
+        try(LineClient client = new LineClient(server, timeoutSeconds)) {
+            client.request("server.version", List.of("frigate-loadtest", ElectrumServerService.MIN_VERSION.get()));
+
+            for(int i = 0; i < scansPerClient; i++) {
+                int blocks = rangeMix.ceilingEntry(random.nextDouble()).getValue();
+                results.add(scan(client, blocks));
+            }
+        }
+
+        return results;
+    }
+
+    private ScanResult scan(LineClient client, int blocks) throws IOException {
+        int endHeight = manifest.endHeight();
+        int startHeight = endHeight - blocks + 1;
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("scan_private_key", manifest.scanPrivateKey());
+        params.put("spend_public_key", manifest.spendPublicKey());
+        params.put("start", startHeight + "-" + endHeight);
+
+        Set<String> found = new HashSet<>();
+        long start = System.nanoTime();
+        JsonObject response = client.request(SUBSCRIBE_METHOD, params);
+        if(response.has("error") && !response.get("error").isJsonNull()) {
+            return new ScanResult(blocks, 0, System.nanoTime() - start, 0, 0, 0, response.get("error").toString());
+        }
+
+        while(true) {
+            JsonObject notification = client.readNotification(SUBSCRIBE_METHOD);
+            JsonObject result = notification.getAsJsonObject("params");
+            JsonArray history = result.getAsJsonArray("history");
+            if(history != null) {
+                for(JsonElement entry : history) {
+                    found.add(entry.getAsJsonObject().get("tx_hash").getAsString());
+                }
+            }
+            if(result.get("progress").getAsDouble() >= 1.0d) {
+                break;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Map<String, Object> unsubscribeParams = new LinkedHashMap<>(params);
+        unsubscribeParams.remove("start");
+        client.request(UNSUBSCRIBE_METHOD, unsubscribeParams);
+
+        Set<String> expected = new HashSet<>();
+        manifest.getPlantedInRange(startHeight, endHeight).forEach(tx -> expected.add(tx.txid()));
+        int matched = (int)expected.stream().filter(found::contains).count();
+        return new ScanResult(blocks, manifest.getRowsInRange(startHeight, endHeight), elapsed, expected.size(), matched, found.size() - matched, null);
+    }
+
+    private void printReport(List<ScanResult> results, long wallNanos) {
+        System.out.printf("%-8s %6s %10s %10s %10s %10s %14s %9s%n", "Blocks", "Scans", "p50", "p90", "p99", "max", "Tx/sec (scan)", "Planted");
+        Map<Integer, List<ScanResult>> byBlocks = new TreeMap<>();
+        for(ScanResult result : results) {
+            byBlocks.computeIfAbsent(result.blocks(), k -> new ArrayList<>()).add(result);
+        }
+
+        for(Map.Entry<Integer, List<ScanResult>> entry : byBlocks.entrySet()) {
+            printRow(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        printRow("all", results);
+
+        long rows = results.stream().filter(r -> r.error() == null).mapToLong(ScanResult::rows).sum();
+        long errors = results.stream().filter(r -> r.error() != null).count();
+        long missing = results.stream().mapToLong(r -> r.expected() - r.found()).sum();
+        long unexpected = results.stream().mapToLong(ScanResult::unexpected).sum();
+        System.out.printf("%nClients: %d, scans: %d, errors: %d, wall time: %dms, aggregate tx/sec: %,d%n", clients, results.size(), errors,
+                TimeUnit.NANOSECONDS.toMillis(wallNanos), wallNanos > 0 ? rows * 1_000_000_000L / wallNanos : 0);
+        System.out.printf("Planted matches missing: %d, unexpected results: %d%n", missing, unexpected);
+    }
+
+    private static void printRow(String label, List<ScanResult> results) {
+        long[] latencies = results.stream().filter(r -> r.error() == null).mapToLong(ScanResult::elapsedNanos).sorted().toArray();
+        if(latencies.length == 0) {
+            System.out.printf("%-8s %6d%n", label, results.size());
+            return;
+        }
+
+        long rows = results.stream().filter(r -> r.error() == null).mapToLong(ScanResult::rows).sum();
+        long nanos = Arrays.stream(latencies).sum();
+        int expected = results.stream().mapToInt(ScanResult::expected).sum();
+        int found = results.stream().mapToInt(ScanResult::found).sum();
+        System.out.printf("%-8s %6d %10s %10s %10s %10s %,14d %9s%n", label, results.size(), formatMillis(percentile(latencies, 50)), formatMillis(percentile(latencies, 90)),
+                formatMillis(percentile(latencies, 99)), formatMillis(latencies[latencies.length - 1]), nanos > 0 ? rows * 1_000_000_000L / nanos : 0, found + "/" + expected);
+    }
+
+    static long percentile(long[] sorted, int percentile) {
+        int rank = (int)Math.ceil(percentile / 100.0d * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format("%.1fms", nanos / 1_000_000.0d);
+    }
+
+    private static NavigableMap<Double, Integer> parseRangeMix(String rangeMix, int maxBlocks) {
+        Map<Integer, Double> weights = new LinkedHashMap<>();
+        for(String part : rangeMix.split(",")) {
+            String[] blocksWeight = part.trim().split(":");
+            int blocks = Math.min(Integer.parseInt(blocksWeight[0]), maxBlocks);
+            double weight = blocksWeight.length > 1 ? Double.parseDouble(blocksWeight[1]) : 1.0d;
+            weights.merge(blocks, weight, Double::sum);
+        }
+
+        double total = weights.values().stream().mapToDouble(Double::doubleValue).sum();
+        NavigableMap<Double, Integer> cumulative = new TreeMap<>();
+        double sum = 0.0d;
+        for(Map.Entry<Integer, Double> entry : weights.entrySet()) {
+            sum += entry.getValue() / total;
+            cumulative.put(sum, entry.getKey());
+        }
+        cumulative.put(1.0d, cumulative.lastEntry().getValue());
+
+        return cumulative;
+    }
+
+    public static void main(String[] argv) throws Exception {
+        Args args = new Args();
+        JCommander jCommander = JCommander.newBuilder().addObject(args).programName("frigate-loadtest").build();
+        jCommander.parse(argv);
+        if(args.help) {
+            jCommander.usage();
+            System.exit(0);
+        }
+
+        SyntheticManifest manifest = SyntheticManifest.read(new File(args.manifest));
+        HostAndPort server = HostAndPort.fromString(args.host).withDefaultPort(57001);
+        List<ScanResult> results = new LoadTester(server, manifest, args.clients, args.scans, args.mix, args.seed, args.timeout).run();
+
+        boolean failed = results.stream().anyMatch(r -> r.error() != null || r.found() != r.expected());
+        System.exit(failed ? 1 : 0);
+    }
+
+    public record ScanResult(int blocks, long rows, long elapsedNanos, int expected, int found, int unexpected, String error) {}
+
+    public static class Args {
+        @Parameter(names = { "--host", "-h" }, description = "Electrum server host and port")
+        public String host = "127.0.0.1:57001";
+
+        @Parameter(names = { "--manifest", "-m" }, description = "Manifest file written by the generator", required = true)
+        public String manifest;
+
+        @Parameter(names = { "--clients", "-c" }, description = "Number of concurrent client connections")
+        public int clients = 4;
+
+        @Parameter(names = { "--scans", "-s" }, description = "Number of scans per client")
+        public int scans = 10;
+
+        @Parameter(names = { "--mix" }, description = "Weighted mix of scan ranges in blocks, as blocks:weight pairs")
+        public String mix = "12:4,144:4,1008:2,4320:1";
+
+        @Parameter(names = { "--seed" }, description = "Random seed")
+        public long seed = 1L;
+
+        @Parameter(names = { "--timeout" }, description = "Socket read timeout in seconds")
+        public int timeout = 600;
+
+        @Parameter(names = { "--help" }, description = "Show usage", help = true)
+        public boolean help;
+    }
+}
@@ -0,0 +1,441 @@
+package com.sparrowwallet.frigate.bench;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.google.gson.*;
+import com.sparrowwallet.drongo.Utils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local stand-in for bitcoind that serves the JSON-RPC methods used by BitcoindClient over a {@link MockChain}.
+ * Every call can be delayed by a fixed latency to simulate a remote node, calls are counted per method, and blocks can be mined
+ * and reorged either on a schedule or with the non-standard generate and mockreorg methods.
+ */
+public class MockBitcoind {
+    private static final Logger log = LoggerFactory.getLogger(MockBitcoind.class);
+
+    public static final String RPC_USER = "frigate";
+    public static final String RPC_PASSWORD = "frigate";
+    private static final int RPC_INVALID_PARAMETER = -8;
+    private static final int RPC_INVALID_ADDRESS_OR_KEY = -5;
+    private static final int RPC_METHOD_NOT_FOUND = -32601;
+    private static final int RPC_PARSE_ERROR = -32700;
+
+    private final MockChain chain;
+    private final int port;
+    private final long latencyMillis;
+    private final long startTime = System.currentTimeMillis();
+    private final Map<String, AtomicLong> callCounts = new ConcurrentHashMap<>();
+    private final Gson gson = new GsonBuilder().serializeNulls().create();
+
+    private HttpServer httpServer;
+    private ScheduledExecutorService miner;
+
+    public MockBitcoind(MockChain chain, int port, long latencyMillis) {
+        this.chain = chain;
+        this.port = port;
+        this.latencyMillis = latencyMillis;
+    }
+
+    public void start() throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 128);
+        httpServer.createContext("/", this::handle);
+        httpServer.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        httpServer.start();
+        log.info("Mock bitcoind listening on 127.0.0.1:" + getPort() + " at height " + chain.getHeight());
+    }
+
+    /**
+     * Mines a block every mineIntervalMillis, and replaces the last reorgDepth blocks every reorgEvery blocks mined if reorgEvery is greater than zero.
+     */
+    public void startMining(long mineIntervalMillis, int reorgEvery, int reorgDepth) {
+        AtomicLong mined = new AtomicLong();
+        miner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "MockBitcoindMiner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        miner.scheduleAtFixedRate(() -> {
+            chain.mine(1);
+            if(reorgEvery > 0 && mined.incrementAndGet() % reorgEvery == 0) {
+                log.info("Reorging last " + reorgDepth + " blocks, new tip " + chain.reorg(reorgDepth));
+            } else {
+                log.info("Mined block " + chain.getHeight());
+            }
+        }, mineIntervalMillis, mineIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if(miner != null) {
+            miner.shutdownNow();
+        }
+        if(httpServer != null) {
+            httpServer.stop(0);
+        }
+    }
+
+    public int getPort() {
+        return httpServer == null ? port : httpServer.getAddress().getPort();
+    }
+
+    public MockChain getChain() {
+        return chain;
+    }
+
+    public Map<String, Long> getCallCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        callCounts.forEach((method, count) -> counts.put(method, count.get()));
+        return counts;
+    }
+
+    public void resetCallCounts() {
+        callCounts.clear();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String body;
+        try(InputStream inputStream = exchange.getRequestBody()) {
+            body = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        JsonElement id = JsonNull.INSTANCE;
+        Map<String, Object> response = new LinkedHashMap<>();
+        int status = 200;
+        try {
+            JsonObject request = JsonParser.parseString(body).getAsJsonObject();
+            id = request.has("id") ? request.get("id") : JsonNull.INSTANCE;
+            String method = request.get("method").getAsString();
+            JsonArray params = request.has("params") && request.get("params").isJsonArray() ? request.getAsJsonArray("params") : new JsonArray();
+
+            callCounts.computeIfAbsent(method, _ -> new AtomicLong()).incrementAndGet();
+            if(latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+
+            response.put("result", call(method, params));
+            response.put("error", null);
+        } catch(RpcException e) {
+            status = 500;
+            response.put("result", null);
+            response.put("error", Map.of("code", e.code, "message", e.getMessage()));
+        } catch(JsonParseException | IllegalStateException | NullPointerException e) {
+            status = 500;
+            response.put("result", null);
+            response.put("error", Map.of("code", RPC_PARSE_ERROR, "message", "Parse error"));
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.close();
+            return;
+        }
+        response.put("id", id);
+
+        byte[] bytes = gson.toJson(response).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try(OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+
+    private Object call(String method, JsonArray params) throws RpcException {
+        return switch(method) {
+            case "uptime" -> (System.currentTimeMillis() - startTime) / 1000;
+            case "getnetworkinfo" -> getNetworkInfo();
+            case "getblockchaininfo" -> getBlockchainInfo();
+            case "getblockhash" -> getBlockOrThrow(getInt(params, 0, -1)).hash();
+            case "getblockheader" -> getBlockHeader(getBlockOrThrow(getString(params, 0)), getBoolean(params, 1, true));
+            case "getblock" -> getBlock(getBlockOrThrow(getString(params, 0)), getInt(params, 1, 1));
+            case "getrawtransaction" -> getRawTransaction(getString(params, 0), getBoolean(params, 1, false));
+            case "getrawmempool" -> getRawMempool(getBoolean(params, 0, false));
+            case "getmempoolinfo" -> Map.of("size", chain.getMempool().size(), "mempoolminfee", 0.00001, "minrelaytxfee", 0.00001, "incrementalrelayfee", 0.00001);
+            case "estimatesmartfee" -> Map.of("feerate", 0.00001, "blocks", getInt(params, 0, 1));
+            case "getblockstats" -> getBlockStats(getBlockOrThrow(getInt(params, 0, -1)));
+            case "getzmqnotifications" -> Collections.emptyList();
+            case "generate" -> chain.mine(getInt(params, 0, 1));
+            case "mockreorg" -> chain.reorg(getInt(params, 0, 1));
+            default -> throw new RpcException(RPC_METHOD_NOT_FOUND, "Method not found");
+        };
+    }
+
+    private Map<String, Object> getNetworkInfo() {
+        Map<String, Object> networkInfo = new LinkedHashMap<>();
+        networkInfo.put("version", 290000);
+        networkInfo.put("subversion", "/Satoshi:29.0.0(mock)/");
+        networkInfo.put("networkactive", true);
+        networkInfo.put("connections", 0);
+        return networkInfo;
+    }
+
+    private Map<String, Object> getBlockchainInfo() {
+        MockChain.MockBlock tip = chain.getTip();
+        Map<String, Object> blockchainInfo = new LinkedHashMap<>();
+        blockchainInfo.put("chain", "regtest");
+        blockchainInfo.put("blocks", tip.height());
+        blockchainInfo.put("headers", tip.height());
+        blockchainInfo.put("bestblockhash", tip.hash());
+        blockchainInfo.put("time", tip.time());
+        blockchainInfo.put("mediantime", tip.time());
+        blockchainInfo.put("verificationprogress", 1.0d);
+        blockchainInfo.put("initialblockdownload", false);
+        blockchainInfo.put("pruned", false);
+        return blockchainInfo;
+    }
+
+    private Object getBlockHeader(MockChain.MockBlock block, boolean verbose) {
+        if(!verbose) {
+            return Utils.bytesToHex(block.header());
+        }
+
+        return getHeaderFields(block);
+    }
+
+    private Map<String, Object> getHeaderFields(MockChain.MockBlock block) {
+        Map<String, Object> header = new LinkedHashMap<>();
+        header.put("hash", block.hash());
+        header.put("confirmations", chain.getHeight() - block.height() + 1);
+        header.put("height", block.height());
+        header.put("version", 0x20000000);
+        header.put("versionHex", "20000000");
+        header.put("merkleroot", block.merkleRoot());
+        header.put("time", block.time());
+        header.put("mediantime", block.time());
+        header.put("nonce", block.nonce());
+        header.put("bits", "207fffff");
+        header.put("difficulty", 4.656542373906925E-10);
+        header.put("chainwork", String.format("%064x", (block.height() + 1) * 2L));
+        header.put("nTx", block.txs().size());
+        if(block.previousHash() != null) {
+            header.put("previousblockhash", block.previousHash());
+        }
+        MockChain.MockBlock next = chain.getBlock(block.height() + 1);
+        if(next != null) {
+            header.put("nextblockhash", next.hash());
+        }
+        return header;
+    }
+
+    private Object getBlock(MockChain.MockBlock block, int verbosity) {
+        if(verbosity == 0) {
+            return Utils.bytesToHex(block.serialize());
+        }
+
+        Map<String, Object> result = getHeaderFields(block);
+        int size = block.serialize().length;
+        result.put("size", size);
+        result.put("weight", size * 4);
+        if(verbosity == 1) {
+            result.put("tx", block.txs().stream().map(MockChain.MockTx::txid).toList());
+        } else {
+            result.put("tx", block.txs().stream().map(tx -> getTransactionFields(tx, verbosity >= 3)).toList());
+        }
+        return result;
+    }
+
+    private Object getRawTransaction(String txid, boolean verbose) throws RpcException {
+        MockChain.MockTx tx = chain.getTransaction(txid);
+        if(tx == null || (tx.height() > chain.getHeight() && !chain.isInMempool(tx))) {
+            throw new RpcException(RPC_INVALID_ADDRESS_OR_KEY, "No such mempool or blockchain transaction. Use gettransaction for wallet transactions.");
+        }
+
+        if(!verbose) {
+            return Utils.bytesToHex(tx.raw());
+        }
+
+        Map<String, Object> result = getTransactionFields(tx, false);
+        result.put("hex", Utils.bytesToHex(tx.raw()));
+        MockChain.MockBlock block = chain.getBlock(tx.height());
+        if(block != null && tx.height() <= chain.getHeight()) {
+            result.put("blockhash", block.hash());
+            result.put("confirmations", chain.getHeight() - tx.height() + 1);
+            result.put("time", block.time());
+            result.put("blocktime", block.time());
+        }
+        return result;
+    }
+
+    private Map<String, Object> getTransactionFields(MockChain.MockTx tx, boolean includePrevouts) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("txid", tx.txid());
+        result.put("size", tx.raw().length);
+        result.put("version", 2);
+        result.put("locktime", 0);
+
+        List<Map<String, Object>> vin = new ArrayList<>();
+        if(tx.isCoinbase()) {
+            vin.add(Map.of("coinbase", "", "sequence", 0xffffffffL));
+        }
+        for(MockChain.Prevout prevout : tx.prevouts()) {
+            Map<String, Object> input = new LinkedHashMap<>();
+            input.put("txid", prevout.txid());
+            input.put("vout", prevout.vout());
+            input.put("scriptSig", Map.of("asm", "", "hex", ""));
+            input.put("sequence", 0xfffffffdL);
+            if(includePrevouts) {
+                input.put("prevout", Map.of("generated", false, "height", prevout.height(), "value", toBtc(prevout.value()),
+                        "scriptPubKey", getScriptPubKey(prevout.script())));
+            }
+            vin.add(input);
+        }
+        result.put("vin", vin);
+
+        List<Map<String, Object>> vout = new ArrayList<>();
+        for(int i = 0; i < tx.scripts().length; i++) {
+            vout.add(Map.of("value", toBtc(tx.values()[i]), "n", i, "scriptPubKey", getScriptPubKey(tx.scripts()[i])));
+        }
+        result.put("vout", vout);
+        return result;
+    }
+
+    private Map<String, Object> getScriptPubKey(byte[] script) {
+        String type = script[0] == 0x51 ? "witness_v1_taproot" : "witness_v0_keyhash";
+        return Map.of("hex", Utils.bytesToHex(script), "type", type);
+    }
+
+    private Object getRawMempool(boolean verbose) {
+        List<MockChain.MockTx> mempool = chain.getMempool();
+        if(!verbose) {
+            return mempool.stream().map(MockChain.MockTx::txid).toList();
+        }
+
+        Map<String, Object> entries = new LinkedHashMap<>();
+        for(MockChain.MockTx tx : mempool) {
+            int vsize = tx.raw().length;
+            entries.put(tx.txid(), Map.of("vsize", vsize, "ancestorsize", vsize, "bip125-replaceable", false,
+                    "fees", Map.of("base", toBtc(vsize * 2L), "ancestor", toBtc(vsize * 2L))));
+        }
+        return entries;
+    }
+
+    private Map<String, Object> getBlockStats(MockChain.MockBlock block) {
+        Map<String, Object> blockStats = new LinkedHashMap<>();
+        blockStats.put("height", block.height());
+        blockStats.put("blockhash", block.hash());
+        blockStats.put("feerate_percentiles", new double[] { 1, 2, 2, 3, 5 });
+        blockStats.put("total_weight", block.serialize().length * 4);
+        blockStats.put("txs", block.txs().size());
+        blockStats.put("time", block.time());
+        return blockStats;
+    }
+
+    private MockChain.MockBlock getBlockOrThrow(int height) throws RpcException {
+        MockChain.MockBlock block = chain.getBlock(height);
+        if(block == null) {
+            throw new RpcException(RPC_INVALID_PARAMETER, "Block height out of range");
+        }
+        return block;
+    }
+
+    private MockChain.MockBlock getBlockOrThrow(String hash) throws RpcException {
+        MockChain.MockBlock block = hash == null ? null : chain.getBlock(hash);
+        if(block == null) {
+            throw new RpcException(RPC_INVALID_ADDRESS_OR_KEY, "Block not found");
+        }
+        return block;
+    }
+
+    private static String getString(JsonArray params, int index) {
+        return params.size() > index && !params.get(index).isJsonNull() ? params.get(index).getAsString() : null;
+    }
+
+    private static int getInt(JsonArray params, int index, int defaultValue) {
+        return params.size() > index && !params.get(index).isJsonNull() ? params.get(index).getAsInt() : defaultValue;
+    }
+
+    private static boolean getBoolean(JsonArray params, int index, boolean defaultValue) {
+        if(params.size() <= index || params.get(index).isJsonNull()) {
+            return defaultValue;
+        }
+
+        JsonPrimitive param = params.get(index).getAsJsonPrimitive();
+        return param.isBoolean() ? param.getAsBoolean() : param.getAsInt() != 0;
+    }
+
+    private static double toBtc(long sats) {
+        return sats / 100_000_000d;
+    }
+
+    private static class RpcException extends Exception {
+        private final int code;
+
+        public RpcException(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    public static void main(String[] argv) throws Exception {
+        Args args = new Args();
+        JCommander jCommander = JCommander.newBuilder().addObject(args).programName("frigate-mock-bitcoind").build();
+        jCommander.parse(argv);
+        if(args.help) {
+            jCommander.usage();
+            System.exit(0);
+        }
+
+        MockChain chain = new MockChain(args.seed, args.txs, args.outputs, args.spendDepth, args.mempool);
+        chain.mine(args.blocks);
+
+        MockBitcoind mockBitcoind = new MockBitcoind(chain, args.port, args.latency);
+        mockBitcoind.start();
+        if(args.mineInterval > 0) {
+            mockBitcoind.startMining(args.mineInterval, args.reorgEvery, args.reorgDepth);
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(mockBitcoind::stop));
+        Thread.currentThread().join();
+    }
+
+    public static class Args {
+        @Parameter(names = { "--port" }, description = "Port to listen on for JSON-RPC")
+        public int port = 18443;
+
+        @Parameter(names = { "--blocks" }, description = "Number of blocks to generate on startup")
+        public int blocks = 1000;
+
+        @Parameter(names = { "--txs" }, description = "Number of non-coinbase transactions per block")
+        public int txs = 200;
+
+        @Parameter(names = { "--outputs" }, description = "Number of taproot outputs per transaction")
+        public int outputs = 2;
+
+        @Parameter(names = { "--spendDepth" }, description = "Age in blocks of the output spent by each transaction's second input")
+        public int spendDepth = 100;
+
+        @Parameter(names = { "--mempool" }, description = "Serve the next block's transactions as the mempool", arity = 1)
+        public boolean mempool = true;
+
+        @Parameter(names = { "--latency" }, description = "Delay added to every RPC call in milliseconds")
+        public long latency = 0;
+
+        @Parameter(names = { "--mineInterval" }, description = "Interval between mined blocks in milliseconds, 0 to disable")
+        public long mineInterval = 0;
+
+        @Parameter(names = { "--reorgEvery" }, description = "Replace the tip every N mined blocks, 0 to disable")
+        public int reorgEvery = 0;
+
+        @Parameter(names = { "--reorgDepth" }, description = "Number of blocks replaced by each reorg")
+        public int reorgDepth = 1;
+
+        @Parameter(names = { "--seed" }, description = "Random seed")
+        public long seed = 1L;
+
+        @Parameter(names = { "--help" }, description = "Show usage", help = true)
+        public boolean help;
+    }
+}
@@ -0,0 +1,399 @@
+package com.sparrowwallet.frigate.bench;
+
+import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.drongo.crypto.ECKey;
+import com.sparrowwallet.drongo.protocol.*;
+import com.sparrowwallet.drongo.silentpayments.SilentPaymentUtils;
+import com.sparrowwallet.frigate.index.Index;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * A deterministic, generated chain of taproot-heavy blocks. Every non-coinbase transaction spends two taproot key path outputs of
+ * earlier transactions and creates taproot outputs (and sometimes a P2WPKH output), so that each one is eligible for silent payments
+ * indexing. One input spends an output from the previous block, the other an output from spendDepth blocks back, so that the
+ * indexer's scriptPubKey cache and getrawtransaction path are both exercised.
+ * Block 0 contains funding transactions only and is not intended to be indexed.
+ */
+public class MockChain {
+    public static final long GENESIS_TIME = 1_700_000_000L;
+    private static final int BLOCK_VERSION = 0x20000000;
+    private static final long BITS = 0x207fffffL;
+    private static final long COINBASE_VALUE = 50 * 100_000_000L;
+    private static final long DUST_VALUE = 330L;
+    private static final int KEY_POOL_SIZE = 1024;
+
+    private final long seed;
+    private final int txsPerBlock;
+    private final int taprootOutputsPerTx;
+    private final int spendDepth;
+    private final boolean mempoolEnabled;
+    private final byte[][] keyPool;
+
+    private final List<MockBlock> blocks = new ArrayList<>();
+    private final Map<String, MockBlock> blocksByHash = new HashMap<>();
+    private final Map<String, MockTx> transactions = new HashMap<>();
+    private final List<Recipient> recipients = new ArrayList<>();
+    private MockBlock pending;
+    private int branch;
+
+    public MockChain(long seed, int txsPerBlock, int taprootOutputsPerTx, int spendDepth, boolean mempoolEnabled) {
+        if(txsPerBlock < 1 || taprootOutputsPerTx < 2 || spendDepth < 1) {
+            throw new IllegalArgumentException("Invalid chain parameters");
+        }
+
+        this.seed = seed;
+        this.txsPerBlock = txsPerBlock;
+        this.taprootOutputsPerTx = taprootOutputsPerTx;
+        this.spendDepth = spendDepth;
+        this.mempoolEnabled = mempoolEnabled;
+        this.keyPool = createKeyPool(seed);
+
+        append(generateBlock(0));
+        setPending(generateBlock(1));
+    }
+
+    public synchronized int getHeight() {
+        return blocks.size() - 1;
+    }
+
+    public synchronized MockBlock getTip() {
+        return blocks.getLast();
+    }
+
+    public synchronized MockBlock getBlock(int height) {
+        return height >= 0 && height < blocks.size() ? blocks.get(height) : null;
+    }
+
+    public synchronized MockBlock getBlock(String hash) {
+        return blocksByHash.get(hash);
+    }
+
+    public synchronized MockTx getTransaction(String txid) {
+        return transactions.get(txid);
+    }
+
+    public synchronized boolean isInMempool(MockTx tx) {
+        return mempoolEnabled && tx.height() == pending.height() && pending.txs().contains(tx);
+    }
+
+    public synchronized List<MockTx> getMempool() {
+        if(!mempoolEnabled) {
+            return Collections.emptyList();
+        }
+
+        return pending.txs().subList(1, pending.txs().size());
+    }
+
+    public synchronized List<String> mine(int count) {
+        List<String> hashes = new ArrayList<>();
+        for(int i = 0; i < count; i++) {
+            append(pending);
+            hashes.add(pending.hash());
+            setPending(generateBlock(blocks.size()));
+        }
+
+        return hashes;
+    }
+
+    /**
+     * Replaces the last depth blocks with blocks from a new branch of the same length.
+     */
+    public synchronized String reorg(int depth) {
+        depth = Math.min(depth, getHeight());
+        if(depth < 1) {
+            return getTip().hash();
+        }
+
+        removePending();
+        for(int i = 0; i < depth; i++) {
+            MockBlock removed = blocks.removeLast();
+            blocksByHash.remove(removed.hash());
+            removed.txs().forEach(tx -> transactions.remove(tx.txid()));
+        }
+
+        branch++;
+        setPending(generateBlock(blocks.size()));
+        mine(depth);
+        return getTip().hash();
+    }
+
+    private void append(MockBlock block) {
+        blocks.add(block);
+        blocksByHash.put(block.hash(), block);
+        block.txs().forEach(tx -> transactions.put(tx.txid(), tx));
+    }
+
+    /**
+     * Adds a silent payments recipient. From the next block generated, transaction index r + 1 of every block pays its first
+     * taproot output to the r-th recipient added.
+     */
+    public synchronized void addRecipient(ECKey scanKey, ECKey spendKey) {
+        if(recipients.size() >= txsPerBlock) {
+            throw new IllegalStateException("Cannot add more recipients than transactions per block");
+        }
+
+        recipients.add(new Recipient(scanKey, spendKey));
+        removePending();
+        setPending(generateBlock(blocks.size()));
+    }
+
+    public synchronized String getPaymentTxid(int height, int recipient) {
+        MockBlock block = getBlock(height);
+        return block == null || recipient >= recipients.size() ? null : block.txs().get(recipient + 1).txid();
+    }
+
+    private void setPending(MockBlock block) {
+        pending = block;
+        block.txs().forEach(tx -> transactions.put(tx.txid(), tx));
+    }
+
+    private void removePending() {
+        pending.txs().forEach(tx -> transactions.remove(tx.txid()));
+    }
+
+    private MockBlock generateBlock(int height) {
+        Random random = new Random(seed * 1_000_003L + height * 7_919L + branch);
+        long time = GENESIS_TIME + height * 600L;
+        List<MockTx> txs = new ArrayList<>(txsPerBlock + 1);
+        txs.add(createCoinbase(height, random));
+
+        for(int j = 0; j < txsPerBlock; j++) {
+            List<Prevout> prevouts = new ArrayList<>(2);
+            if(height == 0) {
+                byte[] fundingHash = sha256(("funding" + j).getBytes(StandardCharsets.UTF_8));
+                prevouts.add(new Prevout(Utils.bytesToHex(fundingHash), 0, -1, COINBASE_VALUE, createTaprootScript(keyPool[j % KEY_POOL_SIZE])));
+            } else {
+                prevouts.add(getPrevout(height - 1, j, 0));
+                prevouts.add(getPrevout(Math.max(0, height - spendDepth), j, 1));
+            }
+
+            List<byte[]> scripts = new ArrayList<>();
+            List<Long> values = new ArrayList<>();
+            for(int o = 0; o < taprootOutputsPerTx; o++) {
+                scripts.add(createTaprootScript(keyPool[random.nextInt(KEY_POOL_SIZE)]));
+                values.add(random.nextInt(10) == 0 ? DUST_VALUE + random.nextInt(600) : 10_000L + random.nextInt(990_000));
+            }
+            if(random.nextBoolean()) {
+                byte[] program = new byte[20];
+                random.nextBytes(program);
+                scripts.add(Utils.concat(new byte[] { 0x00, 0x14 }, program));
+                values.add(10_000L + random.nextInt(990_000));
+            }
+
+            long[] outputValues = values.stream().mapToLong(Long::longValue).toArray();
+            MockTx tx = createTransaction(height, prevouts, scripts, outputValues, random);
+            if(height > 0 && j < recipients.size()) {
+                scripts.set(0, createTaprootScript(getPaymentKey(tx, recipients.get(j)).getPubKeyXCoord()));
+                tx = createTransaction(height, prevouts, scripts, outputValues, random);
+            }
+            txs.add(tx);
+        }
+
+        String previousHash = height == 0 ? null : (height - 1 < blocks.size() ? blocks.get(height - 1).hash() : pending.hash());
+        return createBlock(height, previousHash, time, txs, random);
+    }
+
+    /**
+     * The tweak depends only on the inputs, so the output key for a recipient can be derived from a transaction with a placeholder output.
+     */
+    private static ECKey getPaymentKey(MockTx tx, Recipient recipient) {
+        Transaction transaction = new Transaction(tx.raw());
+        Map<HashIndex, Script> spentScriptPubKeys = new HashMap<>();
+        for(int i = 0; i < tx.prevouts().size(); i++) {
+            TransactionOutPoint outpoint = transaction.getInputs().get(i).getOutpoint();
+            spentScriptPubKeys.put(new HashIndex(outpoint.getHash(), outpoint.getIndex()), new Script(tx.prevouts().get(i).script()));
+        }
+
+        byte[] tweak = SilentPaymentUtils.getTweak(transaction, spentScriptPubKeys, false);
+        return Index.getOutputKey(SilentPaymentUtils.getSecp256k1PubKey(tweak), recipient.scanKey(), recipient.spendKey());
+    }
+
+    private Prevout getPrevout(int height, int txIndex, int outputIndex) {
+        MockTx tx = height < blocks.size() ? blocks.get(height).txs().get(txIndex + 1) : pending.txs().get(txIndex + 1);
+        return new Prevout(tx.txid(), outputIndex, height, tx.values()[outputIndex], tx.scripts()[outputIndex]);
+    }
+
+    private MockTx createCoinbase(int height, Random random) {
+        ByteArrayOutputStream scriptSig = new ByteArrayOutputStream();
+        scriptSig.write(0x03);
+        writeUint(scriptSig, height, 3);
+        scriptSig.write(0x04);
+        writeUint(scriptSig, branch, 4);
+
+        byte[] program = new byte[20];
+        random.nextBytes(program);
+        byte[] script = Utils.concat(new byte[] { 0x00, 0x14 }, program);
+
+        ByteArrayOutputStream tx = new ByteArrayOutputStream();
+        writeUint(tx, 2, 4);
+        writeVarInt(tx, 1);
+        tx.writeBytes(new byte[32]);
+        writeUint(tx, 0xffffffffL, 4);
+        writeVarInt(tx, scriptSig.size());
+        tx.writeBytes(scriptSig.toByteArray());
+        writeUint(tx, 0xffffffffL, 4);
+        writeVarInt(tx, 1);
+        writeUint(tx, COINBASE_VALUE, 8);
+        writeVarInt(tx, script.length);
+        tx.writeBytes(script);
+        writeUint(tx, 0, 4);
+
+        byte[] raw = tx.toByteArray();
+        return new MockTx(getTxid(raw), raw, height, Collections.emptyList(), new long[] { COINBASE_VALUE }, new byte[][] { script });
+    }
+
+    private MockTx createTransaction(int height, List<Prevout> prevouts, List<byte[]> scripts, long[] values, Random random) {
+        ByteArrayOutputStream inputs = new ByteArrayOutputStream();
+        writeVarInt(inputs, prevouts.size());
+        for(Prevout prevout : prevouts) {
+            inputs.writeBytes(Utils.reverseBytes(Utils.hexToBytes(prevout.txid())));
+            writeUint(inputs, prevout.vout(), 4);
+            writeVarInt(inputs, 0);
+            writeUint(inputs, 0xfffffffdL, 4);
+        }
+
+        ByteArrayOutputStream outputs = new ByteArrayOutputStream();
+        writeVarInt(outputs, scripts.size());
+        for(int i = 0; i < scripts.size(); i++) {
+            writeUint(outputs, values[i], 8);
+            writeVarInt(outputs, scripts.get(i).length);
+            outputs.writeBytes(scripts.get(i));
+        }
+
+        ByteArrayOutputStream witness = new ByteArrayOutputStream();
+        for(int i = 0; i < prevouts.size(); i++) {
+            byte[] signature = new byte[64];
+            random.nextBytes(signature);
+            writeVarInt(witness, 1);
+            writeVarInt(witness, signature.length);
+            witness.writeBytes(signature);
+        }
+
+        ByteArrayOutputStream stripped = new ByteArrayOutputStream();
+        writeUint(stripped, 2, 4);
+        stripped.writeBytes(inputs.toByteArray());
+        stripped.writeBytes(outputs.toByteArray());
+        writeUint(stripped, 0, 4);
+
+        ByteArrayOutputStream tx = new ByteArrayOutputStream();
+        writeUint(tx, 2, 4);
+        tx.write(0x00);
+        tx.write(0x01);
+        tx.writeBytes(inputs.toByteArray());
+        tx.writeBytes(outputs.toByteArray());
+        tx.writeBytes(witness.toByteArray());
+        writeUint(tx, 0, 4);
+
+        return new MockTx(getTxid(stripped.toByteArray()), tx.toByteArray(), height, prevouts, values, scripts.toArray(new byte[0][]));
+    }
+
+    private MockBlock createBlock(int height, String previousHash, long time, List<MockTx> txs, Random random) {
+        List<byte[]> hashes = new ArrayList<>();
+        for(MockTx tx : txs) {
+            hashes.add(Utils.reverseBytes(Utils.hexToBytes(tx.txid())));
+        }
+        while(hashes.size() > 1) {
+            List<byte[]> next = new ArrayList<>();
+            for(int i = 0; i < hashes.size(); i += 2) {
+                byte[] left = hashes.get(i);
+                byte[] right = i + 1 < hashes.size() ? hashes.get(i + 1) : left;
+                next.add(sha256(sha256(Utils.concat(left, right))));
+            }
+            hashes = next;
+        }
+        byte[] merkleRoot = hashes.getFirst();
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        writeUint(header, BLOCK_VERSION, 4);
+        header.writeBytes(previousHash == null ? new byte[32] : Utils.reverseBytes(Utils.hexToBytes(previousHash)));
+        header.writeBytes(merkleRoot);
+        writeUint(header, time, 4);
+        writeUint(header, BITS, 4);
+        writeUint(header, random.nextInt() & 0xffffffffL, 4);
+
+        byte[] headerBytes = header.toByteArray();
+        String hash = Utils.bytesToHex(Utils.reverseBytes(sha256(sha256(headerBytes))));
+        return new MockBlock(height, hash, previousHash, headerBytes, time, Utils.bytesToHex(Utils.reverseBytes(merkleRoot)), txs);
+    }
+
+    private static byte[][] createKeyPool(long seed) {
+        Random random = new Random(seed);
+        byte[][] keyPool = new byte[KEY_POOL_SIZE][];
+        byte[] privKey = new byte[32];
+        for(int i = 0; i < KEY_POOL_SIZE; i++) {
+            random.nextBytes(privKey);
+            privKey[0] &= 0x7f;
+            keyPool[i] = ECKey.fromPrivate(privKey).getPubKeyXCoord();
+        }
+
+        return keyPool;
+    }
+
+    public static byte[] createTaprootScript(byte[] xOnlyKey) {
+        return Utils.concat(new byte[] { 0x51, 0x20 }, xOnlyKey);
+    }
+
+    private static String getTxid(byte[] strippedTx) {
+        return Utils.bytesToHex(Utils.reverseBytes(sha256(sha256(strippedTx))));
+    }
+
+    static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void writeUint(ByteArrayOutputStream out, long value, int bytes) {
+        for(int i = 0; i < bytes; i++) {
+            out.write((int)(value >>> (8 * i)) & 0xff);
+        }
+    }
+
+    static void writeVarInt(ByteArrayOutputStream out, long value) {
+        if(value < 0xfd) {
+            out.write((int)value);
+        } else if(value <= 0xffff) {
+            out.write(0xfd);
+            writeUint(out, value, 2);
+        } else if(value <= 0xffffffffL) {
+            out.write(0xfe);
+            writeUint(out, value, 4);
+        } else {
+            out.write(0xff);
+            writeUint(out, value, 8);
+        }
+    }
+
+    private record Recipient(ECKey scanKey, ECKey spendKey) {}
+
+    public record Prevout(String txid, int vout, int height, long value, byte[] script) {}
+
+    public record MockTx(String txid, byte[] raw, int height, List<Prevout> prevouts, long[] values, byte[][] scripts) {
+        public boolean isCoinbase() {
+            return prevouts.isEmpty();
+        }
+    }
+
+    public record MockBlock(int height, String hash, String previousHash, byte[] header, long time, String merkleRoot, List<MockTx> txs) {
+        public byte[] serialize() {
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            block.writeBytes(header);
+            writeVarInt(block, txs.size());
+            for(MockTx tx : txs) {
+                block.writeBytes(tx.raw());
+            }
+            return block.toByteArray();
+        }
+
+        public long nonce() {
+            return (header[76] & 0xffL) | (header[77] & 0xffL) << 8 | (header[78] & 0xffL) << 16 | (header[79] & 0xffL) << 24;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.sparrowwallet.frigate.bench;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.google.common.net.HostAndPort;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.drongo.crypto.ECKey;
+import com.sparrowwallet.frigate.electrum.ElectrumServerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures the end-to-end latency from a block being mined to a subscribed wallet receiving the silent payments notification for it.
+ * A {@link MockBitcoind} is started with a payment to each of K clients planted in every new block, and a Frigate server connected
+ * to it is expected at the given Electrum address. Once the server has caught up, the clients subscribe from the next block and
+ * blocks are mined one at a time at random offsets from the server's poll interval, and the time until each client receives its
+ * payment is recorded. If the server's HTTP API is reachable, its own trace histograms are printed afterwards.
+ */
+public class NotificationLatencyBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(NotificationLatencyBenchmark.class);
+    private static final String SUBSCRIBE_METHOD = "blockchain.silentpayments.subscribe";
+
+    private final MockChain chain;
+    private final HostAndPort server;
+    private final int clients;
+    private final int blocks;
+    private final long maxIntervalMillis;
+    private final int timeoutSeconds;
+    private final Random random;
+    private final List<ECKey[]> clientKeys = new ArrayList<>();
+
+    public NotificationLatencyBenchmark(MockChain chain, HostAndPort server, int clients, int blocks, long maxIntervalMillis, int timeoutSeconds, long seed) {
+        this.chain = chain;
+        this.server = server;
+        this.clients = clients;
+        this.blocks = blocks;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.timeoutSeconds = timeoutSeconds;
+        this.random = new Random(seed);
+
+        byte[] privKey = new byte[32];
+        for(int i = 0; i < clients; i++) {
+            random.nextBytes(privKey);
+            privKey[0] &= 0x7f;
+            ECKey scanKey = ECKey.fromPrivate(privKey);
+            random.nextBytes(privKey);
+            privKey[0] &= 0x7f;
+            ECKey spendKey = ECKey.fromPrivate(privKey);
+            clientKeys.add(new ECKey[] { scanKey, spendKey });
+            chain.addRecipient(scanKey, spendKey);
+        }
+    }
+
+    public long[] run() throws Exception {
+        waitForServer();
+
+        int startHeight = chain.getHeight() + 1;
+        List<LineClient> lineClients = new ArrayList<>();
+        for(ECKey[] keys : clientKeys) {
+            LineClient client = new LineClient(server, timeoutSeconds);
+            client.request("server.version", List.of("frigate-latency", ElectrumServerService.MIN_VERSION.get()));
+            Map<String, Object> params = new LinkedHashMap<>();
+            params.put("scan_private_key", Utils.bytesToHex(keys[0].getPrivKeyBytes()));
+            params.put("spend_public_key", Utils.bytesToHex(keys[1].getPubKey(true)));
+            params.put("start", startHeight);
+            JsonObject response = client.request(SUBSCRIBE_METHOD, params);
+            if(response.has("error") && !response.get("error").isJsonNull()) {
+                throw new IOException("Subscription failed: " + response.get("error"));
+            }
+            client.readNotification(SUBSCRIBE_METHOD);
+            lineClients.add(client);
+        }
+        System.out.println("Subscribed " + clients + " clients from height " + startHeight);
+
+        List<Long> latencies = new ArrayList<>();
+        int missed = 0;
+        try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for(int i = 0; i < blocks; i++) {
+                Thread.sleep(maxIntervalMillis > 0 ? random.nextLong(maxIntervalMillis) : 0);
+
+                int height = chain.getHeight() + 1;
+                List<Future<Long>> futures = new ArrayList<>();
+                long minedNanos = System.nanoTime();
+                chain.mine(1);
+                for(int c = 0; c < clients; c++) {
+                    LineClient client = lineClients.get(c);
+                    String txid = chain.getPaymentTxid(height, c);
+                    futures.add(executor.submit(() -> awaitPayment(client, height, txid) - minedNanos));
+                }
+
+                List<Long> blockLatencies = new ArrayList<>();
+                for(Future<Long> future : futures) {
+                    try {
+                        blockLatencies.add(future.get(timeoutSeconds, TimeUnit.SECONDS));
+                    } catch(ExecutionException | TimeoutException e) {
+                        future.cancel(true);
+                        missed++;
+                        log.warn("No notification received for block " + height, e);
+                    }
+                }
+                latencies.addAll(blockLatencies);
+                if(blockLatencies.isEmpty()) {
+                    System.out.printf("Block %d: no notifications%n", height);
+                } else {
+                    System.out.printf("Block %d: last notification after %s%n", height, formatMillis(Collections.max(blockLatencies)));
+                }
+            }
+        } finally {
+            for(LineClient client : lineClients) {
+                client.close();
+            }
+        }
+
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        printReport(sorted, missed);
+        return sorted;
+    }
+
+    private long awaitPayment(LineClient client, int height, String txid) throws IOException {
+        while(true) {
+            JsonObject notification = client.readNotification(SUBSCRIBE_METHOD);
+            long receivedNanos = System.nanoTime();
+            JsonArray history = notification.getAsJsonObject("params").getAsJsonArray("history");
+            if(history != null) {
+                for(JsonElement entry : history) {
+                    JsonObject txEntry = entry.getAsJsonObject();
+                    if(txEntry.get("height").getAsInt() == height && txEntry.get("tx_hash").getAsString().equals(txid)) {
+                        return receivedNanos;
+                    }
+                }
+            }
+        }
+    }
+
+    private void waitForServer() throws InterruptedException {
+        System.out.println("Waiting for Frigate at " + server + " to index to height " + chain.getHeight() + "...");
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(30);
+        while(System.currentTimeMillis() < deadline) {
+            try(LineClient client = new LineClient(server, timeoutSeconds)) {
+                client.request("server.version", List.of("frigate-latency", ElectrumServerService.MIN_VERSION.get()));
+                JsonObject response = client.request("blockchain.headers.subscribe", List.of());
+                if(response.has("result") && response.getAsJsonObject("result").get("height").getAsInt() >= chain.getHeight()) {
+                    //Headers are posted before indexing completes, so allow the last block to be indexed
+                    Thread.sleep(5000);
+                    return;
+                }
+            } catch(IOException e) {
+                log.debug("Server not yet available", e);
+            }
+            Thread.sleep(1000);
+        }
+
+        throw new IllegalStateException("Timed out waiting for server");
+    }
+
+    private void printReport(long[] sorted, int missed) {
+        System.out.println();
+        System.out.printf("Clients: %d, blocks: %d, notifications: %d, missed: %d%n", clients, blocks, sorted.length, missed);
+        if(sorted.length > 0) {
+            System.out.printf("Block mined to notification received: p50 %s, p90 %s, p99 %s, max %s%n", formatMillis(LoadTester.percentile(sorted, 50)),
+                    formatMillis(LoadTester.percentile(sorted, 90)), formatMillis(LoadTester.percentile(sorted, 99)), formatMillis(sorted[sorted.length - 1]));
+        }
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format("%.1fms", nanos / 1_000_000.0d);
+    }
+
+    private static void printServerLatency(String httpHost) {
+        try(HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build()) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://" + httpHost + "/api/latency")).GET().build();
+            HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            try(InputStream inputStream = response.body()) {
+                System.out.println("Server trace (microseconds from block detection): " + new String(inputStream.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        } catch(Exception e) {
+            log.debug("Could not fetch server latency from " + httpHost, e);
+        }
+    }
+
+    public static void main(String[] argv) throws Exception {
+        Args args = new Args();
+        JCommander jCommander = JCommander.newBuilder().addObject(args).programName("frigate-latency").build();
+        jCommander.parse(argv);
+        if(args.help) {
+            jCommander.usage();
+            System.exit(0);
+        }
+
+        MockChain chain = new MockChain(args.seed, Math.max(args.txs, args.clients), 2, 10, false);
+        chain.mine(args.chainBlocks);
+        MockBitcoind mockBitcoind = new MockBitcoind(chain, args.rpcPort, args.latency);
+
+        HostAndPort server = HostAndPort.fromString(args.host).withDefaultPort(57001);
+        NotificationLatencyBenchmark benchmark = new NotificationLatencyBenchmark(chain, server, args.clients, args.blocks, args.interval, args.timeout, args.seed);
+        mockBitcoind.start();
+        long[] latencies;
+        try {
+            latencies = benchmark.run();
+            printServerLatency(args.httpHost);
+        } finally {
+            mockBitcoind.stop();
+        }
+
+        System.exit(latencies.length == (long)args.clients * args.blocks ? 0 : 1);
+    }
+
+    public static class Args {
+        @Parameter(names = { "--host", "-h" }, description = "Electrum server host and port")
+        public String host = "127.0.0.1:57001";
+
+        @Parameter(names = { "--httpHost" }, description = "HTTP API host and port, used to fetch the server's own latency trace")
+        public String httpHost = "127.0.0.1:8081";
+
+        @Parameter(names = { "--rpcPort" }, description = "Port for the mock bitcoind JSON-RPC")
+        public int rpcPort = 18443;
+
+        @Parameter(names = { "--clients", "-c" }, description = "Number of subscribed clients, each receiving a payment in every block")
+        public int clients = 8;
+
+        @Parameter(names = { "--blocks", "-b" }, description = "Number of blocks to mine and measure")
+        public int blocks = 20;
+
+        @Parameter(names = { "--interval" }, description = "Maximum random delay between mined blocks in milliseconds")
+        public long interval = 5000;
+
+        @Parameter(names = { "--chainBlocks" }, description = "Number of blocks in the chain before measurement starts")
+        public int chainBlocks = 100;
+
+        @Parameter(names = { "--txs" }, description = "Number of non-coinbase transactions per block")
+        public int txs = 100;
+
+        @Parameter(names = { "--latency" }, description = "Delay added to every RPC call in milliseconds")
+        public long latency = 0;
+
+        @Parameter(names = { "--seed" }, description = "Random seed")
+        public long seed = 1L;
+
+        @Parameter(names = { "--timeout" }, description = "Seconds to wait for each notification")
+        public int timeout = 60;
+
+        @Parameter(names = { "--help" }, description = "Show usage", help = true)
+        public boolean help;
+    }
+}
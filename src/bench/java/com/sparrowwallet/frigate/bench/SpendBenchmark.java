@@ -0,0 +1,168 @@
+package com.sparrowwallet.frigate.bench;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.drongo.crypto.ECKey;
+import com.sparrowwallet.drongo.protocol.HashIndex;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.frigate.index.DbManager;
+import com.sparrowwallet.frigate.index.Index;
+import com.sparrowwallet.frigate.index.IndexMode;
+import org.duckdb.DuckDBAppender;
+import org.duckdb.DuckDBConnection;
+
+import java.io.File;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Compares applying the spends of tweak outputs with a join of the spent outpoints against the whole tweak table, against looking up
+ * the heights of the spent rows in the tweak_txid table first and reading and updating only those heights, as
+ * {@link Index#removeSpentTweakOutputs(Connection, int)} does. A tweak table of the given size is generated with every output unspent,
+ * and each spend is timed in its own transaction, which is rolled back so that every run spends from the same rows.
+ */
+public class SpendBenchmark {
+    public static void main(String[] argv) throws Exception {
+        Args args = new Args();
+        JCommander jCommander = JCommander.newBuilder().addObject(args).programName("frigate-spend-benchmark").build();
+        jCommander.parse(argv);
+        if(args.help) {
+            jCommander.usage();
+            System.exit(0);
+        }
+
+        File dbFile = File.createTempFile("frigate-spend-benchmark", ".duckdb");
+        dbFile.delete();
+        dbFile.deleteOnExit();
+        TweakDbGenerator.getManifestFile(dbFile).deleteOnExit();
+
+        ECKey scanKey = ECKey.fromPrivate(Utils.hexToBytes(TweakDbGenerator.DEFAULT_SCAN_PRIVATE_KEY));
+        ECKey spendKey = ECKey.fromPublicOnly(Utils.hexToBytes(TweakDbGenerator.DEFAULT_SPEND_PUBLIC_KEY));
+        System.out.println("Generating " + args.rows + " tweak rows over " + args.blocks + " blocks...");
+        new TweakDbGenerator(dbFile, IndexMode.FULL, args.rows, args.endHeight - args.blocks + 1, args.endHeight, args.maxOutputs, 4096, 0, scanKey, spendKey, args.seed).generate();
+
+        Random random = new Random(args.seed);
+        try(DuckDBConnection connection = (DuckDBConnection)DriverManager.getConnection(DbManager.DB_PREFIX + dbFile.getAbsolutePath())) {
+            //The generator leaves spends untracked, so every output is marked unspent before the tweak_txid table is filled from them
+            try(Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE OR REPLACE TABLE " + Index.TWEAK_TABLE + " AS SELECT txid, height, tweak_key, outputs, max_value, range(len(outputs)) AS unspent_outputs FROM " +
+                        Index.TWEAK_TABLE + " ORDER BY height");
+            }
+            Index.createTweakTables(connection);
+            Index.createKeyTables(connection);
+            try(Statement stmt = connection.createStatement()) {
+                stmt.execute("CHECKPOINT");
+            }
+
+            int maxSize = args.sizes.stream().mapToInt(Integer::intValue).max().orElse(0);
+            List<HashIndex> outpoints = new ArrayList<>();
+            try(Statement stmt = connection.createStatement();
+                ResultSet resultSet = stmt.executeQuery("SELECT txid, len(outputs) FROM " + Index.TWEAK_TABLE + " USING SAMPLE " + maxSize + " ROWS")) {
+                while(resultSet.next()) {
+                    outpoints.add(new HashIndex(Sha256Hash.wrap(resultSet.getBytes(1)), random.nextInt(resultSet.getInt(2))));
+                }
+            }
+
+            int height = args.endHeight + 1;
+            System.out.printf("%n%-10s %14s %14s %10s%n", "Outpoints", "Joined (ms)", "Keyed (ms)", "Speedup");
+            for(int size : args.sizes) {
+                Collections.shuffle(outpoints, random);
+                Set<HashIndex> spentOutpoints = new HashSet<>(outpoints.subList(0, Math.min(size, outpoints.size())));
+
+                double joined = time(connection, args.iterations, spentOutpoints, c -> spendJoined(c, height));
+                double keyed = time(connection, args.iterations, spentOutpoints, c -> Index.removeSpentTweakOutputs(c, height));
+                System.out.printf("%-10d %14.1f %14.1f %9.1fx%n", spentOutpoints.size(), joined, keyed, joined / keyed);
+            }
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * Returns the median time in milliseconds of the given spend, run in a transaction that is rolled back.
+     */
+    private static double time(Connection connection, int iterations, Set<HashIndex> spentOutpoints, Spend spend) throws SQLException {
+        double[] millis = new double[iterations];
+        for(int i = 0; i < iterations; i++) {
+            connection.setAutoCommit(false);
+            try {
+                appendSpentOutpoints(connection, spentOutpoints);
+                long start = System.nanoTime();
+                spend.execute(connection);
+                millis[i] = (System.nanoTime() - start) / 1e6d;
+
+                try(Statement stmt = connection.createStatement(); ResultSet resultSet = stmt.executeQuery("SELECT COUNT(*) FROM " + Index.TWEAK_SPEND_TABLE)) {
+                    long spent = resultSet.next() ? resultSet.getLong(1) : 0;
+                    if(spent != spentOutpoints.size()) {
+                        throw new IllegalStateException("Expected to spend " + spentOutpoints.size() + " outputs, spent " + spent);
+                    }
+                }
+            } finally {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        }
+
+        Arrays.sort(millis);
+        return millis[iterations / 2];
+    }
+
+    private static void appendSpentOutpoints(Connection connection, Set<HashIndex> spentOutpoints) throws SQLException {
+        try(DuckDBAppender appender = ((DuckDBConnection)connection).createAppender(DuckDBConnection.DEFAULT_SCHEMA, Index.SPENT_OUTPOINT_TABLE)) {
+            for(HashIndex outpoint : spentOutpoints) {
+                appender.beginRow();
+                appender.append(outpoint.getHash().getBytes());
+                appender.append((int)outpoint.getIndex());
+                appender.endRow();
+            }
+        }
+    }
+
+    /**
+     * The previous approach, joining the spent outpoints against the txids of the whole tweak table both to log and to apply the spends.
+     */
+    private static void spendJoined(Connection connection, int height) throws SQLException {
+        try(PreparedStatement statement = connection.prepareStatement("INSERT INTO " + Index.TWEAK_SPEND_TABLE + " SELECT s.txid, s.output_index, ?, t.height FROM " +
+                Index.SPENT_OUTPOINT_TABLE + " s JOIN " + Index.TWEAK_TABLE + " t ON t.txid = s.txid WHERE list_contains(t.unspent_outputs, s.output_index)")) {
+            statement.setInt(1, height);
+            statement.execute();
+        }
+
+        try(Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("UPDATE " + Index.TWEAK_TABLE + " SET unspent_outputs = list_filter(" + Index.TWEAK_TABLE + ".unspent_outputs, i -> NOT list_contains(s.spent, i)) FROM " +
+                    "(SELECT txid, list(output_index) AS spent FROM " + Index.SPENT_OUTPOINT_TABLE + " GROUP BY txid) s WHERE " + Index.TWEAK_TABLE + ".txid = s.txid AND " +
+                    Index.TWEAK_TABLE + ".unspent_outputs IS NOT NULL");
+        }
+    }
+
+    private interface Spend {
+        void execute(Connection connection) throws SQLException;
+    }
+
+    public static class Args {
+        @Parameter(names = { "--rows" }, description = "Number of rows in the generated tweak table")
+        public long rows = 20_000_000L;
+
+        @Parameter(names = { "--blocks" }, description = "Number of blocks the rows are spread over")
+        public int blocks = 50_000;
+
+        @Parameter(names = { "--endHeight" }, description = "Height of the last generated block")
+        public int endHeight = 914000;
+
+        @Parameter(names = { "--maxOutputs" }, description = "Maximum number of taproot outputs per transaction")
+        public int maxOutputs = 3;
+
+        @Parameter(names = { "--sizes" }, description = "Numbers of outpoints to spend, comma separated")
+        public List<Integer> sizes = List.of(1_000, 10_000, 100_000);
+
+        @Parameter(names = { "--iterations" }, description = "Number of times each spend is timed, reporting the median")
+        public int iterations = 5;
+
+        @Parameter(names = { "--seed" }, description = "Random seed")
+        public long seed = 1L;
+
+        @Parameter(names = { "--help" }, description = "Show usage", help = true)
+        public boolean help;
+    }
+}
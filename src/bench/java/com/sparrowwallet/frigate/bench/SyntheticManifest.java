@@ -0,0 +1,61 @@
+package com.sparrowwallet.frigate.bench;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.sparrowwallet.frigate.index.IndexMode;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Describes a database written by {@link TweakDbGenerator}: its shape, the keys used for planting and the planted transactions
+ * that a scan with those keys must return.
+ */
+public record SyntheticManifest(IndexMode mode, long rows, int startHeight, int endHeight, String scanPrivateKey, String spendPublicKey, List<PlantedTx> planted) {
+    public static final String MANIFEST_SUFFIX = ".manifest.json";
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    public int getBlocks() {
+        return endHeight - startHeight + 1;
+    }
+
+    /**
+     * Rows are spread evenly over the height span in generation order, so the number of rows at heights in [from, to] can be computed exactly.
+     */
+    public long getRowsInRange(int from, int to) {
+        int lower = Math.max(from, startHeight) - startHeight;
+        int upper = Math.min(to, endHeight) - startHeight + 1;
+        if(upper <= lower) {
+            return 0;
+        }
+
+        return ceilDiv((long)upper * rows, getBlocks()) - ceilDiv((long)lower * rows, getBlocks());
+    }
+
+    public static int getHeight(long row, long rows, int startHeight, int endHeight) {
+        return startHeight + (int)(row * (endHeight - startHeight + 1) / rows);
+    }
+
+    public List<PlantedTx> getPlantedInRange(int from, int to) {
+        return planted.stream().filter(tx -> tx.height() >= from && tx.height() <= to).toList();
+    }
+
+    public void write(File file) throws IOException {
+        try(Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            GSON.toJson(this, writer);
+        }
+    }
+
+    public static SyntheticManifest read(File file) throws IOException {
+        try(Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            return GSON.fromJson(reader, SyntheticManifest.class);
+        }
+    }
+
+    private static long ceilDiv(long x, long y) {
+        return -Math.floorDiv(-x, y);
+    }
+
+    public record PlantedTx(String txid, int height) {}
+}
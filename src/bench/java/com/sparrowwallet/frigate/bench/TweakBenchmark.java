@@ -0,0 +1,115 @@
+package com.sparrowwallet.frigate.bench;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.sparrowwallet.drongo.Network;
+import com.sparrowwallet.drongo.protocol.*;
+import com.sparrowwallet.frigate.bitcoind.TweakCalculator;
+
+import java.util.*;
+
+/**
+ * Measures how tweak computation scales with the number of {@link TweakCalculator} threads.
+ * Blocks are generated with {@link MockChain} and their spent scriptPubKeys resolved up front, so only the EC work done per block
+ * during a full sync is timed. Each thread count computes the tweaks of every block in turn, as BitcoindClient does, and the
+ * throughput, speedup and parallel efficiency relative to a single thread are reported.
+ */
+public class TweakBenchmark {
+    public static void main(String[] argv) throws Exception {
+        Args args = new Args();
+        JCommander jCommander = JCommander.newBuilder().addObject(args).programName("frigate-tweak-benchmark").build();
+        jCommander.parse(argv);
+        if(args.help) {
+            jCommander.usage();
+            System.exit(0);
+        }
+
+        Network.set(Network.REGTEST);
+
+        System.out.println("Generating " + args.blocks + " blocks of " + args.txs + " transactions...");
+        MockChain chain = new MockChain(args.seed, args.txs, 2, 10, false);
+        chain.mine(args.blocks);
+
+        List<List<Transaction>> blockTransactions = new ArrayList<>();
+        List<Map<HashIndex, Script>> blockSpentScriptPubKeys = new ArrayList<>();
+        long txCount = 0;
+        for(int height = 1; height <= chain.getHeight(); height++) {
+            List<Transaction> transactions = new ArrayList<>();
+            Map<HashIndex, Script> spentScriptPubKeys = new HashMap<>();
+            for(MockChain.MockTx mockTx : chain.getBlock(height).txs()) {
+                if(mockTx.isCoinbase()) {
+                    continue;
+                }
+                Transaction tx = new Transaction(mockTx.raw());
+                for(int i = 0; i < mockTx.prevouts().size(); i++) {
+                    TransactionOutPoint outpoint = tx.getInputs().get(i).getOutpoint();
+                    spentScriptPubKeys.put(new HashIndex(outpoint.getHash(), outpoint.getIndex()), new Script(mockTx.prevouts().get(i).script()));
+                }
+                transactions.add(tx);
+            }
+            blockTransactions.add(transactions);
+            blockSpentScriptPubKeys.add(spentScriptPubKeys);
+            txCount += transactions.size();
+        }
+
+        List<Integer> threadCounts = new ArrayList<>();
+        for(int threads = 1; threads < args.maxThreads; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(args.maxThreads);
+
+        System.out.printf("%d transactions, %d available processors%n%n", txCount, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-8s %12s %10s %10s%n", "Threads", "Txs/s", "Speedup", "Efficiency");
+
+        double baseline = 0;
+        for(int threads : threadCounts) {
+            TweakCalculator tweakCalculator = new TweakCalculator(threads);
+            try {
+                for(int i = 0; i < args.warmup && i < blockTransactions.size(); i++) {
+                    tweakCalculator.getTweaks(blockTransactions.get(i), blockSpentScriptPubKeys.get(i));
+                }
+
+                long start = System.nanoTime();
+                int eligible = 0;
+                for(int i = 0; i < blockTransactions.size(); i++) {
+                    eligible += (int)tweakCalculator.getTweaks(blockTransactions.get(i), blockSpentScriptPubKeys.get(i)).stream().filter(Objects::nonNull).count();
+                }
+                double seconds = (System.nanoTime() - start) / 1e9d;
+                if(eligible != txCount) {
+                    throw new IllegalStateException("Expected " + txCount + " tweaks, computed " + eligible);
+                }
+
+                double txsPerSecond = txCount / seconds;
+                if(threads == 1) {
+                    baseline = txsPerSecond;
+                }
+                double speedup = txsPerSecond / baseline;
+                System.out.printf("%-8d %12.0f %9.2fx %9.0f%%%n", threads, txsPerSecond, speedup, speedup * 100 / threads);
+            } finally {
+                tweakCalculator.shutdown();
+            }
+        }
+
+        System.exit(0);
+    }
+
+    public static class Args {
+        @Parameter(names = { "--blocks" }, description = "Number of blocks to compute tweaks for")
+        public int blocks = 200;
+
+        @Parameter(names = { "--txs" }, description = "Number of non-coinbase transactions per block")
+        public int txs = 2000;
+
+        @Parameter(names = { "--maxThreads" }, description = "Largest number of threads to measure, doubling from one")
+        public int maxThreads = Runtime.getRuntime().availableProcessors();
+
+        @Parameter(names = { "--warmup" }, description = "Number of blocks to compute before timing each thread count")
+        public int warmup = 20;
+
+        @Parameter(names = { "--seed" }, description = "Random seed")
+        public long seed = 1L;
+
+        @Parameter(names = { "--help" }, description = "Show usage", help = true)
+        public boolean help;
+    }
+}
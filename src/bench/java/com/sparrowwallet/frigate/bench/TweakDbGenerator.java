@@ -0,0 +1,226 @@
+package com.sparrowwallet.frigate.bench;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.drongo.crypto.ECKey;
+import com.sparrowwallet.drongo.silentpayments.SilentPaymentUtils;
+import com.sparrowwallet.frigate.index.DbManager;
+import com.sparrowwallet.frigate.index.Index;
+import com.sparrowwallet.frigate.index.IndexMode;
+import org.duckdb.DuckDBAppender;
+import org.duckdb.DuckDBConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+/**
+ * Writes a synthetic index database of configurable size and height span, so that scan performance can be measured without
+ * a mainnet node. Tweak keys are valid curve points drawn from a pool of random keys, output prefixes are random, and a set of
+ * transactions is planted with outputs that a scan for the given scan and spend keys must find.
+ */
+public class TweakDbGenerator {
+    private static final Logger log = LoggerFactory.getLogger(TweakDbGenerator.class);
+
+    public static final String DEFAULT_SCAN_PRIVATE_KEY = "3c8b12d524c72d91dad33573c18f17dddb8f45e8d60c711c49a5a7992e321364";
+    public static final String DEFAULT_SPEND_PUBLIC_KEY = "0377dd40dfd0da11369dc6bddf6b3bf4f0474383a8beb6e523dddabc0f966734a6";
+    private static final long MIN_UTXO_VALUE = 1000L;
+    private static final long MAX_UTXO_VALUE = 100_000_000L;
+
+    private final File dbFile;
+    private final IndexMode mode;
+    private final long rows;
+    private final int startHeight;
+    private final int endHeight;
+    private final int maxOutputs;
+    private final int keyPoolSize;
+    private final int plantedCount;
+    private final ECKey scanKey;
+    private final ECKey spendKey;
+    private final Random random;
+
+    public TweakDbGenerator(File dbFile, IndexMode mode, long rows, int startHeight, int endHeight, int maxOutputs, int keyPoolSize, int plantedCount, ECKey scanKey, ECKey spendKey, long seed) {
+        if(rows <= 0 || endHeight < startHeight || maxOutputs < 1 || keyPoolSize < 1 || plantedCount > rows) {
+            throw new IllegalArgumentException("Invalid generator parameters");
+        }
+
+        this.dbFile = dbFile;
+        this.mode = mode;
+        this.rows = rows;
+        this.startHeight = startHeight;
+        this.endHeight = endHeight;
+        this.maxOutputs = maxOutputs;
+        this.keyPoolSize = keyPoolSize;
+        this.plantedCount = plantedCount;
+        this.scanKey = scanKey;
+        this.spendKey = spendKey;
+        this.random = new Random(seed);
+    }
+
+    public SyntheticManifest generate() throws SQLException, IOException {
+        List<byte[]> keyPool = createKeyPool();
+        Map<Long, byte[]> plantedRows = new HashMap<>();
+        while(plantedRows.size() < plantedCount) {
+            plantedRows.putIfAbsent(random.nextLong(rows), keyPool.get(random.nextInt(keyPool.size())));
+        }
+
+        List<SyntheticManifest.PlantedTx> planted = new ArrayList<>();
+        long start = System.currentTimeMillis();
+
+        //In UTXO mode each row is a transaction in utxo_tx, with its unspent outputs in utxo_output
+        boolean utxoMode = mode == IndexMode.UTXO_ONLY;
+        String table = utxoMode ? Index.UTXO_TX_TABLE : Index.TWEAK_TABLE;
+        try(DuckDBConnection connection = (DuckDBConnection)DriverManager.getConnection(DbManager.DB_PREFIX + dbFile.getAbsolutePath())) {
+            if(utxoMode) {
+                Index.createUtxoTables(connection);
+            } else {
+                try(Statement stmt = connection.createStatement()) {
+                    stmt.execute(Index.TWEAK_TABLE_DDL);
+                }
+            }
+
+            try(DuckDBAppender appender = connection.createAppender(DuckDBConnection.DEFAULT_SCHEMA, table);
+                DuckDBAppender outputAppender = utxoMode ? connection.createAppender(DuckDBConnection.DEFAULT_SCHEMA, Index.UTXO_OUTPUT_TABLE) : null) {
+                byte[] txid = new byte[32];
+                for(long row = 0; row < rows; row++) {
+                    random.nextBytes(txid);
+                    int height = SyntheticManifest.getHeight(row, rows, startHeight, endHeight);
+                    byte[] plantedKey = plantedRows.get(row);
+                    byte[] tweakKey = plantedKey != null ? plantedKey : keyPool.get(random.nextInt(keyPool.size()));
+                    long plantedPrefix = plantedKey != null ? Index.getOutputHashPrefix(plantedKey, scanKey, spendKey) : 0L;
+
+                    long[] outputs = new long[1 + random.nextInt(maxOutputs)];
+                    for(int i = 0; i < outputs.length; i++) {
+                        outputs[i] = random.nextLong();
+                    }
+                    if(plantedKey != null) {
+                        outputs[random.nextInt(outputs.length)] = plantedPrefix;
+                    }
+
+                    appender.beginRow();
+                    appender.append(txid);
+                    appender.append(height);
+                    appender.append(tweakKey);
+                    if(utxoMode) {
+                        appender.append(Index.compressRawKey(tweakKey));
+                        for(int i = 0; i < outputs.length; i++) {
+                            outputAppender.beginRow();
+                            outputAppender.append(txid);
+                            outputAppender.append(i);
+                            outputAppender.append(outputs[i]);
+                            outputAppender.append(MIN_UTXO_VALUE + (long)(random.nextDouble() * (MAX_UTXO_VALUE - MIN_UTXO_VALUE)));
+                            outputAppender.endRow();
+                        }
+                    } else {
+                        appender.append(outputs);
+                        appender.append(MIN_UTXO_VALUE + (long)(random.nextDouble() * (MAX_UTXO_VALUE - MIN_UTXO_VALUE)));
+                        appender.appendNull();
+                    }
+                    appender.endRow();
+
+                    if(plantedKey != null) {
+                        planted.add(new SyntheticManifest.PlantedTx(Utils.bytesToHex(txid), height));
+                    }
+
+                    if(row > 0 && row % 1_000_000 == 0) {
+                        log.info("Generated " + row + " of " + rows + " rows");
+                    }
+                }
+            }
+        }
+
+        planted.sort(Comparator.comparingInt(SyntheticManifest.PlantedTx::height));
+        SyntheticManifest manifest = new SyntheticManifest(mode, rows, startHeight, endHeight, Utils.bytesToHex(scanKey.getPrivKeyBytes()),
+                Utils.bytesToHex(spendKey.getPubKey(true)), planted);
+        manifest.write(getManifestFile(dbFile));
+
+        log.info("Generated " + rows + " " + table + " rows over heights " + startHeight + "-" + endHeight + " with " + planted.size() + " planted matches in " + (System.currentTimeMillis() - start) + "ms");
+        return manifest;
+    }
+
+    private List<byte[]> createKeyPool() {
+        List<byte[]> keyPool = new ArrayList<>(keyPoolSize);
+        byte[] privKey = new byte[32];
+        while(keyPool.size() < keyPoolSize) {
+            random.nextBytes(privKey);
+            try {
+                keyPool.add(SilentPaymentUtils.getSecp256k1PubKey(ECKey.fromPrivate(privKey)));
+            } catch(Exception e) {
+                //Out of range for the curve order, try again
+            }
+        }
+
+        return keyPool;
+    }
+
+    public static File getManifestFile(File dbFile) {
+        return new File(dbFile.getAbsolutePath() + SyntheticManifest.MANIFEST_SUFFIX);
+    }
+
+    public static void main(String[] argv) throws Exception {
+        Args args = new Args();
+        JCommander jCommander = JCommander.newBuilder().addObject(args).programName("frigate-generate").build();
+        jCommander.parse(argv);
+        if(args.help) {
+            jCommander.usage();
+            System.exit(0);
+        }
+
+        File dbFile = new File(args.db);
+        if(dbFile.exists()) {
+            System.err.println("Database file " + dbFile.getAbsolutePath() + " already exists");
+            System.exit(1);
+        }
+
+        ECKey scanKey = ECKey.fromPrivate(Utils.hexToBytes(args.scanPrivateKey));
+        ECKey spendKey = ECKey.fromPublicOnly(Utils.hexToBytes(args.spendPublicKey));
+        int startHeight = args.endHeight - args.blocks + 1;
+
+        TweakDbGenerator generator = new TweakDbGenerator(dbFile, args.mode, args.rows, startHeight, args.endHeight, args.maxOutputs, args.keyPoolSize, args.planted, scanKey, spendKey, args.seed);
+        generator.generate();
+    }
+
+    public static class Args {
+        @Parameter(names = { "--db" }, description = "Path of the DuckDB database file to create", required = true)
+        public String db;
+
+        @Parameter(names = { "--mode" }, description = "Index mode of the generated table (FULL or UTXO_ONLY)")
+        public IndexMode mode = IndexMode.FULL;
+
+        @Parameter(names = { "--rows" }, description = "Number of rows to generate")
+        public long rows = 1_000_000L;
+
+        @Parameter(names = { "--blocks" }, description = "Number of blocks the rows are spread over")
+        public int blocks = 4320;
+
+        @Parameter(names = { "--endHeight" }, description = "Height of the last generated block")
+        public int endHeight = 914000;
+
+        @Parameter(names = { "--maxOutputs" }, description = "Maximum number of taproot outputs per transaction")
+        public int maxOutputs = 3;
+
+        @Parameter(names = { "--keyPoolSize" }, description = "Number of distinct random tweak keys")
+        public int keyPoolSize = 4096;
+
+        @Parameter(names = { "--planted" }, description = "Number of planted matches")
+        public int planted = 100;
+
+        @Parameter(names = { "--scanPrivateKey" }, description = "Scan private key the planted matches are found with")
+        public String scanPrivateKey = DEFAULT_SCAN_PRIVATE_KEY;
+
+        @Parameter(names = { "--spendPublicKey" }, description = "Spend public key the planted matches are found with")
+        public String spendPublicKey = DEFAULT_SPEND_PUBLIC_KEY;
+
+        @Parameter(names = { "--seed" }, description = "Random seed")
+        public long seed = 1L;
+
+        @Parameter(names = { "--help" }, description = "Show usage", help = true)
+        public boolean help;
+    }
+}
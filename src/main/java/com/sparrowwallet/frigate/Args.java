@@ -26,6 +26,12 @@ public class Args {
     @Parameter(names = { "--bootstrap" }, description = "Bootstrap UTXO index from current chainstate (requires UTXO_ONLY mode and txindex=1)")
     public boolean bootstrap;
 
+    @Parameter(names = { "--export-snapshot" }, description = "Export the index to Parquet files in the given folder and exit")
+    public String exportSnapshot;
+
+    @Parameter(names = { "--import-snapshot" }, description = "Import an exported index from the given folder into an empty index, then continue indexing from its tip")
+    public String importSnapshot;
+
     public List<String> toParams() {
         List<String> params = new ArrayList<>();
 
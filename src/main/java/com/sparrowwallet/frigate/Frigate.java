@@ -6,11 +6,14 @@ import com.sparrowwallet.drongo.Drongo;
 import com.sparrowwallet.drongo.Network;
 import com.sparrowwallet.frigate.electrum.ElectrumServerRunnable;
 import com.sparrowwallet.frigate.http.HttpApiServer;
+import com.sparrowwallet.frigate.http.ScanWorkerServer;
 import com.sparrowwallet.frigate.bitcoind.BitcoindClient;
+import com.sparrowwallet.frigate.bitcoind.BitcoindClientService;
 import com.sparrowwallet.frigate.bitcoind.UtxoBootstrap;
 import com.sparrowwallet.frigate.index.Index;
 import com.sparrowwallet.frigate.index.IndexMode;
 import com.sparrowwallet.frigate.index.IndexQuerier;
+import com.sparrowwallet.frigate.index.SnapshotManifest;
 import com.sparrowwallet.drongo.OsType;
 import com.sparrowwallet.frigate.io.Config;
 import com.sparrowwallet.frigate.io.Storage;
@@ -41,6 +44,7 @@ public class Frigate {
     private BitcoindClient bitcoindClient;
     private ElectrumServerRunnable electrumServer;
     private HttpApiServer httpApiServer;
+    private ScanWorkerServer scanWorkerServer;
 
     private boolean running;
 
@@ -95,12 +99,45 @@ public class Frigate {
             System.exit(0);
         }
 
+        if(args.exportSnapshot != null) {
+            blocksIndex = new Index(startHeight, false, batchSize, indexMode);
+            try {
+                long start = System.currentTimeMillis();
+                SnapshotManifest manifest = blocksIndex.exportSnapshot(new File(args.exportSnapshot));
+                getLogger().info("Exported " + manifest.partitions().size() + " snapshot files to block height " + manifest.indexedHeight() + " in " + args.exportSnapshot + " in " + (System.currentTimeMillis() - start) + "ms");
+            } catch(Exception e) {
+                getLogger().error("Snapshot export failed", e);
+                System.exit(1);
+            }
+
+            blocksIndex.close();
+            blocksIndex = null;
+            System.exit(0);
+        }
+
         blocksIndex = new Index(startHeight, false, batchSize, indexMode);
-        mempoolIndex = new Index(0, true, batchSize, indexMode);
+
+        if(args.importSnapshot != null) {
+            if(!config.getCore().shouldConnect()) {
+                getLogger().error("Importing a snapshot requires a connection to Bitcoin Core to verify it. Set connect = true under [core] in config.toml and try again.");
+                System.exit(1);
+            }
+
+            try {
+                BitcoindClientService bitcoindService = new BitcoindClient(blocksIndex, null).getBitcoindService();
+                blocksIndex.importSnapshot(new File(args.importSnapshot), bitcoindService::getBlockHash);
+            } catch(Exception e) {
+                getLogger().error("Snapshot import failed: " + e.getMessage(), e);
+                System.exit(1);
+            }
+        }
+
+        //The mempool is always recent history, which HYBRID mode keeps in full
+        mempoolIndex = new Index(0, true, batchSize, indexMode == IndexMode.HYBRID ? IndexMode.FULL : indexMode);
 
         if(config.getCore().shouldConnect()) {
             bitcoindClient = new BitcoindClient(blocksIndex, mempoolIndex);
-            bitcoindClient.initialize();
+            bitcoindClient.connect();
         }
 
         electrumServer = new ElectrumServerRunnable(bitcoindClient, new IndexQuerier(blocksIndex, mempoolIndex), config.getServer().getPort());
@@ -111,7 +148,33 @@ public class Frigate {
         httpApiServer = new HttpApiServer(blocksIndex);
         httpApiServer.start();
 
+        if(config.getServer().getWorkerPort() != null) {
+            scanWorkerServer = new ScanWorkerServer(blocksIndex, config.getServer().getWorkerAddress(), config.getServer().getWorkerPort(), config.getServer().getWorkerSecret());
+            scanWorkerServer.start();
+        }
+
         running = true;
+
+        //The servers answer requests over the blocks indexed so far while the index is brought up to the chain tip
+        if(bitcoindClient != null) {
+            Thread indexThread = new Thread(this::initializeIndex, "Frigate Index Builder");
+            indexThread.setDaemon(true);
+            indexThread.start();
+        }
+    }
+
+    private void initializeIndex() {
+        try {
+            bitcoindClient.initialize();
+        } catch(Exception e) {
+            String message = getOperationalErrorMessage(e);
+            if(message != null) {
+                getLogger().error(message);
+            } else {
+                getLogger().error("Fatal error initializing index", e);
+            }
+            System.exit(1);
+        }
     }
 
     public boolean isRunning() {
@@ -134,6 +197,9 @@ public class Frigate {
         if(httpApiServer != null) {
             httpApiServer.stop();
         }
+        if(scanWorkerServer != null) {
+            scanWorkerServer.stop();
+        }
 
         running = false;
     }
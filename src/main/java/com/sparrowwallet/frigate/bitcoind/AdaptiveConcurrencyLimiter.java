@@ -0,0 +1,95 @@
+package com.sparrowwallet.frigate.bitcoind;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of concurrent RPC calls to bitcoind using additive increase, multiplicative decrease (AIMD).
+ * The limit grows by one for each limit's worth of calls that complete without queueing, and is cut by a quarter when bitcoind
+ * rejects a call because its work queue is full, or when latency rises well above the lowest recently observed.
+ * This keeps the number of calls in flight close to what bitcoind's rpcthreads and rpcworkqueue can absorb without configuration.
+ */
+public class AdaptiveConcurrencyLimiter {
+    private static final double BACKOFF_RATIO = 0.75d;
+    private static final double LATENCY_TOLERANCE = 4.0d;
+    private static final long MIN_LATENCY_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private long minLatencyNanos = Long.MAX_VALUE;
+    private long minLatencyResetNanos = System.nanoTime();
+    private long lastBackoffNanos;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.clamp(initialLimit, minLimit, maxLimit);
+    }
+
+    /**
+     * Blocks until a call may be made, returning the start time to pass to {@link #release(long, boolean)}.
+     */
+    public long acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while(inFlight >= (int)limit) {
+                available.await();
+            }
+            inFlight++;
+            return System.nanoTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases a call started at startNanos, adjusting the limit according to its latency or whether bitcoind rejected it as overloaded.
+     */
+    public void release(long startNanos, boolean overloaded) {
+        long now = System.nanoTime();
+        long latency = now - startNanos;
+
+        lock.lock();
+        try {
+            inFlight--;
+
+            if(now - minLatencyResetNanos > MIN_LATENCY_WINDOW_NANOS) {
+                minLatencyNanos = Long.MAX_VALUE;
+                minLatencyResetNanos = now;
+            }
+            if(!overloaded) {
+                minLatencyNanos = Math.min(minLatencyNanos, latency);
+            }
+
+            if(overloaded || latency > minLatencyNanos * LATENCY_TOLERANCE) {
+                //Only back off once per round trip, since calls already in flight will report the same congestion
+                if(now - lastBackoffNanos > Math.min(latency, minLatencyNanos * LATENCY_TOLERANCE)) {
+                    limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                    lastBackoffNanos = now;
+                }
+            } else if(inFlight + 1 >= (int)limit) {
+                //Only grow when the limit is actually being reached
+                limit = Math.min(maxLimit, limit + 1.0d / limit);
+            }
+
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int)limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -5,21 +5,28 @@ import com.github.arteam.simplejsonrpc.client.exception.JsonRpcException;
 import com.sparrowwallet.drongo.Network;
 import com.sparrowwallet.drongo.OsType;
 import com.sparrowwallet.drongo.protocol.*;
-import com.sparrowwallet.drongo.silentpayments.SilentPaymentUtils;
 import com.sparrowwallet.drongo.wallet.BlockTransaction;
 import com.sparrowwallet.frigate.Frigate;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sparrowwallet.frigate.electrum.ElectrumBlockHeader;
+import com.sparrowwallet.frigate.index.HeightIntervals;
 import com.sparrowwallet.frigate.index.Index;
+import com.sparrowwallet.frigate.index.IngestBuffer;
 import com.sparrowwallet.frigate.index.IndexMode;
+import com.sparrowwallet.frigate.index.TweakRows;
 import com.sparrowwallet.frigate.io.Config;
 import com.sparrowwallet.frigate.io.CoreAuthType;
-import com.sparrowwallet.frigate.io.RecentBlocksMap;
 import com.sparrowwallet.frigate.io.Server;
+import com.sparrowwallet.frigate.metrics.BlockTracer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -29,15 +36,24 @@ public class BitcoindClient {
 
     private static final int MAX_REORG_DEPTH = 10;
     public static final int MIN_SUBMIT_PACKAGE_VERSION = 280000;
+    private static final Set<String> ZMQ_TOPICS = Set.of("hashblock", "rawtx", "sequence");
+    private static final long ZMQ_RECONCILE_INTERVAL_MILLIS = 60_000;
+    private static final long ZMQ_MEMPOOL_BATCH_MILLIS = 200;
+    private static final int ZMQ_TX_CACHE_SIZE = 10_000;
+    private static final byte[] EMPTY_SCRIPT = new byte[0];
+    private static final int BACKFILL_SEGMENT_SIZE = 1000;
+    private static final long BACKFILL_RETRY_MILLIS = 60_000;
+    private static final int MAX_VALUE_BATCH_SIZE = 50_000;
 
     private final JsonRpcClient jsonRpcClient;
+    private final Server coreServer;
     private final Timer timer = new Timer(true);
     private final Index blocksIndex;
     private final Index mempoolIndex;
 
     private NetworkInfo networkInfo;
     private String lastBlock;
-    private ElectrumBlockHeader tip;
+    private volatile ElectrumBlockHeader tip;
 
     private Exception lastPollException;
 
@@ -49,8 +65,19 @@ public class BitcoindClient {
 
     private final Map<HashIndex, byte[]> scriptPubKeyCache;
     private final Set<Sha256Hash> mempoolTxIds = new HashSet<>();
-    private final RecentBlocksMap recentBlocksMap = new RecentBlocksMap(MAX_REORG_DEPTH);
     private final long utxoMinValue;
+    private final TweakCalculator tweakCalculator;
+    private final BlockIndexer blockIndexer = new BlockIndexer(false);
+    private final int backfillWindow;
+    private final int backfillThreads;
+
+    private final List<ZmqSubscriber> zmqSubscribers = new ArrayList<>();
+    private final Map<Sha256Hash, Transaction> zmqTransactions = lruCache(ZMQ_TX_CACHE_SIZE);
+    private final Set<Sha256Hash> zmqAddedTxids = new LinkedHashSet<>();
+    private final Set<Sha256Hash> zmqRemovedTxids = new HashSet<>();
+    private final Set<Sha256Hash> confirmedMempoolTxids = new HashSet<>();
+    private boolean zmqMempoolUpdateScheduled;
+    private volatile long lastReconcileMillis;
 
     public BitcoindClient(Index blocksIndex, Index mempoolIndex) {
         BitcoindTransport bitcoindTransport;
@@ -85,20 +112,49 @@ public class BitcoindClient {
         }
 
         this.jsonRpcClient = new JsonRpcClient(bitcoindTransport);
+        this.coreServer = coreServer;
         this.blocksIndex = blocksIndex;
         this.mempoolIndex = mempoolIndex;
 
         int cacheSize = config.getIndex().getCacheSizeEntries();
         this.scriptPubKeyCache = lruCache(cacheSize);
         this.utxoMinValue = Config.get().getIndex().getUtxoMinValue();
+        this.tweakCalculator = new TweakCalculator(config.getIndex().getTweakThreadCount());
+
+        int backfillWindow = config.getIndex().getBackfillWindowBlocks();
+        if(backfillWindow > 0 && blocksIndex.getIndexMode() != IndexMode.FULL) {
+            log.warn("The backfillWindow under [index] in config.toml is ignored in " + blocksIndex.getIndexMode() + " mode, which must index blocks in order");
+            backfillWindow = 0;
+        }
+        this.backfillWindow = backfillWindow;
+        this.backfillThreads = config.getIndex().getBackfillThreadCount();
     }
 
-    public void initialize() {
+    /**
+     * Retrieves the network information and chain tip from Bitcoin Core, so that requests that do not need the index can be served
+     * before it has been built.
+     */
+    public void connect() {
         networkInfo = getBitcoindService().getNetworkInfo();
 
         BlockchainInfo blockchainInfo = getBitcoindService().getBlockchainInfo();
         VerboseBlockHeader blockHeader = getBitcoindService().getBlockHeader(blockchainInfo.bestblockhash());
-        tip = blockHeader.getBlockHeader();
+        setTip(blockHeader.getBlockHeader());
+    }
+
+    /**
+     * Waits for Bitcoin Core to complete its initial block download if necessary, and then builds the index up to the chain tip.
+     * Blocks are committed, and subscribers notified, as indexing progresses, so this may be called on a background thread once
+     * the servers have started.
+     */
+    public void initialize() {
+        if(networkInfo == null) {
+            connect();
+        }
+
+        BlockchainInfo blockchainInfo = getBitcoindService().getBlockchainInfo();
+        VerboseBlockHeader blockHeader = getBitcoindService().getBlockHeader(blockchainInfo.bestblockhash());
+        setTip(blockHeader.getBlockHeader());
         timer.schedule(new PollTask(), 5000, 5000);
 
         if(blockchainInfo.initialblockdownload() && networkInfo.networkactive()) {
@@ -122,113 +178,350 @@ public class BitcoindClient {
 
             blockchainInfo = getBitcoindService().getBlockchainInfo();
             blockHeader = getBitcoindService().getBlockHeader(blockchainInfo.bestblockhash());
-            tip = blockHeader.getBlockHeader();
+            setTip(blockHeader.getBlockHeader());
         }
 
         lastBlock = blockchainInfo.bestblockhash();
         Frigate.getEventBus().post(tip);
         log.info("Initializing indexes...");
+        blocksIndex.loadUtxoOutpoints();
         updateBlocksIndex();
         updateMempoolIndex();
+        lastReconcileMillis = System.currentTimeMillis();
         Frigate.getEventBus().post(tip);
+        startZmq();
+
+        if(backfillWindow > 0) {
+            backfill();
+        }
+        backfillMaxValues();
+    }
+
+    private void startZmq() {
+        Config.CoreConfig coreConfig = Config.get().getCore();
+        if(!coreConfig.shouldUseZmq()) {
+            return;
+        }
+
+        Map<String, Set<String>> endpointTopics = new LinkedHashMap<>();
+        if(coreConfig.getZmqEndpoint() != null) {
+            endpointTopics.put(coreConfig.getZmqEndpoint(), ZMQ_TOPICS);
+        } else {
+            try {
+                for(ZmqNotification notification : getBitcoindService().getZmqNotifications()) {
+                    if(ZMQ_TOPICS.contains(notification.getTopic())) {
+                        endpointTopics.computeIfAbsent(getReachableZmqAddress(notification.address()), _ -> new LinkedHashSet<>()).add(notification.getTopic());
+                    }
+                }
+            } catch(Exception e) {
+                log.debug("Could not retrieve ZMQ notifications", e);
+                return;
+            }
+        }
+
+        Set<String> topics = new HashSet<>();
+        endpointTopics.values().forEach(topics::addAll);
+        if(!topics.contains("hashblock") || !topics.contains("sequence")) {
+            if(!topics.isEmpty()) {
+                log.info("ZMQ notifications require zmqpubhashblock and zmqpubsequence to be configured, polling instead");
+            }
+            return;
+        }
+
+        ZmqListener zmqListener = new ZmqListener();
+        for(Map.Entry<String, Set<String>> entry : endpointTopics.entrySet()) {
+            try {
+                ZmqSubscriber zmqSubscriber = new ZmqSubscriber(entry.getKey(), entry.getValue(), zmqListener);
+                zmqSubscribers.add(zmqSubscriber);
+                zmqSubscriber.start();
+            } catch(IllegalArgumentException e) {
+                log.warn("Could not subscribe to ZMQ notifications at " + entry.getKey(), e);
+            }
+        }
+    }
+
+    private String getReachableZmqAddress(String address) {
+        String host = coreServer.getHost();
+        return address.replace("://0.0.0.0:", "://" + host + ":").replace("://*:", "://" + host + ":").replace("://[::]:", "://" + host + ":");
+    }
+
+    private boolean isZmqConnected() {
+        return !zmqSubscribers.isEmpty() && zmqSubscribers.stream().allMatch(ZmqSubscriber::isConnected);
     }
 
     private synchronized void updateBlocksIndex() {
         BitcoindClientService bitcoindService = getBitcoindService();
         HexFormat hexFormat = HexFormat.of();
-        boolean utxoMode = blocksIndex.getIndexMode() == IndexMode.UTXO_ONLY;
 
-        for(int i = blocksIndex.getLastBlockIndexed() + 1; i <= tip.height(); i++) {
-            String blockHash = getBitcoindService().getBlockHash(i);
-            if(i > tip.height() - MAX_REORG_DEPTH) {
-                recentBlocksMap.put(i, blockHash);
+        int fromHeight = blocksIndex.getLastBlockIndexed() + 1;
+        if(backfillWindow > 0) {
+            //Index the most recent blocks first, leaving any older blocks not yet indexed to the backfill
+            fromHeight = Math.max(fromHeight, tip.height() - backfillWindow + 1);
+        }
+
+        try {
+            for(int i = fromHeight; i <= tip.height(); i++) {
+                blockIndexer.indexBlock(bitcoindService, hexFormat, i, tip.height());
+            }
+        } finally {
+            //Commit any blocks fully processed before an error, so they are not fetched again
+            blockIndexer.commit();
+        }
+    }
+
+    /**
+     * Indexes the ranges of blocks below the most recent blocks that have not yet been indexed. The ranges are split into segments
+     * which are indexed in parallel, newest first, so that scans of recent history are completed first. Each segment is committed
+     * as it is indexed, and a segment that fails is retried, so the backfill continues until the index covers every block from the
+     * start height.
+     */
+    private void backfill() {
+        List<HeightIntervals.Interval> unindexedRanges = blocksIndex.getUnindexedRanges();
+        if(unindexedRanges.isEmpty()) {
+            return;
+        }
+
+        ExecutorService backfillExecutor = Executors.newFixedThreadPool(backfillThreads, new ThreadFactoryBuilder().setNameFormat("Backfill-%d").setDaemon(true).build());
+        try {
+            while(!unindexedRanges.isEmpty() && !stopped) {
+                List<HeightIntervals.Interval> segments = new ArrayList<>();
+                for(HeightIntervals.Interval range : unindexedRanges.reversed()) {
+                    for(int toHeight = range.to(); toHeight >= range.from(); toHeight -= BACKFILL_SEGMENT_SIZE) {
+                        segments.add(new HeightIntervals.Interval(Math.max(range.from(), toHeight - BACKFILL_SEGMENT_SIZE + 1), toHeight));
+                    }
+                }
+
+                log.info("Backfilling " + unindexedRanges.stream().mapToInt(HeightIntervals.Interval::size).sum() + " blocks in " + segments.size() + " segments");
+                List<Future<?>> futures = new ArrayList<>();
+                for(HeightIntervals.Interval segment : segments) {
+                    futures.add(backfillExecutor.submit(() -> backfillSegment(segment)));
+                }
+
+                boolean failed = false;
+                for(Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch(ExecutionException e) {
+                        failed = true;
+                    }
+                }
+
+                unindexedRanges = blocksIndex.getUnindexedRanges();
+                if(failed && !unindexedRanges.isEmpty() && !stopped) {
+                    Thread.sleep(BACKFILL_RETRY_MILLIS);
+                }
+            }
+
+            if(!stopped) {
+                log.info("Backfill complete, index covers all blocks to height " + blocksIndex.getLastBlockIndexed());
+            }
+        } catch(InterruptedException e) {
+            log.warn("Backfill interrupted");
+        } finally {
+            backfillExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Sets the largest taproot output value of tweak rows indexed before the max_value column was added, by reading the blocks they
+     * were indexed from. Rows without a value are included in scans with a dust limit, so these scans become cheaper as this progresses.
+     */
+    private void backfillMaxValues() {
+        List<Integer> heights = blocksIndex.getHeightsWithoutMaxValue();
+        if(heights.isEmpty()) {
+            return;
+        }
+
+        log.info("Backfilling output values of transactions in " + heights.size() + " blocks");
+        BitcoindClientService bitcoindService = getBitcoindService();
+        RawBlockScanner blockScanner = new RawBlockScanner();
+        Map<Sha256Hash, Long> maxValues = new HashMap<>();
+        try {
+            for(int i = 0; i < heights.size() && !stopped; i++) {
+                String blockHash = bitcoindService.getBlockHash(heights.get(i));
+                blockScanner.scan((String)bitcoindService.getBlock(blockHash, 0));
+                for(int t = 0; t < blockScanner.getTransactionCount(); t++) {
+                    long maxValue = -1;
+                    for(int outputIndex = 0; outputIndex < blockScanner.getOutputCount(t); outputIndex++) {
+                        if(blockScanner.isTaprootOutput(t, outputIndex)) {
+                            maxValue = Math.max(maxValue, blockScanner.getOutputValue(t, outputIndex));
+                        }
+                    }
+                    if(maxValue >= 0 && !blockScanner.isCoinBase(t)) {
+                        maxValues.put(blockScanner.getTxId(t), maxValue);
+                    }
+                }
+
+                if(maxValues.size() >= MAX_VALUE_BATCH_SIZE) {
+                    blocksIndex.updateMaxValues(maxValues);
+                    maxValues.clear();
+                }
+            }
+
+            blocksIndex.updateMaxValues(maxValues);
+            if(!stopped) {
+                log.info("Output value backfill complete");
+            }
+        } catch(Exception e) {
+            log.warn("Error backfilling output values, remaining blocks will be backfilled on restart", e);
+        }
+    }
+
+    private void backfillSegment(HeightIntervals.Interval segment) {
+        BitcoindClientService bitcoindService = getBitcoindService();
+        HexFormat hexFormat = HexFormat.of();
+        BlockIndexer segmentIndexer = new BlockIndexer(true);
+
+        try {
+            for(int i = segment.from(); i <= segment.to() && !stopped; i++) {
+                segmentIndexer.indexBlock(bitcoindService, hexFormat, i, Integer.MAX_VALUE);
             }
+        } catch(RuntimeException e) {
+            log.warn("Error backfilling blocks " + segment.from() + " to " + segment.to(), e);
+            throw e;
+        } finally {
+            segmentIndexer.commit();
+        }
+    }
+
+    /**
+     * Indexes blocks in order, buffering their rows so that blocks far from the tip are committed together. The forward indexer and
+     * each backfill segment have their own instance, since the scanner, rows and buffer are reused from block to block.
+     */
+    private class BlockIndexer {
+        private final boolean backfill;
+        private final RawBlockScanner blockScanner = new RawBlockScanner();
+        private final TweakRows blockRows = new TweakRows();
+        private final IngestBuffer ingestBuffer = new IngestBuffer();
+        //Outputs in the buffered blocks that may be indexed once committed, so that spends of them are also detected
+        private final Set<HashIndex> pendingUtxos = new HashSet<>();
+
+        public BlockIndexer(boolean backfill) {
+            this.backfill = backfill;
+        }
+
+        public void indexBlock(BitcoindClientService bitcoindService, HexFormat hexFormat, int height, int tipHeight) {
+            boolean utxoMode = blocksIndex.getIndexMode() == IndexMode.UTXO_ONLY;
+            //In HYBRID mode every eligible transaction is indexed, and spent outputs are also removed from the unspent outputs.
+            //Backfilled blocks are below outputs already indexed, so their spends cannot be applied in order and are not tracked
+            boolean trackSpends = blocksIndex.isTrackingSpends() && !backfill;
+            //In FULL mode every taproot output of a tweak row is tracked, rather than only those kept as unspent outputs
+            long trackedMinValue = blocksIndex.getIndexMode() == IndexMode.FULL ? 0 : utxoMinValue;
+            String blockHash = bitcoindService.getBlockHash(height);
             String blockHex = (String)bitcoindService.getBlock(blockHash, 0);
-            Block block = new Block(hexFormat.parseHex(blockHex));
+            blockScanner.scan(blockHex);
 
-            Map<BlockTransaction, byte[]> eligibleTransactions = new LinkedHashMap<>();
+            //Only transactions with a taproot output are materialised, since they are the only ones a tweak is computed for
+            List<Transaction> tweakTransactions = new ArrayList<>();
+            int[] tweakTransactionIndexes = new int[blockScanner.getTransactionCount()];
             Map<HashIndex, Script> spentScriptPubKeys = new HashMap<>();
-            Set<HashIndex> spentP2TROutpoints = utxoMode ? new HashSet<>() : null;
+            Set<HashIndex> spentP2TROutpoints = trackSpends ? new HashSet<>() : null;
 
-            for(Transaction tx : block.getTransactions()) {
-                for(int outputIndex = 0; outputIndex < tx.getOutputs().size(); outputIndex++) {
-                    byte[] scriptPubKeyBytes = tx.getOutputs().get(outputIndex).getScriptBytes();
-                    addtoScriptPubKeyCache(tx.getTxId(), outputIndex, scriptPubKeyBytes);
+            for(int t = 0; t < blockScanner.getTransactionCount(); t++) {
+                Sha256Hash txid = blockScanner.getTxId(t);
+                for(int outputIndex = 0; outputIndex < blockScanner.getOutputCount(t); outputIndex++) {
+                    addtoScriptPubKeyCache(txid, outputIndex, blockScanner.getData(), blockScanner.getScriptOffset(t, outputIndex), blockScanner.getScriptLength(t, outputIndex));
                 }
 
-                if(!tx.isCoinBase()) {
-                    // In UTXO mode, collect spent P2TR outpoints for removal
-                    if(utxoMode) {
-                        for(TransactionInput txInput : tx.getInputs()) {
-                            HashIndex hashIndex = new HashIndex(txInput.getOutpoint().getHash(), txInput.getOutpoint().getIndex());
-                            Script spentScript = getScriptPubKey(bitcoindService, hexFormat, hashIndex);
-                            if(spentScript != null && ScriptType.P2TR.isScriptType(spentScript)) {
+                //Backfilled blocks are too old to confirm transactions in the mempool
+                if(!backfill && mempoolTxIds.contains(txid)) {
+                    confirmedMempoolTxids.add(txid);
+                }
+
+                if(!blockScanner.isCoinBase(t)) {
+                    //When spends are tracked, spends of unspent outputs are detected against the outpoints held in memory,
+                    //so only the inputs of eligible transactions need their scriptPubKeys looked up
+                    if(trackSpends) {
+                        for(int inputIndex = 0; inputIndex < blockScanner.getInputCount(t); inputIndex++) {
+                            HashIndex hashIndex = blockScanner.getOutpoint(t, inputIndex);
+                            if(blocksIndex.containsUtxo(hashIndex) || pendingUtxos.contains(hashIndex)) {
                                 spentP2TROutpoints.add(hashIndex);
                             }
-                            spentScriptPubKeys.put(hashIndex, spentScript);
                         }
-                    }
-
-                    if(containsTaprootOutput(tx, utxoMode ? utxoMinValue : 0)) {
-                        if(!utxoMode) {
-                            for(TransactionInput txInput : tx.getInputs()) {
-                                HashIndex hashIndex = new HashIndex(txInput.getOutpoint().getHash(), txInput.getOutpoint().getIndex());
-                                spentScriptPubKeys.put(hashIndex, getScriptPubKey(bitcoindService, hexFormat, hashIndex));
+                        for(int outputIndex = 0; outputIndex < blockScanner.getOutputCount(t); outputIndex++) {
+                            if(blockScanner.isTaprootOutput(t, outputIndex) && blockScanner.getOutputValue(t, outputIndex) >= trackedMinValue) {
+                                pendingUtxos.add(new HashIndex(txid, outputIndex));
                             }
                         }
+                    }
 
-                        byte[] tweak = SilentPaymentUtils.getTweak(tx, spentScriptPubKeys, false);
-                        if(tweak != null) {
-                            if(utxoMode) {
-                                // Filter outputs by value for UTXO mode
-                                Transaction filteredTx = filterOutputsByValue(tx, utxoMinValue);
-                                if(containsTaprootOutput(filteredTx, 0)) {
-                                    BlockTransaction blkTx = new BlockTransaction(filteredTx.getTxId(), i, block.getBlockHeader().getTimeAsDate(), 0L, filteredTx, block.getHash());
-                                    eligibleTransactions.put(blkTx, SilentPaymentUtils.getSecp256k1PubKey(tweak));
-                                }
-                            } else {
-                                BlockTransaction blkTx = new BlockTransaction(tx.getTxId(), i, block.getBlockHeader().getTimeAsDate(), 0L, tx, block.getHash());
-                                eligibleTransactions.put(blkTx, SilentPaymentUtils.getSecp256k1PubKey(tweak));
-                            }
+                    if(blockScanner.containsTaprootOutput(t, utxoMode ? utxoMinValue : 0)) {
+                        for(int inputIndex = 0; inputIndex < blockScanner.getInputCount(t); inputIndex++) {
+                            HashIndex hashIndex = blockScanner.getOutpoint(t, inputIndex);
+                            spentScriptPubKeys.put(hashIndex, getScriptPubKey(bitcoindService, hexFormat, hashIndex));
                         }
+
+                        tweakTransactionIndexes[tweakTransactions.size()] = t;
+                        tweakTransactions.add(blockScanner.getTransaction(t));
                     }
                 }
             }
 
-            // In UTXO mode, remove spent outputs first
-            if(utxoMode && !spentP2TROutpoints.isEmpty()) {
-                blocksIndex.removeSpentUtxos(spentP2TROutpoints);
+            List<byte[]> tweaks = tweakCalculator.getTweaks(tweakTransactions, spentScriptPubKeys);
+            blockRows.clear();
+            for(int k = 0; k < tweaks.size(); k++) {
+                byte[] tweak = tweaks.get(k);
+                if(tweak != null) {
+                    int t = tweakTransactionIndexes[k];
+                    blockRows.addTransaction(tweakTransactions.get(k).getTxId().getBytes(), height, tweak);
+                    for(int outputIndex = 0; outputIndex < blockScanner.getOutputCount(t); outputIndex++) {
+                        if(blockScanner.isTaprootOutput(t, outputIndex)) {
+                            blockRows.addOutput(outputIndex, blockScanner.getTaprootHashPrefix(t, outputIndex), blockScanner.getOutputValue(t, outputIndex));
+                        }
+                    }
+                }
             }
 
-            if(!eligibleTransactions.isEmpty()) {
-                if(utxoMode) {
-                    blocksIndex.addUtxosToIndex(eligibleTransactions, utxoMinValue);
-                } else {
-                    blocksIndex.addToIndex(eligibleTransactions);
-                }
+            //Far behind the tip, many blocks are committed in one transaction rather than one per block
+            ingestBuffer.addBlock(height, blockHash, blockRows, spentP2TROutpoints);
+            if(ingestBuffer.shouldCommit(tipHeight)) {
+                commit();
             }
         }
+
+        public void commit() {
+            blocksIndex.commit(ingestBuffer, utxoMinValue, backfill);
+            pendingUtxos.clear();
+        }
     }
 
     private synchronized void updateMempoolIndex() {
-        BitcoindClientService bitcoindService = getBitcoindService();
-        HexFormat hexFormat = HexFormat.of();
-        boolean utxoMode = mempoolIndex.getIndexMode() == IndexMode.UTXO_ONLY;
-
-        Set<Sha256Hash> currentMempoolTxids = bitcoindService.getRawMempool();
+        Set<Sha256Hash> currentMempoolTxids = getBitcoindService().getRawMempool();
         Set<Sha256Hash> removedTxids = new HashSet<>(mempoolTxIds);
         removedTxids.removeAll(currentMempoolTxids);
         Set<Sha256Hash> addedTxids = new HashSet<>(currentMempoolTxids);
         addedTxids.removeAll(mempoolTxIds);
 
-        Map<BlockTransaction, byte[]> eligibleTransactions = new LinkedHashMap<>();
+        confirmedMempoolTxids.clear();
+        applyMempoolChanges(addedTxids, removedTxids, Collections.emptyMap());
+    }
+
+    private synchronized void removeConfirmedFromMempoolIndex() {
+        Set<Sha256Hash> removedTxids = new HashSet<>(confirmedMempoolTxids);
+        removedTxids.retainAll(mempoolTxIds);
+        confirmedMempoolTxids.clear();
+
+        if(!removedTxids.isEmpty()) {
+            applyMempoolChanges(Collections.emptySet(), removedTxids, Collections.emptyMap());
+        }
+    }
+
+    private synchronized void applyMempoolChanges(Set<Sha256Hash> addedTxids, Set<Sha256Hash> removedTxids, Map<Sha256Hash, Transaction> knownTransactions) {
+        BitcoindClientService bitcoindService = getBitcoindService();
+        HexFormat hexFormat = HexFormat.of();
+        boolean utxoMode = mempoolIndex.getIndexMode() == IndexMode.UTXO_ONLY;
+
+        List<Transaction> tweakTransactions = new ArrayList<>();
         Map<HashIndex, Script> spentScriptPubKeys = new HashMap<>();
         Set<HashIndex> spentP2TROutpoints = utxoMode ? new HashSet<>() : null;
 
         for(Sha256Hash addedTxid : addedTxids) {
             try {
-                String txHex = (String)getBitcoindService().getRawTransaction(addedTxid.toString(), false);
-                Transaction tx = new Transaction(hexFormat.parseHex(txHex));
+                Transaction tx = knownTransactions.get(addedTxid);
+                if(tx == null) {
+                    String txHex = (String)getBitcoindService().getRawTransaction(addedTxid.toString(), false);
+                    tx = new Transaction(hexFormat.parseHex(txHex));
+                }
                 for(int outputIndex = 0; outputIndex < tx.getOutputs().size(); outputIndex++) {
                     byte[] scriptPubKeyBytes = tx.getOutputs().get(outputIndex).getScriptBytes();
                     addtoScriptPubKeyCache(tx.getTxId(), outputIndex, scriptPubKeyBytes);
@@ -255,20 +548,7 @@ public class BitcoindClient {
                             }
                         }
 
-                        byte[] tweak = SilentPaymentUtils.getTweak(tx, spentScriptPubKeys, false);
-                        if(tweak != null) {
-                            if(utxoMode) {
-                                // Filter outputs by value for UTXO mode
-                                Transaction filteredTx = filterOutputsByValue(tx, utxoMinValue);
-                                if(containsTaprootOutput(filteredTx, 0)) {
-                                    BlockTransaction blkTx = new BlockTransaction(filteredTx.getTxId(), 0, null, 0L, filteredTx, null);
-                                    eligibleTransactions.put(blkTx, SilentPaymentUtils.getSecp256k1PubKey(tweak));
-                                }
-                            } else {
-                                BlockTransaction blkTx = new BlockTransaction(tx.getTxId(), 0, null, 0L, tx, null);
-                                eligibleTransactions.put(blkTx, SilentPaymentUtils.getSecp256k1PubKey(tweak));
-                            }
-                        }
+                        tweakTransactions.add(tx);
                     }
                 }
             } catch(JsonRpcException e) {
@@ -276,6 +556,8 @@ public class BitcoindClient {
             }
         }
 
+        Map<BlockTransaction, byte[]> eligibleTransactions = getEligibleTransactions(tweakTransactions, spentScriptPubKeys, utxoMode, 0, null, null);
+
         if(!removedTxids.isEmpty()) {
             mempoolIndex.removeFromIndex(removedTxids);
         }
@@ -297,9 +579,36 @@ public class BitcoindClient {
         mempoolTxIds.addAll(addedTxids);
     }
 
+    private Map<BlockTransaction, byte[]> getEligibleTransactions(List<Transaction> transactions, Map<HashIndex, Script> spentScriptPubKeys, boolean utxoMode, int height, Date date, Sha256Hash blockHash) {
+        List<byte[]> tweaks = tweakCalculator.getTweaks(transactions, spentScriptPubKeys);
+
+        Map<BlockTransaction, byte[]> eligibleTransactions = new LinkedHashMap<>();
+        for(int i = 0; i < transactions.size(); i++) {
+            Transaction tx = transactions.get(i);
+            byte[] tweak = tweaks.get(i);
+            if(tweak != null) {
+                if(utxoMode) {
+                    // Filter outputs by value for UTXO mode
+                    Transaction filteredTx = filterOutputsByValue(tx, utxoMinValue);
+                    if(containsTaprootOutput(filteredTx, 0)) {
+                        BlockTransaction blkTx = new BlockTransaction(filteredTx.getTxId(), height, date, 0L, filteredTx, blockHash);
+                        eligibleTransactions.put(blkTx, tweak);
+                    }
+                } else {
+                    BlockTransaction blkTx = new BlockTransaction(tx.getTxId(), height, date, 0L, tx, blockHash);
+                    eligibleTransactions.put(blkTx, tweak);
+                }
+            }
+        }
+
+        return eligibleTransactions;
+    }
+
     public void stop() {
         timer.cancel();
         stopped = true;
+        tweakCalculator.shutdown();
+        zmqSubscribers.forEach(ZmqSubscriber::stop);
     }
 
     public BitcoindClientService getBitcoindService() {
@@ -314,6 +623,11 @@ public class BitcoindClient {
         return tip;
     }
 
+    private void setTip(ElectrumBlockHeader tip) {
+        this.tip = tip;
+        blocksIndex.setTipHeight(tip.height());
+    }
+
     private Script getScriptPubKey(BitcoindClientService bitcoindClientService, HexFormat hexFormat, HashIndex hashIndex) {
         Script scriptPubKey = getFromScriptPubKeyCache(hashIndex);
         if(scriptPubKey == null) {
@@ -333,12 +647,29 @@ public class BitcoindClient {
     }
 
     private class PollTask extends TimerTask {
+        private final boolean notified;
+
+        public PollTask() {
+            this(false);
+        }
+
+        public PollTask(boolean notified) {
+            this.notified = notified;
+        }
+
         @Override
         public void run() {
             if(stopped) {
                 timer.cancel();
             }
 
+            //When ZMQ notifications are connected, polling only reconciles at a slower interval
+            long now = System.currentTimeMillis();
+            boolean reconcile = !isZmqConnected() || now - lastReconcileMillis >= ZMQ_RECONCILE_INTERVAL_MILLIS;
+            if(!notified && !reconcile) {
+                return;
+            }
+
             try {
                 if(syncing) {
                     BlockchainInfo blockchainInfo = getBitcoindService().getBlockchainInfo();
@@ -360,7 +691,7 @@ public class BitcoindClient {
                     if(!lastBlock.equals(blockhash)) {
                         int reorgStartHeight = tip.height();
                         for(; reorgStartHeight >= tip.height() - MAX_REORG_DEPTH; reorgStartHeight--) {
-                            String indexedBlockHash = recentBlocksMap.get(reorgStartHeight);
+                            String indexedBlockHash = blocksIndex.getRecentBlockHash(reorgStartHeight);
                             String reorgBlockhash = getBitcoindService().getBlockHash(reorgStartHeight);
                             if(indexedBlockHash == null || indexedBlockHash.equals(reorgBlockhash)) {
                                 break;
@@ -387,13 +718,19 @@ public class BitcoindClient {
 
                 if(currentBlock == null || !currentBlock.equals(blockchainInfo.bestblockhash())) {
                     VerboseBlockHeader blockHeader = getBitcoindService().getBlockHeader(blockchainInfo.bestblockhash());
-                    tip = blockHeader.getBlockHeader();
+                    setTip(blockHeader.getBlockHeader());
+                    BlockTracer.get().blockDetected(tip.height());
                     log.debug("New block height " + tip.height());
                     Frigate.getEventBus().post(tip);
                     updateBlocksIndex();
                 }
 
-                updateMempoolIndex();
+                if(reconcile) {
+                    updateMempoolIndex();
+                    lastReconcileMillis = now;
+                } else {
+                    removeConfirmedFromMempoolIndex();
+                }
 
                 lastBlock = blockchainInfo.bestblockhash();
             } catch(Exception e) {
@@ -412,6 +749,97 @@ public class BitcoindClient {
         }
     }
 
+    private class ZmqMempoolTask extends TimerTask {
+        @Override
+        public void run() {
+            Set<Sha256Hash> addedTxids;
+            Set<Sha256Hash> removedTxids;
+            Map<Sha256Hash, Transaction> knownTransactions = new HashMap<>();
+            synchronized(zmqTransactions) {
+                zmqMempoolUpdateScheduled = false;
+                addedTxids = new LinkedHashSet<>(zmqAddedTxids);
+                removedTxids = new HashSet<>(zmqRemovedTxids);
+                zmqAddedTxids.clear();
+                zmqRemovedTxids.clear();
+                for(Sha256Hash txid : addedTxids) {
+                    Transaction tx = zmqTransactions.remove(txid);
+                    if(tx != null) {
+                        knownTransactions.put(txid, tx);
+                    }
+                }
+            }
+
+            try {
+                synchronized(BitcoindClient.this) {
+                    addedTxids.removeAll(mempoolTxIds);
+                    removedTxids.retainAll(mempoolTxIds);
+                    if(!addedTxids.isEmpty() || !removedTxids.isEmpty()) {
+                        applyMempoolChanges(addedTxids, removedTxids, knownTransactions);
+                    }
+                }
+            } catch(Exception e) {
+                log.warn("Error applying ZMQ mempool changes", e);
+                lastReconcileMillis = 0;
+            }
+        }
+    }
+
+    private class ZmqListener implements ZmqSubscriber.Listener {
+        @Override
+        public void onConnected(ZmqSubscriber subscriber) {
+            //Notifications may have been missed while disconnected
+            lastReconcileMillis = 0;
+        }
+
+        @Override
+        public void onMessage(String topic, byte[] body, long sequence) {
+            switch(topic) {
+                case "hashblock" -> schedule(new PollTask(true), 0);
+                case "rawtx" -> {
+                    Transaction tx = new Transaction(body);
+                    synchronized(zmqTransactions) {
+                        zmqTransactions.put(tx.getTxId(), tx);
+                    }
+                }
+                case "sequence" -> {
+                    if(body.length < 33) {
+                        return;
+                    }
+
+                    //Hashes are published in RPC byte order
+                    Sha256Hash txid = Sha256Hash.wrap(Arrays.copyOfRange(body, 0, 32));
+                    char label = (char)body[32];
+                    if(label == 'A' || label == 'R') {
+                        synchronized(zmqTransactions) {
+                            if(label == 'A') {
+                                zmqRemovedTxids.remove(txid);
+                                zmqAddedTxids.add(txid);
+                            } else if(!zmqAddedTxids.remove(txid)) {
+                                zmqRemovedTxids.add(txid);
+                            }
+
+                            if(!zmqMempoolUpdateScheduled) {
+                                zmqMempoolUpdateScheduled = true;
+                                schedule(new ZmqMempoolTask(), ZMQ_MEMPOOL_BATCH_MILLIS);
+                            }
+                        }
+                    }
+                }
+                default -> {}
+            }
+        }
+
+        private void schedule(TimerTask task, long delay) {
+            if(!stopped) {
+                try {
+                    timer.schedule(task, delay);
+                } catch(IllegalStateException e) {
+                    //timer cancelled
+                }
+            }
+        }
+    }
+
     public Integer findBlockByTimestamp(long targetTimestamp) {
         if(targetTimestamp < 0) {
             throw new IllegalArgumentException("Target timestamp cannot be negative");
@@ -448,7 +876,10 @@ public class BitcoindClient {
     }
 
     private Script getFromScriptPubKeyCache(HashIndex hashIndex) {
-        byte[] scriptPubKeyBytes = scriptPubKeyCache.get(hashIndex);
+        byte[] scriptPubKeyBytes;
+        synchronized(scriptPubKeyCache) {
+            scriptPubKeyBytes = scriptPubKeyCache.get(hashIndex);
+        }
         if(scriptPubKeyBytes != null) {
             return new Script(scriptPubKeyBytes);
         }
@@ -459,10 +890,18 @@ public class BitcoindClient {
     private void addtoScriptPubKeyCache(Sha256Hash txid, int outputIndex, byte[] scriptPubKeyBytes) {
         HashIndex hashIndex = new HashIndex(txid, outputIndex);
         //Only cache if the length of the field matches one of the valid
-        if(getValidScriptType(scriptPubKeyBytes) != null) {
-            scriptPubKeyCache.put(hashIndex, scriptPubKeyBytes);
-        } else {
-            scriptPubKeyCache.put(hashIndex, new byte[0]);
+        byte[] cachedBytes = getValidScriptType(scriptPubKeyBytes) != null ? scriptPubKeyBytes : EMPTY_SCRIPT;
+        synchronized(scriptPubKeyCache) {
+            scriptPubKeyCache.put(hashIndex, cachedBytes);
+        }
+    }
+
+    private void addtoScriptPubKeyCache(Sha256Hash txid, int outputIndex, byte[] data, int offset, int length) {
+        HashIndex hashIndex = new HashIndex(txid, outputIndex);
+        //Only copy the script out of the block if it is one of the valid types
+        byte[] cachedBytes = getValidScriptType(data, offset, length) != null ? Arrays.copyOfRange(data, offset, offset + length) : EMPTY_SCRIPT;
+        synchronized(scriptPubKeyCache) {
+            scriptPubKeyCache.put(hashIndex, cachedBytes);
         }
     }
 
@@ -491,37 +930,39 @@ public class BitcoindClient {
             return null;
         }
 
-        int length = scriptPubKey.length;
+        return getValidScriptType(scriptPubKey, 0, scriptPubKey.length);
+    }
 
+    private static ScriptType getValidScriptType(byte[] data, int offset, int length) {
         // P2PKH: 25 bytes - OP_DUP OP_HASH160 <20-byte hash> OP_EQUALVERIFY OP_CHECKSIG
         if(length == 25 &&
-                scriptPubKey[0] == (byte) 0x76 &&  // OP_DUP
-                scriptPubKey[1] == (byte) 0xa9 &&  // OP_HASH160
-                scriptPubKey[2] == (byte) 0x14 &&  // Push 20 bytes
-                scriptPubKey[23] == (byte) 0x88 && // OP_EQUALVERIFY
-                scriptPubKey[24] == (byte) 0xac) { // OP_CHECKSIG
+                data[offset] == (byte) 0x76 &&  // OP_DUP
+                data[offset + 1] == (byte) 0xa9 &&  // OP_HASH160
+                data[offset + 2] == (byte) 0x14 &&  // Push 20 bytes
+                data[offset + 23] == (byte) 0x88 && // OP_EQUALVERIFY
+                data[offset + 24] == (byte) 0xac) { // OP_CHECKSIG
             return ScriptType.P2PKH;
         }
 
         // P2SH-P2WPKH: 23 bytes - OP_HASH160 <20-byte hash> OP_EQUAL
         if(length == 23 &&
-                scriptPubKey[0] == (byte) 0xa9 &&  // OP_HASH160
-                scriptPubKey[1] == (byte) 0x14 &&  // Push 20 bytes
-                scriptPubKey[22] == (byte) 0x87) { // OP_EQUAL
+                data[offset] == (byte) 0xa9 &&  // OP_HASH160
+                data[offset + 1] == (byte) 0x14 &&  // Push 20 bytes
+                data[offset + 22] == (byte) 0x87) { // OP_EQUAL
             return ScriptType.P2SH_P2WPKH;
         }
 
         // P2WPKH: 22 bytes - OP_0 <20-byte hash>
         if(length == 22 &&
-                scriptPubKey[0] == (byte) 0x00 &&  // OP_0
-                scriptPubKey[1] == (byte) 0x14) {  // Push 20 bytes
+                data[offset] == (byte) 0x00 &&  // OP_0
+                data[offset + 1] == (byte) 0x14) {  // Push 20 bytes
             return ScriptType.P2WPKH;
         }
 
         // P2TR: 34 bytes - OP_1 <32-byte taproot output>
         if(length == 34 &&
-                scriptPubKey[0] == (byte) 0x51 &&  // OP_1
-                scriptPubKey[1] == (byte) 0x20) {  // Push 32 bytes
+                data[offset] == (byte) 0x51 &&  // OP_1
+                data[offset + 1] == (byte) 0x20) {  // Push 32 bytes
             return ScriptType.P2TR;
         }
 
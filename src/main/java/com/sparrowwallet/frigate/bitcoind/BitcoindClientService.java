@@ -69,6 +69,9 @@ public interface BitcoindClientService {
     @JsonRpcMethod("scantxoutset")
     ScanTxOutSetResult scanTxOutSet(@JsonRpcParam("action") String action, @JsonRpcParam("scanobjects") List<String> scanObjects);
 
+    @JsonRpcMethod("getzmqnotifications")
+    List<ZmqNotification> getZmqNotifications();
+
     @JsonRpcMethod("dumptxoutset")
     DumpTxOutSetResult dumpTxOutSet(@JsonRpcParam("path") String path, @JsonRpcParam("type") @JsonRpcOptional String type);
 }
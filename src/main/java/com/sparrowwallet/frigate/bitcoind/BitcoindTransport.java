@@ -81,6 +81,9 @@ public class BitcoindTransport implements Transport {
         if(statusCode == 401) {
             throw new IOException((cookieFile == null ? "User/pass" : "Cookie file") + " authentication failed");
         }
+        if(statusCode == 503) {
+            throw new WorkQueueExceededException("Bitcoin Core RPC work queue depth exceeded");
+        }
         InputStream inputStream = connection.getErrorStream() == null ? connection.getInputStream() : connection.getErrorStream();
 
         StringBuilder res = new StringBuilder();
@@ -0,0 +1,54 @@
+package com.sparrowwallet.frigate.bitcoind;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Progress of a UTXO bootstrap, saved after each batch is committed to the index so that an interrupted bootstrap can resume
+ * from the same snapshot. The snapshot is identified by its base block hash and file size, and the position is the point in
+ * the snapshot immediately after the last committed txid group.
+ */
+public record BootstrapCheckpoint(String snapshotBlockHash, long snapshotSize, UtxoSnapshotParser.Position position, String lastTxid, long transactions, long indexed) {
+    public boolean matches(String blockHash, long size) {
+        return blockHash.equals(snapshotBlockHash) && snapshotSize == size;
+    }
+
+    public void save(File file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("snapshotBlockHash", snapshotBlockHash);
+        properties.setProperty("snapshotSize", Long.toString(snapshotSize));
+        properties.setProperty("offset", Long.toString(position.offset()));
+        properties.setProperty("coins", Long.toString(position.coins()));
+        properties.setProperty("lastTxid", lastTxid);
+        properties.setProperty("transactions", Long.toString(transactions));
+        properties.setProperty("indexed", Long.toString(indexed));
+
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try(Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+            properties.store(writer, "Frigate UTXO bootstrap checkpoint");
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static BootstrapCheckpoint load(File file) throws IOException {
+        if(!file.exists()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try(Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+
+        try {
+            UtxoSnapshotParser.Position position = new UtxoSnapshotParser.Position(Long.parseLong(properties.getProperty("offset")), Long.parseLong(properties.getProperty("coins")));
+            return new BootstrapCheckpoint(properties.getProperty("snapshotBlockHash"), Long.parseLong(properties.getProperty("snapshotSize")), position,
+                    properties.getProperty("lastTxid"), Long.parseLong(properties.getProperty("transactions")), Long.parseLong(properties.getProperty("indexed")));
+        } catch(NumberFormatException | NullPointerException e) {
+            throw new IOException("Invalid bootstrap checkpoint " + file.getAbsolutePath(), e);
+        }
+    }
+}
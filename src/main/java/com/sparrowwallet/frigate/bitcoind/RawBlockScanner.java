@@ -0,0 +1,285 @@
+package com.sparrowwallet.frigate.bitcoind;
+
+import com.sparrowwallet.drongo.protocol.HashIndex;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.protocol.Transaction;
+import com.sparrowwallet.frigate.index.Index;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Scans a serialized block in place, recording the offsets of each transaction's outpoints and output scripts in primitive arrays
+ * that are reused from block to block. Nothing is allocated per output, and a full {@link Transaction} is only created on request
+ * for the few transactions that need a tweak computed. Txids are hashed directly from the stripped serialization within the block.
+ * Instances are not thread safe, and the values returned refer to the most recently scanned block.
+ */
+public class RawBlockScanner {
+    private static final int HEADER_SIZE = 80;
+    private static final int OUTPOINT_SIZE = 36;
+
+    private final MessageDigest sha256;
+    private final byte[] hash = new byte[32];
+
+    private byte[] data = new byte[1024 * 1024];
+    private int length;
+
+    private int txCount;
+    private int[] txStarts = new int[4096];
+    private int[] txEnds = new int[4096];
+    private int[] txFirstInputs = new int[4096];
+    private int[] txFirstOutputs = new int[4096];
+    private byte[] txids = new byte[4096 * 32];
+
+    private int inputCount;
+    private int[] outpointOffsets = new int[16384];
+
+    private int outputCount;
+    private long[] outputValues = new long[16384];
+    private int[] scriptOffsets = new int[16384];
+    private int[] scriptLengths = new int[16384];
+
+    public RawBlockScanner() {
+        try {
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decodes the hex serialization of a block into the reusable buffer and scans it.
+     */
+    public void scan(String blockHex) {
+        int size = blockHex.length() / 2;
+        if(data.length < size) {
+            data = new byte[Math.max(size, data.length * 2)];
+        }
+        for(int i = 0; i < size; i++) {
+            data[i] = (byte)((Character.digit(blockHex.charAt(i * 2), 16) << 4) | Character.digit(blockHex.charAt(i * 2 + 1), 16));
+        }
+        length = size;
+        scan();
+    }
+
+    private void scan() {
+        txCount = 0;
+        inputCount = 0;
+        outputCount = 0;
+
+        int pos = HEADER_SIZE;
+        long count = readVarInt(pos);
+        pos += varIntSize(pos);
+        for(long t = 0; t < count; t++) {
+            pos = scanTransaction(pos);
+        }
+
+        if(pos != length) {
+            throw new IllegalArgumentException("Block has " + (length - pos) + " unexpected trailing bytes");
+        }
+    }
+
+    private int scanTransaction(int start) {
+        int tx = txCount++;
+        if(tx == txStarts.length) {
+            int capacity = txStarts.length * 2;
+            txStarts = Arrays.copyOf(txStarts, capacity);
+            txEnds = Arrays.copyOf(txEnds, capacity);
+            txFirstInputs = Arrays.copyOf(txFirstInputs, capacity);
+            txFirstOutputs = Arrays.copyOf(txFirstOutputs, capacity);
+            txids = Arrays.copyOf(txids, capacity * 32);
+        }
+        txStarts[tx] = start;
+        txFirstInputs[tx] = inputCount;
+        txFirstOutputs[tx] = outputCount;
+
+        int pos = start + 4;
+        boolean segwit = data[pos] == 0 && data[pos + 1] == 1;
+        if(segwit) {
+            pos += 2;
+        }
+
+        int strippedStart = pos;
+        long inputs = readVarInt(pos);
+        pos += varIntSize(pos);
+        for(long i = 0; i < inputs; i++) {
+            if(inputCount == outpointOffsets.length) {
+                outpointOffsets = Arrays.copyOf(outpointOffsets, inputCount * 2);
+            }
+            outpointOffsets[inputCount++] = pos;
+            pos += OUTPOINT_SIZE;
+            long scriptLength = readVarInt(pos);
+            pos += varIntSize(pos) + (int)scriptLength + 4;
+        }
+
+        long outputs = readVarInt(pos);
+        pos += varIntSize(pos);
+        for(long o = 0; o < outputs; o++) {
+            if(outputCount == outputValues.length) {
+                int capacity = outputCount * 2;
+                outputValues = Arrays.copyOf(outputValues, capacity);
+                scriptOffsets = Arrays.copyOf(scriptOffsets, capacity);
+                scriptLengths = Arrays.copyOf(scriptLengths, capacity);
+            }
+            outputValues[outputCount] = readUint64(pos);
+            pos += 8;
+            long scriptLength = readVarInt(pos);
+            pos += varIntSize(pos);
+            scriptOffsets[outputCount] = pos;
+            scriptLengths[outputCount] = (int)scriptLength;
+            outputCount++;
+            pos += (int)scriptLength;
+        }
+        int strippedEnd = pos;
+
+        if(segwit) {
+            for(long i = 0; i < inputs; i++) {
+                long items = readVarInt(pos);
+                pos += varIntSize(pos);
+                for(long w = 0; w < items; w++) {
+                    long itemLength = readVarInt(pos);
+                    pos += varIntSize(pos) + (int)itemLength;
+                }
+            }
+        }
+
+        int lockTime = pos;
+        pos += 4;
+        if(pos > length) {
+            throw new IllegalArgumentException("Transaction " + tx + " extends past the end of the block");
+        }
+        txEnds[tx] = pos;
+
+        //The txid is the double SHA256 of the serialization without the marker, flag and witnesses, in reversed byte order
+        try {
+            sha256.update(data, start, 4);
+            sha256.update(data, strippedStart, strippedEnd - strippedStart);
+            sha256.update(data, lockTime, 4);
+            sha256.digest(hash, 0, 32);
+            sha256.update(hash, 0, 32);
+            sha256.digest(hash, 0, 32);
+        } catch(DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        for(int i = 0; i < 32; i++) {
+            txids[tx * 32 + i] = hash[31 - i];
+        }
+
+        return pos;
+    }
+
+    public long getBlockTime() {
+        return readUint32(68);
+    }
+
+    public int getTransactionCount() {
+        return txCount;
+    }
+
+    public Sha256Hash getTxId(int tx) {
+        return Sha256Hash.wrap(Arrays.copyOfRange(txids, tx * 32, tx * 32 + 32));
+    }
+
+    public boolean isCoinBase(int tx) {
+        if(getInputCount(tx) != 1) {
+            return false;
+        }
+
+        int offset = outpointOffsets[txFirstInputs[tx]];
+        for(int i = 0; i < 32; i++) {
+            if(data[offset + i] != 0) {
+                return false;
+            }
+        }
+        return readUint32(offset + 32) == 0xFFFFFFFFL;
+    }
+
+    public int getInputCount(int tx) {
+        return (tx + 1 < txCount ? txFirstInputs[tx + 1] : inputCount) - txFirstInputs[tx];
+    }
+
+    public HashIndex getOutpoint(int tx, int input) {
+        int offset = outpointOffsets[txFirstInputs[tx] + input];
+        byte[] prevTxid = new byte[32];
+        for(int i = 0; i < 32; i++) {
+            prevTxid[i] = data[offset + 31 - i];
+        }
+        return new HashIndex(Sha256Hash.wrap(prevTxid), readUint32(offset + 32));
+    }
+
+    public int getOutputCount(int tx) {
+        return (tx + 1 < txCount ? txFirstOutputs[tx + 1] : outputCount) - txFirstOutputs[tx];
+    }
+
+    public long getOutputValue(int tx, int output) {
+        return outputValues[txFirstOutputs[tx] + output];
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getScriptOffset(int tx, int output) {
+        return scriptOffsets[txFirstOutputs[tx] + output];
+    }
+
+    public int getScriptLength(int tx, int output) {
+        return scriptLengths[txFirstOutputs[tx] + output];
+    }
+
+    public boolean isTaprootOutput(int tx, int output) {
+        int offset = getScriptOffset(tx, output);
+        return getScriptLength(tx, output) == 34 && data[offset] == 0x51 && data[offset + 1] == 0x20;
+    }
+
+    public boolean containsTaprootOutput(int tx, long minValue) {
+        for(int o = 0; o < getOutputCount(tx); o++) {
+            if(isTaprootOutput(tx, o) && getOutputValue(tx, o) >= minValue) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the first 8 bytes of the x-only output key of a taproot output, as stored in the index.
+     */
+    public long getTaprootHashPrefix(int tx, int output) {
+        return Index.getHashPrefix(data, getScriptOffset(tx, output) + 2);
+    }
+
+    /**
+     * Creates a full transaction from its serialization in the block, for computing its tweak.
+     */
+    public Transaction getTransaction(int tx) {
+        return new Transaction(Arrays.copyOfRange(data, txStarts[tx], txEnds[tx]));
+    }
+
+    private long readVarInt(int pos) {
+        int first = data[pos] & 0xFF;
+        if(first < 0xFD) {
+            return first;
+        } else if(first == 0xFD) {
+            return (data[pos + 1] & 0xFF) | (data[pos + 2] & 0xFF) << 8;
+        } else if(first == 0xFE) {
+            return readUint32(pos + 1);
+        } else {
+            return readUint64(pos + 1);
+        }
+    }
+
+    private int varIntSize(int pos) {
+        int first = data[pos] & 0xFF;
+        return first < 0xFD ? 1 : (first == 0xFD ? 3 : (first == 0xFE ? 5 : 9));
+    }
+
+    private long readUint32(int pos) {
+        return (data[pos] & 0xFFL) | (data[pos + 1] & 0xFFL) << 8 | (data[pos + 2] & 0xFFL) << 16 | (data[pos + 3] & 0xFFL) << 24;
+    }
+
+    private long readUint64(int pos) {
+        return readUint32(pos) | readUint32(pos + 4) << 32;
+    }
+}
@@ -0,0 +1,92 @@
+package com.sparrowwallet.frigate.bitcoind;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sparrowwallet.drongo.protocol.HashIndex;
+import com.sparrowwallet.drongo.protocol.Script;
+import com.sparrowwallet.drongo.protocol.Transaction;
+import com.sparrowwallet.drongo.silentpayments.SilentPaymentUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Computes silent payment tweaks for a batch of transactions on a fixed pool of threads.
+ * The transactions in a block or mempool batch are independent once the scriptPubKeys they spend have been resolved, so they are
+ * split into contiguous chunks and computed in parallel, with the results returned in the order of the transactions given.
+ */
+public class TweakCalculator {
+    //Batches smaller than this are computed on the calling thread, since the handoff would cost more than the EC work
+    private static final int MIN_PARALLEL_BATCH = 16;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final int threads;
+    private final ExecutorService executor;
+
+    public TweakCalculator(int threads) {
+        this.threads = Math.max(1, threads);
+        this.executor = this.threads == 1 ? null : Executors.newFixedThreadPool(this.threads, new ThreadFactoryBuilder().setNameFormat("TweakCalculator-%d").setDaemon(true).build());
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns the tweak for each transaction as a 64 byte secp256k1 public key, or null where the transaction is not eligible.
+     *
+     * @param transactions the non-coinbase transactions to compute tweaks for
+     * @param spentScriptPubKeys the scriptPubKeys spent by all of the transactions, which must not be modified until this method returns
+     */
+    public List<byte[]> getTweaks(List<Transaction> transactions, Map<HashIndex, Script> spentScriptPubKeys) {
+        byte[][] tweaks = new byte[transactions.size()][];
+        if(executor == null || transactions.size() < MIN_PARALLEL_BATCH) {
+            computeTweaks(transactions, spentScriptPubKeys, tweaks, 0, transactions.size());
+            return Arrays.asList(tweaks);
+        }
+
+        int chunkSize = Math.max(1, (transactions.size() + threads * CHUNKS_PER_THREAD - 1) / (threads * CHUNKS_PER_THREAD));
+        List<Callable<Void>> chunks = new ArrayList<>();
+        for(int start = 0; start < transactions.size(); start += chunkSize) {
+            int from = start;
+            int to = Math.min(start + chunkSize, transactions.size());
+            chunks.add(() -> {
+                computeTweaks(transactions, spentScriptPubKeys, tweaks, from, to);
+                return null;
+            });
+        }
+
+        try {
+            for(Future<Void> future : executor.invokeAll(chunks)) {
+                future.get();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted computing tweaks", e);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Error computing tweaks", e.getCause());
+        }
+
+        return Arrays.asList(tweaks);
+    }
+
+    private static void computeTweaks(List<Transaction> transactions, Map<HashIndex, Script> spentScriptPubKeys, byte[][] tweaks, int from, int to) {
+        for(int i = from; i < to; i++) {
+            byte[] tweak = SilentPaymentUtils.getTweak(transactions.get(i), spentScriptPubKeys, false);
+            if(tweak != null) {
+                tweaks[i] = SilentPaymentUtils.getSecp256k1PubKey(tweak);
+            }
+        }
+    }
+
+    public void shutdown() {
+        if(executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
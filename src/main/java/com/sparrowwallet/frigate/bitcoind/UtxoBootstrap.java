@@ -1,7 +1,6 @@
 package com.sparrowwallet.frigate.bitcoind;
 
 import com.sparrowwallet.drongo.protocol.*;
-import com.sparrowwallet.drongo.silentpayments.SilentPaymentUtils;
 import com.sparrowwallet.drongo.wallet.BlockTransaction;
 import com.sparrowwallet.frigate.index.Index;
 import com.sparrowwallet.frigate.io.Config;
@@ -11,9 +10,10 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.sql.SQLException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Bootstraps the UTXO index from Bitcoin Core's current chainstate using dumptxoutset.
@@ -23,15 +23,28 @@ import java.util.concurrent.atomic.AtomicInteger;
  * - Bitcoin Core with txindex=1 enabled (for fetching full transactions)
  * - Index must be in UTXO_ONLY mode
  * - Sufficient disk space for temporary snapshot file
+ *
+ * The snapshot and a checkpoint file next to the database are kept until the bootstrap completes, so an interrupted bootstrap
+ * can be restarted and will resume from the last committed batch.
  */
 public class UtxoBootstrap {
     private static final Logger log = LoggerFactory.getLogger(UtxoBootstrap.class);
     private static final int BATCH_SIZE = 100;
+    private static final int QUEUE_CAPACITY = BATCH_SIZE * 10;
+    private static final int LOG_INTERVAL = 10000;
+    private static final UtxoSnapshotParser.UtxoGroup END_OF_SNAPSHOT = new UtxoSnapshotParser.UtxoGroup(null, List.of(), null);
     private static final String SNAPSHOT_FILENAME = "frigate-bootstrap-utxos.dat";
+    private static final String CHECKPOINT_FILENAME = "frigate-bootstrap.checkpoint";
+    private static final int INITIAL_CONCURRENCY = 8;
+    private static final int MAX_CONCURRENCY = 128;
+    private static final int MAX_FETCH_ATTEMPTS = 5;
+    private static final long RETRY_DELAY_MILLIS = 250;
 
     private final BitcoindClientService bitcoindService;
     private final Index index;
     private final long minValue;
+    private final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(INITIAL_CONCURRENCY, 1, MAX_CONCURRENCY);
+    private final TweakCalculator tweakCalculator = new TweakCalculator(Config.get().getIndex().getTweakThreadCount());
 
     public UtxoBootstrap(BitcoindClientService bitcoindService, Index index, long minValue) {
         this.bitcoindService = bitcoindService;
@@ -44,10 +57,11 @@ public class UtxoBootstrap {
         log.info("Minimum UTXO value: {} sats", minValue);
 
         File snapshotFile = new File(Storage.getFrigateHome(), SNAPSHOT_FILENAME);
+        File checkpointFile = new File(Storage.getFrigateDbDir(), CHECKPOINT_FILENAME);
 
         try {
             // Step 1: Create UTXO snapshot
-            log.info("[1/5] Creating UTXO snapshot (this may take several minutes)...");
+            log.info("[1/3] Creating UTXO snapshot (this may take several minutes)...");
             DumpTxOutSetResult dumpResult = createSnapshot(snapshotFile);
             if (dumpResult == null) {
                 log.error("Failed to create UTXO snapshot");
@@ -55,42 +69,55 @@ public class UtxoBootstrap {
             }
             log.info("Snapshot created: {} coins at height {}", dumpResult.coins_written(), dumpResult.base_height());
 
-            // Step 2: Parse snapshot for P2TR UTXOs
-            log.info("[2/5] Parsing snapshot for P2TR UTXOs...");
-            List<UtxoSnapshotParser.ParsedUtxo> p2trUtxos = new ArrayList<>();
+            // Step 2: Stream P2TR UTXOs from the snapshot, grouped by txid, into the fetch and tweak stage
+            log.info("[2/3] Parsing snapshot for P2TR UTXOs, fetching transactions and computing tweaks...");
             UtxoSnapshotParser parser = new UtxoSnapshotParser(snapshotFile);
-            parser.parseP2TRUtxos(minValue, p2trUtxos::add);
+            parser.readHeader();
+
+            BootstrapCheckpoint checkpoint = BootstrapCheckpoint.load(checkpointFile);
+            if (checkpoint != null) {
+                if (!checkpoint.matches(parser.getBaseBlockHash(), snapshotFile.length())) {
+                    log.error("Bootstrap checkpoint {} was created from a different snapshot (block {}). Remove it and the partially bootstrapped database to start again.",
+                            checkpointFile.getAbsolutePath(), checkpoint.snapshotBlockHash());
+                    return;
+                }
+                log.info("Resuming bootstrap after txid {} ({} transactions processed, {} indexed)",
+                        checkpoint.lastTxid(), checkpoint.transactions(), checkpoint.indexed());
+            }
+
+            long transactions = streamTransactions(parser, snapshotFile.length(), checkpoint, checkpointFile);
 
-            if (p2trUtxos.isEmpty()) {
+            if (transactions == 0) {
                 log.warn("No P2TR UTXOs found above {} sats", minValue);
                 log.info("Snapshot file kept at: {}", snapshotFile.getAbsolutePath());
                 return;
             }
-            log.info("Found {} P2TR UTXOs to process", p2trUtxos.size());
-
-            // Step 3: Group by txid
-            log.info("[3/5] Grouping by transaction...");
-            Map<String, List<UtxoSnapshotParser.ParsedUtxo>> utxosByTxid = groupByTxid(p2trUtxos);
-            log.info("Found {} unique transactions", utxosByTxid.size());
-
-            // Step 4: Fetch transactions and compute tweaks
-            log.info("[4/5] Fetching transactions and computing tweaks...");
-            processTransactions(utxosByTxid);
 
             // Record the snapshot height for future indexing
             String baseBlockHash = parser.getBaseBlockHash();
             VerboseBlockHeader blockHeader = bitcoindService.getBlockHeader(baseBlockHash);
             int snapshotHeight = blockHeader.height();
-            Config.get().getIndex().setLastIndexedBlockHeight(snapshotHeight);
+            try {
+                index.setLastBlockIndexed(snapshotHeight);
+            } catch (SQLException e) {
+                throw new IOException("Error recording snapshot height in index", e);
+            }
             log.info("Recorded snapshot height {} for future indexing", snapshotHeight);
 
-            // Step 5: Cleanup
-            log.info("[5/5] Bootstrap complete!");
+            // Step 3: Cleanup
+            log.info("[3/3] Bootstrap complete!");
             cleanup(snapshotFile);
+            cleanup(checkpointFile);
 
         } catch (IOException e) {
             log.error("Bootstrap failed: {}", e.getMessage(), e);
             log.info("Snapshot file kept for debugging: {}", snapshotFile.getAbsolutePath());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Bootstrap interrupted");
+            log.info("Snapshot file kept at: {}", snapshotFile.getAbsolutePath());
+        } finally {
+            tweakCalculator.shutdown();
         }
     }
 
@@ -123,133 +150,240 @@ public class UtxoBootstrap {
         }
     }
 
-    private Map<String, List<UtxoSnapshotParser.ParsedUtxo>> groupByTxid(List<UtxoSnapshotParser.ParsedUtxo> utxos) {
-        Map<String, List<UtxoSnapshotParser.ParsedUtxo>> grouped = new LinkedHashMap<>();
-        for (UtxoSnapshotParser.ParsedUtxo utxo : utxos) {
-            grouped.computeIfAbsent(utxo.txid(), k -> new ArrayList<>()).add(utxo);
-        }
-        return grouped;
-    }
-
-    private void processTransactions(Map<String, List<UtxoSnapshotParser.ParsedUtxo>> utxosByTxid) {
-        List<String> txids = new ArrayList<>(utxosByTxid.keySet());
-        int total = txids.size();
-        AtomicInteger processed = new AtomicInteger(0);
-        AtomicInteger indexed = new AtomicInteger(0);
-        HexFormat hexFormat = HexFormat.of();
-
-        // Process in batches
-        for (int i = 0; i < txids.size(); i += BATCH_SIZE) {
-            List<String> batch = txids.subList(i, Math.min(i + BATCH_SIZE, txids.size()));
+    /**
+     * Runs the parser on its own thread, handing whole txid groups to this thread through a bounded queue so that memory use
+     * stays constant regardless of the size of the UTXO set, and processes them in batches as they arrive.
+     * A checkpoint is saved after each batch is committed, and when resuming from one the first batch's worth of transactions
+     * are removed from the index before being appended again, since they may have been committed before the checkpoint was saved.
+     *
+     * @return the total number of transactions with P2TR UTXOs found, including those processed before resuming
+     */
+    private long streamTransactions(UtxoSnapshotParser parser, long snapshotSize, BootstrapCheckpoint checkpoint, File checkpointFile) throws IOException, InterruptedException {
+        BlockingQueue<UtxoSnapshotParser.UtxoGroup> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        AtomicReference<Exception> parserException = new AtomicReference<>();
+        UtxoSnapshotParser.Position start = checkpoint == null ? null : checkpoint.position();
+
+        Thread parserThread = Thread.ofPlatform().name("UtxoSnapshotParser").start(() -> {
+            try {
+                parser.parseP2TRUtxoGroups(minValue, start, queue::put);
+            } catch (IOException | RuntimeException e) {
+                parserException.set(e);
+            } catch (InterruptedException e) {
+                return;
+            }
 
-            // Batch fetch transactions using parallel streams
-            Map<String, Transaction> txMap = batchFetchTransactions(batch, hexFormat);
+            try {
+                queue.put(END_OF_SNAPSHOT);
+            } catch (InterruptedException e) {
+                //consumer has already stopped
+            }
+        });
 
-            // Collect all input outpoints we need to look up
-            Set<String> prevTxids = new HashSet<>();
-            for (Transaction tx : txMap.values()) {
-                if (!tx.isCoinBase()) {
-                    for (TransactionInput input : tx.getInputs()) {
-                        prevTxids.add(input.getOutpoint().getHash().toString());
-                    }
+        long processed = checkpoint == null ? 0 : checkpoint.transactions();
+        long indexed = checkpoint == null ? 0 : checkpoint.indexed();
+        long replayRemaining = checkpoint == null ? 0 : BATCH_SIZE;
+        long nextLog = processed + LOG_INTERVAL;
+        List<UtxoSnapshotParser.UtxoGroup> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            boolean complete = false;
+            while (!complete) {
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                if (batch.getLast() == END_OF_SNAPSHOT) {
+                    batch.removeLast();
+                    complete = true;
                 }
-            }
 
-            // Batch fetch previous transactions for scriptPubKeys
-            Map<String, Transaction> prevTxMap = batchFetchTransactions(new ArrayList<>(prevTxids), hexFormat);
+                if (!batch.isEmpty()) {
+                    if (replayRemaining > 0) {
+                        Set<Sha256Hash> txids = new HashSet<>();
+                        for (UtxoSnapshotParser.UtxoGroup group : batch) {
+                            txids.add(Sha256Hash.wrap(group.txid()));
+                        }
+                        index.removeTransactionsFromIndex(txids);
+                        replayRemaining -= batch.size();
+                    }
 
-            // Process each transaction and compute tweaks
-            Map<BlockTransaction, byte[]> eligibleTransactions = new LinkedHashMap<>();
+                    indexed += processTransactions(batch);
+                    processed += batch.size();
 
-            for (String txid : batch) {
-                Transaction tx = txMap.get(txid);
-                if (tx == null) {
-                    log.debug("Could not fetch transaction {}, skipping", txid);
-                    continue;
+                    UtxoSnapshotParser.UtxoGroup last = batch.getLast();
+                    new BootstrapCheckpoint(parser.getBaseBlockHash(), snapshotSize, last.next(), last.txid(), processed, indexed).save(checkpointFile);
+                    batch.clear();
                 }
 
-                // Skip coinbase transactions (they can't have tweaks computed)
-                if (tx.isCoinBase()) {
-                    continue;
+                if (processed >= nextLog || complete) {
+                    log.info("Progress: {} transactions processed, {} eligible transactions indexed, RPC concurrency {}", processed, indexed, limiter.getLimit());
+                    nextLog = processed + LOG_INTERVAL;
                 }
+            }
+        } catch (SQLException e) {
+            throw new IOException("Error removing replayed transactions from index", e);
+        } finally {
+            parserThread.interrupt();
+            parserThread.join();
+        }
+
+        if (parserException.get() != null) {
+            throw new IOException("Error parsing UTXO snapshot", parserException.get());
+        }
+
+        log.info("Processed {} transactions, indexed {} eligible transactions", processed, indexed);
+        return processed;
+    }
 
-                List<UtxoSnapshotParser.ParsedUtxo> outputs = utxosByTxid.get(txid);
-                int height = outputs.get(0).height();
+    private int processTransactions(List<UtxoSnapshotParser.UtxoGroup> batch) throws InterruptedException {
+        HexFormat hexFormat = HexFormat.of();
+        List<String> txids = batch.stream().map(UtxoSnapshotParser.UtxoGroup::txid).toList();
 
-                // Build spent scriptPubKeys map from previous transactions
-                Map<HashIndex, Script> spentScriptPubKeys = new HashMap<>();
-                boolean allInputsResolved = true;
+        // Batch fetch transactions using parallel streams
+        Map<String, Transaction> txMap = batchFetchTransactions(txids, hexFormat);
 
+        // Collect all input outpoints we need to look up
+        Set<String> prevTxids = new HashSet<>();
+        for (Transaction tx : txMap.values()) {
+            if (!tx.isCoinBase()) {
                 for (TransactionInput input : tx.getInputs()) {
-                    HashIndex hashIndex = new HashIndex(input.getOutpoint().getHash(), input.getOutpoint().getIndex());
-                    Transaction prevTx = prevTxMap.get(input.getOutpoint().getHash().toString());
-
-                    if (prevTx != null && input.getOutpoint().getIndex() < prevTx.getOutputs().size()) {
-                        TransactionOutput prevOutput = prevTx.getOutputs().get((int) input.getOutpoint().getIndex());
-                        spentScriptPubKeys.put(hashIndex, prevOutput.getScript());
-                    } else {
-                        log.debug("Could not resolve input {}:{} for tx {}",
-                                input.getOutpoint().getHash(), input.getOutpoint().getIndex(), txid);
-                        allInputsResolved = false;
-                        break;
-                    }
+                    prevTxids.add(input.getOutpoint().getHash().toString());
                 }
+            }
+        }
 
-                if (!allInputsResolved) {
-                    continue;
-                }
+        // Batch fetch previous transactions for scriptPubKeys
+        Map<String, Transaction> prevTxMap = batchFetchTransactions(prevTxids, hexFormat);
+
+        // Resolve the spent scriptPubKeys of each transaction
+        List<Transaction> resolvedTransactions = new ArrayList<>();
+        List<Integer> heights = new ArrayList<>();
+        Map<HashIndex, Script> spentScriptPubKeys = new HashMap<>();
+
+        for (UtxoSnapshotParser.UtxoGroup group : batch) {
+            String txid = group.txid();
+            Transaction tx = txMap.get(txid);
+            if (tx == null) {
+                log.debug("Could not fetch transaction {}, skipping", txid);
+                continue;
+            }
+
+            // Skip coinbase transactions (they can't have tweaks computed)
+            if (tx.isCoinBase()) {
+                continue;
+            }
+
+            int height = group.height();
 
-                // Compute tweak
-                byte[] tweak = SilentPaymentUtils.getTweak(tx, spentScriptPubKeys, false);
-                if (tweak != null) {
-                    BlockTransaction blkTx = new BlockTransaction(tx.getTxId(), height, null, 0L, tx, null);
-                    eligibleTransactions.put(blkTx, SilentPaymentUtils.getSecp256k1PubKey(tweak));
+            // Build spent scriptPubKeys map from previous transactions
+            Map<HashIndex, Script> txSpentScriptPubKeys = new HashMap<>();
+            boolean allInputsResolved = true;
+
+            for (TransactionInput input : tx.getInputs()) {
+                HashIndex hashIndex = new HashIndex(input.getOutpoint().getHash(), input.getOutpoint().getIndex());
+                Transaction prevTx = prevTxMap.get(input.getOutpoint().getHash().toString());
+
+                if (prevTx != null && input.getOutpoint().getIndex() < prevTx.getOutputs().size()) {
+                    TransactionOutput prevOutput = prevTx.getOutputs().get((int) input.getOutpoint().getIndex());
+                    txSpentScriptPubKeys.put(hashIndex, prevOutput.getScript());
+                } else {
+                    log.debug("Could not resolve input {}:{} for tx {}",
+                            input.getOutpoint().getHash(), input.getOutpoint().getIndex(), txid);
+                    allInputsResolved = false;
+                    break;
                 }
             }
 
-            // Insert batch into index
-            if (!eligibleTransactions.isEmpty()) {
-                index.addUtxosToIndex(eligibleTransactions, minValue);
-                indexed.addAndGet(eligibleTransactions.size());
+            if (!allInputsResolved) {
+                continue;
             }
 
-            processed.addAndGet(batch.size());
-            int pct = (processed.get() * 100) / total;
-            if (processed.get() % 1000 == 0 || processed.get() == total) {
-                log.info("Progress: {}/{} transactions ({}%), {} eligible transactions indexed",
-                        processed.get(), total, pct, indexed.get());
+            spentScriptPubKeys.putAll(txSpentScriptPubKeys);
+            resolvedTransactions.add(tx);
+            heights.add(height);
+        }
+
+        // Compute tweaks in parallel, keeping the batch order
+        List<byte[]> tweaks = tweakCalculator.getTweaks(resolvedTransactions, spentScriptPubKeys);
+        Map<BlockTransaction, byte[]> eligibleTransactions = new LinkedHashMap<>();
+        for (int i = 0; i < resolvedTransactions.size(); i++) {
+            if (tweaks.get(i) != null) {
+                Transaction tx = resolvedTransactions.get(i);
+                BlockTransaction blkTx = new BlockTransaction(tx.getTxId(), heights.get(i), null, 0L, tx, null);
+                eligibleTransactions.put(blkTx, tweaks.get(i));
             }
         }
 
-        log.info("Processed {} transactions, indexed {} eligible transactions", total, indexed.get());
+        // Insert batch into index
+        if (!eligibleTransactions.isEmpty()) {
+            index.addUtxosToIndex(eligibleTransactions, minValue);
+        }
+
+        return eligibleTransactions.size();
     }
 
-    private Map<String, Transaction> batchFetchTransactions(List<String> txids, HexFormat hexFormat) {
+    /**
+     * Fetches transactions on virtual threads, with the number of concurrent calls bounded by the adaptive limiter.
+     */
+    private Map<String, Transaction> batchFetchTransactions(Collection<String> txids, HexFormat hexFormat) throws InterruptedException {
         Map<String, Transaction> result = new ConcurrentHashMap<>();
 
-        // Use parallel stream for concurrent fetches
-        txids.parallelStream().forEach(txid -> {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String txid : txids) {
+                executor.submit(() -> {
+                    Transaction tx = fetchTransaction(txid, hexFormat);
+                    if (tx != null) {
+                        result.put(txid, tx);
+                    }
+                    return null;
+                });
+            }
+        }
+
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        return result;
+    }
+
+    private Transaction fetchTransaction(String txid, HexFormat hexFormat) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            boolean overloaded = false;
+            long startNanos = limiter.acquire();
             try {
                 Object response = bitcoindService.getRawTransaction(txid, false);
                 if (response instanceof String hex) {
-                    Transaction tx = new Transaction(hexFormat.parseHex(hex));
-                    result.put(txid, tx);
+                    return new Transaction(hexFormat.parseHex(hex));
                 }
+                return null;
             } catch (Exception e) {
-                // Transaction might not be found (shouldn't happen with txindex=1)
-                log.trace("Failed to fetch tx {}: {}", txid, e.getMessage());
+                overloaded = isWorkQueueExceeded(e);
+                if (!overloaded || attempt == MAX_FETCH_ATTEMPTS) {
+                    // Transaction might not be found (shouldn't happen with txindex=1)
+                    log.trace("Failed to fetch tx {}: {}", txid, e.getMessage());
+                    return null;
+                }
+            } finally {
+                limiter.release(startNanos, overloaded);
             }
-        });
 
-        return result;
+            Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+        }
+    }
+
+    private static boolean isWorkQueueExceeded(Throwable e) {
+        for (Throwable current = e; current != null; current = current.getCause()) {
+            if (current instanceof WorkQueueExceededException) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private void cleanup(File snapshotFile) {
-        if (snapshotFile.exists()) {
-            if (snapshotFile.delete()) {
-                log.info("Cleaned up snapshot file: {}", snapshotFile.getAbsolutePath());
+    private void cleanup(File file) {
+        if (file.exists()) {
+            if (file.delete()) {
+                log.info("Cleaned up {}", file.getAbsolutePath());
             } else {
-                log.warn("Could not delete snapshot file: {}", snapshotFile.getAbsolutePath());
+                log.warn("Could not delete {}", file.getAbsolutePath());
             }
         }
     }
@@ -3,11 +3,18 @@ package com.sparrowwallet.frigate.bitcoind;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.*;
-import java.nio.ByteBuffer;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HexFormat;
-import java.util.function.Consumer;
+import java.util.List;
 
 /**
  * Parses Bitcoin Core's UTXO snapshot file format (from dumptxoutset).
@@ -59,124 +66,138 @@ public class UtxoSnapshotParser {
     }
 
     /**
-     * Parse the snapshot file and call the consumer for each P2TR UTXO.
-     * This streams the file so memory usage stays bounded.
+     * Read the snapshot header only, setting the base block hash and coin count.
+     */
+    public void readHeader() throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ); Arena arena = Arena.ofConfined()) {
+            readHeader(new SnapshotReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena)));
+        }
+    }
+
+    private void readHeader(SnapshotReader reader) throws IOException {
+        // Header format (Bitcoin Core 26+):
+        // [4 bytes: "utxo" magic] [1 byte: 0xFF] [2 bytes: version] [4 bytes: network magic]
+        // [32 bytes: blockhash] [8 bytes: coin_count]
+
+        // Read and validate the 5-byte magic
+        byte[] magic = reader.readBytes(5);
+        if (magic[0] != 0x75 || magic[1] != 0x74 || magic[2] != 0x78 || magic[3] != 0x6f || magic[4] != (byte)0xff) {
+            throw new IOException("Invalid UTXO snapshot magic: " + HEX.formatHex(magic));
+        }
+
+        // Read version (2 bytes LE)
+        int version = reader.readUint16LE();
+        if (version != 2) {
+            throw new IOException("Unsupported UTXO snapshot version: " + version + " (only version 2 supported)");
+        }
+
+        // Read network magic (4 bytes)
+        byte[] networkMagic = reader.readBytes(4);
+        log.debug("Network magic: {}", HEX.formatHex(networkMagic));
+
+        // Read blockhash (32 bytes)
+        baseBlockHash = reader.readHash();
+
+        // Read coin count (8 bytes LE) - this is TOTAL number of UTXOs
+        coinCount = reader.readUint64LE();
+    }
+
+    /**
+     * Parse the snapshot file and call the consumer with the P2TR UTXOs of each transaction, in snapshot order.
+     * The file is memory-mapped and decoded in place, so only matching coins are materialised and a txid is only
+     * formatted when its group contains at least one match. Groups are emitted whole since the snapshot is already
+     * grouped by txid, allowing the consumer to hand them to a bounded queue for a downstream stage.
      *
      * @param minValue minimum satoshi value to include
-     * @param consumer called for each matching P2TR UTXO
+     * @param start the position to resume parsing from, taken from a previously emitted group, or null to parse from the first coin
+     * @param consumer called for each transaction with at least one matching P2TR UTXO
      * @return number of P2TR UTXOs found
      */
-    public long parseP2TRUtxos(long minValue, Consumer<ParsedUtxo> consumer) throws IOException {
+    public long parseP2TRUtxoGroups(long minValue, Position start, GroupConsumer consumer) throws IOException, InterruptedException {
         long p2trCount = 0;
         long processed = 0;
         long lastLogTime = System.currentTimeMillis();
 
-        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile), 32 * 1024 * 1024))) {
-            // Header format (Bitcoin Core 26+):
-            // [4 bytes: "utxo" magic] [1 byte: 0xFF] [2 bytes: version] [4 bytes: network magic]
-            // [32 bytes: blockhash] [8 bytes: coin_count]
-
-            // Read and validate the 5-byte magic
-            byte[] magic = new byte[5];
-            dis.readFully(magic);
-            if (magic[0] != 0x75 || magic[1] != 0x74 || magic[2] != 0x78 || magic[3] != 0x6f || magic[4] != (byte)0xff) {
-                throw new IOException("Invalid UTXO snapshot magic: " + HEX.formatHex(magic));
-            }
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ); Arena arena = Arena.ofConfined()) {
+            SnapshotReader reader = new SnapshotReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena));
+            readHeader(reader);
 
-            // Read version (2 bytes LE)
-            int version = readUint16LE(dis);
-            if (version != 2) {
-                throw new IOException("Unsupported UTXO snapshot version: " + version + " (only version 2 supported)");
+            if (start != null) {
+                if (start.offset() < reader.position || start.offset() > reader.size || start.coins() > coinCount) {
+                    throw new IOException("Invalid resume position " + start + " for UTXO snapshot");
+                }
+                reader.position = start.offset();
+                processed = start.coins();
+                log.info("Snapshot base block: {}, total UTXOs: {}, resuming after {} UTXOs", baseBlockHash, coinCount, processed);
+            } else {
+                log.info("Snapshot base block: {}, total UTXOs: {}", baseBlockHash, coinCount);
             }
 
-            // Read network magic (4 bytes)
-            byte[] networkMagic = new byte[4];
-            dis.readFully(networkMagic);
-            log.debug("Network magic: {}", HEX.formatHex(networkMagic));
-
-            // Read blockhash (32 bytes)
-            byte[] hashBytes = new byte[32];
-            dis.readFully(hashBytes);
-            baseBlockHash = HEX.formatHex(reverseBytes(hashBytes));
-
-            // Read coin count (8 bytes LE) - this is TOTAL number of UTXOs
-            coinCount = readUint64LE(dis);
-
-            log.info("Snapshot base block: {}, total UTXOs: {}", baseBlockHash, coinCount);
-
             // Process coin entries (grouped by txid)
-            int coinsPerHashLeft = 0;
-            String currentTxid = null;
-
             while (processed < coinCount) {
-                // Read new txid group if needed
-                if (coinsPerHashLeft == 0) {
-                    byte[] txidBytes = new byte[32];
-                    dis.readFully(txidBytes);
-                    currentTxid = HEX.formatHex(reverseBytes(txidBytes));
-                    coinsPerHashLeft = (int) readCompactSize(dis);
+                // Remember where the txid is, and only format it if the group has a match
+                long txidOffset = reader.position;
+                reader.skip(32);
+                long coinsInGroup = reader.readCompactSize();
+                if (coinsInGroup == 0 || coinsInGroup > coinCount - processed) {
+                    throw new IOException("Invalid coin count " + coinsInGroup + " for txid group at UTXO " + processed);
                 }
 
-                // Read vout (CompactSize)
-                int vout = (int) readCompactSize(dis);
-
-                // Read code (VarInt): height * 2 + coinbase
-                long code = readVarInt(dis);
-                int height = (int) (code >> 1);
-                boolean coinbase = (code & 1) == 1;
-
-                // Read compressed amount (VarInt)
-                long compressedAmount = readVarInt(dis);
-                long amount = decompressAmount(compressedAmount);
-
-                // Read compressed script
-                long nSize = readVarInt(dis);
-                byte[] scriptData;
-                boolean isP2TR = false;
-
-                if (nSize == 0) {
-                    // P2PKH: OP_DUP OP_HASH160 <20 bytes> OP_EQUALVERIFY OP_CHECKSIG
-                    scriptData = new byte[20];
-                    dis.readFully(scriptData);
-                } else if (nSize == 1) {
-                    // P2SH: OP_HASH160 <20 bytes> OP_EQUAL
-                    scriptData = new byte[20];
-                    dis.readFully(scriptData);
-                } else if (nSize == 2 || nSize == 3) {
-                    // P2PK compressed: <33 bytes pubkey> OP_CHECKSIG
-                    scriptData = new byte[32];
-                    dis.readFully(scriptData);
-                } else if (nSize == 4 || nSize == 5) {
-                    // P2PK uncompressed (stored as compressed)
-                    scriptData = new byte[32];
-                    dis.readFully(scriptData);
-                } else {
-                    // Uncompressed script (nSize >= 6)
-                    int scriptLen = (int) (nSize - 6);
-                    if (scriptLen > 10000) {
-                        throw new IOException("Invalid script length: " + scriptLen + " at UTXO " + processed + ", nSize=" + nSize);
+                String txid = null;
+                List<ParsedUtxo> matches = null;
+
+                for (long i = 0; i < coinsInGroup; i++) {
+                    // Read vout (CompactSize)
+                    int vout = (int) reader.readCompactSize();
+
+                    // Read code (VarInt): height * 2 + coinbase
+                    long code = reader.readVarInt();
+                    int height = (int) (code >> 1);
+                    boolean coinbase = (code & 1) == 1;
+
+                    // Read compressed amount (VarInt)
+                    long compressedAmount = reader.readVarInt();
+
+                    // Read compressed script, skipping over everything except P2TR
+                    long nSize = reader.readVarInt();
+                    if (nSize <= SCRIPT_P2SH) {
+                        // P2PKH or P2SH: 20 byte hash
+                        reader.skip(20);
+                    } else if (nSize <= SCRIPT_P2PK_UNCOMPRESSED_ODD) {
+                        // P2PK compressed or uncompressed (stored as compressed): 32 byte x coordinate
+                        reader.skip(32);
+                    } else {
+                        // Uncompressed script (nSize >= 6)
+                        long scriptLen = nSize - 6;
+                        if (scriptLen > 10000) {
+                            throw new IOException("Invalid script length: " + scriptLen + " at UTXO " + processed + ", nSize=" + nSize);
+                        }
+
+                        // Check if this is a P2TR script: OP_1 (0x51) + OP_PUSHBYTES_32 (0x20) + 32 bytes
+                        if (scriptLen == 34 && reader.peek(0) == 0x51 && reader.peek(1) == 0x20 && !coinbase) {
+                            long amount = decompressAmount(compressedAmount);
+                            if (amount >= minValue) {
+                                reader.skip(2);
+                                // Extract the 32-byte x-only pubkey
+                                byte[] pubkey = reader.readBytes(32);
+                                if (txid == null) {
+                                    txid = reader.formatHash(txidOffset);
+                                    matches = new ArrayList<>();
+                                }
+                                matches.add(new ParsedUtxo(txid, vout, amount, height, pubkey));
+                                p2trCount++;
+                                scriptLen = 0;
+                            }
+                        }
+                        reader.skip(scriptLen);
                     }
-                    scriptData = new byte[scriptLen];
-                    dis.readFully(scriptData);
-
-                    // Check if this is a P2TR script: OP_1 (0x51) + OP_PUSHBYTES_32 (0x20) + 32 bytes
-                    if (scriptLen == 34 && scriptData[0] == 0x51 && scriptData[1] == 0x20) {
-                        isP2TR = true;
-                        // Extract the 32-byte x-only pubkey
-                        byte[] pubkey = new byte[32];
-                        System.arraycopy(scriptData, 2, pubkey, 0, 32);
-                        scriptData = pubkey;
-                    }
-                }
 
-                // Filter for P2TR outputs meeting minimum value
-                if (isP2TR && amount >= minValue && !coinbase) {
-                    consumer.accept(new ParsedUtxo(currentTxid, vout, amount, height, scriptData));
-                    p2trCount++;
+                    processed++;
                 }
 
-                processed++;
-                coinsPerHashLeft--;
+                if (matches != null) {
+                    consumer.accept(new UtxoGroup(txid, matches, new Position(reader.position, processed)));
+                }
 
                 // Log progress periodically
                 long now = System.currentTimeMillis();
@@ -194,72 +215,6 @@ public class UtxoSnapshotParser {
         return p2trCount;
     }
 
-    /**
-     * Read a Bitcoin Core VARINT from the stream.
-     * This is NOT the same as CompactSize! It uses MSB continuation bit encoding.
-     * Based on Bitcoin Core's ReadVarInt in serialize.h
-     */
-    private static long readVarInt(DataInputStream dis) throws IOException {
-        long n = 0;
-        while (true) {
-            int b = dis.readUnsignedByte();
-            n = (n << 7) | (b & 0x7F);
-            if ((b & 0x80) != 0) {
-                n++;
-            } else {
-                return n;
-            }
-        }
-    }
-
-    /**
-     * Read a Bitcoin CompactSize from the stream.
-     * Format:
-     * - 0x00-0xFC: value as-is (1 byte)
-     * - 0xFD: next 2 bytes are value (little-endian)
-     * - 0xFE: next 4 bytes are value (little-endian)
-     * - 0xFF: next 8 bytes are value (little-endian)
-     */
-    private static long readCompactSize(DataInputStream dis) throws IOException {
-        int first = dis.readUnsignedByte();
-        if (first < 0xFD) {
-            return first;
-        } else if (first == 0xFD) {
-            return readUint16LE(dis);
-        } else if (first == 0xFE) {
-            return readUint32LE(dis);
-        } else {
-            return readUint64LE(dis);
-        }
-    }
-
-    /**
-     * Read uint16 in little-endian format.
-     */
-    private static int readUint16LE(DataInputStream dis) throws IOException {
-        byte[] buf = new byte[2];
-        dis.readFully(buf);
-        return ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN).getShort() & 0xFFFF;
-    }
-
-    /**
-     * Read uint32 in little-endian format.
-     */
-    private static long readUint32LE(DataInputStream dis) throws IOException {
-        byte[] buf = new byte[4];
-        dis.readFully(buf);
-        return ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN).getInt() & 0xFFFFFFFFL;
-    }
-
-    /**
-     * Read uint64 in little-endian format.
-     */
-    private static long readUint64LE(DataInputStream dis) throws IOException {
-        byte[] buf = new byte[8];
-        dis.readFully(buf);
-        return ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN).getLong();
-    }
-
     /**
      * Decompress a Bitcoin compressed amount.
      * Based on Bitcoin Core's DecompressAmount function.
@@ -287,18 +242,159 @@ public class UtxoSnapshotParser {
     }
 
     /**
-     * Reverse byte array (for converting between little-endian and big-endian).
+     * Sequential reader over the mapped snapshot, decoding values in place without copying.
      */
-    private static byte[] reverseBytes(byte[] bytes) {
-        byte[] result = new byte[bytes.length];
-        for (int i = 0; i < bytes.length; i++) {
-            result[i] = bytes[bytes.length - 1 - i];
+    private static class SnapshotReader {
+        private static final ValueLayout.OfShort UINT16_LE = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+        private static final ValueLayout.OfInt UINT32_LE = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+        private static final ValueLayout.OfLong UINT64_LE = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+        private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+        private final MemorySegment segment;
+        private final long size;
+        private long position;
+
+        public SnapshotReader(MemorySegment segment) {
+            this.segment = segment;
+            this.size = segment.byteSize();
+        }
+
+        private void require(long length) throws EOFException {
+            if (position + length > size) {
+                throw new EOFException("Unexpected end of UTXO snapshot at offset " + position);
+            }
+        }
+
+        public int peek(int offset) throws EOFException {
+            require(offset + 1);
+            return segment.get(ValueLayout.JAVA_BYTE, position + offset) & 0xFF;
+        }
+
+        public void skip(long length) throws EOFException {
+            require(length);
+            position += length;
+        }
+
+        public int readUnsignedByte() throws EOFException {
+            require(1);
+            return segment.get(ValueLayout.JAVA_BYTE, position++) & 0xFF;
+        }
+
+        public byte[] readBytes(int length) throws EOFException {
+            require(length);
+            byte[] bytes = segment.asSlice(position, length).toArray(ValueLayout.JAVA_BYTE);
+            position += length;
+            return bytes;
+        }
+
+        public int readUint16LE() throws EOFException {
+            require(2);
+            int value = segment.get(UINT16_LE, position) & 0xFFFF;
+            position += 2;
+            return value;
+        }
+
+        public long readUint32LE() throws EOFException {
+            require(4);
+            long value = segment.get(UINT32_LE, position) & 0xFFFFFFFFL;
+            position += 4;
+            return value;
+        }
+
+        public long readUint64LE() throws EOFException {
+            require(8);
+            long value = segment.get(UINT64_LE, position);
+            position += 8;
+            return value;
+        }
+
+        /**
+         * Read a Bitcoin Core VARINT.
+         * This is NOT the same as CompactSize! It uses MSB continuation bit encoding.
+         * Based on Bitcoin Core's ReadVarInt in serialize.h
+         */
+        public long readVarInt() throws EOFException {
+            long n = 0;
+            while (true) {
+                int b = readUnsignedByte();
+                n = (n << 7) | (b & 0x7F);
+                if ((b & 0x80) != 0) {
+                    n++;
+                } else {
+                    return n;
+                }
+            }
+        }
+
+        /**
+         * Read a Bitcoin CompactSize.
+         * Format:
+         * - 0x00-0xFC: value as-is (1 byte)
+         * - 0xFD: next 2 bytes are value (little-endian)
+         * - 0xFE: next 4 bytes are value (little-endian)
+         * - 0xFF: next 8 bytes are value (little-endian)
+         */
+        public long readCompactSize() throws EOFException {
+            int first = readUnsignedByte();
+            if (first < 0xFD) {
+                return first;
+            } else if (first == 0xFD) {
+                return readUint16LE();
+            } else if (first == 0xFE) {
+                return readUint32LE();
+            } else {
+                return readUint64LE();
+            }
+        }
+
+        /**
+         * Read a 32 byte little-endian hash and format it in display (big-endian) order.
+         */
+        public String readHash() throws EOFException {
+            require(32);
+            String hash = formatHash(position);
+            position += 32;
+            return hash;
+        }
+
+        /**
+         * Format the 32 byte little-endian hash at the given offset in display (big-endian) order.
+         */
+        public String formatHash(long offset) {
+            char[] chars = new char[64];
+            for (int i = 0; i < 32; i++) {
+                int b = segment.get(ValueLayout.JAVA_BYTE, offset + 31 - i) & 0xFF;
+                chars[i * 2] = HEX_DIGITS[b >>> 4];
+                chars[i * 2 + 1] = HEX_DIGITS[b & 0x0F];
+            }
+            return new String(chars);
         }
-        return result;
+    }
+
+    /**
+     * Receives each group of P2TR UTXOs, and may block to apply backpressure to the parser.
+     */
+    @FunctionalInterface
+    public interface GroupConsumer {
+        void accept(UtxoGroup group) throws InterruptedException;
     }
 
     /**
      * Parsed UTXO data from the snapshot.
      */
     public record ParsedUtxo(String txid, int vout, long amount, int height, byte[] scriptData) {}
+
+    /**
+     * A position between txid groups in the snapshot, as a file offset and the number of coins before it.
+     */
+    public record Position(long offset, long coins) {}
+
+    /**
+     * The matching UTXOs of a single transaction, in snapshot order, and the position of the group that follows it.
+     */
+    public record UtxoGroup(String txid, List<ParsedUtxo> utxos, Position next) {
+        public int height() {
+            return utxos.getFirst().height();
+        }
+    }
 }
@@ -0,0 +1,12 @@
+package com.sparrowwallet.frigate.bitcoind;
+
+import java.io.IOException;
+
+/**
+ * Thrown when Bitcoin Core rejects an RPC call with HTTP 503 because its work queue (rpcworkqueue) is full.
+ */
+public class WorkQueueExceededException extends IOException {
+    public WorkQueueExceededException(String message) {
+        super(message);
+    }
+}
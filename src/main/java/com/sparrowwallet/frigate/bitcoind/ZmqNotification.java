@@ -0,0 +1,10 @@
+package com.sparrowwallet.frigate.bitcoind;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record ZmqNotification(String type, String address, long hwm) {
+    public String getTopic() {
+        return type != null && type.startsWith("pub") ? type.substring(3) : type;
+    }
+}
@@ -0,0 +1,267 @@
+package com.sparrowwallet.frigate.bitcoind;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A minimal ZeroMQ SUB socket for bitcoind notifications, implementing the ZMTP 3.0 wire protocol with the NULL security mechanism
+ * over a single TCP connection. Messages are delivered to the listener on a virtual thread, and the connection is re-established
+ * with backoff if it is lost.
+ */
+public class ZmqSubscriber {
+    private static final Logger log = LoggerFactory.getLogger(ZmqSubscriber.class);
+
+    private static final int GREETING_LENGTH = 64;
+    private static final int FLAG_MORE = 0x01;
+    private static final int FLAG_LONG = 0x02;
+    private static final int FLAG_COMMAND = 0x04;
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    private static final long MAX_RECONNECT_DELAY_MILLIS = 30_000;
+
+    private final String endpoint;
+    private final InetSocketAddress address;
+    private final Set<String> topics;
+    private final Listener listener;
+
+    private volatile Socket socket;
+    private volatile boolean connected;
+    private volatile boolean stopped;
+    private Thread thread;
+
+    public ZmqSubscriber(String endpoint, Set<String> topics, Listener listener) {
+        URI uri = URI.create(endpoint);
+        if(!"tcp".equals(uri.getScheme()) || uri.getHost() == null || uri.getPort() < 0) {
+            throw new IllegalArgumentException("Unsupported ZMQ endpoint " + endpoint);
+        }
+
+        this.endpoint = endpoint;
+        this.address = new InetSocketAddress(uri.getHost(), uri.getPort());
+        this.topics = topics;
+        this.listener = listener;
+    }
+
+    public void start() {
+        thread = Thread.ofVirtual().name("ZmqSubscriber-" + address.getPort()).start(this::run);
+    }
+
+    public void stop() {
+        stopped = true;
+        closeSocket();
+        if(thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    private void run() {
+        long reconnectDelay = 1000;
+        while(!stopped) {
+            try {
+                DataInputStream in = connect();
+                reconnectDelay = 1000;
+                readMessages(in);
+            } catch(IOException e) {
+                if(!stopped) {
+                    if(connected) {
+                        log.warn("Lost ZMQ connection to " + endpoint + ", reconnecting", e);
+                    } else {
+                        log.debug("Could not connect to ZMQ endpoint " + endpoint, e);
+                    }
+                }
+            } finally {
+                connected = false;
+                closeSocket();
+            }
+
+            try {
+                Thread.sleep(reconnectDelay);
+                reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY_MILLIS);
+            } catch(InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private DataInputStream connect() throws IOException {
+        socket = new Socket();
+        socket.setKeepAlive(true);
+        socket.setTcpNoDelay(true);
+        socket.connect(address, 5000);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+        out.write(createGreeting());
+        out.flush();
+        byte[] greeting = new byte[GREETING_LENGTH];
+        in.readFully(greeting);
+        if((greeting[0] & 0xff) != 0xff || greeting[9] != 0x7f || greeting[10] < 3) {
+            throw new IOException("Peer does not support ZMTP 3");
+        }
+        String mechanism = new String(greeting, 12, 20, StandardCharsets.US_ASCII).trim();
+        if(!mechanism.equals("NULL")) {
+            throw new IOException("Unsupported ZMTP security mechanism " + mechanism);
+        }
+
+        writeFrame(out, FLAG_COMMAND, createReadyCommand("SUB"));
+        out.flush();
+        Frame ready = readFrame(in);
+        String socketType = ready.command() ? getSocketType(ready.body()) : null;
+        if(!"PUB".equals(socketType) && !"XPUB".equals(socketType)) {
+            throw new IOException("Expected a PUB socket, peer is " + socketType);
+        }
+
+        for(String topic : topics) {
+            byte[] topicBytes = topic.getBytes(StandardCharsets.US_ASCII);
+            byte[] subscription = new byte[topicBytes.length + 1];
+            subscription[0] = 0x01;
+            System.arraycopy(topicBytes, 0, subscription, 1, topicBytes.length);
+            writeFrame(out, 0, subscription);
+        }
+        out.flush();
+
+        connected = true;
+        log.info("Subscribed to " + String.join(", ", topics) + " notifications at " + endpoint);
+        listener.onConnected(this);
+        return in;
+    }
+
+    private void readMessages(DataInputStream in) throws IOException {
+        List<byte[]> parts = new ArrayList<>();
+        while(!stopped) {
+            Frame frame = readFrame(in);
+            if(frame.command()) {
+                continue;
+            }
+
+            parts.add(frame.body());
+            if(!frame.more()) {
+                if(parts.size() >= 2) {
+                    String topic = new String(parts.get(0), StandardCharsets.US_ASCII);
+                    long sequence = parts.size() > 2 && parts.get(2).length == 4 ? readUint32LE(parts.get(2)) : -1;
+                    try {
+                        listener.onMessage(topic, parts.get(1), sequence);
+                    } catch(Exception e) {
+                        log.warn("Error handling ZMQ " + topic + " notification", e);
+                    }
+                }
+                parts = new ArrayList<>();
+            }
+        }
+    }
+
+    private void closeSocket() {
+        Socket current = socket;
+        if(current != null) {
+            try {
+                current.close();
+            } catch(IOException e) {
+                //ignore
+            }
+        }
+    }
+
+    static byte[] createGreeting() {
+        byte[] greeting = new byte[GREETING_LENGTH];
+        greeting[0] = (byte)0xff;
+        greeting[9] = 0x7f;
+        greeting[10] = 3;
+        greeting[11] = 0;
+        byte[] mechanism = "NULL".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(mechanism, 0, greeting, 12, mechanism.length);
+        return greeting;
+    }
+
+    static byte[] createReadyCommand(String socketType) {
+        ByteArrayOutputStream command = new ByteArrayOutputStream();
+        writeShortString(command, "READY");
+        writeShortString(command, "Socket-Type");
+        byte[] value = socketType.getBytes(StandardCharsets.US_ASCII);
+        command.write(value.length >>> 24);
+        command.write(value.length >>> 16);
+        command.write(value.length >>> 8);
+        command.write(value.length);
+        command.writeBytes(value);
+        return command.toByteArray();
+    }
+
+    static String getSocketType(byte[] readyCommand) {
+        int nameLength = readyCommand[0] & 0xff;
+        if(!"READY".equals(new String(readyCommand, 1, nameLength, StandardCharsets.US_ASCII))) {
+            return null;
+        }
+
+        int offset = 1 + nameLength;
+        while(offset < readyCommand.length) {
+            int propertyLength = readyCommand[offset] & 0xff;
+            String property = new String(readyCommand, offset + 1, propertyLength, StandardCharsets.US_ASCII);
+            offset += 1 + propertyLength;
+            int valueLength = (readyCommand[offset] & 0xff) << 24 | (readyCommand[offset + 1] & 0xff) << 16 | (readyCommand[offset + 2] & 0xff) << 8 | (readyCommand[offset + 3] & 0xff);
+            offset += 4;
+            if(property.equalsIgnoreCase("Socket-Type")) {
+                return new String(readyCommand, offset, valueLength, StandardCharsets.US_ASCII);
+            }
+            offset += valueLength;
+        }
+
+        return null;
+    }
+
+    static void writeFrame(OutputStream out, int flags, byte[] body) throws IOException {
+        if(body.length > 255) {
+            out.write(flags | FLAG_LONG);
+            for(int i = 7; i >= 0; i--) {
+                out.write((int)((long)body.length >>> (8 * i)));
+            }
+        } else {
+            out.write(flags);
+            out.write(body.length);
+        }
+        out.write(body);
+    }
+
+    static Frame readFrame(DataInputStream in) throws IOException {
+        int flags = in.readUnsignedByte();
+        long size = (flags & FLAG_LONG) != 0 ? in.readLong() : in.readUnsignedByte();
+        if(size < 0 || size > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid ZMTP frame size " + size);
+        }
+
+        byte[] body = new byte[(int)size];
+        in.readFully(body);
+        return new Frame((flags & FLAG_COMMAND) != 0, (flags & FLAG_MORE) != 0, body);
+    }
+
+    private static void writeShortString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        out.write(bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static long readUint32LE(byte[] bytes) {
+        return (bytes[0] & 0xffL) | (bytes[1] & 0xffL) << 8 | (bytes[2] & 0xffL) << 16 | (bytes[3] & 0xffL) << 24;
+    }
+
+    record Frame(boolean command, boolean more, byte[] body) {}
+
+    public interface Listener {
+        void onConnected(ZmqSubscriber subscriber);
+
+        void onMessage(String topic, byte[] body, long sequence);
+    }
+}
@@ -83,6 +83,10 @@ public class TrayManager {
 
     @Subscribe
     public void silentPaymentsBlocksIndexUpdate(SilentPaymentsBlocksIndexUpdate update) {
+        if(update.backfill()) {
+            return;
+        }
+
         indexedHeight = update.toBlockHeight();
         updateStatusItem();
     }
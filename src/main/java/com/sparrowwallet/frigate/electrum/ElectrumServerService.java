@@ -454,15 +454,22 @@ public class ElectrumServerService {
     }
 
     @JsonRpcMethod("blockchain.silentpayments.subscribe")
-    public String subscribeSilentPayments(@JsonRpcParam("scan_private_key") String scanPrivateKey, @JsonRpcParam("spend_public_key") String spendPublicKey, @JsonRpcParam("start") @JsonRpcOptional Object start, @JsonRpcParam("labels") @JsonRpcOptional Integer[] labels) {
+    public String subscribeSilentPayments(@JsonRpcParam("scan_private_key") String scanPrivateKey, @JsonRpcParam("spend_public_key") String spendPublicKey, @JsonRpcParam("start") @JsonRpcOptional Object start, @JsonRpcParam("labels") @JsonRpcOptional Integer[] labels,
+                                          @JsonRpcParam("dust_limit") @JsonRpcOptional Long dustLimit, @JsonRpcParam("unspent_only") @JsonRpcOptional Boolean unspentOnly) {
         checkVersionNegotiated();
         SilentPaymentScanAddress silentPaymentScanAddress = getSilentPaymentScanAddress(scanPrivateKey, spendPublicKey);
         Set<Integer> labelSet = getLabels(labels);
-        requestHandler.subscribeSilentPaymentsAddress(silentPaymentScanAddress, labelSet);
-
         int[] heightRange = getHeightRange(start);
         Integer endHeight = heightRange.length > 1 ? heightRange[1] : null;
-        indexQuerier.startHistoryScan(silentPaymentScanAddress, heightRange[0], endHeight, labelSet, new WeakReference<>(requestHandler));
+        //A limit of zero filters nothing, so is treated as no limit
+        Long subscriptionDustLimit = dustLimit != null && dustLimit > 0 ? dustLimit : null;
+        //Only true is sent back with notifications, as false is the same as not setting it
+        Boolean subscriptionUnspentOnly = unspentOnly != null && unspentOnly ? Boolean.TRUE : null;
+        if(subscriptionUnspentOnly != null && !indexQuerier.isTrackingSpends()) {
+            throw new UnsupportedOperationException("Configure trackSpends = true under [index] to use unspent_only");
+        }
+        requestHandler.subscribeSilentPaymentsAddress(silentPaymentScanAddress, labelSet, heightRange[0], endHeight, subscriptionDustLimit, subscriptionUnspentOnly);
+        indexQuerier.startHistoryScan(silentPaymentScanAddress, heightRange[0], endHeight, labelSet, subscriptionDustLimit, subscriptionUnspentOnly, new WeakReference<>(requestHandler));
 
         return silentPaymentScanAddress.getAddress();
     }
@@ -150,8 +150,8 @@ public class RequestHandler implements Runnable, SubscriptionStatus, Thread.Unca
         return scriptHashesSubscribed.contains(scriptHash);
     }
 
-    public void subscribeSilentPaymentsAddress(SilentPaymentScanAddress silentPaymentsScanAddress, Set<Integer> labelSet) {
-        silentPaymentsAddressesSubscribed.put(silentPaymentsScanAddress.toString(), new SilentPaymentAddressSubscription(silentPaymentsScanAddress, labelSet));
+    public void subscribeSilentPaymentsAddress(SilentPaymentScanAddress silentPaymentsScanAddress, Set<Integer> labelSet, Integer startHeight, Integer endHeight, Long dustLimit, Boolean unspentOnly) {
+        silentPaymentsAddressesSubscribed.put(silentPaymentsScanAddress.toString(), new SilentPaymentAddressSubscription(silentPaymentsScanAddress, labelSet, startHeight, endHeight, dustLimit, unspentOnly));
     }
 
     public void unsubscribeSilentPaymentsAddress(SilentPaymentScanAddress silentPaymentsScanAddress) {
@@ -191,7 +191,9 @@ public class RequestHandler implements Runnable, SubscriptionStatus, Thread.Unca
     public void silentPaymentsNotification(SilentPaymentsNotification notification) {
         if(isSilentPaymentsAddressSubscribed(notification.subscription().address()) && notification.status() == this) {
             SilentPaymentAddressSubscription subscription = silentPaymentsAddressesSubscribed.get(notification.subscription().address());
-            subscription.setHighestBlockHeight(notification.history().stream().mapToInt(TxEntry::getHeight).max().orElse(subscription.getHighestBlockHeight()));
+            //Backfilled history is below the blocks already scanned, so the highest block height never goes back
+            subscription.setHighestBlockHeight(Math.max(subscription.getHighestBlockHeight(), notification.history().stream().mapToInt(TxEntry::getHeight).max().orElse(0)));
+            subscription.setProgress(notification.progress());
             subscription.getMempoolTxids().addAll(notification.history().stream().filter(txEntry -> txEntry.height <= 0).map(txEntry -> Sha256Hash.wrap(txEntry.tx_hash)).collect(Collectors.toSet()));
 
             try {
@@ -211,8 +213,19 @@ public class RequestHandler implements Runnable, SubscriptionStatus, Thread.Unca
     @Subscribe
     public void silentPaymentsBlocksIndexUpdate(SilentPaymentsBlocksIndexUpdate update) {
         for(SilentPaymentAddressSubscription subscription : silentPaymentsAddressesSubscribed.values()) {
-            if(update.fromBlockHeight() > subscription.getHighestBlockHeight()) {
-                electrumServerService.getIndexQuerier().startHistoryScan(subscription.getAddress(), update.fromBlockHeight(), null, subscription.getLabels(), new WeakReference<>(this), false);
+            //Until the subscription range is fully indexed, report progress on every update so the client sees indexing advance
+            boolean postIfEmpty = subscription.getProgress() < IndexQuerier.PROGRESS_COMPLETE;
+            if(update.backfill()) {
+                //A backfilled range is only scanned where it overlaps the subscription range
+                int startHeight = subscription.getStartHeight() == null ? update.fromBlockHeight() : Math.max(update.fromBlockHeight(), subscription.getStartHeight());
+                int endHeight = subscription.getEndHeight() == null ? update.toBlockHeight() : Math.min(update.toBlockHeight(), subscription.getEndHeight());
+                if(startHeight <= endHeight) {
+                    electrumServerService.getIndexQuerier().startHistoryScan(subscription.getAddress(), startHeight, endHeight, subscription.getStartHeight(), subscription.getEndHeight(),
+                            subscription.getLabels(), subscription.getDustLimit(), subscription.getUnspentOnly(), new WeakReference<>(this), true);
+                }
+            } else if(update.fromBlockHeight() > subscription.getHighestBlockHeight()) {
+                electrumServerService.getIndexQuerier().startHistoryScan(subscription.getAddress(), update.fromBlockHeight(), null, subscription.getStartHeight(), subscription.getEndHeight(),
+                        subscription.getLabels(), subscription.getDustLimit(), subscription.getUnspentOnly(), new WeakReference<>(this), postIfEmpty);
             }
         }
     }
@@ -220,7 +233,7 @@ public class RequestHandler implements Runnable, SubscriptionStatus, Thread.Unca
     @Subscribe
     public void silentPaymentsMempoolIndexAdded(SilentPaymentsMempoolIndexAdded added) {
         for(SilentPaymentAddressSubscription subscription : silentPaymentsAddressesSubscribed.values()) {
-            electrumServerService.getIndexQuerier().startMempoolScan(subscription.getAddress(), null, null, subscription.getLabels(), new WeakReference<>(this));
+            electrumServerService.getIndexQuerier().startMempoolScan(subscription.getAddress(), null, null, subscription.getLabels(), subscription.getDustLimit(), subscription.getUnspentOnly(), new WeakReference<>(this));
         }
     }
 
@@ -9,12 +9,21 @@ import java.util.Set;
 public class SilentPaymentAddressSubscription {
     private final SilentPaymentScanAddress address;
     private final Set<Integer> labels;
+    private final Integer startHeight;
+    private final Integer endHeight;
+    private final Long dustLimit;
+    private final Boolean unspentOnly;
     private int highestBlockHeight;
+    private double progress;
     private final Set<Sha256Hash> mempoolTxids = new HashSet<>();
 
-    public SilentPaymentAddressSubscription(SilentPaymentScanAddress address, Set<Integer> labels) {
+    public SilentPaymentAddressSubscription(SilentPaymentScanAddress address, Set<Integer> labels, Integer startHeight, Integer endHeight, Long dustLimit, Boolean unspentOnly) {
         this.address = address;
         this.labels = labels;
+        this.startHeight = startHeight;
+        this.endHeight = endHeight;
+        this.dustLimit = dustLimit;
+        this.unspentOnly = unspentOnly;
     }
 
     public SilentPaymentScanAddress getAddress() {
@@ -25,6 +34,22 @@ public class SilentPaymentAddressSubscription {
         return labels;
     }
 
+    public Integer getStartHeight() {
+        return startHeight;
+    }
+
+    public Integer getEndHeight() {
+        return endHeight;
+    }
+
+    public Long getDustLimit() {
+        return dustLimit;
+    }
+
+    public Boolean getUnspentOnly() {
+        return unspentOnly;
+    }
+
     public int getHighestBlockHeight() {
         return highestBlockHeight;
     }
@@ -33,6 +58,14 @@ public class SilentPaymentAddressSubscription {
         this.highestBlockHeight = highestBlockHeight;
     }
 
+    public double getProgress() {
+        return progress;
+    }
+
+    public void setProgress(double progress) {
+        this.progress = progress;
+    }
+
     public Set<Sha256Hash> getMempoolTxids() {
         return mempoolTxids;
     }
@@ -1,5 +1,11 @@
 package com.sparrowwallet.frigate.electrum;
 
-public record SilentPaymentsSubscription(String address, Integer[] labels, int start_height) {
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * The details of a subscription sent with each notification. The dust limit and unspent only flag are only included if the client set them.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record SilentPaymentsSubscription(String address, Integer[] labels, int start_height, Long dust_limit, Boolean unspent_only) {
 
 }
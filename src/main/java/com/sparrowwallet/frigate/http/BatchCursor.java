@@ -0,0 +1,36 @@
+package com.sparrowwallet.frigate.http;
+
+import com.sparrowwallet.drongo.Utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * The position of the last row returned by a page of the batch API, ordered by height, txid and output index. The next page starts
+ * after it. A cursor without a txid starts after every row at its height. Clients pass the encoded cursor back unchanged.
+ */
+record BatchCursor(int height, byte[] txid, int outputIndex) {
+    static BatchCursor afterHeight(int height) {
+        return new BatchCursor(height, null, -1);
+    }
+
+    String encode() {
+        String value = txid == null ? Integer.toString(height) : height + ":" + Utils.bytesToHex(txid) + ":" + outputIndex;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static BatchCursor decode(String token) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(":");
+            if(parts.length == 1) {
+                return afterHeight(Integer.parseInt(parts[0]));
+            } else if(parts.length == 3) {
+                return new BatchCursor(Integer.parseInt(parts[0]), Utils.hexToBytes(parts[1]), Integer.parseInt(parts[2]));
+            }
+        } catch(IllegalArgumentException | IndexOutOfBoundsException e) {
+            //Fall through to the error below
+        }
+
+        throw new IllegalArgumentException("Invalid cursor " + token);
+    }
+}
@@ -0,0 +1,75 @@
+package com.sparrowwallet.frigate.http;
+
+import java.util.Arrays;
+
+/**
+ * The number of rows at each block height of the table served by the batch API, held as cumulative counts so that the total of any
+ * height range, and the height range holding the next page of rows, are found without counting the table again.
+ */
+final class HeightCounts {
+    //Counts are refreshed at most this often once blocks have been indexed or removed, since they are recounted over the whole table
+    static final long REFRESH_MILLIS = 30_000L;
+
+    private final int[] heights;
+    private final long[] cumulative;
+    private final long indexedBlocks;
+    private final long counted;
+
+    /**
+     * @param heights the heights with rows, in ascending order
+     * @param counts the number of rows at each height
+     * @param indexedBlocks the number of blocks indexed when the rows were counted, which also changes as history is backfilled below the tip
+     */
+    HeightCounts(int[] heights, long[] counts, long indexedBlocks, long counted) {
+        this.heights = heights;
+        this.cumulative = new long[counts.length];
+        long total = 0;
+        for(int i = 0; i < counts.length; i++) {
+            total += counts[i];
+            cumulative[i] = total;
+        }
+        this.indexedBlocks = indexedBlocks;
+        this.counted = counted;
+    }
+
+    boolean isStale(long indexedBlocks, long now) {
+        return indexedBlocks != this.indexedBlocks && now - counted >= REFRESH_MILLIS;
+    }
+
+    long getTotal() {
+        return cumulative.length == 0 ? 0 : cumulative[cumulative.length - 1];
+    }
+
+    /**
+     * Returns the number of rows from the start height to the end height inclusive, either of which may be null for no limit.
+     */
+    long getTotal(Integer startHeight, Integer endHeight) {
+        long to = endHeight == null || endHeight == Integer.MAX_VALUE ? getTotal() : getRowsBefore(endHeight + 1);
+        long from = startHeight == null ? 0 : getRowsBefore(startHeight);
+        return Math.max(0, to - from);
+    }
+
+    /**
+     * Returns the lowest height at which the rows from the given height reach the given number of rows, or null if they are only
+     * reached at the last height counted or not at all, in which case the page should not be bounded above so that rows indexed since
+     * the counts were taken are included.
+     */
+    Integer getEndHeight(int fromHeight, long rows) {
+        long target = getRowsBefore(fromHeight) + rows;
+        int index = Arrays.binarySearch(cumulative, target);
+        if(index < 0) {
+            index = -index - 1;
+        }
+
+        return index >= heights.length - 1 ? null : heights[index];
+    }
+
+    private long getRowsBefore(int height) {
+        int index = Arrays.binarySearch(heights, height);
+        if(index < 0) {
+            index = -index - 1;
+        }
+
+        return index == 0 ? 0 : cumulative[index - 1];
+    }
+}
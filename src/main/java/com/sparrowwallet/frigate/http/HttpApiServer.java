@@ -1,19 +1,23 @@
 package com.sparrowwallet.frigate.http;
 
+import com.sparrowwallet.frigate.index.Compactor;
 import com.sparrowwallet.frigate.index.Index;
 import com.sparrowwallet.frigate.index.IndexMode;
+import com.sparrowwallet.frigate.metrics.BlockTracer;
+import com.sparrowwallet.frigate.metrics.LatencyHistogram;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
+import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.zip.GZIPOutputStream;
@@ -31,6 +35,7 @@ public class HttpApiServer {
     // Cached metadata
     private String tableName;
     private boolean hasCompressedColumn;
+    private volatile HeightCounts heightCounts;
 
     public HttpApiServer(Index blocksIndex) {
         this(blocksIndex, DEFAULT_PORT);
@@ -47,6 +52,8 @@ public class HttpApiServer {
             server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
             server.createContext("/api/info", this::handleInfo);
             server.createContext("/api/batch", this::handleBatch);
+            server.createContext("/api/latency", this::handleLatency);
+            server.createContext("/api/maintenance", this::handleMaintenance);
             server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
             server.start();
             log.info("HTTP API server listening on port {}", port);
@@ -63,7 +70,8 @@ public class HttpApiServer {
 
     private void detectTable() {
         try {
-            if(blocksIndex.getIndexMode() == IndexMode.UTXO_ONLY) {
+            //In HYBRID mode the utxo table holds the unspent outputs of all heights, including the recent window
+            if(blocksIndex.getIndexMode() != IndexMode.FULL) {
                 tableName = "utxo";
                 hasCompressedColumn = blocksIndex.executeRead(connection -> {
                     ResultSet rs = connection.createStatement().executeQuery(
@@ -83,13 +91,10 @@ public class HttpApiServer {
 
     private void handleInfo(HttpExchange exchange) throws IOException {
         if(handleCors(exchange)) return;
+        if(refuseSharded(exchange)) return;
 
         try {
-            int totalRecords = blocksIndex.executeRead(connection -> {
-                ResultSet rs = connection.createStatement().executeQuery("SELECT COUNT(*) FROM " + tableName);
-                rs.next();
-                return rs.getInt(1);
-            });
+            long totalRecords = getHeightCounts().getTotal();
 
             String keyColumn = hasCompressedColumn ? "compressed_tweak_key" : "tweak_key";
             int keySize = blocksIndex.executeRead(connection -> {
@@ -118,140 +123,300 @@ public class HttpApiServer {
         }
     }
 
+    /**
+     * Returns a page of rows ordered by height, txid and output index, starting after the row identified by the cursor parameter. Each
+     * page is read from the range of heights the cached counts show holds it, so pages take the same time however deep they are. The
+     * offset parameter is still accepted from clients without a cursor, but reads and discards every row before the offset.
+     */
     private void handleBatch(HttpExchange exchange) throws IOException {
         if(handleCors(exchange)) return;
+        if(refuseSharded(exchange)) return;
 
         try {
             Map<String, String> params = parseQuery(exchange.getRequestURI().getQuery());
 
-            int offset = Integer.parseInt(params.getOrDefault("offset", "0"));
-            int limit = Math.min(Integer.parseInt(params.getOrDefault("limit", String.valueOf(BATCH_SIZE))), MAX_BATCH_SIZE);
+            int limit = Math.max(1, Math.min(Integer.parseInt(params.getOrDefault("limit", String.valueOf(BATCH_SIZE))), MAX_BATCH_SIZE));
             boolean scanMode = "1".equals(params.get("scan"));
             Integer startHeight = params.containsKey("start_height") ? Integer.parseInt(params.get("start_height")) : null;
             Integer endHeight = params.containsKey("end_height") ? Integer.parseInt(params.get("end_height")) : null;
+            BatchCursor cursor = params.containsKey("cursor") ? BatchCursor.decode(params.get("cursor")) : null;
+            int offset = cursor == null ? Integer.parseInt(params.getOrDefault("offset", "0")) : 0;
 
             long t0 = System.nanoTime();
 
-            String keyColumn = hasCompressedColumn ? "compressed_tweak_key" : "tweak_key";
+            HeightCounts heightCounts = getHeightCounts();
+            long filteredTotal = heightCounts.getTotal(startHeight, endHeight);
 
-            // Build WHERE clause
-            List<String> conditions = new ArrayList<>();
-            if(startHeight != null) conditions.add("height >= " + startHeight);
-            if(endHeight != null) conditions.add("height <= " + endHeight);
-            String whereClause = conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
-
-            // Get filtered total
-            int filteredTotal;
-            if(startHeight != null || endHeight != null) {
-                filteredTotal = blocksIndex.executeRead(connection -> {
-                    ResultSet rs = connection.createStatement().executeQuery("SELECT COUNT(*) FROM " + tableName + whereClause);
-                    rs.next();
-                    return rs.getInt(1);
-                });
-            } else {
-                filteredTotal = blocksIndex.executeRead(connection -> {
-                    ResultSet rs = connection.createStatement().executeQuery("SELECT COUNT(*) FROM " + tableName);
-                    rs.next();
-                    return rs.getInt(1);
-                });
+            boolean utxo = "utxo".equals(tableName);
+            int fromHeight = Math.max(startHeight == null ? 0 : startHeight, cursor == null ? 0 : cursor.height() + 1);
+            Integer pageEndHeight = offset > 0 ? null : heightCounts.getEndHeight(fromHeight, limit);
+            if(pageEndHeight != null && endHeight != null && pageEndHeight >= endHeight) {
+                pageEndHeight = null;
             }
 
-            // Fetch records
-            String records = blocksIndex.executeRead(connection -> {
-                String sql;
-                if("utxo".equals(tableName)) {
-                    if(scanMode) {
-                        sql = "SELECT " + keyColumn + ", output_hash_prefix, txid, output_index, height, value FROM " + tableName + whereClause + " LIMIT " + limit + " OFFSET " + offset;
-                    } else {
-                        sql = "SELECT txid, output_index, height, " + keyColumn + ", output_hash_prefix, value FROM " + tableName + whereClause + " LIMIT " + limit + " OFFSET " + offset;
-                    }
+            List<Object> parameters = new ArrayList<>();
+            List<String> conditions = new ArrayList<>();
+            if(startHeight != null) {
+                conditions.add("height >= ?");
+                parameters.add(startHeight);
+            }
+            if(endHeight != null) {
+                conditions.add("height <= ?");
+                parameters.add(endHeight);
+            }
+            if(cursor != null && cursor.txid() == null) {
+                conditions.add("height > ?");
+                parameters.add(cursor.height());
+            } else if(cursor != null) {
+                //The plain height condition lets DuckDB skip the row groups below the cursor
+                conditions.add("height >= ?");
+                parameters.add(cursor.height());
+                if(utxo) {
+                    conditions.add("(height > ? OR (height = ? AND (txid > ? OR (txid = ? AND output_index > ?))))");
+                    parameters.addAll(List.of(cursor.height(), cursor.height(), cursor.txid(), cursor.txid(), cursor.outputIndex()));
                 } else {
-                    sql = "SELECT txid, height, tweak_key FROM " + tableName + whereClause + " LIMIT " + limit + " OFFSET " + offset;
+                    conditions.add("(height > ? OR (height = ? AND txid > ?))");
+                    parameters.addAll(List.of(cursor.height(), cursor.height(), cursor.txid()));
                 }
+            }
+            if(pageEndHeight != null) {
+                conditions.add("height <= ?");
+                parameters.add(pageEndHeight);
+            }
+
+            String keyColumn = hasCompressedColumn ? "compressed_tweak_key" : "tweak_key";
+            String sql = (utxo ? "SELECT txid, output_index, height, " + keyColumn + ", output_hash_prefix, value FROM " : "SELECT txid, -1, height, tweak_key, 0, 0 FROM ") + tableName +
+                    (conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions)) + " ORDER BY height, txid" + (utxo ? ", output_index" : "") + " LIMIT ?" + (offset > 0 ? " OFFSET ?" : "");
+            //One row more than the page is read to tell whether another page follows
+            parameters.add(limit + 1);
+            if(offset > 0) {
+                parameters.add(offset);
+            }
 
-                ResultSet rs = connection.createStatement().executeQuery(sql);
-                StringBuilder sb = new StringBuilder("[");
-                int count = 0;
-
-                while(rs.next()) {
-                    if(count > 0) sb.append(",");
-
-                    if("utxo".equals(tableName)) {
-                        if(scanMode) {
-                            byte[] key = rs.getBytes(1);
-                            long hashPrefix = rs.getLong(2);
-                            byte[] txid = rs.getBytes(3);
-                            int outputIndex = rs.getInt(4);
-                            int height = rs.getInt(5);
-                            long value = rs.getLong(6);
-
-                            sb.append("{\"k\":\"").append(Base64.getEncoder().encodeToString(key)).append("\",");
-                            sb.append("\"p\":\"").append(hashPrefix).append("\",");
-                            sb.append("\"t\":\"").append(Base64.getEncoder().encodeToString(txid)).append("\",");
-                            sb.append("\"o\":").append(outputIndex).append(",");
-                            sb.append("\"h\":").append(height).append(",");
-                            sb.append("\"v\":").append(value).append("}");
+            //Rows are read before the response is written, so that a slow client does not hold a database connection
+            List<BatchRecord> records = blocksIndex.executeRead(connection -> {
+                try(PreparedStatement statement = connection.prepareStatement(sql)) {
+                    for(int i = 0; i < parameters.size(); i++) {
+                        if(parameters.get(i) instanceof byte[] bytes) {
+                            statement.setBytes(i + 1, bytes);
                         } else {
-                            byte[] txid = rs.getBytes(1);
-                            int outputIndex = rs.getInt(2);
-                            int height = rs.getInt(3);
-                            byte[] key = rs.getBytes(4);
-                            long hashPrefix = rs.getLong(5);
-                            long value = rs.getLong(6);
-
-                            sb.append("{\"txid\":\"").append(Base64.getEncoder().encodeToString(txid)).append("\",");
-                            sb.append("\"output_index\":").append(outputIndex).append(",");
-                            sb.append("\"height\":").append(height).append(",");
-                            sb.append("\"tweak_key\":\"").append(Base64.getEncoder().encodeToString(key)).append("\",");
-                            sb.append("\"output_hash_prefix\":\"").append(hashPrefix).append("\",");
-                            sb.append("\"value\":").append(value).append("}");
+                            statement.setObject(i + 1, parameters.get(i));
                         }
-                    } else {
-                        byte[] txid = rs.getBytes(1);
-                        int height = rs.getInt(2);
-                        byte[] key = rs.getBytes(3);
+                    }
 
-                        sb.append("{\"txid\":\"").append(Base64.getEncoder().encodeToString(txid)).append("\",");
-                        sb.append("\"height\":").append(height).append(",");
-                        sb.append("\"tweak_key\":\"").append(Base64.getEncoder().encodeToString(key)).append("\"}");
+                    List<BatchRecord> rows = new ArrayList<>(limit + 1);
+                    try(ResultSet rs = statement.executeQuery()) {
+                        while(rs.next()) {
+                            rows.add(new BatchRecord(rs.getBytes(1), rs.getInt(2), rs.getInt(3), rs.getBytes(4), rs.getLong(5), rs.getLong(6)));
+                        }
                     }
-                    count++;
+                    return rows;
                 }
-
-                sb.append("]");
-                return count + "\t" + sb.toString();
             });
 
             double queryMs = (System.nanoTime() - t0) / 1_000_000.0;
 
-            // Parse count from records string
-            int tabIdx = records.indexOf('\t');
-            int count = Integer.parseInt(records.substring(0, tabIdx));
-            String recordsJson = records.substring(tabIdx + 1);
-
-            StringBuilder json = new StringBuilder();
-            json.append("{");
-            json.append("\"offset\":").append(offset).append(",");
-            json.append("\"count\":").append(count).append(",");
-            json.append("\"total\":").append(filteredTotal).append(",");
-            json.append("\"has_more\":").append(offset + count < filteredTotal).append(",");
-            json.append("\"query_ms\":").append(String.format("%.2f", queryMs)).append(",");
-            json.append("\"records\":").append(recordsJson);
-            if(startHeight != null || endHeight != null) {
-                json.append(",\"filter\":{");
-                json.append("\"start_height\":").append(startHeight != null ? startHeight : "null").append(",");
-                json.append("\"end_height\":").append(endHeight != null ? endHeight : "null");
-                json.append("}");
+            //A page with rows beyond it continues after its last row, and a page bounded by the counts continues after its range even if
+            //spends have emptied it
+            BatchCursor next = null;
+            if(records.size() > limit) {
+                records.removeLast();
+                BatchRecord last = records.getLast();
+                next = new BatchCursor(last.height(), last.txid(), last.outputIndex());
+            } else if(pageEndHeight != null) {
+                next = BatchCursor.afterHeight(pageEndHeight);
             }
-            json.append("}");
 
-            sendJson(exchange, json.toString());
+            streamJson(exchange, writer -> {
+                writer.write("{\"records\":[");
+                Base64.Encoder encoder = Base64.getEncoder();
+                for(int i = 0; i < records.size(); i++) {
+                    BatchRecord record = records.get(i);
+                    if(i > 0) writer.write(",");
+
+                    if(utxo && scanMode) {
+                        writer.write("{\"k\":\"" + encoder.encodeToString(record.key()) + "\",");
+                        writer.write("\"p\":\"" + record.hashPrefix() + "\",");
+                        writer.write("\"t\":\"" + encoder.encodeToString(record.txid()) + "\",");
+                        writer.write("\"o\":" + record.outputIndex() + ",");
+                        writer.write("\"h\":" + record.height() + ",");
+                        writer.write("\"v\":" + record.value() + "}");
+                    } else if(utxo) {
+                        writer.write("{\"txid\":\"" + encoder.encodeToString(record.txid()) + "\",");
+                        writer.write("\"output_index\":" + record.outputIndex() + ",");
+                        writer.write("\"height\":" + record.height() + ",");
+                        writer.write("\"tweak_key\":\"" + encoder.encodeToString(record.key()) + "\",");
+                        writer.write("\"output_hash_prefix\":\"" + record.hashPrefix() + "\",");
+                        writer.write("\"value\":" + record.value() + "}");
+                    } else {
+                        writer.write("{\"txid\":\"" + encoder.encodeToString(record.txid()) + "\",");
+                        writer.write("\"height\":" + record.height() + ",");
+                        writer.write("\"tweak_key\":\"" + encoder.encodeToString(record.key()) + "\"}");
+                    }
+                }
+                writer.write("],");
+                if(cursor == null) {
+                    writer.write("\"offset\":" + offset + ",");
+                }
+                writer.write("\"count\":" + records.size() + ",");
+                writer.write("\"total\":" + filteredTotal + ",");
+                writer.write("\"has_more\":" + (next != null) + ",");
+                writer.write("\"next\":" + (next == null ? "null" : "\"" + next.encode() + "\"") + ",");
+                writer.write("\"query_ms\":" + String.format("%.2f", queryMs));
+                if(startHeight != null || endHeight != null) {
+                    writer.write(",\"filter\":{");
+                    writer.write("\"start_height\":" + (startHeight != null ? startHeight : "null") + ",");
+                    writer.write("\"end_height\":" + (endHeight != null ? endHeight : "null"));
+                    writer.write("}");
+                }
+                writer.write("}");
+            });
         } catch(Exception e) {
             log.error("Error handling /api/batch", e);
             sendJson(exchange, "{\"error\":\"" + escapeJson(e.getMessage()) + "\"}");
         }
     }
 
+    /**
+     * Returns the number of rows at each height of the served table, counted again once blocks have been indexed, backfilled or
+     * reorged out since and the counts are old enough, so that page totals and ranges do not need a count over the table.
+     */
+    private HeightCounts getHeightCounts() throws SQLException, InterruptedException {
+        HeightCounts counts = heightCounts;
+        long indexedBlocks = blocksIndex.getIndexedBlockCount();
+        if(counts != null && !counts.isStale(indexedBlocks, System.currentTimeMillis())) {
+            return counts;
+        }
+
+        synchronized(this) {
+            counts = heightCounts;
+            if(counts == null || counts.isStale(indexedBlocks, System.currentTimeMillis())) {
+                counts = blocksIndex.executeRead(connection -> {
+                    List<long[]> rows = new ArrayList<>();
+                    try(Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("SELECT height, COUNT(*) FROM " + tableName + " GROUP BY height ORDER BY height")) {
+                        while(rs.next()) {
+                            rows.add(new long[] { rs.getInt(1), rs.getLong(2) });
+                        }
+                    }
+
+                    int[] heights = new int[rows.size()];
+                    long[] rowCounts = new long[rows.size()];
+                    for(int i = 0; i < rows.size(); i++) {
+                        heights[i] = (int)rows.get(i)[0];
+                        rowCounts[i] = rows.get(i)[1];
+                    }
+                    return new HeightCounts(heights, rowCounts, indexedBlocks, System.currentTimeMillis());
+                });
+                heightCounts = counts;
+            }
+
+            return counts;
+        }
+    }
+
+    private void handleLatency(HttpExchange exchange) throws IOException {
+        if(handleCors(exchange)) return;
+
+        BlockTracer blockTracer = BlockTracer.get();
+        StringBuilder json = new StringBuilder();
+        json.append("{");
+        json.append("\"unit\":\"us\",");
+        json.append("\"indexed\":");
+        appendHistogram(json, blockTracer.getIndexedLatency());
+        json.append(",\"notification\":");
+        appendHistogram(json, blockTracer.getNotificationLatency());
+        json.append(",\"complete\":");
+        appendHistogram(json, blockTracer.getCompleteLatency());
+        json.append(",\"recent\":[");
+        List<BlockTracer.SpanSummary> recentSpans = blockTracer.getRecentSpans();
+        for(int i = 0; i < recentSpans.size(); i++) {
+            BlockTracer.SpanSummary span = recentSpans.get(i);
+            if(i > 0) json.append(",");
+            json.append("{\"from_height\":").append(span.fromHeight()).append(",");
+            json.append("\"to_height\":").append(span.toHeight()).append(",");
+            json.append("\"indexed\":").append(span.indexedMicros()).append(",");
+            json.append("\"dispatched\":").append(span.dispatchedMicros()).append(",");
+            json.append("\"complete\":").append(span.completeMicros()).append(",");
+            json.append("\"scans\":").append(span.scans()).append(",");
+            json.append("\"notifications\":").append(span.notifications()).append("}");
+        }
+        json.append("]}");
+
+        sendJson(exchange, json.toString());
+    }
+
+    private void handleMaintenance(HttpExchange exchange) throws IOException {
+        if(handleCors(exchange)) return;
+
+        Compactor compactor = blocksIndex.getCompactor();
+        StringBuilder json = new StringBuilder();
+        json.append("{\"enabled\":").append(compactor != null);
+        if(compactor != null) {
+            json.append(",\"threshold\":").append(compactor.getThreshold()).append(",");
+            json.append("\"pending_deleted_rows\":").append(compactor.getPendingDeletedRows()).append(",");
+            json.append("\"last_checked\":").append(compactor.getLastChecked()).append(",");
+            json.append("\"tables\":{");
+            boolean firstTable = true;
+            for(Map.Entry<String, List<Compactor.RangeStats>> entry : compactor.getFragmentation().entrySet()) {
+                if(!firstTable) json.append(",");
+                firstTable = false;
+                json.append("\"").append(entry.getKey()).append("\":[");
+                List<Compactor.RangeStats> ranges = entry.getValue();
+                for(int i = 0; i < ranges.size(); i++) {
+                    Compactor.RangeStats range = ranges.get(i);
+                    if(i > 0) json.append(",");
+                    json.append("{\"from_height\":").append(range.fromHeight()).append(",");
+                    json.append("\"to_height\":").append(range.toHeight()).append(",");
+                    json.append("\"rows\":").append(range.rows()).append(",");
+                    json.append("\"deleted_rows\":").append(range.deletedRows()).append(",");
+                    json.append("\"deleted_fraction\":").append(range.getDeletedFraction()).append("}");
+                }
+                json.append("]");
+            }
+            json.append("},\"compactions\":[");
+            List<Compactor.Compaction> compactions = compactor.getCompactions();
+            for(int i = 0; i < compactions.size(); i++) {
+                Compactor.Compaction compaction = compactions.get(i);
+                if(i > 0) json.append(",");
+                json.append("{\"time\":").append(compaction.time()).append(",");
+                json.append("\"ranges\":").append(compaction.ranges()).append(",");
+                json.append("\"rows\":").append(compaction.rows()).append(",");
+                json.append("\"millis\":").append(compaction.millis()).append(",");
+                json.append("\"scan_rows_per_second_before\":").append(Math.round(compaction.scanRowsPerSecondBefore())).append(",");
+                json.append("\"scan_rows_per_second_after\":").append(Math.round(compaction.scanRowsPerSecondAfter())).append(",");
+                json.append("\"database_bytes_before\":").append(compaction.databaseBytesBefore()).append(",");
+                json.append("\"database_bytes_after\":").append(compaction.databaseBytesAfter()).append(",");
+                json.append("\"used_bytes_before\":").append(compaction.usedBytesBefore()).append(",");
+                json.append("\"used_bytes_after\":").append(compaction.usedBytesAfter()).append("}");
+            }
+            json.append("]");
+        }
+        json.append("}");
+
+        sendJson(exchange, json.toString());
+    }
+
+    private void appendHistogram(StringBuilder json, LatencyHistogram histogram) {
+        json.append("{\"count\":").append(histogram.getCount()).append(",");
+        json.append("\"mean\":").append(histogram.getMean()).append(",");
+        json.append("\"p50\":").append(histogram.getPercentile(50)).append(",");
+        json.append("\"p90\":").append(histogram.getPercentile(90)).append(",");
+        json.append("\"p99\":").append(histogram.getPercentile(99)).append(",");
+        json.append("\"max\":").append(histogram.getMax()).append("}");
+    }
+
+    /**
+     * Sealed blocks are deleted from the served table once they are written to shard files, so the rows and totals of the table would
+     * silently leave out all sealed history.
+     */
+    private boolean refuseSharded(HttpExchange exchange) throws IOException {
+        if(blocksIndex.hasShards()) {
+            sendJson(exchange, "{\"error\":\"The batch API is not available with shardSize set under [index], since sealed blocks are only held in shard files\"}");
+            return true;
+        }
+        return false;
+    }
+
     private boolean handleCors(HttpExchange exchange) throws IOException {
         exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
@@ -264,6 +429,30 @@ public class HttpApiServer {
         return false;
     }
 
+    /**
+     * Writes a JSON response as it is generated with chunked encoding, compressed if the client accepts gzip. Errors while writing are
+     * handled here, since the response headers have already been sent.
+     */
+    private void streamJson(HttpExchange exchange, JsonWriter jsonWriter) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        if(gzip) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream body = exchange.getResponseBody();
+        try(Writer writer = new BufferedWriter(new OutputStreamWriter(gzip ? new GZIPOutputStream(body) : body, StandardCharsets.UTF_8), 64 * 1024)) {
+            jsonWriter.write(writer);
+        } catch(Exception e) {
+            //The headers have been sent, so an error can only cut the body short, which the client fails to parse
+            log.error("Error writing response to " + exchange.getRequestURI().getPath(), e);
+            exchange.close();
+        }
+    }
+
     private void sendJson(HttpExchange exchange, String json) throws IOException {
         byte[] responseBytes = json.getBytes(StandardCharsets.UTF_8);
         exchange.getResponseHeaders().set("Content-Type", "application/json");
@@ -304,6 +493,13 @@ public class HttpApiServer {
         return params;
     }
 
+    @FunctionalInterface
+    private interface JsonWriter {
+        void write(Writer writer) throws IOException;
+    }
+
+    private record BatchRecord(byte[] txid, int outputIndex, int height, byte[] key, long hashPrefix, long value) {}
+
     private String escapeJson(String s) {
         if(s == null) return "";
         return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
@@ -0,0 +1,129 @@
+package com.sparrowwallet.frigate.http;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.drongo.crypto.ECKey;
+import com.sparrowwallet.drongo.silentpayments.SilentPaymentScanAddress;
+import com.sparrowwallet.frigate.electrum.SilentPaymentsSubscription;
+import com.sparrowwallet.frigate.index.Index;
+import com.sparrowwallet.frigate.index.ScanSliceRequest;
+import com.sparrowwallet.frigate.index.TxEntry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves slices of history scans to a coordinating Frigate server, scanning each slice on the local index. A slice the index has not
+ * indexed yet is refused with 503, so that the coordinator sends it to another server.
+ */
+public class ScanWorkerServer {
+    private static final Logger log = LoggerFactory.getLogger(ScanWorkerServer.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final Index blocksIndex;
+    private final String address;
+    private final int port;
+    private final String secret;
+    private HttpServer server;
+
+    public ScanWorkerServer(Index blocksIndex, String address, int port, String secret) {
+        this.blocksIndex = blocksIndex;
+        this.address = address;
+        this.port = port;
+        this.secret = secret;
+    }
+
+    public void start() {
+        try {
+            //Slices carry the scan private key of the subscription, so they are only accepted unauthenticated from this machine
+            if(!InetAddress.getByName(address).isLoopbackAddress() && (secret == null || secret.isBlank())) {
+                log.error("Scan worker server not started: workerSecret must be set under [server] in config.toml to listen on " + address);
+                return;
+            }
+
+            server = HttpServer.create(new InetSocketAddress(address, port), 0);
+            server.createContext(ScanSliceRequest.PATH, this::handleScan);
+            server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+            server.start();
+            log.info("Scan worker server listening on {}:{}", address, port);
+        } catch(Exception e) {
+            log.error("Failed to start scan worker server", e);
+        }
+    }
+
+    public void stop() {
+        if(server != null) {
+            server.stop(0);
+        }
+    }
+
+    private void handleScan(HttpExchange exchange) throws IOException {
+        if(!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            sendJson(exchange, HttpURLConnection.HTTP_BAD_METHOD, Map.of("error", "POST required"));
+            return;
+        }
+
+        if(secret != null && !isAuthorized(exchange.getRequestHeaders().getFirst("Authorization"))) {
+            sendJson(exchange, HttpURLConnection.HTTP_UNAUTHORIZED, Map.of("error", "Unauthorized"));
+            return;
+        }
+
+        ScanSliceRequest request;
+        SilentPaymentScanAddress scanAddress;
+        try(InputStream is = exchange.getRequestBody()) {
+            request = MAPPER.readValue(is, ScanSliceRequest.class);
+            ECKey scanKey = ECKey.fromPrivate(Utils.hexToBytes(request.scan_private_key()));
+            ECKey spendKey = ECKey.fromPublicOnly(Utils.hexToBytes(request.spend_public_key()));
+            scanAddress = SilentPaymentScanAddress.from(scanKey, spendKey);
+        } catch(Exception e) {
+            sendJson(exchange, HttpURLConnection.HTTP_BAD_REQUEST, Map.of("error", "Invalid scan request: " + e.getMessage()));
+            return;
+        }
+
+        if(!blocksIndex.isIndexed(request.start_height(), request.end_height())) {
+            sendJson(exchange, HttpURLConnection.HTTP_UNAVAILABLE, Map.of("error", "Block heights " + request.start_height() + " to " + request.end_height() + " are not indexed"));
+            return;
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            Integer[] labels = request.labels() == null ? new Integer[0] : request.labels();
+            SilentPaymentsSubscription subscription = new SilentPaymentsSubscription(scanAddress.toString(), labels, request.start_height(), request.dust_limit(), request.unspent_only());
+            List<TxEntry> history = blocksIndex.scanSlice(scanAddress, subscription, request.start_height(), request.end_height());
+            log.debug("Scanned block heights {} to {} for coordinator in {}ms", request.start_height(), request.end_height(), System.currentTimeMillis() - start);
+            sendJson(exchange, HttpURLConnection.HTTP_OK, history);
+        } catch(Exception e) {
+            log.error("Error scanning block heights " + request.start_height() + " to " + request.end_height(), e);
+            sendJson(exchange, HttpURLConnection.HTTP_INTERNAL_ERROR, Map.of("error", String.valueOf(e.getMessage())));
+        }
+    }
+
+    private boolean isAuthorized(String authorization) {
+        byte[] expected = ("Bearer " + secret).getBytes(StandardCharsets.UTF_8);
+        return authorization != null && MessageDigest.isEqual(expected, authorization.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void sendJson(HttpExchange exchange, int status, Object value) throws IOException {
+        byte[] responseBytes = MAPPER.writeValueAsBytes(value);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, responseBytes.length);
+        try(OutputStream os = exchange.getResponseBody()) {
+            os.write(responseBytes);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import org.slf4j.LoggerFactory;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Properties;
 
 public abstract class AbstractDbManager implements DbManager {
     private static final Logger log = LoggerFactory.getLogger(AbstractDbManager.class);
@@ -17,4 +18,9 @@ public abstract class AbstractDbManager implements DbManager {
         log.debug("Creating write connection");
         return DriverManager.getConnection(connectionUrl);
     }
+
+    protected Connection createWriteConnection(String connectionUrl, Properties properties) throws SQLException {
+        log.debug("Creating write connection");
+        return DriverManager.getConnection(connectionUrl, properties);
+    }
 }
@@ -0,0 +1,167 @@
+package com.sparrowwallet.frigate.index;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when and where the tables of the index should be rewritten. Deleted rows, from reorgs, spent outputs, aged tweak history
+ * and mempool churn, stay in the row groups of a DuckDB table until it is rewritten, and rows written out of height order spread a
+ * range of blocks over many row groups, so scans read more data than they return. Once enough rows have been deleted since the last
+ * check, the deleted fraction of each row group is measured, and the height ranges of the row groups above the threshold are
+ * rewritten in height order, in chunks small enough that commits and scans only wait for one chunk at a time.
+ */
+public class Compactor {
+    public static final double DEFAULT_THRESHOLD = 0.2d;
+    public static final int DEFAULT_INTERVAL_SECONDS = 3600;
+
+    //The default number of rows in a DuckDB row group, so that rowid / ROW_GROUP_SIZE approximates the row group of each row
+    static final long ROW_GROUP_SIZE = 122880L;
+    //Each chunk is rewritten in its own transaction, which holds the write connection for about a second at this size
+    static final long MAX_REWRITE_ROWS = 1_000_000L;
+    //The deleted fraction is reported in ranges of this many blocks
+    static final int REPORT_BLOCKS = 10000;
+    private static final int MAX_COMPACTIONS = 20;
+
+    private final double threshold;
+    private final long intervalMillis;
+    private final AtomicLong deletedRows = new AtomicLong();
+    private volatile long lastChecked;
+    private final Map<String, List<RangeStats>> fragmentation = new ConcurrentSkipListMap<>();
+    private final Deque<Compaction> compactions = new ArrayDeque<>();
+
+    public Compactor(double threshold, long intervalMillis) {
+        this.threshold = threshold;
+        this.intervalMillis = intervalMillis;
+        this.lastChecked = System.currentTimeMillis();
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Records rows deleted or rewritten in place since the last check. Updates to the list columns of a row are written as a delete and
+     * an insert, so they leave a deleted row behind too.
+     */
+    void recordDeleted(long rows) {
+        if(rows > 0) {
+            deletedRows.addAndGet(rows);
+        }
+    }
+
+    public long getPendingDeletedRows() {
+        return deletedRows.get();
+    }
+
+    public long getLastChecked() {
+        return lastChecked;
+    }
+
+    boolean isDue(long now) {
+        return threshold > 0 && deletedRows.get() > 0 && now - lastChecked >= intervalMillis;
+    }
+
+    /**
+     * Starts a check, returning the rows deleted since the last one, which should be recorded again if the check stops early.
+     */
+    long startCheck(long now) {
+        lastChecked = now;
+        return deletedRows.getAndSet(0);
+    }
+
+    /**
+     * Records the deleted fraction of a table by height range, and returns the height ranges to rewrite in ascending order. Each range
+     * covers the row groups above the threshold, split so that each chunk holds at most MAX_REWRITE_ROWS live rows.
+     */
+    List<HeightIntervals.Interval> plan(String table, List<RowGroup> rowGroups) {
+        SortedMap<Integer, long[]> ranges = new TreeMap<>();
+        HeightIntervals fragmented = HeightIntervals.EMPTY;
+        for(RowGroup rowGroup : rowGroups) {
+            long[] counts = ranges.computeIfAbsent(Math.floorDiv(rowGroup.minHeight(), REPORT_BLOCKS), _ -> new long[2]);
+            counts[0] += rowGroup.rows();
+            counts[1] += rowGroup.getDeletedRows();
+            if(rowGroup.getDeletedFraction() >= threshold) {
+                fragmented = fragmented.with(rowGroup.minHeight(), rowGroup.maxHeight());
+            }
+        }
+
+        List<RangeStats> stats = new ArrayList<>();
+        for(Map.Entry<Integer, long[]> entry : ranges.entrySet()) {
+            int fromHeight = entry.getKey() * REPORT_BLOCKS;
+            stats.add(new RangeStats(fromHeight, fromHeight + REPORT_BLOCKS - 1, entry.getValue()[0], entry.getValue()[1]));
+        }
+        fragmentation.put(table, List.copyOf(stats));
+
+        List<HeightIntervals.Interval> chunks = new ArrayList<>();
+        for(HeightIntervals.Interval interval : fragmented.getIntervals()) {
+            double rows = 0;
+            for(RowGroup rowGroup : rowGroups) {
+                int overlap = Math.min(rowGroup.maxHeight(), interval.to()) - Math.max(rowGroup.minHeight(), interval.from()) + 1;
+                if(overlap > 0) {
+                    rows += (double)rowGroup.rows() * overlap / (rowGroup.maxHeight() - rowGroup.minHeight() + 1);
+                }
+            }
+
+            int count = (int)Math.min(interval.size(), Math.max(1, (long)Math.ceil(rows / MAX_REWRITE_ROWS)));
+            long fromHeight = interval.from();
+            for(int i = 0; i < count; i++) {
+                long toHeight = interval.from() + (long)interval.size() * (i + 1) / count - 1;
+                chunks.add(new HeightIntervals.Interval((int)fromHeight, (int)toHeight));
+                fromHeight = toHeight + 1;
+            }
+        }
+
+        return chunks;
+    }
+
+    void completed(Compaction compaction) {
+        synchronized(compactions) {
+            compactions.addFirst(compaction);
+            while(compactions.size() > MAX_COMPACTIONS) {
+                compactions.removeLast();
+            }
+        }
+    }
+
+    /**
+     * Returns the deleted fraction of each table by height range, as of the last check.
+     */
+    public Map<String, List<RangeStats>> getFragmentation() {
+        return Collections.unmodifiableMap(fragmentation);
+    }
+
+    /**
+     * Returns the most recent compactions, latest first.
+     */
+    public List<Compaction> getCompactions() {
+        synchronized(compactions) {
+            return List.copyOf(compactions);
+        }
+    }
+
+    /**
+     * The live rows of a row group and the rows it can hold, less any trailing rows deleted from the last row group of a table.
+     */
+    public record RowGroup(long rows, long capacity, int minHeight, int maxHeight) {
+        public long getDeletedRows() {
+            return Math.max(0, capacity - rows);
+        }
+
+        public double getDeletedFraction() {
+            return capacity == 0 ? 0.0d : (double)getDeletedRows() / capacity;
+        }
+    }
+
+    public record RangeStats(int fromHeight, int toHeight, long rows, long deletedRows) {
+        public double getDeletedFraction() {
+            return rows + deletedRows == 0 ? 0.0d : (double)deletedRows / (rows + deletedRows);
+        }
+    }
+
+    /**
+     * A compaction pass, with the scan throughput over the rewritten ranges and the size of the database before and after it.
+     */
+    public record Compaction(long time, int ranges, long rows, long millis, double scanRowsPerSecondBefore, double scanRowsPerSecondAfter,
+                             long databaseBytesBefore, long databaseBytesAfter, long usedBytesBefore, long usedBytesAfter) {}
+}
@@ -1,5 +1,6 @@
 package com.sparrowwallet.frigate.index;
 
+import java.io.File;
 import java.sql.Connection;
 import java.sql.SQLException;
 
@@ -7,10 +8,47 @@ public interface DbManager {
     String DB_PREFIX = "jdbc:duckdb:";
 
     <T> T executeRead(ReadOperation<T> operation) throws SQLException, InterruptedException;
+
+    /**
+     * Executes a read that needs the rows of the given block heights. Databases with read replicas, which may lag behind the writer,
+     * only run it on a replica that has indexed all of them.
+     */
+    default <T> T executeRead(HeightIntervals requiredHeights, ReadOperation<T> operation) throws SQLException, InterruptedException {
+        return executeRead(operation);
+    }
+
+    /**
+     * Executes a read on the database written to, rather than on a read replica, with the scan extension loaded.
+     */
+    default <T> T executeWriterRead(ReadOperation<T> operation) throws SQLException, InterruptedException {
+        return executeRead(operation);
+    }
+
     <T> T executeWrite(WriteOperation<T> operation) throws SQLException, InterruptedException;
     void close();
     boolean isShutdown();
 
+    /**
+     * Returns the local database file of a DuckDB connection URL, or null if it is an in-memory or remote database.
+     */
+    static File getDatabaseFile(String connectionUrl) {
+        if(connectionUrl == null || !connectionUrl.startsWith(DB_PREFIX)) {
+            return null;
+        }
+
+        String path = connectionUrl.substring(DB_PREFIX.length());
+        int query = path.indexOf('?');
+        if(query >= 0) {
+            path = path.substring(0, query);
+        }
+
+        if(path.isEmpty() || path.startsWith(":memory:") || path.startsWith("md:") || path.startsWith("motherduck:")) {
+            return null;
+        }
+
+        return new File(path);
+    }
+
     @FunctionalInterface
     public interface ReadOperation<T> {
         T execute(Connection connection) throws SQLException;
@@ -28,7 +28,17 @@ public class DuckDBReadPool {
         props.setProperty("allow_unsigned_extensions", "true");
         this.masterConnection = (DuckDBConnection)DriverManager.getConnection(connectionUrl, props);
 
-        try(Statement stmt = masterConnection.createStatement()) {
+        loadScanExtension(masterConnection);
+
+        this.pool = new ArrayBlockingQueue<>(maxSize);
+        log.debug("DuckDB read pool created (max size: {})", maxSize);
+    }
+
+    /**
+     * Loads the scan extension into the database of the given connection, which must have been opened with unsigned extensions allowed.
+     */
+    static void loadScanExtension(Connection connection) throws SQLException {
+        try(Statement stmt = connection.createStatement()) {
             if(Config.get().getScan().getDbThreads() != null) {
                 stmt.execute("SET threads = '" + Config.get().getScan().getDbThreads() + "'");
             }
@@ -37,9 +47,6 @@ public class DuckDBReadPool {
             stmt.execute("LOAD '" + ufsecpExtensionFile.getAbsolutePath() + "'");
             stmt.execute("SELECT ufsecp_set_cache_dir('" + Storage.getFrigateCacheDir().getAbsolutePath() + "')");
         }
-
-        this.pool = new ArrayBlockingQueue<>(maxSize);
-        log.debug("DuckDB read pool created (max size: {})", maxSize);
     }
 
     public Connection getConnection() throws SQLException {
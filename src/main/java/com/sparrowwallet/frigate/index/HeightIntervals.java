@@ -0,0 +1,214 @@
+package com.sparrowwallet.frigate.index;
+
+import java.util.*;
+
+/**
+ * An immutable set of block heights, kept as sorted, disjoint and non-adjacent inclusive intervals.
+ * It records which blocks have been indexed, since with a tip-first backfill the index is not a single range from the start height.
+ */
+public final class HeightIntervals {
+    public static final HeightIntervals EMPTY = new HeightIntervals(new TreeMap<>());
+
+    //Interval start height to end height
+    private final NavigableMap<Integer, Integer> intervals;
+
+    private HeightIntervals(NavigableMap<Integer, Integer> intervals) {
+        this.intervals = Collections.unmodifiableNavigableMap(intervals);
+    }
+
+    public static HeightIntervals of(int fromHeight, int toHeight) {
+        return EMPTY.with(fromHeight, toHeight);
+    }
+
+    /**
+     * Returns the set with the given range of heights added, merged with any intervals it overlaps or adjoins.
+     */
+    public HeightIntervals with(int fromHeight, int toHeight) {
+        if(fromHeight > toHeight) {
+            return this;
+        }
+
+        TreeMap<Integer, Integer> merged = new TreeMap<>(intervals);
+        Map.Entry<Integer, Integer> lower = merged.floorEntry(fromHeight);
+        if(lower != null && lower.getValue() >= fromHeight - 1) {
+            fromHeight = lower.getKey();
+            toHeight = Math.max(toHeight, lower.getValue());
+        }
+
+        Map.Entry<Integer, Integer> next;
+        while((next = merged.ceilingEntry(fromHeight)) != null && next.getKey() <= toHeight + 1) {
+            toHeight = Math.max(toHeight, next.getValue());
+            merged.remove(next.getKey());
+        }
+
+        merged.put(fromHeight, toHeight);
+        return new HeightIntervals(merged);
+    }
+
+    /**
+     * Returns the set with all heights from the given height removed.
+     */
+    public HeightIntervals withoutFrom(int fromHeight) {
+        TreeMap<Integer, Integer> truncated = new TreeMap<>(intervals.headMap(fromHeight, false));
+        Map.Entry<Integer, Integer> last = truncated.lastEntry();
+        if(last != null && last.getValue() >= fromHeight) {
+            truncated.put(last.getKey(), fromHeight - 1);
+        }
+
+        return new HeightIntervals(truncated);
+    }
+
+    public boolean isEmpty() {
+        return intervals.isEmpty();
+    }
+
+    public boolean contains(int height) {
+        Map.Entry<Integer, Integer> entry = intervals.floorEntry(height);
+        return entry != null && entry.getValue() >= height;
+    }
+
+    /**
+     * Returns the highest height in the set, or -1 if it is empty.
+     */
+    public int getMaxHeight() {
+        return intervals.isEmpty() ? -1 : intervals.lastEntry().getValue();
+    }
+
+    /**
+     * Returns true if every height in the given set is also in this set.
+     */
+    public boolean containsAll(HeightIntervals other) {
+        for(Map.Entry<Integer, Integer> entry : other.intervals.entrySet()) {
+            Map.Entry<Integer, Integer> covering = intervals.floorEntry(entry.getKey());
+            if(covering == null || covering.getValue() < entry.getValue()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the set clipped to the given inclusive range.
+     */
+    public HeightIntervals within(int fromHeight, int toHeight) {
+        TreeMap<Integer, Integer> clipped = new TreeMap<>();
+        for(Interval interval : getIntervalsWithin(fromHeight, toHeight)) {
+            clipped.put(interval.from(), interval.to());
+        }
+
+        return new HeightIntervals(clipped);
+    }
+
+    /**
+     * Returns the number of heights in the set.
+     */
+    public long size() {
+        long size = 0;
+        for(Map.Entry<Integer, Integer> entry : intervals.entrySet()) {
+            size += entry.getValue() - entry.getKey() + 1;
+        }
+
+        return size;
+    }
+
+    /**
+     * Returns the number of heights in the set within the given inclusive range.
+     */
+    public long countWithin(int fromHeight, int toHeight) {
+        long count = 0;
+        for(Interval interval : getIntervalsWithin(fromHeight, toHeight)) {
+            count += interval.size();
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the intervals of the set clipped to the given inclusive range, in ascending order.
+     */
+    public List<Interval> getIntervalsWithin(int fromHeight, int toHeight) {
+        List<Interval> within = new ArrayList<>();
+        if(fromHeight > toHeight) {
+            return within;
+        }
+
+        Integer start = intervals.floorKey(fromHeight);
+        for(Map.Entry<Integer, Integer> entry : intervals.tailMap(start == null ? fromHeight : start, true).entrySet()) {
+            if(entry.getKey() > toHeight) {
+                break;
+            }
+            if(entry.getValue() >= fromHeight) {
+                within.add(new Interval(Math.max(entry.getKey(), fromHeight), Math.min(entry.getValue(), toHeight)));
+            }
+        }
+
+        return within;
+    }
+
+    /**
+     * Returns the ranges of heights within the given inclusive range that are not in the set, in ascending order.
+     */
+    public List<Interval> getGapsWithin(int fromHeight, int toHeight) {
+        List<Interval> gaps = new ArrayList<>();
+        int next = fromHeight;
+        for(Interval interval : getIntervalsWithin(fromHeight, toHeight)) {
+            if(interval.from() > next) {
+                gaps.add(new Interval(next, interval.from() - 1));
+            }
+            next = interval.to() + 1;
+        }
+        if(next <= toHeight) {
+            gaps.add(new Interval(next, toHeight));
+        }
+
+        return gaps;
+    }
+
+    public List<Interval> getIntervals() {
+        List<Interval> list = new ArrayList<>();
+        intervals.forEach((from, to) -> list.add(new Interval(from, to)));
+        return list;
+    }
+
+    /**
+     * Parses a set formatted by {@link #toString()}, for example "709632-850000,870000-871234".
+     */
+    public static HeightIntervals parse(String value) {
+        HeightIntervals parsed = EMPTY;
+        if(value == null || value.isEmpty()) {
+            return parsed;
+        }
+
+        for(String range : value.split(",")) {
+            String[] parts = range.split("-", 2);
+            int from = Integer.parseInt(parts[0]);
+            parsed = parsed.with(from, parts.length > 1 ? Integer.parseInt(parts[1]) : from);
+        }
+
+        return parsed;
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner joiner = new StringJoiner(",");
+        intervals.forEach((from, to) -> joiner.add(from + "-" + to));
+        return joiner.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof HeightIntervals other && intervals.equals(other.intervals);
+    }
+
+    @Override
+    public int hashCode() {
+        return intervals.hashCode();
+    }
+
+    public record Interval(int from, int to) {
+        public int size() {
+            return to - from + 1;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.sparrowwallet.frigate.index;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sparrowwallet.drongo.Network;
 import com.sparrowwallet.drongo.Utils;
 import com.sparrowwallet.drongo.crypto.ECKey;
 import com.sparrowwallet.drongo.protocol.*;
@@ -14,7 +15,9 @@ import com.sparrowwallet.frigate.electrum.SilentPaymentsNotification;
 import com.sparrowwallet.frigate.electrum.SilentPaymentsSubscription;
 import com.sparrowwallet.frigate.io.ComputeBackend;
 import com.sparrowwallet.frigate.io.Config;
+import com.sparrowwallet.frigate.io.RecentBlocksMap;
 import com.sparrowwallet.frigate.io.Storage;
+import com.sparrowwallet.frigate.metrics.BlockTracer;
 import org.duckdb.DuckDBAppender;
 import org.duckdb.DuckDBConnection;
 import org.duckdb.DuckDBPreparedStatement;
@@ -22,35 +25,113 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntFunction;
+import java.util.function.UnaryOperator;
 
 public class Index {
     private static final Logger log = LoggerFactory.getLogger(Index.class);
     public static final String DEFAULT_DB_FILENAME = "frigate.duckdb";
-    private static final String TWEAK_TABLE = "tweak";
-    private static final String UTXO_TABLE = "utxo";
+    public static final String TWEAK_TABLE = "tweak";
+    public static final String UTXO_TABLE = "utxo";
+    public static final String UTXO_TX_TABLE = "utxo_tx";
+    public static final String UTXO_OUTPUT_TABLE = "utxo_output";
+    //The largest taproot output value of each transaction, so that scans can skip transactions with only dust outputs, or null until backfilled
+    public static final String TWEAK_TABLE_DDL = "CREATE TABLE IF NOT EXISTS " + TWEAK_TABLE + " (txid BLOB NOT NULL, height INTEGER NOT NULL, tweak_key BLOB NOT NULL, outputs BIGINT[], max_value BIGINT, unspent_outputs BIGINT[])";
+    public static final String TWEAK_MAX_VALUE_COLUMN_DDL = "ALTER TABLE " + TWEAK_TABLE + " ADD COLUMN IF NOT EXISTS max_value BIGINT";
+    //The indexes of the taproot outputs of each transaction not yet known to be spent, or null for rows indexed before it was added
+    public static final String TWEAK_UNSPENT_OUTPUTS_COLUMN_DDL = "ALTER TABLE " + TWEAK_TABLE + " ADD COLUMN IF NOT EXISTS unspent_outputs BIGINT[]";
+    //The spends of the outputs in unspent_outputs in the most recent blocks, with the height of the spent tweak row, so that they can be reversed on a reorg
+    public static final String TWEAK_SPEND_TABLE = "tweak_spend";
+    public static final String TWEAK_SPEND_TABLE_DDL = "CREATE TABLE IF NOT EXISTS " + TWEAK_SPEND_TABLE + " (txid BLOB NOT NULL, output_index BIGINT NOT NULL, height INTEGER NOT NULL, tweak_height INTEGER)";
+    public static final String TWEAK_SPEND_TWEAK_HEIGHT_COLUMN_DDL = "ALTER TABLE " + TWEAK_SPEND_TABLE + " ADD COLUMN IF NOT EXISTS tweak_height INTEGER";
+    //The height of each tweak row with unspent outputs, so that spends are applied to the row groups of those heights rather than joined against the whole tweak table
+    public static final String TWEAK_TXID_TABLE = "tweak_txid";
+    public static final String TWEAK_TXID_TABLE_DDL = "CREATE TABLE IF NOT EXISTS " + TWEAK_TXID_TABLE + " (txid BLOB NOT NULL, height INTEGER NOT NULL)";
+    public static final String UTXO_TX_TABLE_DDL = "CREATE TABLE IF NOT EXISTS " + UTXO_TX_TABLE + " (txid BLOB PRIMARY KEY, height INTEGER NOT NULL, tweak_key BLOB NOT NULL, compressed_tweak_key BLOB NOT NULL)";
+    public static final String UTXO_OUTPUT_TABLE_DDL = "CREATE TABLE IF NOT EXISTS " + UTXO_OUTPUT_TABLE + " (txid BLOB NOT NULL, output_index INTEGER NOT NULL, output_hash_prefix BIGINT NOT NULL, value BIGINT NOT NULL, PRIMARY KEY (txid, output_index))";
+    //The one row per output layout of the original utxo table, kept as a view for readers such as the HTTP batch API
+    public static final String UTXO_VIEW_DDL = "CREATE OR REPLACE VIEW " + UTXO_TABLE + " AS SELECT t.txid, o.output_index, t.height, t.tweak_key, t.compressed_tweak_key, o.output_hash_prefix, o.value FROM " +
+            UTXO_TX_TABLE + " t JOIN " + UTXO_OUTPUT_TABLE + " o ON o.txid = t.txid";
+    //Keys of rows to delete or update are appended to these tables and applied with a single join, and are always emptied in the same transaction
+    public static final String SPENT_OUTPOINT_TABLE = "spent_outpoint";
+    public static final String DELETED_TXID_TABLE = "deleted_txid";
+    public static final String MAX_VALUE_UPDATE_TABLE = "max_value_update";
+    public static final String SPENT_OUTPOINT_TABLE_DDL = "CREATE TABLE IF NOT EXISTS " + SPENT_OUTPOINT_TABLE + " (txid BLOB NOT NULL, output_index INTEGER NOT NULL)";
+    public static final String DELETED_TXID_TABLE_DDL = "CREATE TABLE IF NOT EXISTS " + DELETED_TXID_TABLE + " (txid BLOB NOT NULL)";
+    public static final String MAX_VALUE_UPDATE_TABLE_DDL = "CREATE TABLE IF NOT EXISTS " + MAX_VALUE_UPDATE_TABLE + " (txid BLOB NOT NULL, max_value BIGINT NOT NULL)";
     public static final int HISTORY_PAGE_SIZE = 100;
 
+    //In HYBRID mode, tweak history is aged out in steps of about a day of blocks, rather than a few rows on every block
+    private static final int HYBRID_AGE_STEP = 144;
+
+    //Sealed shards hold the tweak rows of complete height ranges in their own files, next to the database in this directory
+    private static final String SHARD_DIR_NAME = "shards";
+    private static final String SHARD_FILE_PREFIX = "tweak-";
+    private static final String SHARD_ALIAS = "shard_seal";
+    private static final int SHARD_POOL_SIZE = 10;
+
+    //Exported snapshots are partitioned into files of this many blocks, or of the shard size when sharding
+    private static final int SNAPSHOT_PARTITION_BLOCKS = 50000;
+
+    //Rows of a compacted range are copied to this temporary table before they are deleted and appended again in height order
+    private static final String COMPACT_TABLE = "compact_rows";
+    //Compaction pauses between chunks for at least this long, and as long as the chunk took, so that it uses at most half the writer
+    private static final long COMPACT_PAUSE_MILLIS = 1000L;
+    //The wallet the compaction scans are timed with, since any wallet scans every row of a range
+    private static final String COMPACT_SCAN_PRIVATE_KEY = "3c8b12d524c72d91dad33573c18f17dddb8f45e8d60c711c49a5a7992e321364";
+    private static final String COMPACT_SPEND_PUBLIC_KEY = "0377dd40dfd0da11369dc6bddf6b3bf4f0474383a8beb6e523dddabc0f966734a6";
+
     private static final String AUDIT_SCAN_KEY_ENV = "FRIGATE_AUDIT_SCAN_KEY";
     private static final String AUDIT_SPEND_KEY_ENV = "FRIGATE_AUDIT_SPEND_KEY";
 
     private final DbManager dbManager;
+    private final int startHeight;
     private volatile int lastBlockIndexed = -1;
+    private volatile int tipHeight = -1;
     private final int batchSize;
     private final IndexMode indexMode;
+    private final int hybridWindow;
+    private final boolean trackSpends;
     private final ECKey auditScanKey;
     private final ECKey auditSpendKey;
+    private volatile IndexMeta meta;
+    private final Object metaLock = new Object();
+    private volatile OutpointFilter utxoOutpoints;
+    private final SnapshotPublisher snapshotPublisher;
+    private final AtomicBoolean snapshotPublishing = new AtomicBoolean(false);
+    private final ExecutorService snapshotExecutor;
+    private final int shardSize;
+    private final File shardDir;
+    //Sealed shards by first height, registered before their rows are deleted from the tweak table so that no scan misses them
+    private final ConcurrentSkipListMap<Integer, Shard> shards = new ConcurrentSkipListMap<>();
+    private final AtomicBoolean shardSealing = new AtomicBoolean(false);
+    private final ExecutorService shardSealExecutor;
+    private final ScanWorkers scanWorkers;
+    private final ExecutorService scanPartExecutor;
+    private final Compactor compactor;
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+    private final ExecutorService compactExecutor;
+    private final AtomicInteger activeScans = new AtomicInteger();
 
     public Index(int startHeight, boolean inMemory, int batchSize, IndexMode indexMode) {
+        this.startHeight = startHeight;
         lastBlockIndexed = Math.max(lastBlockIndexed, startHeight - 1);
         this.batchSize = batchSize;
         this.indexMode = indexMode;
+        this.hybridWindow = indexMode == IndexMode.HYBRID ? Config.get().getIndex().getHybridWindowBlocks() : 0;
+        this.trackSpends = indexMode != IndexMode.FULL || (!inMemory && Config.get().getIndex().shouldTrackSpends());
 
         String scanKeyHex = System.getenv(AUDIT_SCAN_KEY_ENV);
         String spendKeyHex = System.getenv(AUDIT_SPEND_KEY_ENV);
@@ -63,252 +144,1589 @@ public class Index {
             this.auditSpendKey = null;
         }
 
+        String writeDbUrl = null;
         if(inMemory) {
             dbManager = new MemoryDbManager();
         } else {
             String dbUrl = Config.get().getDatabase().getUrl();
             List<String> readDbUrls = Config.get().getDatabase().getReadUrls();
             if(dbUrl != null && readDbUrls != null && !readDbUrls.isEmpty()) {
-                dbManager = new ScalingDbManager(dbUrl, readDbUrls);
+                dbManager = new ScalingDbManager(dbUrl, readDbUrls, startHeight);
+                writeDbUrl = dbUrl;
             } else if(dbUrl == null) {
                 File dbFile = new File(Storage.getFrigateDbDir(), DEFAULT_DB_FILENAME);
-                dbManager = new SingleDbManager(DbManager.DB_PREFIX + dbFile.getAbsolutePath());
+                writeDbUrl = DbManager.DB_PREFIX + dbFile.getAbsolutePath();
+                dbManager = new SingleDbManager(writeDbUrl);
             } else {
                 dbManager = new SingleDbManager(dbUrl);
+                writeDbUrl = dbUrl;
+            }
+        }
+
+        File snapshotFile = inMemory ? null : Config.get().getDatabase().getSnapshotFile();
+        File writeDbFile = DbManager.getDatabaseFile(writeDbUrl);
+        if(snapshotFile != null && writeDbFile != null) {
+            this.snapshotPublisher = new SnapshotPublisher(snapshotFile, Config.get().getDatabase().getSnapshotIntervalSeconds() * 1000L);
+            this.snapshotExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new ThreadFactoryBuilder().setNameFormat("SnapshotPublisher-%d").build().newThread(r);
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            if(snapshotFile != null) {
+                log.warn("Snapshots can only be published from a local database file, not " + writeDbUrl);
             }
+            this.snapshotPublisher = null;
+            this.snapshotExecutor = null;
+        }
+
+        int configShardSize = inMemory ? 0 : Config.get().getIndex().getShardSizeBlocks();
+        //Sealed rows are only held in the shard files, which a published snapshot does not include
+        if(configShardSize > 0 && (indexMode != IndexMode.FULL || trackSpends || writeDbFile == null || snapshotPublisher != null)) {
+            log.warn("Sharding is only supported in FULL mode without trackSpends or snapshotPath on a local database file, and has been disabled");
+            configShardSize = 0;
+        }
+        this.shardSize = configShardSize;
+        if(shardSize > 0) {
+            this.shardDir = new File(writeDbFile.getAbsoluteFile().getParentFile(), SHARD_DIR_NAME);
+            this.shardSealExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new ThreadFactoryBuilder().setNameFormat("ShardSeal-%d").build().newThread(r);
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.shardDir = null;
+            this.shardSealExecutor = null;
+        }
+
+        List<String> workerUrls = inMemory ? null : Config.get().getScan().getWorkers();
+        this.scanWorkers = workerUrls == null || workerUrls.isEmpty() ? null : new ScanWorkers(workerUrls, Config.get().getServer().getWorkerSecret());
+        if(shardSize > 0 || scanWorkers != null) {
+            this.scanPartExecutor = Executors.newCachedThreadPool(r -> {
+                Thread t = new ThreadFactoryBuilder().setNameFormat("ScanPart-%d").build().newThread(r);
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.scanPartExecutor = null;
+        }
+
+        double compactThreshold = inMemory ? Compactor.DEFAULT_THRESHOLD : Config.get().getIndex().getCompactThresholdFraction();
+        if(compactThreshold > 0) {
+            int compactInterval = inMemory ? Compactor.DEFAULT_INTERVAL_SECONDS : Config.get().getIndex().getCompactIntervalSeconds();
+            this.compactor = new Compactor(compactThreshold, compactInterval * 1000L);
+            this.compactExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new ThreadFactoryBuilder().setNameFormat("Compactor-%d").setPriority(Thread.MIN_PRIORITY).build().newThread(r);
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.compactor = null;
+            this.compactExecutor = null;
         }
 
         try {
             dbManager.executeWrite(connection -> {
+                if(indexMode != IndexMode.FULL) {
+                    createUtxoTables(connection);
+                }
+                if(indexMode != IndexMode.UTXO_ONLY) {
+                    createTweakTables(connection);
+                }
+                createKeyTables(connection);
+                return true;
+            });
+
+            IndexMeta loadedMeta = dbManager.executeWrite(connection -> {
                 try(Statement stmt = connection.createStatement()) {
-                    if(indexMode == IndexMode.UTXO_ONLY) {
-                        return stmt.execute("CREATE TABLE IF NOT EXISTS " + UTXO_TABLE + " (txid BLOB NOT NULL, output_index INTEGER NOT NULL, height INTEGER NOT NULL, tweak_key BLOB NOT NULL, compressed_tweak_key BLOB NOT NULL, output_hash_prefix BIGINT NOT NULL, value BIGINT NOT NULL, PRIMARY KEY (txid, output_index))");
-                    } else {
-                        return stmt.execute("CREATE TABLE IF NOT EXISTS " + TWEAK_TABLE + " (txid BLOB NOT NULL, height INTEGER NOT NULL, tweak_key BLOB NOT NULL, outputs BIGINT[])");
-                    }
+                    stmt.execute(IndexMeta.TABLE_DDL);
                 }
+                return IndexMeta.load(connection, startHeight);
             });
+            meta = loadedMeta == null ? createMeta(inMemory) : loadedMeta;
         } catch(Exception e) {
             throw new ConfigurationException("Error initialising index", e);
         }
 
-        if(!inMemory) {
-            checkGpuBackend();
+        if(meta.getSchemaVersion() > IndexMeta.SCHEMA_VERSION) {
+            throw new ConfigurationException("The index was created by a newer version of Frigate (schema version " + meta.getSchemaVersion() + ")");
+        }
+        if(meta.getIndexMode() != indexMode) {
+            throw new ConfigurationException("The index was created with mode " + meta.getIndexMode() + ", but mode is set to " + indexMode + " under [index] in config.toml. Change the mode back, or remove the database to reindex.");
+        }
+        lastBlockIndexed = Math.max(lastBlockIndexed, meta.getIndexedHeight());
+
+        if(!meta.getShards().isEmpty() || shardSize > 0) {
+            openShards();
+        }
+
+        if(!inMemory) {
+            checkGpuBackend();
+        }
+    }
+
+    /**
+     * Opens a read pool on each sealed shard, adopts shard files copied from another index, and removes any shard files left by a
+     * seal that did not complete.
+     */
+    private void openShards() {
+        if(shardDir == null) {
+            throw new ConfigurationException("The index has sealed shards, but shardSize is not set under [index] in config.toml, or sharding is not supported with the current settings.");
+        }
+
+        Set<String> sealedNames = new HashSet<>();
+        for(HeightIntervals.Interval range : meta.getShards()) {
+            File shardFile = getShardFile(range);
+            if(!shardFile.exists()) {
+                throw new ConfigurationException("The shard file " + shardFile.getAbsolutePath() + " for block heights " + range.from() + " to " + range.to() + " is missing. Restore it, or remove the database to reindex.");
+            }
+
+            try {
+                shards.put(range.from(), new Shard(range, new DuckDBReadPool(DbManager.DB_PREFIX + shardFile.getAbsolutePath(), SHARD_POOL_SIZE)));
+            } catch(SQLException e) {
+                throw new ConfigurationException("Error opening shard file " + shardFile.getAbsolutePath(), e);
+            }
+            sealedNames.add(shardFile.getName());
+        }
+
+        File[] files = shardDir.listFiles();
+        if(files != null) {
+            Arrays.sort(files);
+            for(File file : files) {
+                if(!file.getName().startsWith(SHARD_FILE_PREFIX) || sealedNames.contains(file.getName())) {
+                    continue;
+                }
+
+                HeightIntervals.Interval range = getShardRange(file);
+                if(range != null && meta.getCoverage().countWithin(range.from(), range.to()) == 0 && range.to() <= meta.getIndexedHeight()) {
+                    adoptShard(range, file);
+                } else {
+                    //A seal that did not complete leaves a temporary file, or a shard file whose rows are still in the tweak table
+                    log.warn("Removing incomplete shard file " + file.getAbsolutePath());
+                    file.delete();
+                }
+            }
+        }
+
+        if(!shards.isEmpty()) {
+            log.info("Opened " + shards.size() + " sealed shards up to block height " + shards.lastEntry().getValue().range().to());
+        }
+    }
+
+    private File getShardFile(HeightIntervals.Interval range) {
+        return new File(shardDir, SHARD_FILE_PREFIX + range.from() + "-" + range.to() + ".duckdb");
+    }
+
+    /**
+     * Returns the range of a shard file from its name, or null if it is not a sealed shard file for the configured shard size.
+     */
+    private HeightIntervals.Interval getShardRange(File file) {
+        String name = file.getName();
+        if(!name.endsWith(".duckdb")) {
+            return null;
+        }
+
+        String[] heights = name.substring(SHARD_FILE_PREFIX.length(), name.length() - ".duckdb".length()).split("-");
+        try {
+            if(heights.length != 2) {
+                return null;
+            }
+            HeightIntervals.Interval range = new HeightIntervals.Interval(Integer.parseInt(heights[0]), Integer.parseInt(heights[1]));
+            boolean aligned = (range.to() + 1) % shardSize == 0 && range.from() == Math.max(range.to() + 1 - shardSize, Math.max(0, startHeight));
+            return aligned ? range : null;
+        } catch(NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Adopts a shard file copied from another index for a range this index has not indexed, such as the history left to backfill
+     * behind the tip, so that the range is scanned from the shard and not indexed again.
+     */
+    private void adoptShard(HeightIntervals.Interval range, File shardFile) {
+        try {
+            DuckDBReadPool pool = new DuckDBReadPool(DbManager.DB_PREFIX + shardFile.getAbsolutePath(), SHARD_POOL_SIZE);
+            boolean withinRange;
+            Connection connection = pool.getConnection();
+            try(Statement stmt = connection.createStatement();
+                ResultSet resultSet = stmt.executeQuery("SELECT MIN(height), MAX(height) FROM " + TWEAK_TABLE)) {
+                resultSet.next();
+                int minHeight = resultSet.getInt(1);
+                withinRange = resultSet.wasNull() || (minHeight >= range.from() && resultSet.getInt(2) <= range.to());
+            } finally {
+                pool.releaseConnection(connection);
+            }
+
+            if(!withinRange) {
+                pool.close();
+                throw new ConfigurationException("The shard file " + shardFile.getAbsolutePath() + " contains rows outside block heights " + range.from() + " to " + range.to());
+            }
+
+            executeTransaction(current -> current.withShard(range.from(), range.to()), _ -> true);
+            shards.put(range.from(), new Shard(range, pool));
+            log.info("Adopted shard file " + shardFile.getName() + " for block heights " + range.from() + " to " + range.to());
+        } catch(SQLException | InterruptedException e) {
+            throw new ConfigurationException("Error adopting shard file " + shardFile.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Seals each shard range that is fully indexed and deeper than a reorg can reach in the background, if none is already being sealed
+     * and no compaction is running, since a compaction checkpoint cannot run while the copy transaction is open.
+     */
+    private void sealShards() {
+        if(shardSize <= 0 || !shardSealing.compareAndSet(false, true)) {
+            return;
+        }
+        if(compacting.get()) {
+            shardSealing.set(false);
+            return;
+        }
+
+        shardSealExecutor.execute(() -> {
+            try {
+                IndexMeta currentMeta = meta;
+                int sealableHeight = currentMeta.getIndexedHeight() - IndexMeta.MAX_RECENT_BLOCKS;
+                int firstHeight = Math.max(0, startHeight);
+                for(int shardStart = (firstHeight / shardSize) * shardSize; shardStart + shardSize - 1 <= sealableHeight; shardStart += shardSize) {
+                    HeightIntervals.Interval range = new HeightIntervals.Interval(Math.max(shardStart, firstHeight), shardStart + shardSize - 1);
+                    if(!shards.containsKey(range.from()) && currentMeta.getCoverage().containsAll(HeightIntervals.of(range.from(), range.to()))) {
+                        sealShard(range);
+                    }
+                }
+            } catch(Exception e) {
+                log.error("Error sealing shard", e);
+            } finally {
+                shardSealing.set(false);
+            }
+        });
+    }
+
+    /**
+     * Copies the tweak rows of a range into a new shard file, and then deletes them from the tweak table in the same transaction
+     * that records the shard. The range is too deep to be written to by commits, so the rows are copied in a transaction of their
+     * own on a duplicate of the write connection, outside the metadata lock, and commits only wait for the delete.
+     */
+    private void sealShard(HeightIntervals.Interval range) throws Exception {
+        long start = System.currentTimeMillis();
+        File shardFile = getShardFile(range);
+        File tempFile = new File(shardDir, shardFile.getName() + ".tmp");
+        Files.createDirectories(shardDir.toPath());
+        Files.deleteIfExists(tempFile.toPath());
+
+        dbManager.executeWrite(connection -> {
+            try(Connection duplicate = ((DuckDBConnection)connection).duplicate(); Statement stmt = duplicate.createStatement()) {
+                stmt.execute("ATTACH '" + tempFile.getAbsolutePath() + "' AS " + SHARD_ALIAS);
+                try {
+                    stmt.execute("CREATE TABLE " + SHARD_ALIAS + "." + TWEAK_TABLE + " AS SELECT * FROM " + TWEAK_TABLE + " WHERE height BETWEEN " + range.from() +
+                            " AND " + range.to() + " ORDER BY height");
+                } finally {
+                    stmt.execute("DETACH " + SHARD_ALIAS);
+                }
+            }
+            return null;
+        });
+
+        Files.move(tempFile.toPath(), shardFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        shards.put(range.from(), new Shard(range, new DuckDBReadPool(DbManager.DB_PREFIX + shardFile.getAbsolutePath(), SHARD_POOL_SIZE)));
+
+        int deleted = executeTransaction(current -> current.withShard(range.from(), range.to()), connection -> {
+            try(PreparedStatement statement = connection.prepareStatement("DELETE FROM " + TWEAK_TXID_TABLE + " WHERE height BETWEEN ? AND ?")) {
+                statement.setInt(1, range.from());
+                statement.setInt(2, range.to());
+                recordDeleted(statement.executeUpdate());
+            }
+            try(PreparedStatement statement = connection.prepareStatement("DELETE FROM " + TWEAK_TABLE + " WHERE height BETWEEN ? AND ?")) {
+                statement.setInt(1, range.from());
+                statement.setInt(2, range.to());
+                return statement.executeUpdate();
+            }
+        });
+
+        recordDeleted(deleted);
+        log.info("Sealed " + deleted + " transactions from block height " + range.from() + " to " + range.to() + " into " + shardFile.getName() + " in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Creates the index metadata for a new database, or for one created before the index_meta table, in which case the indexed
+     * height and recent block hashes previously kept in config.toml and the recentblocks file are carried over.
+     */
+    private IndexMeta createMeta(boolean inMemory) throws SQLException, InterruptedException {
+        if(inMemory) {
+            IndexMeta created = new IndexMeta(IndexMeta.SCHEMA_VERSION, indexMode, -1, Collections.emptyMap(), HeightIntervals.EMPTY, 0);
+            dbManager.executeWrite(connection -> {
+                created.save(connection);
+                return created;
+            });
+            return created;
+        }
+
+        Integer configHeight = Config.get().getIndex().getLastIndexedBlockHeight();
+        RecentBlocksMap recentBlocksMap = new RecentBlocksMap(IndexMeta.MAX_RECENT_BLOCKS);
+        IndexMeta created = dbManager.executeWrite(connection -> {
+            int indexedHeight = configHeight == null ? -1 : configHeight;
+            if(indexMode != IndexMode.UTXO_ONLY) {
+                //In UTXO_ONLY mode the height column is the creation height of each output, not the height indexed to
+                try(Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery("SELECT MAX(height) FROM " + TWEAK_TABLE)) {
+                    if(resultSet.next()) {
+                        indexedHeight = Math.max(indexedHeight, resultSet.getInt(1));
+                    }
+                }
+            }
+
+            HeightIntervals coverage = HeightIntervals.of(Math.max(0, startHeight), indexedHeight);
+            IndexMeta migrated = new IndexMeta(IndexMeta.SCHEMA_VERSION, indexMode, indexedHeight, recentBlocksMap.getBlockHashes(), coverage, 0);
+            migrated.save(connection);
+            return migrated;
+        });
+
+        if(configHeight != null) {
+            Config.get().getIndex().setLastIndexedBlockHeight(null);
+        }
+        recentBlocksMap.delete();
+
+        if(created.getIndexedHeight() >= 0) {
+            log.info("Moved indexed block height " + created.getIndexedHeight() + " to index metadata");
+        }
+
+        return created;
+    }
+
+    /**
+     * Creates the tweak table and the tables used to apply and reverse spends of its outputs. A database created before the tweak_txid
+     * table has it filled from the tweak rows with unspent outputs, and the height of each spent tweak row recorded with its spends.
+     */
+    public static void createTweakTables(Connection connection) throws SQLException {
+        try(Statement stmt = connection.createStatement()) {
+            boolean txidTable;
+            try(ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM information_schema.tables WHERE table_name = '" + TWEAK_TXID_TABLE + "'")) {
+                txidTable = rs.next() && rs.getInt(1) > 0;
+            }
+
+            stmt.execute(TWEAK_TABLE_DDL);
+            stmt.execute(TWEAK_MAX_VALUE_COLUMN_DDL);
+            stmt.execute(TWEAK_UNSPENT_OUTPUTS_COLUMN_DDL);
+            stmt.execute(TWEAK_SPEND_TABLE_DDL);
+            stmt.execute(TWEAK_SPEND_TWEAK_HEIGHT_COLUMN_DDL);
+            stmt.execute(TWEAK_TXID_TABLE_DDL);
+
+            if(!txidTable) {
+                stmt.execute("INSERT INTO " + TWEAK_TXID_TABLE + " SELECT txid, height FROM " + TWEAK_TABLE + " WHERE len(unspent_outputs) > 0 ORDER BY height");
+                stmt.execute("UPDATE " + TWEAK_SPEND_TABLE + " SET tweak_height = t.height FROM " + TWEAK_TABLE + " t WHERE " + TWEAK_SPEND_TABLE + ".txid = t.txid AND " +
+                        TWEAK_SPEND_TABLE + ".tweak_height IS NULL");
+            }
+        }
+    }
+
+    /**
+     * Creates the utxo_tx and utxo_output tables and the utxo view over them. A database created with the original utxo table,
+     * which repeated the tweak keys of a transaction on every output row, is migrated in a single transaction.
+     */
+    public static void createUtxoTables(Connection connection) throws SQLException {
+        boolean legacyTable;
+        boolean legacyCompressedColumn;
+        try(Statement stmt = connection.createStatement()) {
+            try(ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM information_schema.tables WHERE table_name = '" + UTXO_TABLE + "' AND table_type = 'BASE TABLE'")) {
+                legacyTable = rs.next() && rs.getInt(1) > 0;
+            }
+            try(ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM information_schema.columns WHERE table_name = '" + UTXO_TABLE + "' AND column_name = 'compressed_tweak_key'")) {
+                legacyCompressedColumn = rs.next() && rs.getInt(1) > 0;
+            }
+        }
+
+        if(!legacyTable) {
+            try(Statement stmt = connection.createStatement()) {
+                stmt.execute(UTXO_TX_TABLE_DDL);
+                stmt.execute(UTXO_OUTPUT_TABLE_DDL);
+                stmt.execute(UTXO_VIEW_DDL);
+            }
+            return;
+        }
+
+        log.info("Migrating the utxo table to separate transaction and output tables...");
+        long start = System.currentTimeMillis();
+        connection.setAutoCommit(false);
+        try(Statement stmt = connection.createStatement()) {
+            stmt.execute(UTXO_TX_TABLE_DDL);
+            stmt.execute(UTXO_OUTPUT_TABLE_DDL);
+            if(legacyCompressedColumn) {
+                stmt.execute("INSERT INTO " + UTXO_TX_TABLE + " SELECT txid, ANY_VALUE(height), ANY_VALUE(tweak_key), ANY_VALUE(compressed_tweak_key) FROM " + UTXO_TABLE + " GROUP BY txid");
+            } else {
+                //The earliest utxo tables did not store compressed keys, which can only be computed here
+                try(ResultSet rs = stmt.executeQuery("SELECT txid, ANY_VALUE(height), ANY_VALUE(tweak_key) FROM " + UTXO_TABLE + " GROUP BY txid");
+                    DuckDBAppender appender = ((DuckDBConnection)connection).createAppender(DuckDBConnection.DEFAULT_SCHEMA, UTXO_TX_TABLE)) {
+                    while(rs.next()) {
+                        byte[] tweakKey = rs.getBytes(3);
+                        appender.beginRow();
+                        appender.append(rs.getBytes(1));
+                        appender.append(rs.getInt(2));
+                        appender.append(tweakKey);
+                        appender.append(compressRawKey(tweakKey));
+                        appender.endRow();
+                    }
+                }
+            }
+            stmt.execute("INSERT INTO " + UTXO_OUTPUT_TABLE + " SELECT txid, output_index, output_hash_prefix, value FROM " + UTXO_TABLE);
+            stmt.execute("DROP TABLE " + UTXO_TABLE);
+            stmt.execute(UTXO_VIEW_DDL);
+            connection.commit();
+        } catch(SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        log.info("Migrated the utxo table in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private void checkGpuBackend() {
+        ComputeBackend computeBackend = Config.get().getScan().getComputeBackendEnum();
+        if(computeBackend == ComputeBackend.CPU) {
+            return;
+        }
+
+        try {
+            String backend = dbManager.executeRead(connection -> {
+                try(Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("SELECT ufsecp_backend()")) {
+                    return rs.next() ? rs.getString(1) : "unknown";
+                }
+            });
+
+            if(backend.startsWith("cpu")) {
+                if(computeBackend == ComputeBackend.GPU) {
+                    throw new ConfigurationException("No GPU detected, but \"computeBackend\" is set to \"GPU\". Set to \"AUTO\" or \"CPU\", or install a supported GPU.");
+                }
+                log.info("Using CPU backend for scanning (no GPU detected)");
+            } else {
+                log.info("Using {} backend for scanning", backend);
+            }
+        } catch(Exception e) {
+            log.warn("Could not detect GPU backend", e);
+        }
+    }
+
+    private double pollScanProgress(byte[] scanKeyBytes) {
+        try {
+            return dbManager.executeRead(progressConnection -> {
+                try(PreparedStatement progressStmt = progressConnection.prepareStatement("SELECT ufsecp_progress(?)")) {
+                    progressStmt.setBytes(1, scanKeyBytes);
+                    ResultSet rs = progressStmt.executeQuery();
+                    if(rs.next()) {
+                        double pct = rs.getDouble(1);
+                        if(pct < 0.0d) {
+                            return 0.0d;
+                        }
+                        return Math.min(pct / 100.0d, 1.0d);
+                    }
+                    return 0.0d;
+                }
+            });
+        } catch(Exception e) {
+            return 0.0d;
+        }
+    }
+
+    public IndexMode getIndexMode() {
+        return indexMode;
+    }
+
+    /**
+     * Returns true if spends of indexed outputs are detected while indexing blocks. This is always the case in UTXO_ONLY and HYBRID
+     * modes, and in FULL mode if enabled in the config, so that transactions with all of their taproot outputs spent can be skipped.
+     */
+    public boolean isTrackingSpends() {
+        return trackSpends;
+    }
+
+    /**
+     * Loads the outpoints of the unspent outputs into memory, so that spends of them can be detected with {@link #containsUtxo(HashIndex)}.
+     * In FULL mode these are the taproot outputs in the tweak table not yet spent. Once loaded, the outpoints are kept up to date as
+     * outputs are added and removed.
+     */
+    public void loadUtxoOutpoints() {
+        if(!trackSpends || utxoOutpoints != null) {
+            return;
+        }
+
+        try {
+            utxoOutpoints = readUtxoOutpoints();
+        } catch(Exception e) {
+            throw new ConfigurationException("Error loading unspent outputs", e);
+        }
+    }
+
+    private OutpointFilter readUtxoOutpoints() throws SQLException, InterruptedException {
+        long start = System.currentTimeMillis();
+        //The outpoints must be read from the heights this index has committed, and not from a replica that has not caught up
+        OutpointFilter outpoints = dbManager.executeRead(meta.getCoverage(), connection -> {
+            try(Statement stmt = connection.createStatement()) {
+                String countSql = indexMode == IndexMode.FULL ? "SELECT COALESCE(SUM(len(unspent_outputs)), 0) FROM " + TWEAK_TABLE : "SELECT COUNT(*) FROM " + UTXO_OUTPUT_TABLE;
+                long count;
+                try(ResultSet resultSet = stmt.executeQuery(countSql)) {
+                    count = resultSet.next() ? resultSet.getLong(1) : 0;
+                }
+
+                String outpointsSql = indexMode == IndexMode.FULL ? "SELECT txid, unnest(unspent_outputs) FROM " + TWEAK_TABLE + " WHERE len(unspent_outputs) > 0" :
+                        "SELECT txid, output_index FROM " + UTXO_OUTPUT_TABLE;
+                OutpointFilter filter = new OutpointFilter(count);
+                try(ResultSet resultSet = stmt.executeQuery(outpointsSql)) {
+                    while(resultSet.next()) {
+                        filter.add(resultSet.getBytes(1), resultSet.getLong(2));
+                    }
+                }
+                return filter;
+            }
+        });
+
+        log.info("Loaded " + outpoints.size() + " unspent outputs in " + (System.currentTimeMillis() - start) + "ms");
+        return outpoints;
+    }
+
+    /**
+     * Returns true if the given outpoint is an indexed unspent output, or false if it is not, or the outpoints have not been loaded.
+     * In rare cases an outpoint that is not indexed may also return true.
+     */
+    public boolean containsUtxo(HashIndex outpoint) {
+        OutpointFilter outpoints = utxoOutpoints;
+        return outpoints != null && outpoints.contains(outpoint);
+    }
+
+    private void addUtxoOutpoints(TweakRows rows, long minValue) {
+        OutpointFilter outpoints = utxoOutpoints;
+        if(outpoints != null) {
+            for(int row = 0; row < rows.size(); row++) {
+                for(int output = 0; output < rows.getOutputCount(row); output++) {
+                    if(rows.getValue(row, output) >= minValue) {
+                        outpoints.add(rows.getTxid(row), rows.getOutputIndex(row, output));
+                    }
+                }
+            }
+        }
+    }
+
+    private void removeUtxoOutpoints(Set<HashIndex> spentOutpoints) {
+        OutpointFilter outpoints = utxoOutpoints;
+        if(outpoints != null) {
+            spentOutpoints.forEach(outpoints::remove);
+        }
+    }
+
+    public <T> T executeRead(DbManager.ReadOperation<T> operation) throws SQLException, InterruptedException {
+        return dbManager.executeRead(operation);
+    }
+
+    public void close() {
+        if(snapshotExecutor != null) {
+            snapshotExecutor.shutdownNow();
+        }
+        if(shardSealExecutor != null) {
+            shardSealExecutor.shutdownNow();
+        }
+        if(scanPartExecutor != null) {
+            scanPartExecutor.shutdownNow();
+        }
+        if(compactExecutor != null) {
+            compactExecutor.shutdownNow();
+        }
+        for(Shard shard : shards.values()) {
+            shard.pool().close();
+        }
+        dbManager.close();
+    }
+
+    /**
+     * Publishes a snapshot of the database for local read replicas in the background, if one is configured and due and none is
+     * already being published. The copy is taken outside the metadata lock in a transaction of its own, so commits continue while
+     * it runs, except on a single database connection, where writes and reads already wait for each other. Publishing waits for the
+     * next check while a compaction is running, since a compaction checkpoint cannot run while the copy transaction is open.
+     */
+    private void publishSnapshot() {
+        if(snapshotPublisher == null || !snapshotPublisher.isDue(System.currentTimeMillis()) || !snapshotPublishing.compareAndSet(false, true)) {
+            return;
+        }
+        if(compacting.get()) {
+            snapshotPublishing.set(false);
+            return;
+        }
+
+        snapshotExecutor.execute(() -> {
+            try {
+                long start = System.currentTimeMillis();
+                SnapshotPublisher.Copy copy = dbManager.executeWrite(connection -> {
+                    try {
+                        return snapshotPublisher.copy(connection, startHeight);
+                    } catch(IOException e) {
+                        throw new SQLException("Error copying database", e);
+                    }
+                });
+                snapshotPublisher.publish(copy.file(), copy.indexedHeight());
+                log.info("Published snapshot at block height " + copy.indexedHeight() + " to " + snapshotPublisher.getSnapshotFile() + " in " + (System.currentTimeMillis() - start) + "ms");
+            } catch(Exception e) {
+                log.error("Error publishing snapshot", e);
+            } finally {
+                snapshotPublishing.set(false);
+            }
+        });
+    }
+
+    /**
+     * Returns true if blocks are sealed into shard files, in which case the database only holds the unsealed blocks near the tip.
+     */
+    public boolean hasShards() {
+        return shardSize > 0;
+    }
+
+    /**
+     * Returns the compactor of the index, which reports the deleted fraction of its tables and the compactions run, or null if
+     * compaction is disabled.
+     */
+    public Compactor getCompactor() {
+        return compactor;
+    }
+
+    /**
+     * Rewrites the height ranges of the index tables with many deleted rows in the background, if a check is due and none is already
+     * running. See {@link Compactor}.
+     */
+    private void compact() {
+        if(compactor == null || !compactor.isDue(System.currentTimeMillis()) || !compacting.compareAndSet(false, true)) {
+            return;
+        }
+        //Compaction is claimed before checking that no snapshot or shard copy is running, which claim theirs before checking for compaction,
+        //so that a copy and a compaction never start together
+        if(!isIdle()) {
+            compacting.set(false);
+            return;
+        }
+
+        compactExecutor.execute(() -> {
+            long pendingDeletedRows = compactor.startCheck(System.currentTimeMillis());
+            try {
+                if(!compactTables()) {
+                    compactor.recordDeleted(pendingDeletedRows);
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch(Exception e) {
+                log.error("Error compacting index", e);
+            } finally {
+                compacting.set(false);
+            }
+        });
+    }
+
+    /**
+     * Returns true if no scan is running, no snapshot or shard is being copied, and the index has caught up with the chain tip, so that
+     * compaction takes neither scan capacity nor time from indexing, and does not checkpoint while a copy transaction is open.
+     */
+    private boolean isIdle() {
+        return activeScans.get() == 0 && !snapshotPublishing.get() && !shardSealing.get() && !dbManager.isShutdown() && (tipHeight < 0 || (lastBlockIndexed >= tipHeight && getUnindexedRanges().isEmpty()));
+    }
+
+    /**
+     * Measures the deleted rows of each table by row group, and rewrites the ranges above the threshold one chunk at a time. Each chunk
+     * is scanned with the history scan SQL before and after it is rewritten, to report the change in scan throughput. Returns false if
+     * compaction stopped early for a scan or a new block, in which case the remaining ranges are found again on the next check.
+     */
+    private boolean compactTables() throws SQLException, InterruptedException {
+        long start = System.currentTimeMillis();
+        long[] sizeBefore = dbManager.executeWriterRead(this::getDatabaseSize);
+        int ranges = 0;
+        long rows = 0;
+        long scanned = 0, scanNanosBefore = 0, scanNanosAfter = 0;
+        boolean complete = true;
+
+        tables:
+        for(String table : getTables()) {
+            if(!isIdle()) {
+                complete = false;
+                break;
+            }
+
+            List<Compactor.RowGroup> rowGroups = dbManager.executeWriterRead(connection -> getRowGroups(connection, table));
+            Deque<HeightIntervals.Interval> chunks = new ArrayDeque<>(compactor.plan(table, rowGroups));
+            while(!chunks.isEmpty()) {
+                if(!isIdle()) {
+                    complete = false;
+                    break tables;
+                }
+
+                //The plan estimates the rows of each chunk from the height ranges of its row groups, so a chunk found to hold more rows is
+                //split before it is rewritten, to bound the time each rewrite transaction holds up commits
+                HeightIntervals.Interval range = chunks.removeFirst();
+                long rangeRows = dbManager.executeWriterRead(connection -> countRange(connection, table, range));
+                if(rangeRows > Compactor.MAX_REWRITE_ROWS && range.size() > 1) {
+                    int middle = range.from() + range.size() / 2;
+                    chunks.addFirst(new HeightIntervals.Interval(middle, range.to()));
+                    chunks.addFirst(new HeightIntervals.Interval(range.from(), middle - 1));
+                    continue;
+                }
+
+                long chunkStart = System.currentTimeMillis();
+                long before = dbManager.executeWriterRead(connection -> scanRange(connection, table, range));
+                rows += executeTransaction(current -> current, connection -> rewriteRange(connection, table, range));
+                checkpoint();
+                long after = dbManager.executeWriterRead(connection -> scanRange(connection, table, range));
+
+                ranges++;
+                scanned += rangeRows;
+                scanNanosBefore += before;
+                scanNanosAfter += after;
+                log.debug("Compacted " + table + " from block height " + range.from() + " to " + range.to());
+                Thread.sleep(Math.max(COMPACT_PAUSE_MILLIS, System.currentTimeMillis() - chunkStart));
+            }
+        }
+
+        if(ranges > 0) {
+            long[] sizeAfter = dbManager.executeWriterRead(this::getDatabaseSize);
+            Compactor.Compaction compaction = new Compactor.Compaction(start, ranges, rows, System.currentTimeMillis() - start, getRowsPerSecond(scanned, scanNanosBefore),
+                    getRowsPerSecond(scanned, scanNanosAfter), sizeBefore[0], sizeAfter[0], sizeBefore[1], sizeAfter[1]);
+            compactor.completed(compaction);
+            log.info("Compacted " + rows + " rows in " + ranges + " ranges in " + compaction.millis() + "ms, scan throughput " + Math.round(compaction.scanRowsPerSecondBefore()) +
+                    " to " + Math.round(compaction.scanRowsPerSecondAfter()) + " rows/s, database size " + compaction.databaseBytesBefore() + " to " + compaction.databaseBytesAfter() + " bytes");
+        }
+
+        return complete;
+    }
+
+    /**
+     * Checkpoints the database under the metadata lock, since the write connection may be shared, and a checkpoint inside the open
+     * transaction of a commit would abort it.
+     */
+    private void checkpoint() throws SQLException, InterruptedException {
+        synchronized(metaLock) {
+            dbManager.executeWrite(connection -> {
+                try(Statement stmt = connection.createStatement()) {
+                    stmt.execute("CHECKPOINT");
+                }
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Returns the live rows, capacity and height range of each row group of a table. Output rows have no height, so take the height of
+     * their transaction.
+     */
+    private List<Compactor.RowGroup> getRowGroups(Connection connection, String table) throws SQLException {
+        String sql = table.equals(UTXO_OUTPUT_TABLE) ?
+                "SELECT o.rowid // " + Compactor.ROW_GROUP_SIZE + " AS row_group, COUNT(*), MAX(o.rowid), MIN(t.height), MAX(t.height) FROM " + UTXO_OUTPUT_TABLE + " o JOIN " +
+                        UTXO_TX_TABLE + " t ON t.txid = o.txid GROUP BY row_group ORDER BY row_group" :
+                "SELECT rowid // " + Compactor.ROW_GROUP_SIZE + " AS row_group, COUNT(*), MAX(rowid), MIN(height), MAX(height) FROM " + table + " GROUP BY row_group ORDER BY row_group";
+
+        List<Compactor.RowGroup> rowGroups = new ArrayList<>();
+        long lastRowGroup = -1;
+        long lastRowId = -1;
+        try(Statement stmt = connection.createStatement(); ResultSet resultSet = stmt.executeQuery(sql)) {
+            while(resultSet.next()) {
+                lastRowGroup = resultSet.getLong(1);
+                lastRowId = resultSet.getLong(3);
+                rowGroups.add(new Compactor.RowGroup(resultSet.getLong(2), Compactor.ROW_GROUP_SIZE, resultSet.getInt(4), resultSet.getInt(5)));
+            }
+        }
+
+        //The last row group is still being filled, so holds only the rows up to the highest rowid
+        if(!rowGroups.isEmpty()) {
+            Compactor.RowGroup last = rowGroups.removeLast();
+            rowGroups.add(new Compactor.RowGroup(last.rows(), lastRowId - lastRowGroup * Compactor.ROW_GROUP_SIZE + 1, last.minHeight(), last.maxHeight()));
+        }
+
+        return rowGroups;
+    }
+
+    /**
+     * Rewrites the rows of a table in a range of heights in height order, returning the number of rows rewritten. The row groups they
+     * were deleted from are freed at the next checkpoint once they hold no live rows.
+     */
+    private long rewriteRange(Connection connection, String table, HeightIntervals.Interval range) throws SQLException {
+        String between = " BETWEEN " + range.from() + " AND " + range.to();
+        try(Statement stmt = connection.createStatement()) {
+            if(table.equals(UTXO_OUTPUT_TABLE)) {
+                stmt.execute("CREATE TEMP TABLE " + COMPACT_TABLE + " AS SELECT o.* FROM " + UTXO_OUTPUT_TABLE + " o JOIN " + UTXO_TX_TABLE + " t ON t.txid = o.txid WHERE t.height" +
+                        between + " ORDER BY t.height, o.txid, o.output_index");
+                stmt.executeUpdate("DELETE FROM " + UTXO_OUTPUT_TABLE + " WHERE txid IN (SELECT txid FROM " + COMPACT_TABLE + ")");
+            } else {
+                stmt.execute("CREATE TEMP TABLE " + COMPACT_TABLE + " AS SELECT * FROM " + table + " WHERE height" + between + " ORDER BY height");
+                stmt.executeUpdate("DELETE FROM " + table + " WHERE height" + between);
+            }
+
+            long rows = stmt.executeUpdate("INSERT INTO " + table + " SELECT * FROM " + COMPACT_TABLE);
+            stmt.execute("DROP TABLE " + COMPACT_TABLE);
+            return rows;
+        }
+    }
+
+    /**
+     * Returns the number of rows of a table in a range of heights, which is the number of rows a rewrite of the range writes.
+     */
+    private long countRange(Connection connection, String table, HeightIntervals.Interval range) throws SQLException {
+        String sql = table.equals(UTXO_OUTPUT_TABLE) ?
+                "SELECT COUNT(*) FROM " + UTXO_OUTPUT_TABLE + " o JOIN " + UTXO_TX_TABLE + " t ON t.txid = o.txid WHERE t.height BETWEEN ? AND ?" :
+                "SELECT COUNT(*) FROM " + table + " WHERE height BETWEEN ? AND ?";
+
+        try(PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, range.from());
+            statement.setInt(2, range.to());
+            try(ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong(1) : 0L;
+            }
+        }
+    }
+
+    /**
+     * Runs the history scan of the table over a range of heights for a fixed wallet, returning the time taken in nanoseconds. The tweak
+     * table is scanned with the tweak scan SQL, and either utxo table with the utxo scan SQL, which reads both.
+     */
+    private long scanRange(Connection connection, String table, HeightIntervals.Interval range) throws SQLException {
+        SilentPaymentScanAddress scanAddress = SilentPaymentScanAddress.from(ECKey.fromPrivate(Utils.hexToBytes(COMPACT_SCAN_PRIVATE_KEY)),
+                ECKey.fromPublicOnly(Utils.hexToBytes(COMPACT_SPEND_PUBLIC_KEY)));
+        SilentPaymentsSubscription subscription = new SilentPaymentsSubscription(scanAddress.toString(), new Integer[0], range.from(), null, null);
+        boolean tweak = table.equals(TWEAK_TABLE);
+        String sql = tweak ? getTweakScanSql(subscription, "[]", range.from(), range.to(), false) : getUtxoScanSql(subscription, "[]", range.from(), range.to(), false);
+
+        long start = System.nanoTime();
+        try(DuckDBPreparedStatement statement = connection.prepareStatement(sql).unwrap(DuckDBPreparedStatement.class)) {
+            if(tweak) {
+                bindTweakScanParameters(statement, 1, scanAddress, subscription, range.from(), range.to());
+            } else {
+                bindUtxoScanParameters(statement, 1, scanAddress, subscription, range.from(), range.to());
+            }
+
+            try(ResultSet resultSet = statement.executeQuery()) {
+                while(resultSet.next()) {
+                    //The fixed wallet matches nothing in practice, but any rows returned are read as a scan would
+                }
+            }
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Returns the size of the database and the size of its blocks holding data in bytes.
+     */
+    private long[] getDatabaseSize(Connection connection) throws SQLException {
+        try(Statement stmt = connection.createStatement();
+            ResultSet resultSet = stmt.executeQuery("SELECT total_blocks * block_size, used_blocks * block_size FROM pragma_database_size() WHERE database_name = current_database()")) {
+            return resultSet.next() ? new long[] { resultSet.getLong(1), resultSet.getLong(2) } : new long[] { 0L, 0L };
+        }
+    }
+
+    private static double getRowsPerSecond(long rows, long nanos) {
+        return nanos == 0 ? 0.0d : rows * 1_000_000_000.0d / nanos;
+    }
+
+    /**
+     * Exports the index to a folder of zstd compressed Parquet files, one for each table and range of block heights, and a manifest
+     * describing them. Sealed shards are exported from their shard files. Commits wait until the export has completed.
+     */
+    public SnapshotManifest exportSnapshot(File dir) throws SQLException, InterruptedException, IOException {
+        Files.createDirectories(dir.toPath());
+
+        synchronized(metaLock) {
+            IndexMeta currentMeta = meta;
+            int indexedHeight = currentMeta.getIndexedHeight();
+            String tipHash = currentMeta.getRecentBlockHash(indexedHeight);
+            if(tipHash == null) {
+                throw new IllegalStateException("The index has no recent blocks to export, index at least one block first");
+            }
+
+            int partitionSize = shardSize > 0 ? shardSize : SNAPSHOT_PARTITION_BLOCKS;
+            int firstHeight = Math.max(0, startHeight);
+            List<SnapshotManifest.Partition> partitions = new ArrayList<>();
+            for(String table : getSnapshotTables()) {
+                for(int partitionStart = (firstHeight / partitionSize) * partitionSize; partitionStart <= indexedHeight; partitionStart += partitionSize) {
+                    HeightIntervals.Interval range = new HeightIntervals.Interval(Math.max(partitionStart, firstHeight), Math.min(partitionStart + partitionSize - 1, indexedHeight));
+                    if(currentMeta.getCoverage().countWithin(range.from(), range.to()) > 0) {
+                        SnapshotManifest.Partition partition = exportPartition(dir, table, range);
+                        if(partition != null) {
+                            partitions.add(partition);
+                        }
+                    }
+                }
+            }
+
+            SnapshotManifest manifest = new SnapshotManifest(SnapshotManifest.VERSION, Network.get().getName(), indexMode, IndexMeta.SCHEMA_VERSION, startHeight, indexedHeight, tipHash,
+                    currentMeta.getRecentBlocks(), currentMeta.getCoverage().toString(), currentMeta.getAgedHeight(), partitions);
+            manifest.write(dir);
+            return manifest;
+        }
+    }
+
+    /**
+     * Writes the rows of a table within a range of heights to a Parquet file in height order, returning null if there are none.
+     */
+    private SnapshotManifest.Partition exportPartition(File dir, String table, HeightIntervals.Interval range) throws SQLException, InterruptedException, IOException {
+        File file = new File(dir, table + "-" + range.from() + "-" + range.to() + ".parquet");
+        //Outputs have no height of their own, so are partitioned by the height of their transaction
+        String select = table.equals(UTXO_OUTPUT_TABLE) ?
+                "SELECT o.* FROM " + UTXO_OUTPUT_TABLE + " o JOIN " + UTXO_TX_TABLE + " t ON o.txid = t.txid WHERE t.height BETWEEN " + range.from() + " AND " + range.to() + " ORDER BY t.height" :
+                "SELECT * FROM " + table + " WHERE height BETWEEN " + range.from() + " AND " + range.to() + " ORDER BY height";
+
+        DbManager.ReadOperation<Long> operation = connection -> {
+            try(Statement stmt = connection.createStatement()) {
+                stmt.execute("COPY (" + select + ") TO '" + file.getAbsolutePath() + "' (FORMAT PARQUET, COMPRESSION ZSTD)");
+                try(ResultSet resultSet = stmt.executeQuery("SELECT COUNT(*) FROM read_parquet('" + file.getAbsolutePath() + "')")) {
+                    resultSet.next();
+                    return resultSet.getLong(1);
+                }
+            }
+        };
+
+        long rows;
+        Shard shard = table.equals(TWEAK_TABLE) ? shards.get(range.from()) : null;
+        if(shard != null && shard.range().equals(range)) {
+            Connection connection = shard.pool().getConnection();
+            try {
+                rows = operation.execute(connection);
+            } finally {
+                shard.pool().releaseConnection(connection);
+            }
+        } else {
+            rows = dbManager.executeWrite(operation::execute);
+        }
+
+        if(rows == 0) {
+            Files.delete(file.toPath());
+            return null;
+        }
+
+        return new SnapshotManifest.Partition(table, range.from(), range.to(), file.getName(), rows, SnapshotManifest.getChecksum(file));
+    }
+
+    /**
+     * Imports a snapshot written by {@link #exportSnapshot(File)} into an empty index. The checksum of every file is checked, and the
+     * recent blocks of the snapshot against the chain of the connected node, before each table is loaded from its files with DuckDB's
+     * parallel Parquet reader, in a single transaction that also saves the state of the snapshot. Indexing then continues from the
+     * snapshot tip.
+     *
+     * @param blockHashes returns the hash of the block at a height on the chain of the connected node
+     */
+    public SnapshotManifest importSnapshot(File dir, IntFunction<String> blockHashes) throws SQLException, InterruptedException, IOException {
+        SnapshotManifest manifest = SnapshotManifest.read(dir);
+        if(manifest.version() > SnapshotManifest.VERSION || manifest.schemaVersion() > IndexMeta.SCHEMA_VERSION) {
+            throw new IllegalStateException("The snapshot was exported by a newer version of Frigate");
+        }
+        if(!Network.get().getName().equals(manifest.network())) {
+            throw new IllegalStateException("The snapshot was exported on " + manifest.network() + ", not " + Network.get().getName());
+        }
+        if(manifest.mode() != indexMode || manifest.startHeight() != startHeight) {
+            throw new IllegalStateException("The snapshot was exported with mode " + manifest.mode() + " from start height " + manifest.startHeight() + ", but mode " + indexMode + " and start height " + startHeight + " are configured under [index] in config.toml");
+        }
+        if(meta.getIndexedHeight() >= 0 || !meta.getCoverage().isEmpty()) {
+            throw new IllegalStateException("A snapshot can only be imported into an empty index. Remove the database to import it.");
+        }
+
+        Map<String, List<String>> tableFiles = new LinkedHashMap<>();
+        for(String table : getSnapshotTables()) {
+            tableFiles.put(table, new ArrayList<>());
+        }
+        for(SnapshotManifest.Partition partition : manifest.partitions()) {
+            File file = new File(dir, partition.file());
+            if(!tableFiles.containsKey(partition.table())) {
+                throw new IOException("The snapshot file " + file.getAbsolutePath() + " is for an unknown table " + partition.table());
+            }
+            if(!file.exists() || !SnapshotManifest.getChecksum(file).equals(partition.sha256())) {
+                throw new IOException("The snapshot file " + file.getAbsolutePath() + " is missing or does not match its checksum in the manifest");
+            }
+            tableFiles.get(partition.table()).add("'" + file.getAbsolutePath() + "'");
+        }
+
+        if(!manifest.tipHash().equals(manifest.recentBlocks().get(manifest.indexedHeight()))) {
+            throw new IOException("The snapshot tip " + manifest.tipHash() + " is not one of its recent blocks");
+        }
+        for(Map.Entry<Integer, String> block : manifest.recentBlocks().entrySet()) {
+            String blockHash = blockHashes.apply(block.getKey());
+            if(!block.getValue().equals(blockHash)) {
+                throw new IllegalStateException("The snapshot block " + block.getValue() + " at height " + block.getKey() + " is not on the chain of the connected node, which has " + blockHash);
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        IndexMeta snapshotMeta = new IndexMeta(IndexMeta.SCHEMA_VERSION, indexMode, manifest.indexedHeight(), manifest.recentBlocks(), HeightIntervals.parse(manifest.coverage()), manifest.agedHeight());
+        long rows = executeTransaction(_ -> snapshotMeta, connection -> {
+            long inserted = 0;
+            try(Statement stmt = connection.createStatement()) {
+                for(Map.Entry<String, List<String>> entry : tableFiles.entrySet()) {
+                    if(!entry.getValue().isEmpty()) {
+                        inserted += stmt.executeUpdate("INSERT INTO " + entry.getKey() + " BY NAME SELECT * FROM read_parquet([" + String.join(", ", entry.getValue()) + "])");
+                    }
+                }
+            }
+            return inserted;
+        });
+        lastBlockIndexed = Math.max(lastBlockIndexed, manifest.indexedHeight());
+
+        log.info("Imported " + rows + " rows from " + manifest.partitions().size() + " snapshot files to block height " + manifest.indexedHeight() + " in " + (System.currentTimeMillis() - start) + "ms");
+        return manifest;
+    }
+
+    /**
+     * Returns the tables exported to snapshots for the index mode, in the order they are loaded.
+     */
+    private List<String> getSnapshotTables() {
+        List<String> tables = new ArrayList<>();
+        if(indexMode != IndexMode.UTXO_ONLY) {
+            tables.add(TWEAK_TABLE);
+            tables.add(TWEAK_SPEND_TABLE);
+            tables.add(TWEAK_TXID_TABLE);
+        }
+        if(indexMode != IndexMode.FULL) {
+            tables.add(UTXO_TX_TABLE);
+            tables.add(UTXO_OUTPUT_TABLE);
+        }
+
+        return tables;
+    }
+
+    public int getLastBlockIndexed() {
+        return lastBlockIndexed;
+    }
+
+    /**
+     * Returns the number of blocks indexed, which changes as blocks are indexed at the tip, backfilled below it or removed in a reorg.
+     */
+    public long getIndexedBlockCount() {
+        return meta.getCoverage().size();
+    }
+
+    /**
+     * Records that the index is complete up to the given height, for example after a bootstrap from a UTXO snapshot.
+     */
+    public void setLastBlockIndexed(int height) throws SQLException, InterruptedException {
+        executeTransaction(current -> current.withIndexedBlocks(Math.max(0, startHeight), height, Collections.emptyMap()), _ -> null);
+        lastBlockIndexed = Math.max(lastBlockIndexed, height);
+    }
+
+    public void setTipHeight(int tipHeight) {
+        this.tipHeight = tipHeight;
+    }
+
+    /**
+     * Returns the fraction of the blocks in a scan range that have been indexed, which is 1.0 once every block from the start height
+     * of the index to the end of the range or the chain tip is covered. Subscriptions are served while the index is being built or
+     * backfilled, with the results over the blocks covered so far reported below 1.0.
+     *
+     * @param startHeight the start of the scan range, or null to scan from the first block
+     * @param endHeight the end of the scan range, or null to scan to the chain tip
+     */
+    public double getIndexProgress(Integer startHeight, Integer endHeight) {
+        int targetHeight = endHeight == null ? tipHeight : Math.min(endHeight, tipHeight);
+        int fromHeight = Math.max(startHeight == null ? 0 : startHeight, this.startHeight);
+        if(targetHeight < fromHeight) {
+            return 1.0d;
+        }
+
+        long covered = meta.getCoverage().countWithin(fromHeight, targetHeight);
+        long total = (long)targetHeight - fromHeight + 1;
+        return covered >= total ? 1.0d : (double)covered / total;
+    }
+
+    /**
+     * Returns the ranges of blocks between the start height and the last block indexed that have not yet been indexed, in ascending
+     * order. These are left below the most recent blocks when the index is built tip first, and are filled by the backfill.
+     */
+    public List<HeightIntervals.Interval> getUnindexedRanges() {
+        return meta.getCoverage().getGapsWithin(Math.max(0, startHeight), lastBlockIndexed);
+    }
+
+    /**
+     * Returns the heights of the blocks with tweak rows indexed before the max_value column was added, highest first.
+     */
+    public List<Integer> getHeightsWithoutMaxValue() {
+        if(indexMode == IndexMode.UTXO_ONLY || dbManager.isShutdown()) {
+            return Collections.emptyList();
+        }
+
+        try {
+            return dbManager.executeRead(meta.getCoverage(), connection -> {
+                List<Integer> heights = new ArrayList<>();
+                try(Statement stmt = connection.createStatement();
+                    ResultSet resultSet = stmt.executeQuery("SELECT DISTINCT height FROM " + TWEAK_TABLE + " WHERE max_value IS NULL ORDER BY height DESC")) {
+                    while(resultSet.next()) {
+                        heights.add(resultSet.getInt(1));
+                    }
+                }
+                return heights;
+            });
+        } catch(Exception e) {
+            log.error("Error finding tweak rows without output values", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Sets the largest taproot output value of the given transactions in the tweak table.
+     */
+    public void updateMaxValues(Map<Sha256Hash, Long> maxValues) throws SQLException, InterruptedException {
+        if(dbManager.isShutdown() || maxValues.isEmpty()) {
+            return;
+        }
+
+        executeTransaction(current -> current, connection -> {
+            DuckDBConnection duckDBConnection = (DuckDBConnection)connection;
+            try(DuckDBAppender appender = duckDBConnection.createAppender(DuckDBConnection.DEFAULT_SCHEMA, MAX_VALUE_UPDATE_TABLE)) {
+                for(Map.Entry<Sha256Hash, Long> entry : maxValues.entrySet()) {
+                    appender.beginRow();
+                    appender.append(entry.getKey().getBytes());
+                    appender.append(entry.getValue().longValue());
+                    appender.endRow();
+                }
+            }
+
+            try(Statement stmt = connection.createStatement()) {
+                int updated = stmt.executeUpdate("UPDATE " + TWEAK_TABLE + " SET max_value = u.max_value FROM " + MAX_VALUE_UPDATE_TABLE + " u WHERE " + TWEAK_TABLE + ".txid = u.txid");
+                stmt.execute("DELETE FROM " + MAX_VALUE_UPDATE_TABLE);
+                return updated;
+            }
+        });
+    }
+
+    /**
+     * Returns the hash of a recently indexed block, or null if the block at that height is not one of the most recent indexed.
+     */
+    public String getRecentBlockHash(int height) {
+        return meta.getRecentBlockHash(height);
+    }
+
+    public void addToIndex(Map<BlockTransaction, byte[]> transactions) {
+        addToIndex(TweakRows.of(transactions));
+    }
+
+    public void addToIndex(TweakRows rows) {
+        if(dbManager.isShutdown()) {
+            return;
+        }
+
+        int fromBlockHeight = lastBlockIndexed;
+        int blockHeight = rows.getMaxHeight();
+        try {
+            executeTransaction(current -> blockHeight > 0 ? current.withIndexedBlocks(fromBlockHeight + 1, blockHeight, Collections.emptyMap()) : current, connection -> {
+                appendTweakRows(connection, rows, 0, trackSpends);
+                return null;
+            });
+            lastBlockIndexed = blockHeight;
+
+            if(blockHeight <= 0 && fromBlockHeight < 0) {
+                log.info("Indexed " + rows.size() + " mempool transactions");
+            } else if(blockHeight > 0) {
+                log.info("Indexed " + rows.size() + " transactions to block height " + blockHeight);
+            }
+
+            if(lastBlockIndexed <= 0) {
+                Frigate.getEventBus().post(new SilentPaymentsMempoolIndexAdded(rows.getTxIds()));
+            } else {
+                postBlocksIndexUpdate(fromBlockHeight + 1, lastBlockIndexed, rows.size(), false);
+            }
+        } catch(Exception e) {
+            log.error("Error adding to index", e);
+        }
+    }
+
+    /**
+     * Commits the blocks in the buffer to the index in a single transaction and clears it. In UTXO mode the spent outpoints are
+     * deleted after the new outputs are appended, so outputs both created and spent within the buffered blocks are removed.
+     * In HYBRID mode the blocks are added to both tables, with the tweak rows below the recent window aged out at the same time.
+     * The last block indexed only advances once the transaction has committed, so after a failure or crash the buffered blocks
+     * are indexed again from the last committed height.
+     *
+     * @param buffer the buffered blocks
+     * @param minValue the minimum output value indexed in UTXO mode
+     * @param backfill true if the blocks fill a range below the last block indexed, in which case their hashes are not recorded
+     *                 for reorg detection and subscribers are notified of a backfilled range
+     */
+    public void commit(IngestBuffer buffer, long minValue, boolean backfill) {
+        if(dbManager.isShutdown() || buffer.isEmpty()) {
+            buffer.clear();
+            return;
+        }
+
+        TweakRows rows = buffer.getRows();
+        Map<Integer, String> blockHashes = backfill ? Collections.emptyMap() : buffer.getBlockHashes();
+        int agedHeight = meta.getAgedHeight();
+        int nextAgedHeight = getNextAgedHeight();
+        try {
+            int utxoCount = executeTransaction(current -> current.withIndexedBlocks(buffer.getFromHeight(), buffer.getToHeight(), blockHashes).withAgedHeight(nextAgedHeight), connection -> {
+                int count;
+                if(indexMode != IndexMode.FULL) {
+                    count = appendUtxoRows(connection, rows, minValue);
+                } else {
+                    count = rows.size();
+                }
+
+                if(indexMode == IndexMode.HYBRID) {
+                    if(nextAgedHeight > agedHeight) {
+                        deleteAgedTweakRows(connection, nextAgedHeight);
+                    }
+                    appendTweakRows(connection, rows, nextAgedHeight, trackSpends);
+                } else if(indexMode == IndexMode.FULL) {
+                    //Backfilled blocks are below spends already indexed, so their outputs are left untracked and always scanned
+                    appendTweakRows(connection, rows, 0, trackSpends && !backfill);
+                }
+
+                //Spends are applied after the rows are appended, since outputs may be spent in the blocks they are created in
+                if(!buffer.getSpentOutpoints().isEmpty()) {
+                    appendSpentOutpoints(connection, buffer.getSpentOutpoints());
+                    if(indexMode != IndexMode.FULL) {
+                        deleteSpentUtxoRows(connection);
+                    }
+                    if(indexMode != IndexMode.UTXO_ONLY) {
+                        removeSpentTweakOutputs(connection, buffer.getToHeight());
+                    }
+                    clearSpentOutpoints(connection);
+                }
+                return count;
+            });
+
+            if(trackSpends && !backfill) {
+                addUtxoOutpoints(rows, indexMode == IndexMode.FULL ? 0 : minValue);
+                removeUtxoOutpoints(buffer.getSpentOutpoints());
+            }
+
+            if(nextAgedHeight > agedHeight) {
+                log.info("Aged tweak history below block height " + nextAgedHeight + " to unspent outputs");
+            }
+
+            lastBlockIndexed = Math.max(lastBlockIndexed, buffer.getToHeight());
+            if(indexMode != IndexMode.FULL) {
+                log.info("Indexed " + utxoCount + " UTXOs from " + rows.size() + " transactions to block height " + buffer.getToHeight());
+            } else if(backfill) {
+                log.info("Backfilled " + rows.size() + " transactions from block height " + buffer.getFromHeight() + " to " + buffer.getToHeight());
+            } else {
+                log.info("Indexed " + rows.size() + " transactions to block height " + buffer.getToHeight());
+            }
+
+            if(!rows.isEmpty()) {
+                postBlocksIndexUpdate(buffer.getFromHeight(), buffer.getToHeight(), rows.size(), backfill);
+            }
+
+            recordDeleted(buffer.getSpentOutpoints().size());
+            publishSnapshot();
+            sealShards();
+            compact();
+        } catch(Exception e) {
+            log.error("Error committing blocks " + buffer.getFromHeight() + " to " + buffer.getToHeight() + " to index", e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Executes a write operation in a single transaction, so that the rows written and the index metadata describing them are
+     * committed together or not at all. The metadata update is applied to the current metadata under a lock, so that blocks
+     * committed concurrently by the forward indexer and the backfill are all recorded.
+     *
+     * @param metaUpdate returns the metadata describing the index after the operation, or the metadata given if it is unchanged
+     */
+    private <T> T executeTransaction(UnaryOperator<IndexMeta> metaUpdate, DbManager.WriteOperation<T> operation) throws SQLException, InterruptedException {
+        synchronized(metaLock) {
+            IndexMeta currentMeta = meta;
+            IndexMeta nextMeta = metaUpdate.apply(currentMeta);
+            T result = dbManager.executeWrite(connection -> {
+                connection.setAutoCommit(false);
+                try {
+                    T written = operation.execute(connection);
+                    if(nextMeta != currentMeta) {
+                        nextMeta.save(connection);
+                    }
+                    connection.commit();
+                    return written;
+                } catch(SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            });
+            meta = nextMeta;
+            return result;
+        }
+    }
+
+    /**
+     * In HYBRID mode, returns the height below which tweak history should be kept only as unspent outputs, which trails the chain tip
+     * by the configured window. While indexing far behind the tip, blocks below the window are never written to the tweak table.
+     */
+    private int getNextAgedHeight() {
+        int agedHeight = meta.getAgedHeight();
+        if(indexMode != IndexMode.HYBRID || tipHeight < 0) {
+            return agedHeight;
         }
+
+        int windowStartHeight = tipHeight - hybridWindow + 1;
+        return windowStartHeight - agedHeight >= HYBRID_AGE_STEP ? windowStartHeight : agedHeight;
     }
 
-    private void checkGpuBackend() {
-        ComputeBackend computeBackend = Config.get().getScan().getComputeBackendEnum();
-        if(computeBackend == ComputeBackend.CPU) {
-            return;
+    private void deleteAgedTweakRows(Connection connection, int agedHeight) throws SQLException {
+        for(String table : List.of(TWEAK_TABLE, TWEAK_TXID_TABLE)) {
+            try(PreparedStatement statement = connection.prepareStatement("DELETE FROM " + table + " WHERE height < ?")) {
+                statement.setInt(1, agedHeight);
+                recordDeleted(statement.executeUpdate());
+            }
         }
+    }
 
-        try {
-            String backend = dbManager.executeRead(connection -> {
-                try(Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("SELECT ufsecp_backend()")) {
-                    return rs.next() ? rs.getString(1) : "unknown";
+    private void appendTweakRows(Connection connection, TweakRows rows, int minHeight, boolean unspent) throws SQLException {
+        DuckDBConnection duckDBConnection = (DuckDBConnection)connection;
+        try(DuckDBAppender appender = duckDBConnection.createAppender(DuckDBConnection.DEFAULT_SCHEMA, TWEAK_TABLE);
+            DuckDBAppender txidAppender = unspent ? duckDBConnection.createAppender(DuckDBConnection.DEFAULT_SCHEMA, TWEAK_TXID_TABLE) : null) {
+            for(int row = 0; row < rows.size(); row++) {
+                if(rows.getHeight(row) < minHeight) {
+                    continue;
                 }
-            });
+                appender.beginRow();
+                appender.append(rows.getTxid(row));
+                appender.append(rows.getHeight(row));
+                appender.append(rows.getTweak(row));
+                if(auditScanKey != null) {
+                    appender.append(new long[] { getOutputHashPrefix(rows.getTweak(row), auditScanKey, auditSpendKey) });
+                } else {
+                    appender.append(rows.getHashPrefixes(row));
+                }
+                appender.append(rows.getMaxValue(row));
+                //Without spends tracked the column is left null, so that the row is always scanned
+                if(unspent) {
+                    appender.append(rows.getOutputIndexes(row));
+                } else {
+                    appender.appendNull();
+                }
+                appender.endRow();
 
-            if(backend.startsWith("cpu")) {
-                if(computeBackend == ComputeBackend.GPU) {
-                    throw new ConfigurationException("No GPU detected, but \"computeBackend\" is set to \"GPU\". Set to \"AUTO\" or \"CPU\", or install a supported GPU.");
+                if(txidAppender != null) {
+                    txidAppender.beginRow();
+                    txidAppender.append(rows.getTxid(row));
+                    txidAppender.append(rows.getHeight(row));
+                    txidAppender.endRow();
                 }
-                log.info("Using CPU backend for scanning (no GPU detected)");
-            } else {
-                log.info("Using {} backend for scanning", backend);
             }
-        } catch(Exception e) {
-            log.warn("Could not detect GPU backend", e);
         }
     }
 
-    private double pollScanProgress(byte[] scanKeyBytes) {
-        try {
-            return dbManager.executeRead(progressConnection -> {
-                try(PreparedStatement progressStmt = progressConnection.prepareStatement("SELECT ufsecp_progress(?)")) {
-                    progressStmt.setBytes(1, scanKeyBytes);
-                    ResultSet rs = progressStmt.executeQuery();
-                    if(rs.next()) {
-                        double pct = rs.getDouble(1);
-                        if(pct < 0.0d) {
-                            return 0.0d;
+    /**
+     * Appends a utxo_tx row for each transaction with at least one output of the minimum value, and a utxo_output row for each
+     * of those outputs, returning the number of outputs appended.
+     */
+    private int appendUtxoRows(Connection connection, TweakRows rows, long minValue) throws SQLException {
+        DuckDBConnection duckDBConnection = (DuckDBConnection)connection;
+        try(DuckDBAppender txAppender = duckDBConnection.createAppender(DuckDBConnection.DEFAULT_SCHEMA, UTXO_TX_TABLE);
+            DuckDBAppender outputAppender = duckDBConnection.createAppender(DuckDBConnection.DEFAULT_SCHEMA, UTXO_OUTPUT_TABLE)) {
+            int utxoCount = 0;
+            for(int row = 0; row < rows.size(); row++) {
+                byte[] tweakKey = rows.getTweak(row);
+                boolean txAppended = false;
+
+                for(int output = 0; output < rows.getOutputCount(row); output++) {
+                    if(rows.getValue(row, output) >= minValue) {
+                        if(!txAppended) {
+                            txAppender.beginRow();
+                            txAppender.append(rows.getTxid(row));
+                            txAppender.append(rows.getHeight(row));
+                            txAppender.append(tweakKey);
+                            txAppender.append(compressRawKey(tweakKey));
+                            txAppender.endRow();
+                            txAppended = true;
                         }
-                        return Math.min(pct / 100.0d, 1.0d);
+                        outputAppender.beginRow();
+                        outputAppender.append(rows.getTxid(row));
+                        outputAppender.append(rows.getOutputIndex(row, output));
+                        outputAppender.append(rows.getHashPrefix(row, output));
+                        outputAppender.append(rows.getValue(row, output));
+                        outputAppender.endRow();
+                        utxoCount++;
                     }
-                    return 0.0d;
                 }
-            });
-        } catch(Exception e) {
-            return 0.0d;
+            }
+
+            return utxoCount;
         }
     }
 
-    public IndexMode getIndexMode() {
-        return indexMode;
+    public static void createKeyTables(Connection connection) throws SQLException {
+        try(Statement stmt = connection.createStatement()) {
+            stmt.execute(SPENT_OUTPOINT_TABLE_DDL);
+            stmt.execute(DELETED_TXID_TABLE_DDL);
+            stmt.execute(MAX_VALUE_UPDATE_TABLE_DDL);
+        }
     }
 
-    public <T> T executeRead(DbManager.ReadOperation<T> operation) throws SQLException, InterruptedException {
-        return dbManager.executeRead(operation);
+    /**
+     * Deletes the given outputs, and the transactions left without any unspent outputs. The outpoints are appended to a key table
+     * so that each table is deleted from with one join, rather than one point delete per outpoint.
+     * This should be called within a transaction, so that the keys appended are never visible outside of it.
+     */
+    public static int deleteSpentUtxos(Connection connection, Set<HashIndex> spentOutpoints) throws SQLException {
+        appendSpentOutpoints(connection, spentOutpoints);
+        int count = deleteSpentUtxoRows(connection);
+        clearSpentOutpoints(connection);
+        return count;
     }
 
-    public void close() {
-        dbManager.close();
+    private static void appendSpentOutpoints(Connection connection, Set<HashIndex> spentOutpoints) throws SQLException {
+        DuckDBConnection duckDBConnection = (DuckDBConnection)connection;
+        try(DuckDBAppender appender = duckDBConnection.createAppender(DuckDBConnection.DEFAULT_SCHEMA, SPENT_OUTPOINT_TABLE)) {
+            for(HashIndex outpoint : spentOutpoints) {
+                appender.beginRow();
+                appender.append(outpoint.getHash().getBytes());
+                appender.append((int)outpoint.getIndex());
+                appender.endRow();
+            }
+        }
     }
 
-    public int getLastBlockIndexed() {
-        // Check persisted height from Config (set by bootstrap or previous indexing)
-        Integer configHeight = Config.get().getIndex().getLastIndexedBlockHeight();
-        if (configHeight != null && configHeight > lastBlockIndexed) {
-            lastBlockIndexed = configHeight;
+    private static void clearSpentOutpoints(Connection connection) throws SQLException {
+        try(Statement stmt = connection.createStatement()) {
+            stmt.execute("DELETE FROM " + SPENT_OUTPOINT_TABLE);
         }
+    }
 
-        // For UTXO_ONLY mode, Config is authoritative
-        // (MAX(height) in UTXO table is creation height, not the height we've indexed up to)
-        if (indexMode == IndexMode.UTXO_ONLY) {
-            return lastBlockIndexed;
+    private static int deleteSpentUtxoRows(Connection connection) throws SQLException {
+        try(Statement stmt = connection.createStatement()) {
+            int count = stmt.executeUpdate("DELETE FROM " + UTXO_OUTPUT_TABLE + " USING " + SPENT_OUTPOINT_TABLE + " s WHERE " + UTXO_OUTPUT_TABLE + ".txid = s.txid AND " +
+                    UTXO_OUTPUT_TABLE + ".output_index = s.output_index");
+            if(count > 0) {
+                stmt.executeUpdate("DELETE FROM " + UTXO_TX_TABLE + " WHERE txid IN (SELECT txid FROM " + SPENT_OUTPOINT_TABLE + ") AND NOT EXISTS (SELECT 1 FROM " +
+                        UTXO_OUTPUT_TABLE + " o WHERE o.txid = " + UTXO_TX_TABLE + ".txid)");
+            }
+            return count;
         }
+    }
 
-        // For FULL mode, also check database MAX(height)
-        try {
-            return dbManager.executeRead(connection -> {
-                try(PreparedStatement statement = connection.prepareStatement("SELECT MAX(height) from " + TWEAK_TABLE)) {
-                    ResultSet resultSet = statement.executeQuery();
-                    return resultSet.next() ? Math.max(lastBlockIndexed, resultSet.getInt(1)) : lastBlockIndexed;
-                }
-            });
-        } catch(Exception e) {
-            log.error("Error getting last block indexed", e);
-            return lastBlockIndexed;
+    /**
+     * Removes the spent outpoints in the key table from the unspent outputs of their tweak rows, logging each spend at the given
+     * height so that it can be reversed on a reorg. Blocks are only committed together far from the tip, so the spends of a buffer
+     * are logged at its last height. Spends below the blocks kept for reorg detection are no longer needed and are pruned.
+     * The heights of the spent rows are first found in the narrow tweak_txid table, so that the tweak table is only read and
+     * updated in the row groups of those heights. Rows left with no unspent outputs are removed from tweak_txid.
+     * This should be called within a transaction, after the spent outpoints are appended to their key table.
+     */
+    public static void removeSpentTweakOutputs(Connection connection, int height) throws SQLException {
+        String heights = getSpentTweakHeights(connection);
+        if(heights != null) {
+            try(PreparedStatement statement = connection.prepareStatement("INSERT INTO " + TWEAK_SPEND_TABLE + " SELECT s.txid, s.output_index, ?, t.height FROM " + SPENT_OUTPOINT_TABLE +
+                    " s JOIN " + TWEAK_TABLE + " t ON t.txid = s.txid WHERE t.height IN (" + heights + ") AND list_contains(t.unspent_outputs, s.output_index)")) {
+                statement.setInt(1, height);
+                statement.execute();
+            }
+
+            try(Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate("UPDATE " + TWEAK_TABLE + " SET unspent_outputs = list_filter(" + TWEAK_TABLE + ".unspent_outputs, i -> NOT list_contains(s.spent, i)) FROM " +
+                        "(SELECT txid, list(output_index) AS spent FROM " + SPENT_OUTPOINT_TABLE + " GROUP BY txid) s WHERE " + TWEAK_TABLE + ".height IN (" + heights + ") AND " +
+                        TWEAK_TABLE + ".txid = s.txid AND " + TWEAK_TABLE + ".unspent_outputs IS NOT NULL");
+                stmt.executeUpdate("DELETE FROM " + TWEAK_TXID_TABLE + " WHERE height IN (" + heights + ") AND txid IN (SELECT txid FROM " + TWEAK_TABLE + " WHERE height IN (" +
+                        heights + ") AND len(unspent_outputs) = 0 AND txid IN (SELECT txid FROM " + SPENT_OUTPOINT_TABLE + "))");
+            }
+        }
+
+        try(PreparedStatement statement = connection.prepareStatement("DELETE FROM " + TWEAK_SPEND_TABLE + " WHERE height <= ?")) {
+            statement.setInt(1, height - IndexMeta.MAX_RECENT_BLOCKS);
+            statement.execute();
         }
     }
 
-    public void addToIndex(Map<BlockTransaction, byte[]> transactions) {
-        if(dbManager.isShutdown()) {
-            return;
+    /**
+     * Returns the distinct heights of the tweak rows with outputs in the spent outpoint key table as a comma separated list, or null
+     * if none of the spent outpoints are indexed tweak outputs.
+     */
+    private static String getSpentTweakHeights(Connection connection) throws SQLException {
+        StringJoiner heights = new StringJoiner(", ");
+        try(Statement stmt = connection.createStatement();
+            ResultSet resultSet = stmt.executeQuery("SELECT DISTINCT x.height FROM " + SPENT_OUTPOINT_TABLE + " s JOIN " + TWEAK_TXID_TABLE + " x ON x.txid = s.txid ORDER BY x.height")) {
+            while(resultSet.next()) {
+                heights.add(Integer.toString(resultSet.getInt(1)));
+            }
         }
 
-        int fromBlockHeight = lastBlockIndexed;
-        try {
-            lastBlockIndexed = dbManager.executeWrite(connection -> {
-                DuckDBConnection duckDBConnection = (DuckDBConnection)connection;
-                try(DuckDBAppender appender = duckDBConnection.createAppender(DuckDBConnection.DEFAULT_SCHEMA, TWEAK_TABLE)) {
-                    int blockHeight = -1;
+        return heights.length() == 0 ? null : heights.toString();
+    }
 
-                    for(BlockTransaction blkTx : transactions.keySet()) {
-                        appender.beginRow();
-                        appender.append(blkTx.getTransaction().getTxId().getBytes());
-                        appender.append(blkTx.getHeight());
-                        appender.append(transactions.get(blkTx));
-
-                        List<Long> hashPrefixes = new ArrayList<>();
-                        if(auditScanKey != null) {
-                            long hashPrefix = getAuditHashPrefix(transactions, blkTx);
-                            hashPrefixes.add(hashPrefix);
-                        } else {
-                            List<TransactionOutput> outputs = blkTx.getTransaction().getOutputs();
-                            for(TransactionOutput output : outputs) {
-                                if(ScriptType.P2TR.isScriptType(output.getScript())) {
-                                    long hashPrefix = getHashPrefix(ScriptType.P2TR.getPublicKeyFromScript(output.getScript()).getPubKey(), 1);
-                                    hashPrefixes.add(hashPrefix);
-                                }
-                            }
-                        }
-                        appender.append(hashPrefixes.stream().mapToLong(Long::longValue).toArray());
-                        appender.endRow();
+    /**
+     * Restores the tweak row outputs spent at or above the given height, before the blocks from that height are removed, and the
+     * tweak_txid rows of the tweak rows that had every output spent.
+     */
+    private static void restoreSpentTweakOutputs(Connection connection, int startHeight) throws SQLException {
+        StringJoiner heights = new StringJoiner(", ");
+        try(PreparedStatement statement = connection.prepareStatement("SELECT DISTINCT tweak_height FROM " + TWEAK_SPEND_TABLE + " WHERE height >= ? AND tweak_height IS NOT NULL")) {
+            statement.setInt(1, startHeight);
+            try(ResultSet resultSet = statement.executeQuery()) {
+                while(resultSet.next()) {
+                    heights.add(Integer.toString(resultSet.getInt(1)));
+                }
+            }
+        }
 
-                        blockHeight = Math.max(blockHeight, blkTx.getHeight());
-                    }
+        if(heights.length() > 0) {
+            try(PreparedStatement statement = connection.prepareStatement("INSERT INTO " + TWEAK_TXID_TABLE + " SELECT DISTINCT txid, tweak_height FROM " + TWEAK_SPEND_TABLE +
+                    " WHERE height >= ? AND tweak_height IS NOT NULL AND txid NOT IN (SELECT txid FROM " + TWEAK_TXID_TABLE + " WHERE height IN (" + heights + "))")) {
+                statement.setInt(1, startHeight);
+                statement.execute();
+            }
 
-                    if(blockHeight <= 0 && lastBlockIndexed < 0) {
-                        log.info("Indexed " + transactions.size() + " mempool transactions");
-                    } else if(blockHeight > 0) {
-                        log.info("Indexed " + transactions.size() + " transactions to block height " + blockHeight);
-                    }
+            try(PreparedStatement statement = connection.prepareStatement("UPDATE " + TWEAK_TABLE + " SET unspent_outputs = list_sort(list_concat(" + TWEAK_TABLE + ".unspent_outputs, s.restored)) FROM " +
+                    "(SELECT txid, list(output_index) AS restored FROM " + TWEAK_SPEND_TABLE + " WHERE height >= ? GROUP BY txid) s WHERE " + TWEAK_TABLE + ".height IN (" + heights + ") AND " +
+                    TWEAK_TABLE + ".txid = s.txid")) {
+                statement.setInt(1, startHeight);
+                statement.execute();
+            }
+        }
 
-                    return blockHeight;
-                }
-            });
+        try(PreparedStatement statement = connection.prepareStatement("DELETE FROM " + TWEAK_SPEND_TABLE + " WHERE height >= ?")) {
+            statement.setInt(1, startHeight);
+            statement.execute();
+        }
+    }
 
-            if(lastBlockIndexed <= 0) {
-                Frigate.getEventBus().post(new SilentPaymentsMempoolIndexAdded(transactions.keySet().stream().map(blkTx -> blkTx.getTransaction().getTxId()).collect(Collectors.toSet())));
-            } else {
-                Frigate.getEventBus().post(new SilentPaymentsBlocksIndexUpdate(fromBlockHeight + 1, lastBlockIndexed, transactions.size()));
-            }
-        } catch(Exception e) {
-            log.error("Error adding to index", e);
+    private void postBlocksIndexUpdate(int fromBlockHeight, int toBlockHeight, int totalTransactions, boolean backfill) {
+        if(backfill) {
+            Frigate.getEventBus().post(new SilentPaymentsBlocksIndexUpdate(fromBlockHeight, toBlockHeight, totalTransactions, true));
+            return;
         }
+
+        BlockTracer.get().blocksIndexed(fromBlockHeight, toBlockHeight);
+        Frigate.getEventBus().post(new SilentPaymentsBlocksIndexUpdate(fromBlockHeight, toBlockHeight, totalTransactions, false));
+        BlockTracer.get().blocksDispatched(fromBlockHeight);
+    }
+
+    public static long getOutputHashPrefix(byte[] rawTweakKey, ECKey scanKey, ECKey spendKey) {
+        return getHashPrefix(getOutputKey(rawTweakKey, scanKey, spendKey).getPubKeyXCoord(), 0);
     }
 
-    private long getAuditHashPrefix(Map<BlockTransaction, byte[]> transactions, BlockTransaction blkTx) {
-        byte[] tweakKeyBytes = transactions.get(blkTx);
-        ECKey tweakKey = ECKey.fromPublicOnly(compressRawKey(tweakKeyBytes));
-        ECKey sharedSecret = tweakKey.multiply(auditScanKey.getPrivKey(), true);
+    public static ECKey getOutputKey(byte[] rawTweakKey, ECKey scanKey, ECKey spendKey) {
+        ECKey tweakKey = ECKey.fromPublicOnly(compressRawKey(rawTweakKey));
+        ECKey sharedSecret = tweakKey.multiply(scanKey.getPrivKey(), true);
         byte[] ser37 = new byte[37];
         System.arraycopy(sharedSecret.getPubKey(true), 0, ser37, 0, 33);
         byte[] t_k = Utils.taggedHash("BIP0352/SharedSecret", ser37);
         ECKey tkG = ECKey.fromPublicOnly(ECKey.publicKeyFromPrivate(new BigInteger(1, t_k), true));
-        ECKey P0 = auditSpendKey.add(tkG, true);
-        return getHashPrefix(P0.getPubKeyXCoord(), 0);
+        return spendKey.add(tkG, true);
     }
 
     public void addUtxosToIndex(Map<BlockTransaction, byte[]> transactions, long minValue) {
+        addUtxosToIndex(TweakRows.of(transactions), minValue);
+    }
+
+    public void addUtxosToIndex(TweakRows rows, long minValue) {
         if(dbManager.isShutdown()) {
             return;
         }
 
         int fromBlockHeight = lastBlockIndexed;
+        int blockHeight = rows.getMaxHeight();
         try {
-            lastBlockIndexed = dbManager.executeWrite(connection -> {
-                DuckDBConnection duckDBConnection = (DuckDBConnection)connection;
-                try(DuckDBAppender appender = duckDBConnection.createAppender(DuckDBConnection.DEFAULT_SCHEMA, UTXO_TABLE)) {
-                    int blockHeight = -1;
-                    int utxoCount = 0;
-
-                    for(BlockTransaction blkTx : transactions.keySet()) {
-                        byte[] tweakKey = transactions.get(blkTx);
-                        List<TransactionOutput> outputs = blkTx.getTransaction().getOutputs();
-
-                        for(int i = 0; i < outputs.size(); i++) {
-                            TransactionOutput output = outputs.get(i);
-                            if(ScriptType.P2TR.isScriptType(output.getScript()) && output.getValue() >= minValue) {
-                                appender.beginRow();
-                                appender.append(blkTx.getTransaction().getTxId().getBytes());
-                                appender.append(i);
-                                appender.append(blkTx.getHeight());
-                                appender.append(tweakKey);
-                                appender.append(compressRawKey(tweakKey));
-                                long hashPrefix = getHashPrefix(ScriptType.P2TR.getPublicKeyFromScript(output.getScript()).getPubKey(), 1);
-                                appender.append(hashPrefix);
-                                appender.append(output.getValue());
-                                appender.endRow();
-                                utxoCount++;
-                            }
-                        }
-
-                        blockHeight = Math.max(blockHeight, blkTx.getHeight());
-                    }
-
-                    if(blockHeight <= 0 && lastBlockIndexed < 0) {
-                        log.info("Indexed " + utxoCount + " UTXOs from " + transactions.size() + " mempool transactions");
-                    } else if(blockHeight > 0) {
-                        log.info("Indexed " + utxoCount + " UTXOs from " + transactions.size() + " transactions to block height " + blockHeight);
-                    }
-
-                    return blockHeight;
-                }
-            });
+            int utxoCount = executeTransaction(current -> blockHeight > 0 ? current.withIndexedBlocks(fromBlockHeight + 1, blockHeight, Collections.emptyMap()) : current,
+                    connection -> appendUtxoRows(connection, rows, minValue));
+            lastBlockIndexed = blockHeight;
+            addUtxoOutpoints(rows, minValue);
+
+            if(blockHeight <= 0 && fromBlockHeight < 0) {
+                log.info("Indexed " + utxoCount + " UTXOs from " + rows.size() + " mempool transactions");
+            } else if(blockHeight > 0) {
+                log.info("Indexed " + utxoCount + " UTXOs from " + rows.size() + " transactions to block height " + blockHeight);
+            }
 
             if(lastBlockIndexed <= 0) {
-                Frigate.getEventBus().post(new SilentPaymentsMempoolIndexAdded(transactions.keySet().stream().map(blkTx -> blkTx.getTransaction().getTxId()).collect(Collectors.toSet())));
+                Frigate.getEventBus().post(new SilentPaymentsMempoolIndexAdded(rows.getTxIds()));
             } else {
-                Frigate.getEventBus().post(new SilentPaymentsBlocksIndexUpdate(fromBlockHeight + 1, lastBlockIndexed, transactions.size()));
-
-                // Persist the indexed height to Config for UTXO_ONLY mode
-                Integer currentConfig = Config.get().getIndex().getLastIndexedBlockHeight();
-                if(currentConfig == null || lastBlockIndexed > currentConfig) {
-                    Config.get().getIndex().setLastIndexedBlockHeight(lastBlockIndexed);
-                }
+                postBlocksIndexUpdate(fromBlockHeight + 1, lastBlockIndexed, rows.size(), false);
             }
         } catch(Exception e) {
             log.error("Error adding UTXOs to index", e);
@@ -321,22 +1739,10 @@ public class Index {
         }
 
         try {
-            int removed = dbManager.executeWrite(connection -> {
-                try(PreparedStatement statement = connection.prepareStatement("DELETE FROM " + UTXO_TABLE + " WHERE txid = ? AND output_index = ?")) {
-                    for(HashIndex outpoint : spentOutpoints) {
-                        statement.setBytes(1, outpoint.getHash().getBytes());
-                        statement.setInt(2, (int) outpoint.getIndex());
-                        statement.addBatch();
-                    }
-
-                    int[] results = statement.executeBatch();
-                    int count = 0;
-                    for(int r : results) {
-                        if(r > 0) count += r;
-                    }
-                    return count;
-                }
-            });
+            int removed = executeTransaction(current -> current, connection -> deleteSpentUtxos(connection, spentOutpoints));
+            removeUtxoOutpoints(spentOutpoints);
+            recordDeleted(removed);
+            compact();
 
             if(removed > 0) {
                 log.debug("Removed " + removed + " spent UTXOs from index");
@@ -351,14 +1757,48 @@ public class Index {
             return;
         }
 
-        String table = (indexMode == IndexMode.UTXO_ONLY) ? UTXO_TABLE : TWEAK_TABLE;
+        //Outputs spent in the removed blocks are unspent again, and outputs created in them are gone, so the outpoints are updated with both
+        boolean updateOutpoints = utxoOutpoints != null;
+        List<HashIndex> restoredOutpoints = new ArrayList<>();
+        List<HashIndex> removedOutpoints = new ArrayList<>();
+
         try {
-            dbManager.executeWrite(connection -> {
-                try(PreparedStatement statement = connection.prepareStatement("DELETE FROM " + table + " WHERE height >= ?")) {
-                    statement.setInt(1, startHeight);
-                    return statement.execute();
+            int removed = executeTransaction(current -> current.withBlocksRemoved(startHeight), connection -> {
+                if(updateOutpoints && indexMode == IndexMode.FULL) {
+                    readOutpoints(connection, "SELECT txid, output_index FROM " + TWEAK_SPEND_TABLE + " WHERE height >= ?", startHeight, restoredOutpoints);
+                }
+                if(indexMode != IndexMode.UTXO_ONLY) {
+                    restoreSpentTweakOutputs(connection, startHeight);
+                }
+                if(updateOutpoints) {
+                    readOutpoints(connection, indexMode == IndexMode.FULL ? "SELECT txid, unnest(unspent_outputs) FROM " + TWEAK_TABLE + " WHERE height >= ? AND len(unspent_outputs) > 0" :
+                            "SELECT txid, output_index FROM " + UTXO_OUTPUT_TABLE + " WHERE txid IN (SELECT txid FROM " + UTXO_TX_TABLE + " WHERE height >= ?)", startHeight, removedOutpoints);
+                }
+                int count = 0;
+                for(String table : getDeleteTables()) {
+                    //Output rows have no height, so are deleted with the transactions they belong to
+                    String sql = table.equals(UTXO_OUTPUT_TABLE) ? "DELETE FROM " + UTXO_OUTPUT_TABLE + " WHERE txid IN (SELECT txid FROM " + UTXO_TX_TABLE + " WHERE height >= ?)" :
+                            "DELETE FROM " + table + " WHERE height >= ?";
+                    try(PreparedStatement statement = connection.prepareStatement(sql)) {
+                        statement.setInt(1, startHeight);
+                        count += statement.executeUpdate();
+                    }
                 }
+                return count;
             });
+
+            //Blocks without eligible transactions are also counted as indexed, so the indexed height must be wound back
+            lastBlockIndexed = Math.min(lastBlockIndexed, startHeight - 1);
+
+            OutpointFilter outpoints = utxoOutpoints;
+            if(updateOutpoints && outpoints != null) {
+                restoredOutpoints.forEach(outpoints::add);
+                removedOutpoints.forEach(outpoints::remove);
+            }
+
+            recordDeleted(removed);
+            publishSnapshot();
+            compact();
         } catch(Exception e) {
             log.error("Error removing from index", e);
         }
@@ -369,95 +1809,127 @@ public class Index {
             return;
         }
 
-        String table = (indexMode == IndexMode.UTXO_ONLY) ? UTXO_TABLE : TWEAK_TABLE;
         try {
-            dbManager.executeWrite(connection -> {
-                try(PreparedStatement statement = connection.prepareStatement("DELETE FROM " + table + " WHERE txid = ?")) {
-                    for(Sha256Hash txId : txIds) {
-                        statement.setBytes(1, txId.getBytes());
-                        statement.addBatch();
-                    }
-
-                    statement.executeBatch();
-                    return txIds.size();
-                }
-            });
-
+            deleteTransactions(txIds);
             Frigate.getEventBus().post(new SilentPaymentsMempoolIndexRemoved(txIds));
+            compact();
         } catch(Exception e) {
             log.error("Error removing from index", e);
         }
     }
 
-    public List<TxEntry> getHistoryAsync(SilentPaymentScanAddress scanAddress, SilentPaymentsSubscription subscription, Integer startHeight, Integer endHeight, WeakReference<SubscriptionStatus> subscriptionStatusRef) {
-        ConcurrentLinkedQueue<TxEntry> queue = new ConcurrentLinkedQueue<>();
-        byte[] scanKeyBytes = Utils.reverseBytes(scanAddress.getScanKey().getPrivKeyBytes());
+    /**
+     * Removes any rows for the given transactions without notifying subscribers, so that a write that may already have been
+     * committed can be safely repeated.
+     */
+    public void removeTransactionsFromIndex(Set<Sha256Hash> txIds) throws SQLException, InterruptedException {
+        if(dbManager.isShutdown() || txIds.isEmpty()) {
+            return;
+        }
 
-        try {
-            dbManager.executeRead(connection -> {
-                String sql = getSql(subscription, startHeight, endHeight);
+        deleteTransactions(txIds);
+    }
+
+    private void deleteTransactions(Set<Sha256Hash> txIds) throws SQLException, InterruptedException {
+        executeTransaction(current -> current, connection -> {
+            DuckDBConnection duckDBConnection = (DuckDBConnection)connection;
+            try(DuckDBAppender appender = duckDBConnection.createAppender(DuckDBConnection.DEFAULT_SCHEMA, DELETED_TXID_TABLE)) {
+                for(Sha256Hash txId : txIds) {
+                    appender.beginRow();
+                    appender.append(txId.getBytes());
+                    appender.endRow();
+                }
+            }
+
+            try(Statement stmt = connection.createStatement()) {
+                for(String table : getDeleteTables()) {
+                    recordDeleted(stmt.executeUpdate("DELETE FROM " + table + " USING " + DELETED_TXID_TABLE + " d WHERE " + table + ".txid = d.txid"));
+                }
+                stmt.execute("DELETE FROM " + DELETED_TXID_TABLE);
+            }
+            return txIds.size();
+        });
+    }
+
+    /**
+     * Returns the tables holding the rows of the index, with utxo_output before the utxo_tx table its rows are deleted through.
+     */
+    private List<String> getTables() {
+        return switch(indexMode) {
+            case FULL -> List.of(TWEAK_TABLE);
+            case UTXO_ONLY -> List.of(UTXO_OUTPUT_TABLE, UTXO_TX_TABLE);
+            case HYBRID -> List.of(TWEAK_TABLE, UTXO_OUTPUT_TABLE, UTXO_TX_TABLE);
+        };
+    }
+
+    /**
+     * Returns the tables whose rows are deleted with the rows of the index, which adds the tweak_txid rows locating the tweak rows.
+     */
+    private List<String> getDeleteTables() {
+        List<String> tables = new ArrayList<>(getTables());
+        if(indexMode != IndexMode.UTXO_ONLY) {
+            tables.add(tables.indexOf(TWEAK_TABLE) + 1, TWEAK_TXID_TABLE);
+        }
+
+        return tables;
+    }
+
+    private void recordDeleted(long rows) {
+        if(compactor != null) {
+            compactor.recordDeleted(rows);
+        }
+    }
 
-                try(DuckDBPreparedStatement statement = connection.prepareStatement(sql).unwrap(DuckDBPreparedStatement.class)) {
-                    if(isUnsubscribed(scanAddress, subscriptionStatusRef)) {
-                        return false;
+    /**
+     * Scans the index over a range of blocks, posting notifications with the results found so far while the scan runs.
+     *
+     * @param indexProgress the fraction of the subscription range that is indexed, which scales the scan progress reported
+     */
+    public List<TxEntry> getHistoryAsync(SilentPaymentScanAddress scanAddress, SilentPaymentsSubscription subscription, Integer startHeight, Integer endHeight, double indexProgress, WeakReference<SubscriptionStatus> subscriptionStatusRef) {
+        byte[] scanKeyBytes = Utils.reverseBytes(scanAddress.getScanKey().getPrivKeyBytes());
+        List<ScanPart> parts = getScanParts(startHeight, endHeight);
+        ScanMerger merger = new ScanMerger(parts.stream().mapToInt(part -> part.fromHeight() == null ? 0 : part.fromHeight()).toArray());
+        Queue<AutoCloseable> cancellations = new ConcurrentLinkedQueue<>();
+
+        activeScans.incrementAndGet();
+        try(ScheduledThreadPoolExecutor queryProgressExecutor = new ScheduledThreadPoolExecutor(1, r -> {
+            ThreadFactory namedThreadFactory = new ThreadFactoryBuilder().setNameFormat("IndexQueryProgress-%d").build();
+            Thread t = namedThreadFactory.newThread(r);
+            t.setDaemon(true);
+            return t;
+        })) {
+            queryProgressExecutor.scheduleAtFixedRate(() -> {
+                try {
+                    if(dbManager.isShutdown() || isUnsubscribed(scanAddress, subscriptionStatusRef)) {
+                        for(AutoCloseable cancellation : cancellations) {
+                            cancellation.close();
+                        }
+                        queryProgressExecutor.shutdownNow();
+                        return;
                     }
 
-                    bindParameters(statement, scanAddress, subscription, startHeight, endHeight);
-
-                    try(ScheduledThreadPoolExecutor queryProgressExecutor = new ScheduledThreadPoolExecutor(1, r -> {
-                        ThreadFactory namedThreadFactory = new ThreadFactoryBuilder().setNameFormat("IndexQueryProgress-%d").build();
-                        Thread t = namedThreadFactory.newThread(r);
-                        t.setDaemon(true);
-                        return t;
-                    })) {
-                        queryProgressExecutor.scheduleAtFixedRate(() -> {
-                            try {
-                                if(dbManager.isShutdown() || isUnsubscribed(scanAddress, subscriptionStatusRef)) {
-                                    statement.cancel();
-                                    queryProgressExecutor.shutdownNow();
-                                    return;
-                                }
-
-                                double progress = pollScanProgress(scanKeyBytes);
-
-                                List<TxEntry> history = new ArrayList<>();
-                                TxEntry entry;
-                                while((entry = queue.poll()) != null) {
-                                    history.add(entry);
-                                    if(history.size() >= HISTORY_PAGE_SIZE) {
-                                        Frigate.getEventBus().post(new SilentPaymentsNotification(subscription, progress, new ArrayList<>(history), subscriptionStatusRef.get()));
-                                        history.clear();
-                                    }
-                                }
-                                if(!history.isEmpty() || queryProgressExecutor.getTaskCount() % 5 == 0) {
-                                    Frigate.getEventBus().post(new SilentPaymentsNotification(subscription, progress, new ArrayList<>(history), subscriptionStatusRef.get()));
-                                    history.clear();
-                                }
-                            } catch(Exception e) {
-                                log.error("Error getting query progress", e);
-                            }
-                        }, 1, 1, TimeUnit.SECONDS);
-
-                        ResultSet resultSet = statement.executeQuery();
-                        while(resultSet.next()) {
-                            byte[] txid = resultSet.getBytes(1);
-                            int height;
-                            if(indexMode == IndexMode.UTXO_ONLY) {
-                                byte[] compressed_tweak_key = resultSet.getBytes(2);
-                                height = resultSet.getInt(3);
-                                int outputIndex = resultSet.getInt(4);
-                                queue.offer(new TxEntry(height, 0, Utils.bytesToHex(txid), Utils.bytesToHex(compressed_tweak_key), outputIndex));
-                            } else {
-                                byte[] tweak_key = compressRawKey(resultSet.getBytes(2));
-                                height = resultSet.getInt(3);
-                                queue.offer(new TxEntry(height, 0, Utils.bytesToHex(txid), Utils.bytesToHex(tweak_key)));
-                            }
+                    //Scan progress is reported per scan key on this server, so with several parts the fraction of parts completed is used instead
+                    boolean local = parts.size() == 1 && !parts.getFirst().remote();
+                    double progress = (local ? pollScanProgress(scanKeyBytes) : merger.getCompletedFraction()) * indexProgress;
+
+                    List<TxEntry> history = new ArrayList<>();
+                    for(TxEntry entry : merger.drain()) {
+                        history.add(entry);
+                        if(history.size() >= HISTORY_PAGE_SIZE) {
+                            Frigate.getEventBus().post(new SilentPaymentsNotification(subscription, progress, new ArrayList<>(history), subscriptionStatusRef.get()));
+                            history.clear();
                         }
                     }
+                    if(!history.isEmpty() || queryProgressExecutor.getTaskCount() % 5 == 0) {
+                        Frigate.getEventBus().post(new SilentPaymentsNotification(subscription, progress, new ArrayList<>(history), subscriptionStatusRef.get()));
+                        history.clear();
+                    }
+                } catch(Exception e) {
+                    log.error("Error getting query progress", e);
                 }
+            }, 1, 1, TimeUnit.SECONDS);
 
-                return true;
-            });
+            scanParts(parts, merger, cancellations, scanAddress, subscription, () -> isUnsubscribed(scanAddress, subscriptionStatusRef));
         } catch(SQLTimeoutException e) {
             if(e.getMessage().startsWith("INTERRUPT Error")) {
                 log.debug("Query cancelled", e);
@@ -468,54 +1940,296 @@ public class Index {
         } catch(Exception e) {
             log.error("Error scanning index", e);
             return Collections.emptyList();
+        } finally {
+            activeScans.decrementAndGet();
         }
 
         if(isUnsubscribed(scanAddress, subscriptionStatusRef)) {
             return Collections.emptyList();
         }
 
-        List<TxEntry> history = new ArrayList<>();
-        TxEntry entry;
-        while((entry = queue.poll()) != null) {
-            history.add(entry);
+        return merger.drainAll();
+    }
+
+    /**
+     * Returns true if every block in the given range has been indexed.
+     */
+    public boolean isIndexed(int startHeight, int endHeight) {
+        return meta.getCoverage().containsAll(HeightIntervals.of(startHeight, endHeight));
+    }
+
+    /**
+     * Scans a range of blocks on this server for a slice of a history scan sent by another server, see {@link ScanWorkers}. The results
+     * are returned in height order once the whole range has been scanned.
+     */
+    public List<TxEntry> scanSlice(SilentPaymentScanAddress scanAddress, SilentPaymentsSubscription subscription, int startHeight, int endHeight) throws Exception {
+        List<ScanPart> parts = getLocalScanParts(startHeight, endHeight);
+        ScanMerger merger = new ScanMerger(parts.stream().mapToInt(part -> part.fromHeight() == null ? 0 : part.fromHeight()).toArray());
+        activeScans.incrementAndGet();
+        try {
+            scanParts(parts, merger, new ConcurrentLinkedQueue<>(), scanAddress, subscription, dbManager::isShutdown);
+        } finally {
+            activeScans.decrementAndGet();
+        }
+        return merger.drainAll();
+    }
+
+    /**
+     * Scans each part of the index, concurrently when there is more than one, adding the results to the merger.
+     */
+    private void scanParts(List<ScanPart> parts, ScanMerger merger, Queue<AutoCloseable> cancellations, SilentPaymentScanAddress scanAddress,
+                           SilentPaymentsSubscription subscription, BooleanSupplier cancelled) throws Exception {
+        if(parts.size() == 1) {
+            scanPart(parts.getFirst(), 0, merger, cancellations, scanAddress, subscription, cancelled);
+            return;
         }
 
-        return history;
+        //Each shard is a separate database and each slice is scanned by a worker, so the parts are scanned concurrently
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for(int i = 0; i < parts.size(); i++) {
+            int partIndex = i;
+            futures.add(scanPartExecutor.submit(() -> scanPart(parts.get(partIndex), partIndex, merger, cancellations, scanAddress, subscription, cancelled)));
+        }
+        try {
+            for(Future<Boolean> future : futures) {
+                future.get();
+            }
+        } catch(ExecutionException e) {
+            for(AutoCloseable cancellation : cancellations) {
+                cancellation.close();
+            }
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
     }
 
-    private String getSql(SilentPaymentsSubscription subscription, Integer startHeight, Integer endHeight) {
-        String labelsStr = "[" + String.join(", ", Collections.nCopies(subscription.labels().length, "?")) + "]";
+    /**
+     * Returns the parts of the index to scan for a range of blocks. With scan workers configured, the blocks deeper than a reorg can
+     * reach are split into slices for the workers, and the remaining blocks are scanned on this server.
+     */
+    private List<ScanPart> getScanParts(Integer startHeight, Integer endHeight) {
+        //Blocks below the start of the index have no rows, so are not sent to the workers
+        int fromHeight = Math.max(startHeight == null ? 0 : startHeight, Math.max(0, this.startHeight));
+        int toHeight = endHeight == null ? Integer.MAX_VALUE : endHeight;
+        int sliceEndHeight = Math.min(toHeight, lastBlockIndexed - IndexMeta.MAX_RECENT_BLOCKS);
+        if(scanWorkers == null || fromHeight > sliceEndHeight) {
+            return getLocalScanParts(startHeight, endHeight);
+        }
+
+        List<ScanPart> parts = new ArrayList<>();
+        int sliceSize = Config.get().getScan().getWorkerSliceBlocks();
+        for(int sliceStart = fromHeight; sliceStart <= sliceEndHeight; ) {
+            //Slices are aligned to multiples of the slice size, so that repeated scans send the same ranges to each worker
+            int sliceEnd = (int)Math.min(sliceEndHeight, (long)(sliceStart / sliceSize + 1) * sliceSize - 1);
+            parts.add(new ScanPart(null, sliceStart, sliceEnd, null, true));
+            sliceStart = sliceEnd + 1;
+        }
+
+        if(sliceEndHeight < toHeight) {
+            parts.addAll(getLocalScanParts(sliceEndHeight + 1, endHeight));
+        }
+
+        return parts;
+    }
+
+    /**
+     * Returns the parts of this server's index to scan for a range of blocks, in height order: each sealed shard overlapping the
+     * range, and the ranges between them in the database. Without sealed shards, this is the range itself.
+     */
+    private List<ScanPart> getLocalScanParts(Integer startHeight, Integer endHeight) {
+        int fromHeight = startHeight == null ? 0 : startHeight;
+        int toHeight = endHeight == null ? Integer.MAX_VALUE : endHeight;
+        HeightIntervals coverage = meta.getCoverage();
+
+        List<ScanPart> parts = new ArrayList<>();
+        HeightIntervals sealed = HeightIntervals.EMPTY;
+        for(Shard shard : shards.values()) {
+            HeightIntervals.Interval range = shard.range();
+            sealed = sealed.with(range.from(), range.to());
+            if(range.to() >= fromHeight && range.from() <= toHeight) {
+                parts.add(new ScanPart(shard.pool(), Math.max(range.from(), fromHeight), Math.min(range.to(), toHeight), null, false));
+            }
+        }
 
-        if(indexMode == IndexMode.UTXO_ONLY) {
-            String sql = "SELECT txid, compressed_tweak_key, height, output_index FROM " + UTXO_TABLE +
-                    " WHERE scan_silent_payments([output_hash_prefix], [?, ?, tweak_key], " + labelsStr + ")";
+        if(parts.isEmpty()) {
+            //Only the heights indexed within the range are needed, so that a replica can serve the scan once it has caught up to them
+            return List.of(new ScanPart(null, startHeight, endHeight, coverage.within(fromHeight, toHeight), false));
+        }
+
+        for(HeightIntervals.Interval gap : sealed.getGapsWithin(fromHeight, toHeight)) {
+            parts.add(new ScanPart(null, gap.from(), gap.to() == Integer.MAX_VALUE ? null : gap.to(), coverage.within(gap.from(), gap.to()), false));
+        }
+        parts.sort(Comparator.comparingInt(ScanPart::fromHeight));
+
+        return parts;
+    }
+
+    /**
+     * Scans one part of the index, adding the results to the merger in height order, and returns false if the scan was cancelled.
+     * A slice is sent to the scan workers, and is scanned on this server if none of them can scan it.
+     */
+    private boolean scanPart(ScanPart part, int partIndex, ScanMerger merger, Queue<AutoCloseable> cancellations, SilentPaymentScanAddress scanAddress,
+                             SilentPaymentsSubscription subscription, BooleanSupplier cancelled) throws SQLException, InterruptedException {
+        if(part.remote()) {
+            ScanSliceRequest request = ScanSliceRequest.from(scanAddress, subscription, part.fromHeight(), part.toHeight());
+            List<TxEntry> history = scanWorkers.scan(request, partIndex, cancellations, cancelled);
+            if(history != null) {
+                for(TxEntry entry : history) {
+                    merger.add(partIndex, entry);
+                }
+                merger.complete(partIndex);
+                return true;
+            }
 
-            if(startHeight != null) {
-                sql += " AND height >= ?";
+            for(ScanPart localPart : getLocalScanParts(part.fromHeight(), part.toHeight())) {
+                if(!scanLocalPart(localPart, partIndex, merger, cancellations, scanAddress, subscription, cancelled)) {
+                    return false;
+                }
             }
-            if(endHeight != null) {
-                sql += " AND height <= ?";
+        } else if(!scanLocalPart(part, partIndex, merger, cancellations, scanAddress, subscription, cancelled)) {
+            return false;
+        }
+
+        merger.complete(partIndex);
+        return true;
+    }
+
+    private boolean scanLocalPart(ScanPart part, int partIndex, ScanMerger merger, Queue<AutoCloseable> cancellations, SilentPaymentScanAddress scanAddress,
+                                  SilentPaymentsSubscription subscription, BooleanSupplier cancelled) throws SQLException, InterruptedException {
+        DbManager.ReadOperation<Boolean> operation = connection -> {
+            String sql = getSql(subscription, part.fromHeight(), part.toHeight());
+
+            try(DuckDBPreparedStatement statement = connection.prepareStatement(sql).unwrap(DuckDBPreparedStatement.class)) {
+                if(cancelled.getAsBoolean()) {
+                    return false;
+                }
+
+                bindParameters(statement, scanAddress, subscription, part.fromHeight(), part.toHeight());
+                AutoCloseable cancellation = statement::cancel;
+                cancellations.add(cancellation);
+                try {
+                    ResultSet resultSet = statement.executeQuery();
+                    while(resultSet.next()) {
+                        merger.add(partIndex, getTxEntry(resultSet));
+                    }
+                } finally {
+                    cancellations.remove(cancellation);
+                }
             }
 
-            sql += " ORDER BY height";
-            return sql;
+            return true;
+        };
+
+        if(part.shardPool() == null) {
+            return dbManager.executeRead(part.requiredHeights(), operation);
         }
 
-        String sql = "SELECT txid, tweak_key, height FROM ufsecp_scan((SELECT txid, height, tweak_key, outputs FROM " + TWEAK_TABLE;
+        Connection connection = part.shardPool().getConnection();
+        try {
+            return operation.execute(connection);
+        } finally {
+            part.shardPool().releaseConnection(connection);
+        }
+    }
 
-        if(startHeight != null || endHeight != null) {
-            sql += " WHERE ";
+    private TxEntry getTxEntry(ResultSet resultSet) throws SQLException {
+        byte[] txid = resultSet.getBytes(1);
+        int height;
+        if(indexMode == IndexMode.HYBRID) {
+            //Rows from the tweak table have a raw tweak key and no output index
+            byte[] tweak_key = resultSet.getBytes(2);
+            height = resultSet.getInt(3);
+            int outputIndex = resultSet.getInt(4);
+            if(resultSet.wasNull()) {
+                return new TxEntry(height, 0, Utils.bytesToHex(txid), Utils.bytesToHex(compressRawKey(tweak_key)));
+            } else {
+                return new TxEntry(height, 0, Utils.bytesToHex(txid), Utils.bytesToHex(tweak_key), outputIndex);
+            }
+        } else if(indexMode == IndexMode.UTXO_ONLY) {
+            byte[] compressed_tweak_key = resultSet.getBytes(2);
+            height = resultSet.getInt(3);
+            int outputIndex = resultSet.getInt(4);
+            return new TxEntry(height, 0, Utils.bytesToHex(txid), Utils.bytesToHex(compressed_tweak_key), outputIndex);
+        } else {
+            byte[] tweak_key = compressRawKey(resultSet.getBytes(2));
+            height = resultSet.getInt(3);
+            return new TxEntry(height, 0, Utils.bytesToHex(txid), Utils.bytesToHex(tweak_key));
         }
+    }
+
+    private String getSql(SilentPaymentsSubscription subscription, Integer startHeight, Integer endHeight) {
+        String labelsStr = "[" + String.join(", ", Collections.nCopies(subscription.labels().length, "?")) + "]";
+
+        return switch(indexMode) {
+            case FULL -> getTweakScanSql(subscription, labelsStr, startHeight, endHeight, false) + " ORDER BY height";
+            case UTXO_ONLY -> getUtxoScanSql(subscription, labelsStr, startHeight, endHeight, false) + " ORDER BY height";
+            //Both tables are scanned in one statement, so the aged height dividing them is read from the same snapshot as the rows
+            case HYBRID -> "SELECT txid, tweak_key, height, output_index FROM (" + getTweakScanSql(subscription, labelsStr, startHeight, endHeight, true) +
+                    " UNION ALL " + getUtxoScanSql(subscription, labelsStr, startHeight, endHeight, true) + ") ORDER BY height";
+        };
+    }
+
+    private String getTweakScanSql(SilentPaymentsSubscription subscription, String labelsStr, Integer startHeight, Integer endHeight, boolean hybrid) {
+        String sql = hybrid ? "SELECT txid, tweak_key, height, NULL::INTEGER AS output_index" : "SELECT txid, tweak_key, height";
+        sql += " FROM ufsecp_scan((SELECT txid, height, tweak_key, outputs FROM " + TWEAK_TABLE;
 
+        List<String> conditions = new ArrayList<>();
+        if(hybrid) {
+            conditions.add("height >= " + IndexMeta.AGED_HEIGHT_SQL);
+        }
         if(startHeight != null) {
-            sql += "height >= ?";
-            if(endHeight != null) {
-                sql += " AND ";
-            }
+            conditions.add("height >= ?");
+        }
+        if(endHeight != null) {
+            conditions.add("height <= ?");
+        }
+        if(subscription.dust_limit() != null) {
+            conditions.add("(max_value IS NULL OR max_value >= ?)");
+        }
+        //Rows indexed without spends tracked have no unspent outputs recorded, and are always scanned
+        if(subscription.unspent_only() != null && subscription.unspent_only()) {
+            conditions.add("(unspent_outputs IS NULL OR len(unspent_outputs) > 0)");
+        }
+        if(!conditions.isEmpty()) {
+            sql += " WHERE " + String.join(" AND ", conditions);
+        }
+
+        sql += "), ?, ?, " + labelsStr + ", batch_size := ?";
+
+        ComputeBackend computeBackend = Config.get().getScan().getComputeBackendEnum();
+        if(computeBackend != ComputeBackend.AUTO) {
+            sql += ", backend := ?";
         }
 
+        return sql + ")";
+    }
+
+    /**
+     * The output prefixes of each transaction are aggregated into a list, so that the tweak of a transaction is only multiplied once
+     * in the batched scan. The height range is applied to the transactions before their outputs are aggregated, so that only the
+     * outputs in the range are read. The outputs of the few matching transactions are then checked individually to return the output
+     * index. With a dust limit, transactions are skipped before the scan if none of their outputs reach it, and dust outputs of matching
+     * transactions are not returned.
+     */
+    private String getUtxoScanSql(SilentPaymentsSubscription subscription, String labelsStr, Integer startHeight, Integer endHeight, boolean hybrid) {
+        String sql = "SELECT t.txid, t.compressed_tweak_key, t.height, o.output_index FROM ufsecp_scan((SELECT t.txid, t.height, t.tweak_key, list(o.output_hash_prefix) AS outputs FROM " +
+                UTXO_TX_TABLE + " t JOIN " + UTXO_OUTPUT_TABLE + " o ON o.txid = t.txid";
+
+        List<String> conditions = new ArrayList<>();
+        if(hybrid) {
+            conditions.add("t.height < " + IndexMeta.AGED_HEIGHT_SQL);
+        }
+        if(startHeight != null) {
+            conditions.add("t.height >= ?");
+        }
         if(endHeight != null) {
-            sql += "height <= ?";
+            conditions.add("t.height <= ?");
+        }
+        if(!conditions.isEmpty()) {
+            sql += " WHERE " + String.join(" AND ", conditions);
+        }
+        sql += " GROUP BY t.txid, t.height, t.tweak_key";
+        if(subscription.dust_limit() != null) {
+            sql += " HAVING max(o.value) >= ?";
         }
 
         sql += "), ?, ?, " + labelsStr + ", batch_size := ?";
@@ -525,34 +2239,36 @@ public class Index {
             sql += ", backend := ?";
         }
 
-        sql += ") ORDER BY height";
+        sql += ") m JOIN " + UTXO_TX_TABLE + " t ON t.txid = m.txid JOIN " + UTXO_OUTPUT_TABLE + " o ON o.txid = m.txid";
+        sql += " WHERE scan_silent_payments([o.output_hash_prefix], [?, ?, t.tweak_key], " + labelsStr + ")";
+        if(subscription.dust_limit() != null) {
+            sql += " AND o.value >= ?";
+        }
 
         return sql;
     }
 
     private void bindParameters(DuckDBPreparedStatement statement, SilentPaymentScanAddress scanAddress, SilentPaymentsSubscription subscription, Integer startHeight, Integer endHeight) throws SQLException {
-        int index = 1;
-        if(indexMode == IndexMode.UTXO_ONLY) {
-            statement.setBytes(index++, scanAddress.getScanKey().getPrivKeyBytes());
-            statement.setBytes(index++, SilentPaymentUtils.getSecp256k1PubKey(scanAddress.getSpendKey()));
-            for(Integer label : subscription.labels()) {
-                statement.setBytes(index++, SilentPaymentUtils.getSecp256k1PubKey(scanAddress.getLabelledTweakKey(label)));
+        switch(indexMode) {
+            case FULL -> bindTweakScanParameters(statement, 1, scanAddress, subscription, startHeight, endHeight);
+            case UTXO_ONLY -> bindUtxoScanParameters(statement, 1, scanAddress, subscription, startHeight, endHeight);
+            case HYBRID -> {
+                int index = bindTweakScanParameters(statement, 1, scanAddress, subscription, startHeight, endHeight);
+                bindUtxoScanParameters(statement, index, scanAddress, subscription, startHeight, endHeight);
             }
-            if(startHeight != null) {
-                statement.setInt(index++, startHeight);
-            }
-            if(endHeight != null) {
-                statement.setInt(index, endHeight);
-            }
-            return;
         }
+    }
 
+    private int bindTweakScanParameters(DuckDBPreparedStatement statement, int index, SilentPaymentScanAddress scanAddress, SilentPaymentsSubscription subscription, Integer startHeight, Integer endHeight) throws SQLException {
         if(startHeight != null) {
             statement.setInt(index++, startHeight);
         }
         if(endHeight != null) {
             statement.setInt(index++, endHeight);
         }
+        if(subscription.dust_limit() != null) {
+            statement.setLong(index++, subscription.dust_limit());
+        }
         statement.setBytes(index++, Utils.reverseBytes(scanAddress.getScanKey().getPrivKeyBytes()));
         statement.setBytes(index++, SilentPaymentUtils.getSecp256k1PubKey(scanAddress.getSpendKey()));
         for(Integer label : subscription.labels()) {
@@ -562,8 +2278,24 @@ public class Index {
 
         ComputeBackend computeBackend = Config.get().getScan().getComputeBackendEnum();
         if(computeBackend != ComputeBackend.AUTO) {
-            statement.setString(index, computeBackend.toSqlValue());
+            statement.setString(index++, computeBackend.toSqlValue());
+        }
+
+        return index;
+    }
+
+    private int bindUtxoScanParameters(DuckDBPreparedStatement statement, int index, SilentPaymentScanAddress scanAddress, SilentPaymentsSubscription subscription, Integer startHeight, Integer endHeight) throws SQLException {
+        index = bindTweakScanParameters(statement, index, scanAddress, subscription, startHeight, endHeight);
+        statement.setBytes(index++, scanAddress.getScanKey().getPrivKeyBytes());
+        statement.setBytes(index++, SilentPaymentUtils.getSecp256k1PubKey(scanAddress.getSpendKey()));
+        for(Integer label : subscription.labels()) {
+            statement.setBytes(index++, SilentPaymentUtils.getSecp256k1PubKey(scanAddress.getLabelledTweakKey(label)));
         }
+        if(subscription.dust_limit() != null) {
+            statement.setLong(index++, subscription.dust_limit());
+        }
+
+        return index;
     }
 
     private static boolean isUnsubscribed(SilentPaymentScanAddress scanAddress, WeakReference<SubscriptionStatus> subscriptionStatusRef) {
@@ -593,4 +2325,12 @@ public class Index {
         ECKey ecKey = ECKey.fromPublicOnly(Utils.concat(new byte[] {0x04}, uncompressed));
         return ecKey.getPubKey(true);
     }
+
+    private record Shard(HeightIntervals.Interval range, DuckDBReadPool pool) {}
+
+    /**
+     * A part of the index to scan: a sealed shard, a range of the database which needs the given heights from a replica, or a slice
+     * to send to the scan workers.
+     */
+    private record ScanPart(DuckDBReadPool shardPool, Integer fromHeight, Integer toHeight, HeightIntervals requiredHeights, boolean remote) {}
 }
@@ -0,0 +1,204 @@
+package com.sparrowwallet.frigate.index;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+/**
+ * The state of an index that must stay consistent with its rows: the schema version, the index mode, the height indexed to, the
+ * heights of all blocks indexed, the hashes of the most recent blocks indexed, used to detect reorgs, in HYBRID mode the height
+ * below which only unspent outputs are kept, and the height ranges sealed into shard files. It is stored as key value pairs in the index_meta table and
+ * saved in the same transaction as the rows it describes. Instances are immutable, so the cached copy is only replaced once the
+ * transaction saving its successor has committed.
+ */
+final class IndexMeta {
+    static final String TABLE = "index_meta";
+    static final String TABLE_DDL = "CREATE TABLE IF NOT EXISTS " + TABLE + " (key VARCHAR PRIMARY KEY, value VARCHAR NOT NULL)";
+    static final int SCHEMA_VERSION = 2;
+    static final int MAX_RECENT_BLOCKS = 10;
+
+    private static final String SCHEMA_VERSION_KEY = "schema_version";
+    private static final String INDEX_MODE_KEY = "index_mode";
+    private static final String INDEXED_HEIGHT_KEY = "indexed_height";
+    private static final String RECENT_BLOCKS_KEY = "recent_blocks";
+    private static final String COVERAGE_KEY = "coverage";
+    private static final String AGED_HEIGHT_KEY = "aged_height";
+    private static final String SHARDS_KEY = "shards";
+
+    //Reads the aged height in the same statement, and so the same snapshot, as the rows it divides
+    static final String AGED_HEIGHT_SQL = "COALESCE((SELECT CAST(value AS INTEGER) FROM " + TABLE + " WHERE key = '" + AGED_HEIGHT_KEY + "'), 0)";
+
+    private final int schemaVersion;
+    private final IndexMode indexMode;
+    private final int indexedHeight;
+    private final NavigableMap<Integer, String> recentBlocks;
+    private final HeightIntervals coverage;
+    private final int agedHeight;
+    private final List<HeightIntervals.Interval> shards;
+
+    IndexMeta(int schemaVersion, IndexMode indexMode, int indexedHeight, Map<Integer, String> recentBlocks, HeightIntervals coverage, int agedHeight) {
+        this(schemaVersion, indexMode, indexedHeight, recentBlocks, coverage, agedHeight, Collections.emptyList());
+    }
+
+    IndexMeta(int schemaVersion, IndexMode indexMode, int indexedHeight, Map<Integer, String> recentBlocks, HeightIntervals coverage, int agedHeight,
+              List<HeightIntervals.Interval> shards) {
+        this.schemaVersion = schemaVersion;
+        this.indexMode = indexMode;
+        this.indexedHeight = indexedHeight;
+        this.coverage = coverage;
+        this.agedHeight = agedHeight;
+        List<HeightIntervals.Interval> sortedShards = new ArrayList<>(shards);
+        sortedShards.sort(Comparator.comparingInt(HeightIntervals.Interval::from));
+        this.shards = Collections.unmodifiableList(sortedShards);
+        TreeMap<Integer, String> blocks = new TreeMap<>(recentBlocks);
+        while(blocks.size() > MAX_RECENT_BLOCKS) {
+            blocks.pollFirstEntry();
+        }
+        this.recentBlocks = Collections.unmodifiableNavigableMap(blocks);
+    }
+
+    int getSchemaVersion() {
+        return schemaVersion;
+    }
+
+    IndexMode getIndexMode() {
+        return indexMode;
+    }
+
+    int getIndexedHeight() {
+        return indexedHeight;
+    }
+
+    String getRecentBlockHash(int height) {
+        return recentBlocks.get(height);
+    }
+
+    NavigableMap<Integer, String> getRecentBlocks() {
+        return recentBlocks;
+    }
+
+    /**
+     * Returns the heights of all blocks indexed. The index only covers every height up to the indexed height once any backfill of
+     * older blocks has completed.
+     */
+    HeightIntervals getCoverage() {
+        return coverage;
+    }
+
+    /**
+     * Returns the height below which the full tweak history has been aged out in HYBRID mode, leaving only unspent outputs.
+     */
+    int getAgedHeight() {
+        return agedHeight;
+    }
+
+    /**
+     * Returns the height ranges whose tweak rows have been moved from the tweak table into sealed shard files, in ascending order.
+     */
+    List<HeightIntervals.Interval> getShards() {
+        return shards;
+    }
+
+    /**
+     * Returns the state after indexing the given range of blocks, with the hashes of any of those blocks that are known.
+     */
+    IndexMeta withIndexedBlocks(int fromHeight, int toHeight, Map<Integer, String> blockHashes) {
+        TreeMap<Integer, String> blocks = new TreeMap<>(recentBlocks);
+        blocks.putAll(blockHashes);
+        return new IndexMeta(SCHEMA_VERSION, indexMode, Math.max(indexedHeight, toHeight), blocks, coverage.with(fromHeight, toHeight), agedHeight, shards);
+    }
+
+    /**
+     * Returns the state after the full tweak history below the given height has been aged out.
+     */
+    IndexMeta withAgedHeight(int agedHeight) {
+        return agedHeight == this.agedHeight ? this : new IndexMeta(SCHEMA_VERSION, indexMode, indexedHeight, recentBlocks, coverage, agedHeight, shards);
+    }
+
+    /**
+     * Returns the state after the tweak rows of the given range have been sealed into a shard file, or a shard file copied from another
+     * index has been adopted, in which case its range is added to the coverage.
+     */
+    IndexMeta withShard(int fromHeight, int toHeight) {
+        List<HeightIntervals.Interval> sealed = new ArrayList<>(shards);
+        sealed.add(new HeightIntervals.Interval(fromHeight, toHeight));
+        return new IndexMeta(SCHEMA_VERSION, indexMode, indexedHeight, recentBlocks, coverage.with(fromHeight, toHeight), agedHeight, sealed);
+    }
+
+    /**
+     * Returns the state after removing all blocks from the given height.
+     */
+    IndexMeta withBlocksRemoved(int fromHeight) {
+        return new IndexMeta(SCHEMA_VERSION, indexMode, Math.min(indexedHeight, fromHeight - 1), recentBlocks.headMap(fromHeight, false), coverage.withoutFrom(fromHeight), agedHeight, shards);
+    }
+
+    void save(Connection connection) throws SQLException {
+        try(PreparedStatement statement = connection.prepareStatement("INSERT OR REPLACE INTO " + TABLE + " (key, value) VALUES (?, ?)")) {
+            addEntry(statement, SCHEMA_VERSION_KEY, Integer.toString(schemaVersion));
+            addEntry(statement, INDEX_MODE_KEY, indexMode.name());
+            addEntry(statement, INDEXED_HEIGHT_KEY, Integer.toString(indexedHeight));
+            StringJoiner joiner = new StringJoiner(",");
+            recentBlocks.forEach((height, blockHash) -> joiner.add(height + ":" + blockHash));
+            addEntry(statement, RECENT_BLOCKS_KEY, joiner.toString());
+            addEntry(statement, COVERAGE_KEY, coverage.toString());
+            addEntry(statement, AGED_HEIGHT_KEY, Integer.toString(agedHeight));
+            StringJoiner shardsJoiner = new StringJoiner(",");
+            shards.forEach(shard -> shardsJoiner.add(shard.from() + "-" + shard.to()));
+            addEntry(statement, SHARDS_KEY, shardsJoiner.toString());
+            statement.executeBatch();
+        }
+    }
+
+    private static void addEntry(PreparedStatement statement, String key, String value) throws SQLException {
+        statement.setString(1, key);
+        statement.setString(2, value);
+        statement.addBatch();
+    }
+
+    /**
+     * Loads the state saved in the index_meta table, or returns null if it has not yet been created for this database.
+     * State saved before coverage was recorded was always indexed forward, so it covers every height from the start height.
+     *
+     * @param startHeight the height the index starts from
+     */
+    static IndexMeta load(Connection connection, int startHeight) throws SQLException {
+        Map<String, String> entries = new HashMap<>();
+        try(Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery("SELECT key, value FROM " + TABLE)) {
+            while(resultSet.next()) {
+                entries.put(resultSet.getString(1), resultSet.getString(2));
+            }
+        }
+
+        if(!entries.containsKey(SCHEMA_VERSION_KEY)) {
+            return null;
+        }
+
+        Map<Integer, String> recentBlocks = new TreeMap<>();
+        String recentBlocksValue = entries.getOrDefault(RECENT_BLOCKS_KEY, "");
+        if(!recentBlocksValue.isEmpty()) {
+            for(String entry : recentBlocksValue.split(",")) {
+                String[] parts = entry.split(":", 2);
+                recentBlocks.put(Integer.parseInt(parts[0]), parts[1]);
+            }
+        }
+
+        int indexedHeight = Integer.parseInt(entries.getOrDefault(INDEXED_HEIGHT_KEY, "-1"));
+        HeightIntervals coverage = entries.containsKey(COVERAGE_KEY) ? HeightIntervals.parse(entries.get(COVERAGE_KEY)) : HeightIntervals.of(Math.max(0, startHeight), indexedHeight);
+
+        int agedHeight = Integer.parseInt(entries.getOrDefault(AGED_HEIGHT_KEY, "0"));
+
+        List<HeightIntervals.Interval> shards = new ArrayList<>();
+        String shardsValue = entries.getOrDefault(SHARDS_KEY, "");
+        if(!shardsValue.isEmpty()) {
+            for(String shard : shardsValue.split(",")) {
+                String[] parts = shard.split("-", 2);
+                shards.add(new HeightIntervals.Interval(Integer.parseInt(parts[0]), Integer.parseInt(parts[1])));
+            }
+        }
+
+        return new IndexMeta(Integer.parseInt(entries.get(SCHEMA_VERSION_KEY)), IndexMode.valueOf(entries.get(INDEX_MODE_KEY)), indexedHeight, recentBlocks, coverage, agedHeight, shards);
+    }
+}
@@ -2,5 +2,6 @@ package com.sparrowwallet.frigate.index;
 
 public enum IndexMode {
     FULL,      // Current behavior - indexes all transactions
-    UTXO_ONLY  // Only tracks unspent outputs
+    UTXO_ONLY, // Only tracks unspent outputs
+    HYBRID     // Indexes all transactions in a recent window, and only unspent outputs below it
 }
@@ -7,6 +7,7 @@ import com.sparrowwallet.frigate.Frigate;
 import com.sparrowwallet.frigate.SubscriptionStatus;
 import com.sparrowwallet.frigate.electrum.SilentPaymentsNotification;
 import com.sparrowwallet.frigate.electrum.SilentPaymentsSubscription;
+import com.sparrowwallet.frigate.metrics.BlockTracer;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
@@ -34,26 +35,63 @@ public class IndexQuerier {
         return t;
     });
 
-    public void startHistoryScan(SilentPaymentScanAddress scanAddress, Integer startHeight, Integer endHeight, Set<Integer> labelSet, WeakReference<SubscriptionStatus> subscriptionStatusRef) {
-        startHistoryScan(scanAddress, startHeight, endHeight, labelSet, subscriptionStatusRef, true);
+    public boolean isTrackingSpends() {
+        return blocksIndex.isTrackingSpends();
     }
 
-    public void startHistoryScan(SilentPaymentScanAddress scanAddress, Integer startHeight, Integer endHeight, Set<Integer> labelSet, WeakReference<SubscriptionStatus> subscriptionStatusRef, boolean postIfEmpty) {
+    public void startHistoryScan(SilentPaymentScanAddress scanAddress, Integer startHeight, Integer endHeight, Set<Integer> labelSet, Long dustLimit, Boolean unspentOnly, WeakReference<SubscriptionStatus> subscriptionStatusRef) {
+        startHistoryScan(scanAddress, startHeight, endHeight, labelSet, dustLimit, unspentOnly, subscriptionStatusRef, true);
+    }
+
+    public void startHistoryScan(SilentPaymentScanAddress scanAddress, Integer startHeight, Integer endHeight, Set<Integer> labelSet, Long dustLimit, Boolean unspentOnly, WeakReference<SubscriptionStatus> subscriptionStatusRef, boolean postIfEmpty) {
+        startHistoryScan(scanAddress, startHeight, endHeight, startHeight, endHeight, labelSet, dustLimit, unspentOnly, subscriptionStatusRef, postIfEmpty);
+    }
+
+    /**
+     * Scans the index over a range of blocks within a subscription. Only blocks that have been indexed return results, so the
+     * progress reported is the fraction of the whole subscription range indexed, which stays below 1.0 until any gaps below the
+     * most recent blocks have been backfilled.
+     *
+     * @param startHeight the start of the range to scan, or null to scan from the first block
+     * @param endHeight the end of the range to scan, or null to scan to the chain tip
+     * @param subscriptionStartHeight the start of the subscription range, or null if it starts from the first block
+     * @param subscriptionEndHeight the end of the subscription range, or null if it continues to the chain tip
+     * @param dustLimit the minimum output value to scan for, or null to scan all outputs
+     * @param unspentOnly true to skip transactions with all outputs known to be spent, or null to scan all transactions
+     */
+    public void startHistoryScan(SilentPaymentScanAddress scanAddress, Integer startHeight, Integer endHeight, Integer subscriptionStartHeight, Integer subscriptionEndHeight,
+                                 Set<Integer> labelSet, Long dustLimit, Boolean unspentOnly, WeakReference<SubscriptionStatus> subscriptionStatusRef, boolean postIfEmpty) {
+        BlockTracer.Span span = postIfEmpty ? null : BlockTracer.get().getSpan(startHeight);
+        if(span != null) {
+            span.scanStarted();
+        }
+
         queryPool.submit(() -> {
-            SilentPaymentsSubscription subscription = new SilentPaymentsSubscription(scanAddress.toString(), labelSet.toArray(new Integer[0]), startHeight == null ? 0 : startHeight);
-            List<TxEntry> history = blocksIndex.getHistoryAsync(scanAddress, subscription, startHeight, endHeight, subscriptionStatusRef);
-            List<TxEntry> mempoolHistory = getMempoolHistory(scanAddress, subscriptionStatusRef, subscription);
-            history.addAll(mempoolHistory);
+            boolean notified = false;
+            try {
+                SilentPaymentsSubscription subscription = new SilentPaymentsSubscription(scanAddress.toString(), labelSet.toArray(new Integer[0]), startHeight == null ? 0 : startHeight, dustLimit, unspentOnly);
+                List<TxEntry> history = blocksIndex.getHistoryAsync(scanAddress, subscription, startHeight, endHeight,
+                        blocksIndex.getIndexProgress(subscriptionStartHeight, subscriptionEndHeight), subscriptionStatusRef);
+                List<TxEntry> mempoolHistory = getMempoolHistory(scanAddress, subscriptionStatusRef, subscription);
+                history.addAll(mempoolHistory);
 
-            if(postIfEmpty || !history.isEmpty()) {
-                Frigate.getEventBus().post(new SilentPaymentsNotification(subscription, PROGRESS_COMPLETE, new ArrayList<>(history), subscriptionStatusRef.get()));
+                //While the index is being built, results are reported with the progress of indexing over the subscription range
+                double progress = blocksIndex.getIndexProgress(subscriptionStartHeight, subscriptionEndHeight);
+                if(postIfEmpty || !history.isEmpty()) {
+                    Frigate.getEventBus().post(new SilentPaymentsNotification(subscription, progress, new ArrayList<>(history), subscriptionStatusRef.get()));
+                    notified = true;
+                }
+            } finally {
+                if(span != null) {
+                    span.scanCompleted(notified);
+                }
             }
         });
     }
 
-    public void startMempoolScan(SilentPaymentScanAddress scanAddress, Integer startHeight, Integer endHeight, Set<Integer> labelSet, WeakReference<SubscriptionStatus> subscriptionStatusRef) {
+    public void startMempoolScan(SilentPaymentScanAddress scanAddress, Integer startHeight, Integer endHeight, Set<Integer> labelSet, Long dustLimit, Boolean unspentOnly, WeakReference<SubscriptionStatus> subscriptionStatusRef) {
         queryPool.submit(() -> {
-            SilentPaymentsSubscription subscription = new SilentPaymentsSubscription(scanAddress.toString(), labelSet.toArray(new Integer[0]), startHeight == null ? 0 : startHeight);
+            SilentPaymentsSubscription subscription = new SilentPaymentsSubscription(scanAddress.toString(), labelSet.toArray(new Integer[0]), startHeight == null ? 0 : startHeight, dustLimit, unspentOnly);
             List<TxEntry> mempoolHistory = getMempoolHistory(scanAddress, subscriptionStatusRef, subscription);
 
             if(!mempoolHistory.isEmpty()) {
@@ -63,7 +101,7 @@ public class IndexQuerier {
     }
 
     private List<TxEntry> getMempoolHistory(SilentPaymentScanAddress scanAddress, WeakReference<SubscriptionStatus> subscriptionStatusRef, SilentPaymentsSubscription subscription) {
-        List<TxEntry> mempoolHistory = mempoolIndex.getHistoryAsync(scanAddress, subscription, null, null, subscriptionStatusRef);
+        List<TxEntry> mempoolHistory = mempoolIndex.getHistoryAsync(scanAddress, subscription, null, null, PROGRESS_COMPLETE, subscriptionStatusRef);
         SubscriptionStatus subscriptionStatus = subscriptionStatusRef.get();
         if(subscriptionStatus != null && subscriptionStatus.getSilentPaymentsMempoolTxids(scanAddress.toString()) != null) {
             mempoolHistory.removeIf(txEntry -> subscriptionStatus.getSilentPaymentsMempoolTxids(scanAddress.toString()).contains(Sha256Hash.wrap(txEntry.tx_hash)));
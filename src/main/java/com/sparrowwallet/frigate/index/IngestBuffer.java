@@ -0,0 +1,114 @@
+package com.sparrowwallet.frigate.index;
+
+import com.sparrowwallet.drongo.protocol.HashIndex;
+
+import java.util.*;
+
+/**
+ * Groups the rows of consecutive blocks so that they can be committed to the index in a single transaction.
+ * While catching up far behind the tip, blocks are buffered until the rows, approximate bytes or time since the first block
+ * reach their limits. Within a few blocks of the tip, every block is committed as soon as it is added, so that new blocks reach
+ * subscribers without delay. Nothing in the buffer is visible to readers, or counted as indexed, until it has been committed.
+ */
+public class IngestBuffer {
+    //Within this many blocks of the tip each block is committed on its own
+    public static final int TIP_DISTANCE = 6;
+
+    private static final int MAX_ROWS = 250_000;
+    private static final long MAX_BYTES = 64L * 1024 * 1024;
+    private static final long MAX_MILLIS = 10_000;
+
+    //Approximate sizes of the buffered data: txid, height and tweak per transaction, index, prefix and value per output
+    private static final int TRANSACTION_BYTES = 32 + 4 + 64;
+    private static final int OUTPUT_BYTES = 4 + 8 + 8;
+    private static final int OUTPOINT_BYTES = 32 + 4 + 16;
+
+    private final TweakRows rows = new TweakRows();
+    private final Set<HashIndex> spentOutpoints = new HashSet<>();
+    private final TreeMap<Integer, String> blockHashes = new TreeMap<>();
+    private int fromHeight = -1;
+    private int toHeight = -1;
+    private long bytes;
+    private long startMillis;
+
+    /**
+     * Adds the rows of a block, which is assumed to follow the last block added.
+     *
+     * @param height the block height
+     * @param blockHash the block hash, recorded with the index metadata for reorg detection
+     * @param blockRows the rows of the eligible transactions in the block, which are copied
+     * @param blockSpentOutpoints the taproot outpoints spent in the block in UTXO mode, or null
+     */
+    public void addBlock(int height, String blockHash, TweakRows blockRows, Set<HashIndex> blockSpentOutpoints) {
+        if(isEmpty()) {
+            fromHeight = height;
+            startMillis = System.currentTimeMillis();
+        }
+        toHeight = height;
+
+        blockHashes.put(height, blockHash);
+        if(blockHashes.size() > IndexMeta.MAX_RECENT_BLOCKS) {
+            blockHashes.pollFirstEntry();
+        }
+
+        for(int row = 0; row < blockRows.size(); row++) {
+            rows.addTransaction(blockRows.getTxid(row), blockRows.getHeight(row), blockRows.getTweak(row));
+            for(int output = 0; output < blockRows.getOutputCount(row); output++) {
+                rows.addOutput(blockRows.getOutputIndex(row, output), blockRows.getHashPrefix(row, output), blockRows.getValue(row, output));
+            }
+            bytes += TRANSACTION_BYTES + (long)blockRows.getOutputCount(row) * OUTPUT_BYTES;
+        }
+
+        if(blockSpentOutpoints != null) {
+            spentOutpoints.addAll(blockSpentOutpoints);
+            bytes += (long)blockSpentOutpoints.size() * OUTPOINT_BYTES;
+        }
+    }
+
+    /**
+     * Returns true if the buffered blocks should be committed now, given the current height of the chain tip.
+     */
+    public boolean shouldCommit(int tipHeight) {
+        return !isEmpty() && (tipHeight - toHeight < TIP_DISTANCE || isFull());
+    }
+
+    private boolean isFull() {
+        return rows.size() >= MAX_ROWS || bytes >= MAX_BYTES || System.currentTimeMillis() - startMillis >= MAX_MILLIS;
+    }
+
+    public boolean isEmpty() {
+        return toHeight < 0;
+    }
+
+    public void clear() {
+        rows.clear();
+        spentOutpoints.clear();
+        blockHashes.clear();
+        fromHeight = -1;
+        toHeight = -1;
+        bytes = 0;
+    }
+
+    public TweakRows getRows() {
+        return rows;
+    }
+
+    public Set<HashIndex> getSpentOutpoints() {
+        return spentOutpoints;
+    }
+
+    /**
+     * Returns the hashes of the most recent blocks added, up to the number kept in the index metadata.
+     */
+    public Map<Integer, String> getBlockHashes() {
+        return blockHashes;
+    }
+
+    public int getFromHeight() {
+        return fromHeight;
+    }
+
+    public int getToHeight() {
+        return toHeight;
+    }
+}
@@ -0,0 +1,294 @@
+package com.sparrowwallet.frigate.index;
+
+import com.sparrowwallet.drongo.protocol.HashIndex;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * An in-memory set of the outpoints held in the utxo tables, so that the inputs of a block can be checked for spends of indexed
+ * outputs without looking up the scriptPubKey of every input. Each outpoint is reduced to a 64 bit key, which is stored in an exact
+ * open addressing set off-heap, with a compact cuckoo filter of 16 bit fingerprints in front of it. Almost all inputs spend outputs
+ * that are not indexed, and are rejected by the filter without touching the larger set.
+ * Distinct outpoints that share a 64 bit key are vanishingly rare, and only cause a delete of a row that does not exist.
+ */
+public class OutpointFilter {
+    private static final int SLOTS_PER_BUCKET = 4;
+    private static final int MAX_KICKS = 500;
+    private static final double MAX_SET_LOAD = 0.5d;
+    private static final long EMPTY = 0L;
+
+    //Cuckoo filter buckets, each holding four 16 bit fingerprints
+    private long[] buckets;
+    private int bucketMask;
+    private long kickSeed = 0x2545F4914F6CDD1DL;
+
+    //Exact set of keys, with linear probing and backward shift deletion, freed when no longer reachable
+    private MemorySegment keys;
+    private long keyMask;
+    private long size;
+
+    public OutpointFilter(long expectedSize) {
+        allocateFilter(expectedSize);
+        allocateSet(expectedSize);
+    }
+
+    public synchronized boolean contains(HashIndex outpoint) {
+        return contains(getKey(outpoint.getHash().getBytes(), outpoint.getIndex()));
+    }
+
+    public synchronized boolean contains(byte[] txid, long index) {
+        return contains(getKey(txid, index));
+    }
+
+    public synchronized void add(HashIndex outpoint) {
+        add(getKey(outpoint.getHash().getBytes(), outpoint.getIndex()));
+    }
+
+    public synchronized void add(byte[] txid, long index) {
+        add(getKey(txid, index));
+    }
+
+    public synchronized void remove(HashIndex outpoint) {
+        long key = getKey(outpoint.getHash().getBytes(), outpoint.getIndex());
+        if(removeFromSet(key)) {
+            removeFromFilter(key);
+        }
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    private boolean contains(long key) {
+        return filterContains(key) && setContains(key);
+    }
+
+    private void add(long key) {
+        if(!addToSet(key)) {
+            return;
+        }
+
+        if(!addToFilter(key)) {
+            //The filter is too full to place the fingerprint, so it is rebuilt at twice the size from the exact set
+            allocateFilter((long)buckets.length * SLOTS_PER_BUCKET * 2);
+            for(long slot = 0; slot <= keyMask; slot++) {
+                long existing = keys.getAtIndex(ValueLayout.JAVA_LONG, slot);
+                if(existing != EMPTY) {
+                    addToFilter(existing);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a 64 bit key for an outpoint. Txids are already uniformly distributed, so the first eight bytes are mixed with the
+     * output index. The key is never zero, which marks an empty slot.
+     */
+    static long getKey(byte[] txid, long index) {
+        long prefix = 0;
+        for(int i = 0; i < 8; i++) {
+            prefix = (prefix << 8) | (txid[i] & 0xFF);
+        }
+
+        long key = mix(prefix ^ (index * 0x9E3779B97F4A7C15L));
+        return key == EMPTY ? 1L : key;
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private void allocateFilter(long expectedSize) {
+        long bucketCount = Long.highestOneBit(Math.max(16L, expectedSize / SLOTS_PER_BUCKET) * 2 - 1);
+        if(bucketCount > (1L << 30)) {
+            throw new IllegalArgumentException("Too many outpoints for filter: " + expectedSize);
+        }
+        buckets = new long[(int)bucketCount];
+        bucketMask = (int)bucketCount - 1;
+    }
+
+    private static int getFingerprint(long key) {
+        int fingerprint = (int)(key & 0xFFFF);
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    private int getBucket(long key) {
+        return (int)(key >>> 32) & bucketMask;
+    }
+
+    private int getAlternateBucket(int bucket, int fingerprint) {
+        return (bucket ^ (int)mix(fingerprint)) & bucketMask;
+    }
+
+    private boolean filterContains(long key) {
+        int fingerprint = getFingerprint(key);
+        int bucket = getBucket(key);
+        return bucketContains(bucket, fingerprint) || bucketContains(getAlternateBucket(bucket, fingerprint), fingerprint);
+    }
+
+    private boolean bucketContains(int bucket, int fingerprint) {
+        long slots = buckets[bucket];
+        for(int slot = 0; slot < SLOTS_PER_BUCKET; slot++) {
+            if(((slots >>> (slot * 16)) & 0xFFFF) == fingerprint) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean bucketInsert(int bucket, int fingerprint) {
+        long slots = buckets[bucket];
+        for(int slot = 0; slot < SLOTS_PER_BUCKET; slot++) {
+            if(((slots >>> (slot * 16)) & 0xFFFF) == 0) {
+                buckets[bucket] = slots | ((long)fingerprint << (slot * 16));
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean addToFilter(long key) {
+        int fingerprint = getFingerprint(key);
+        int bucket = getBucket(key);
+        int alternate = getAlternateBucket(bucket, fingerprint);
+        if(bucketInsert(bucket, fingerprint) || bucketInsert(alternate, fingerprint)) {
+            return true;
+        }
+
+        //Evict a fingerprint at random to its own alternate bucket, until one is placed in an empty slot
+        bucket = (kickSeed & 1) == 0 ? bucket : alternate;
+        for(int kick = 0; kick < MAX_KICKS; kick++) {
+            kickSeed = mix(kickSeed + kick);
+            int slot = (int)(kickSeed & (SLOTS_PER_BUCKET - 1));
+            int shift = slot * 16;
+            int evicted = (int)((buckets[bucket] >>> shift) & 0xFFFF);
+            buckets[bucket] = (buckets[bucket] & ~(0xFFFFL << shift)) | ((long)fingerprint << shift);
+            fingerprint = evicted;
+            bucket = getAlternateBucket(bucket, fingerprint);
+            if(bucketInsert(bucket, fingerprint)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void removeFromFilter(long key) {
+        int fingerprint = getFingerprint(key);
+        int bucket = getBucket(key);
+        if(!bucketRemove(bucket, fingerprint)) {
+            bucketRemove(getAlternateBucket(bucket, fingerprint), fingerprint);
+        }
+    }
+
+    private boolean bucketRemove(int bucket, int fingerprint) {
+        long slots = buckets[bucket];
+        for(int slot = 0; slot < SLOTS_PER_BUCKET; slot++) {
+            if(((slots >>> (slot * 16)) & 0xFFFF) == fingerprint) {
+                buckets[bucket] = slots & ~(0xFFFFL << (slot * 16));
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void allocateSet(long expectedSize) {
+        long capacity = Long.highestOneBit(Math.max(64L, (long)(expectedSize / MAX_SET_LOAD)) * 2 - 1);
+        keys = Arena.ofAuto().allocate(capacity * Long.BYTES, Long.BYTES);
+        keyMask = capacity - 1;
+        size = 0;
+    }
+
+    private boolean setContains(long key) {
+        for(long slot = key & keyMask; ; slot = (slot + 1) & keyMask) {
+            long existing = keys.getAtIndex(ValueLayout.JAVA_LONG, slot);
+            if(existing == key) {
+                return true;
+            }
+            if(existing == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    private boolean addToSet(long key) {
+        if(size + 1 > (keyMask + 1) * MAX_SET_LOAD) {
+            growSet();
+        }
+
+        for(long slot = key & keyMask; ; slot = (slot + 1) & keyMask) {
+            long existing = keys.getAtIndex(ValueLayout.JAVA_LONG, slot);
+            if(existing == key) {
+                return false;
+            }
+            if(existing == EMPTY) {
+                keys.setAtIndex(ValueLayout.JAVA_LONG, slot, key);
+                size++;
+                return true;
+            }
+        }
+    }
+
+    private void growSet() {
+        MemorySegment previousKeys = keys;
+        long previousCapacity = keyMask + 1;
+
+        long capacity = previousCapacity * 2;
+        keys = Arena.ofAuto().allocate(capacity * Long.BYTES, Long.BYTES);
+        keyMask = capacity - 1;
+        for(long slot = 0; slot < previousCapacity; slot++) {
+            long key = previousKeys.getAtIndex(ValueLayout.JAVA_LONG, slot);
+            if(key != EMPTY) {
+                for(long target = key & keyMask; ; target = (target + 1) & keyMask) {
+                    if(keys.getAtIndex(ValueLayout.JAVA_LONG, target) == EMPTY) {
+                        keys.setAtIndex(ValueLayout.JAVA_LONG, target, key);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean removeFromSet(long key) {
+        long slot = key & keyMask;
+        while(true) {
+            long existing = keys.getAtIndex(ValueLayout.JAVA_LONG, slot);
+            if(existing == EMPTY) {
+                return false;
+            }
+            if(existing == key) {
+                break;
+            }
+            slot = (slot + 1) & keyMask;
+        }
+
+        //Shift back any following keys that would no longer be reachable across the emptied slot
+        long hole = slot;
+        long next = (hole + 1) & keyMask;
+        while(true) {
+            long existing = keys.getAtIndex(ValueLayout.JAVA_LONG, next);
+            if(existing == EMPTY) {
+                break;
+            }
+            long home = existing & keyMask;
+            if(((next - home) & keyMask) >= ((next - hole) & keyMask)) {
+                keys.setAtIndex(ValueLayout.JAVA_LONG, hole, existing);
+                hole = next;
+            }
+            next = (next + 1) & keyMask;
+        }
+        keys.setAtIndex(ValueLayout.JAVA_LONG, hole, EMPTY);
+        size--;
+        return true;
+    }
+}
@@ -0,0 +1,127 @@
+package com.sparrowwallet.frigate.index;
+
+/**
+ * A read replica of the index with the state used to route reads to it: the reads it is running and the work they represent, the
+ * heights it has indexed, and whether it has been ejected after failing a health check. Reads are counted by the manager under its
+ * routing lock, while the health state is updated by the health checks. The pool is replaced when a newer version of a local
+ * replica is published, so reads must release their connection to the pool they took it from.
+ */
+final class ReadReplica {
+    static final long MIN_EJECT_MILLIS = 5_000L;
+    static final long MAX_EJECT_MILLIS = 300_000L;
+
+    private final String url;
+    private volatile DuckDBReadPool pool;
+    private volatile String version;
+    private final int maxConcurrency;
+
+    private int active;
+    private long outstandingWork;
+
+    private volatile HeightIntervals coverage = HeightIntervals.EMPTY;
+    private volatile boolean ejected;
+    private volatile int failures;
+    private volatile long retryAt;
+
+    ReadReplica(String url, DuckDBReadPool pool, int maxConcurrency) {
+        this.url = url;
+        this.pool = pool;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    DuckDBReadPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Returns the published version of the database the pool was opened on, or null if it is not a local file.
+     */
+    String getVersion() {
+        return version;
+    }
+
+    void setVersion(String version) {
+        this.version = version;
+    }
+
+    /**
+     * Replaces the pool with one opened on a newer published version of the database, returning the previous pool.
+     */
+    DuckDBReadPool swapPool(DuckDBReadPool pool, String version) {
+        DuckDBReadPool previous = this.pool;
+        this.pool = pool;
+        this.version = version;
+        return previous;
+    }
+
+    /**
+     * Returns true if the replica is healthy and has indexed every one of the given heights.
+     */
+    boolean canServe(HeightIntervals requiredHeights) {
+        return !ejected && coverage.containsAll(requiredHeights);
+    }
+
+    boolean hasCapacity() {
+        return active < maxConcurrency;
+    }
+
+    int getActive() {
+        return active;
+    }
+
+    long getOutstandingWork() {
+        return outstandingWork;
+    }
+
+    void acquire(long work) {
+        active++;
+        outstandingWork += work;
+    }
+
+    void release(long work) {
+        active--;
+        outstandingWork -= work;
+    }
+
+    HeightIntervals getCoverage() {
+        return coverage;
+    }
+
+    boolean isEjected() {
+        return ejected;
+    }
+
+    /**
+     * Returns true if the replica should be checked, which for an ejected replica is only once its backoff has passed.
+     */
+    boolean isCheckDue(long now) {
+        return !ejected || now >= retryAt;
+    }
+
+    /**
+     * Records a successful health check, returning true if the replica was ejected and is now re-admitted.
+     */
+    boolean checkSucceeded(HeightIntervals coverage) {
+        this.coverage = coverage;
+        failures = 0;
+        boolean readmitted = ejected;
+        ejected = false;
+        return readmitted;
+    }
+
+    /**
+     * Records a failed health check, ejecting the replica until a backoff that doubles with each consecutive failure has passed.
+     * Returns true if the replica was not already ejected.
+     */
+    boolean checkFailed(long now) {
+        int count = ++failures;
+        retryAt = now + Math.min(MAX_EJECT_MILLIS, MIN_EJECT_MILLIS << Math.min(count - 1, 16));
+        boolean newlyEjected = !ejected;
+        ejected = true;
+        return newlyEjected;
+    }
+}
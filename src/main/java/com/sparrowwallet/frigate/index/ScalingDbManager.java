@@ -1,52 +1,297 @@
 package com.sparrowwallet.frigate.index;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sparrowwallet.frigate.io.Config;
+import org.duckdb.DuckDBConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Writes to a single database and spreads reads across read replicas of it. Each read goes to the healthy replica with the least
+ * outstanding work, estimated as the number of blocks its reads cover, that has indexed every height the read needs and is below
+ * its concurrency limit. Replicas are health checked periodically, which also refreshes the heights they have indexed, and are
+ * ejected when a check fails until a later check succeeds. Reads that no replica has caught up to are run on the writer.
+ * Replicas that are local files are reopened when a newer version is published, see {@link SnapshotPublisher}. The new version is
+ * opened and warmed in the background before it replaces the previous pool, and reads already running finish on the previous pool.
+ */
 public class ScalingDbManager extends AbstractDbManager {
     private final static Logger log = LoggerFactory.getLogger(ScalingDbManager.class);
 
+    private static final long HEALTH_CHECK_MILLIS = 5_000L;
+
     private final String readWriteUrl;
+    private final int startHeight;
+    private final int maxConcurrency;
     private Connection writeConnection;
-    private final List<DuckDBReadPool> readPools = new ArrayList<>();
+    private boolean writerScanExtensionLoaded;
+    private final Object writeLock = new Object();
+    private final List<ReadReplica> replicas = new ArrayList<>();
+    private final Object routingLock = new Object();
     private final AtomicInteger index = new AtomicInteger(0);
-    private boolean shutdown = false;
+    private final ScheduledExecutorService healthCheckExecutor;
+    private volatile boolean shutdown = false;
 
-    public ScalingDbManager(String readWriteUrl, List<String> readOnlyUrls) {
+    public ScalingDbManager(String readWriteUrl, List<String> readOnlyUrls, int startHeight) {
         super();
         this.readWriteUrl = readWriteUrl;
+        this.startHeight = startHeight;
+        this.maxConcurrency = Config.get().getDatabase().getReplicaConcurrencyLimit();
         for(String url : readOnlyUrls) {
             try {
-                readPools.add(new DuckDBReadPool(url, 10));
+                File databaseFile = DbManager.getDatabaseFile(url);
+                String version = databaseFile == null ? null : SnapshotPublisher.getPublishedVersion(databaseFile);
+                ReadReplica replica = new ReadReplica(url, new DuckDBReadPool(url, maxConcurrency), maxConcurrency);
+                replica.setVersion(version);
+                replicas.add(replica);
             } catch(SQLException e) {
                 throw new RuntimeException("Failed to create DuckDB read pool for " + url, e);
             }
         }
+
+        for(ReadReplica replica : replicas) {
+            checkReplica(replica);
+        }
+
+        this.healthCheckExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new ThreadFactoryBuilder().setNameFormat("ReplicaHealthCheck-%d").build().newThread(r);
+            t.setDaemon(true);
+            return t;
+        });
+        healthCheckExecutor.scheduleWithFixedDelay(this::checkReplicas, HEALTH_CHECK_MILLIS, HEALTH_CHECK_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     @Override
-    public <T> T executeRead(ReadOperation<T> operation) throws SQLException {
-        if(shutdown) {
-            throw new SQLException("Connection manager is shutting down");
+    public <T> T executeRead(ReadOperation<T> operation) throws SQLException, InterruptedException {
+        return executeRead(HeightIntervals.EMPTY, operation);
+    }
+
+    @Override
+    public <T> T executeRead(HeightIntervals requiredHeights, ReadOperation<T> operation) throws SQLException, InterruptedException {
+        long work = Math.max(1L, requiredHeights.size());
+        while(true) {
+            if(shutdown) {
+                throw new SQLException("Connection manager is shutting down");
+            }
+
+            ReadReplica replica = acquireReplica(requiredHeights, work);
+            if(replica == null) {
+                return executeWriterRead(operation);
+            }
+
+            //The pool may be swapped for a newer version during the read, so the connection is released to the pool it came from
+            DuckDBReadPool pool = replica.getPool();
+            Connection conn = null;
+            try {
+                try {
+                    conn = pool.getConnection();
+                } catch(SQLException e) {
+                    //Nothing has been read yet, so the replica is ejected and the read routed again, unless the pool was just swapped
+                    if(replica.getPool() == pool && replica.checkFailed(System.currentTimeMillis())) {
+                        log.warn("Ejected read replica " + replica.getUrl() + ": " + e.getMessage());
+                    }
+                    continue;
+                }
+
+                try {
+                    return operation.execute(conn);
+                } catch(SQLException | RuntimeException e) {
+                    //The read may have failed on its own, so the replica is only ejected if a health check also fails
+                    healthCheckExecutor.execute(() -> checkReplica(replica));
+                    throw e;
+                }
+            } finally {
+                if(conn != null) {
+                    pool.releaseConnection(conn);
+                }
+                releaseReplica(replica, work);
+            }
+        }
+    }
+
+    /**
+     * Waits for a replica that can serve the required heights to be below its concurrency limit, and counts the read against the one
+     * with the least outstanding work. Returns null if no healthy replica has indexed the required heights.
+     */
+    private ReadReplica acquireReplica(HeightIntervals requiredHeights, long work) throws SQLException, InterruptedException {
+        synchronized(routingLock) {
+            while(true) {
+                if(shutdown) {
+                    throw new SQLException("Connection manager is shutting down");
+                }
+
+                boolean serveable = false;
+                ReadReplica selected = null;
+                int start = Math.floorMod(index.getAndIncrement(), replicas.size());
+                for(int i = 0; i < replicas.size(); i++) {
+                    ReadReplica replica = replicas.get((start + i) % replicas.size());
+                    if(!replica.canServe(requiredHeights)) {
+                        continue;
+                    }
+                    serveable = true;
+                    if(replica.hasCapacity() && (selected == null || replica.getOutstandingWork() < selected.getOutstandingWork())) {
+                        selected = replica;
+                    }
+                }
+
+                if(!serveable) {
+                    return null;
+                }
+
+                if(selected != null) {
+                    selected.acquire(work);
+                    return selected;
+                }
+
+                //Health checks may eject the replicas being waited on, so the wait is bounded
+                routingLock.wait(HEALTH_CHECK_MILLIS);
+            }
+        }
+    }
+
+    private void releaseReplica(ReadReplica replica, long work) {
+        synchronized(routingLock) {
+            replica.release(work);
+            routingLock.notifyAll();
+        }
+    }
+
+    /**
+     * Runs a read on a duplicate of the write connection, which sees every committed height. The scan extension is loaded into the
+     * writer the first time it is needed.
+     */
+    @Override
+    public <T> T executeWriterRead(ReadOperation<T> operation) throws SQLException {
+        Connection conn;
+        synchronized(writeLock) {
+            createWriteConnection();
+            if(!writerScanExtensionLoaded) {
+                DuckDBReadPool.loadScanExtension(writeConnection);
+                writerScanExtensionLoaded = true;
+            }
+            conn = ((DuckDBConnection)writeConnection).duplicate();
+        }
+
+        try {
+            return operation.execute(conn);
+        } finally {
+            conn.close();
+        }
+    }
+
+    private void checkReplicas() {
+        long now = System.currentTimeMillis();
+        for(ReadReplica replica : replicas) {
+            if(!shutdown) {
+                refreshReplica(replica);
+            }
+            if(!shutdown && replica.isCheckDue(now)) {
+                checkReplica(replica);
+            }
+        }
+    }
+
+    /**
+     * Opens a newer published version of a local replica if there is one, and swaps it in once it has been warmed.
+     */
+    private void refreshReplica(ReadReplica replica) {
+        File databaseFile = DbManager.getDatabaseFile(replica.getUrl());
+        if(databaseFile == null) {
+            return;
+        }
+
+        String version = SnapshotPublisher.getPublishedVersion(databaseFile);
+        if(version == null || version.equals(replica.getVersion())) {
+            return;
+        }
+
+        DuckDBReadPool pool = null;
+        try {
+            pool = new DuckDBReadPool(replica.getUrl(), maxConcurrency);
+            HeightIntervals coverage = warmPool(pool);
+            DuckDBReadPool previous = replica.swapPool(pool, version);
+            replica.checkSucceeded(coverage);
+            //Connections still in use keep the previous database open until the reads using them release them
+            previous.close();
+            log.info("Refreshed read replica " + replica.getUrl() + " to block height " + coverage.getMaxHeight());
+        } catch(SQLException | RuntimeException e) {
+            log.warn("Error refreshing read replica " + replica.getUrl() + ", keeping the previous version: " + e.getMessage());
+            if(pool != null) {
+                pool.close();
+            }
+        }
+
+        synchronized(routingLock) {
+            routingLock.notifyAll();
+        }
+    }
+
+    /**
+     * Reads the state of a newly opened replica and the rows of its most recent block, so that the scan extension is initialised and
+     * the first scans routed to it do not pay to load them. Returns the heights it has indexed.
+     */
+    private HeightIntervals warmPool(DuckDBReadPool pool) throws SQLException {
+        Connection conn = pool.getConnection();
+        try {
+            IndexMeta meta = IndexMeta.load(conn, startHeight);
+            if(meta == null) {
+                throw new SQLException("Replica has no index state");
+            }
+
+            String table = meta.getIndexMode() == IndexMode.UTXO_ONLY ? Index.UTXO_TX_TABLE : Index.TWEAK_TABLE;
+            try(Statement stmt = conn.createStatement()) {
+                try(ResultSet resultSet = stmt.executeQuery("SELECT ufsecp_backend()")) {
+                    resultSet.next();
+                }
+                try(ResultSet resultSet = stmt.executeQuery("SELECT COUNT(*) FROM " + table + " WHERE height = " + meta.getIndexedHeight())) {
+                    resultSet.next();
+                }
+            }
+
+            return meta.getCoverage();
+        } finally {
+            pool.releaseConnection(conn);
         }
+    }
 
-        int ind = index.getAndIncrement() % readPools.size();
-        DuckDBReadPool pool = readPools.get(ind);
+    /**
+     * Checks that a replica can be read from, and refreshes the heights it has indexed.
+     */
+    private void checkReplica(ReadReplica replica) {
+        DuckDBReadPool pool = replica.getPool();
         Connection conn = null;
         try {
             conn = pool.getConnection();
-            return operation.execute(conn);
+            IndexMeta meta = IndexMeta.load(conn, startHeight);
+            HeightIntervals coverage = meta == null ? HeightIntervals.EMPTY : meta.getCoverage();
+            if(replica.checkSucceeded(coverage)) {
+                log.info("Re-admitted read replica " + replica.getUrl() + " indexed to block height " + coverage.getMaxHeight());
+            }
+        } catch(SQLException | RuntimeException e) {
+            if(replica.checkFailed(System.currentTimeMillis())) {
+                log.warn("Ejected read replica " + replica.getUrl() + ": " + e.getMessage());
+            }
         } finally {
             if(conn != null) {
                 pool.releaseConnection(conn);
             }
         }
+
+        synchronized(routingLock) {
+            routingLock.notifyAll();
+        }
     }
 
     @Override
@@ -55,13 +300,19 @@ public class ScalingDbManager extends AbstractDbManager {
             throw new SQLException("Connection manager is shutting down");
         }
 
-        createWriteConnection();
+        synchronized(writeLock) {
+            createWriteConnection();
+        }
         return operation.execute(writeConnection);
     }
 
     @Override
     public void close() {
         shutdown = true;
+        healthCheckExecutor.shutdownNow();
+        synchronized(routingLock) {
+            routingLock.notifyAll();
+        }
 
         try {
             if(writeConnection != null && !writeConnection.isClosed()) {
@@ -71,8 +322,8 @@ public class ScalingDbManager extends AbstractDbManager {
             log.error("Error closing write connection", e);
         }
 
-        for(DuckDBReadPool pool : readPools) {
-            pool.close();
+        for(ReadReplica replica : replicas) {
+            replica.getPool().close();
         }
     }
 
@@ -86,6 +337,9 @@ public class ScalingDbManager extends AbstractDbManager {
             return;
         }
 
-        writeConnection = createWriteConnection(readWriteUrl);
+        //Unsigned extensions are allowed so that the scan extension can be loaded for reads the replicas cannot serve
+        Properties props = new Properties();
+        props.setProperty("allow_unsigned_extensions", "true");
+        writeConnection = createWriteConnection(readWriteUrl, props);
     }
 }
@@ -0,0 +1,92 @@
+package com.sparrowwallet.frigate.index;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges the results of concurrent scans of several parts of an index into height order. Each part returns its results in height
+ * order, so a result can be released once no unfinished part may still return a result at a lower height. Results at the same height
+ * are released in the order they were added.
+ */
+final class ScanMerger {
+    private final PriorityQueue<Pending> pending = new PriorityQueue<>(Comparator.comparingInt((Pending p) -> p.entry().height).thenComparingLong(Pending::sequence));
+    private final int[] positions;
+    private final boolean[] complete;
+    private long sequence;
+
+    /**
+     * @param fromHeights the lowest height each part may return
+     */
+    ScanMerger(int[] fromHeights) {
+        this.positions = fromHeights.clone();
+        this.complete = new boolean[fromHeights.length];
+    }
+
+    synchronized void add(int part, TxEntry entry) {
+        positions[part] = Math.max(positions[part], entry.height);
+        pending.add(new Pending(entry, sequence++));
+    }
+
+    synchronized void complete(int part) {
+        complete[part] = true;
+    }
+
+    synchronized boolean isComplete() {
+        for(boolean partComplete : complete) {
+            if(!partComplete) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the fraction of parts that have completed.
+     */
+    synchronized double getCompletedFraction() {
+        int count = 0;
+        for(boolean partComplete : complete) {
+            if(partComplete) {
+                count++;
+            }
+        }
+
+        return complete.length == 0 ? 1.0d : (double)count / complete.length;
+    }
+
+    /**
+     * Removes and returns the results that no unfinished part can precede, in height order.
+     */
+    synchronized List<TxEntry> drain() {
+        int watermark = Integer.MAX_VALUE;
+        for(int part = 0; part < positions.length; part++) {
+            if(!complete[part]) {
+                watermark = Math.min(watermark, positions[part]);
+            }
+        }
+
+        List<TxEntry> released = new ArrayList<>();
+        while(!pending.isEmpty() && pending.peek().entry().height < watermark) {
+            released.add(pending.poll().entry());
+        }
+
+        return released;
+    }
+
+    /**
+     * Removes and returns all remaining results in height order, whether or not every part has completed.
+     */
+    synchronized List<TxEntry> drainAll() {
+        List<TxEntry> released = new ArrayList<>(pending.size());
+        while(!pending.isEmpty()) {
+            released.add(pending.poll().entry());
+        }
+
+        return released;
+    }
+
+    private record Pending(TxEntry entry, long sequence) {}
+}
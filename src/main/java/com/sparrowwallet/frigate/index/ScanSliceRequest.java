@@ -0,0 +1,20 @@
+package com.sparrowwallet.frigate.index;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.drongo.silentpayments.SilentPaymentScanAddress;
+import com.sparrowwallet.frigate.electrum.SilentPaymentsSubscription;
+
+/**
+ * A slice of a history scan sent to a scan worker, with the keys and options of the subscription it was taken from. The keys are
+ * sent in the same hex form as they are received from Electrum clients.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ScanSliceRequest(String scan_private_key, String spend_public_key, Integer[] labels, int start_height, int end_height, Long dust_limit, Boolean unspent_only) {
+    public static final String PATH = "/scan";
+
+    public static ScanSliceRequest from(SilentPaymentScanAddress scanAddress, SilentPaymentsSubscription subscription, int startHeight, int endHeight) {
+        return new ScanSliceRequest(Utils.bytesToHex(scanAddress.getScanKey().getPrivKeyBytes()), Utils.bytesToHex(scanAddress.getSpendKey().getPubKey()),
+                subscription.labels(), startHeight, endHeight, subscription.dust_limit(), subscription.unspent_only());
+    }
+}
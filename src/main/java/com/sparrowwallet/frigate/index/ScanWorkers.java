@@ -0,0 +1,151 @@
+package com.sparrowwallet.frigate.index;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Sends slices of history scans to other Frigate servers that scan them on their own copy of the index. Each slice goes to a
+ * preferred worker, and then to the next worker if that one cannot be reached, fails or dies during the scan. A worker that fails is
+ * skipped until a retry delay has passed, while a worker that has not yet indexed a slice is passed over without being skipped.
+ * Returns null if no worker scanned the slice, so that it can be scanned locally.
+ */
+final class ScanWorkers {
+    private static final Logger log = LoggerFactory.getLogger(ScanWorkers.class);
+
+    static final long RETRY_MILLIS = 30_000L;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+    //A slice can take minutes to scan on a busy worker, so the read timeout only catches workers that have stopped responding
+    private static final int READ_TIMEOUT_MILLIS = 600_000;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final List<Worker> workers = new ArrayList<>();
+    private final String secret;
+
+    ScanWorkers(List<String> urls, String secret) {
+        for(String url : urls) {
+            workers.add(new Worker(url.endsWith("/") ? url.substring(0, url.length() - 1) : url));
+        }
+        this.secret = secret;
+    }
+
+    int size() {
+        return workers.size();
+    }
+
+    /**
+     * Scans a slice on the workers, starting with the preferred one, and returns the results in height order. Returns null if the
+     * scan is cancelled, or no worker could scan the slice.
+     */
+    List<TxEntry> scan(ScanSliceRequest request, int preferred, Queue<AutoCloseable> cancellations, BooleanSupplier cancelled) {
+        for(int i = 0; i < workers.size(); i++) {
+            Worker worker = workers.get(Math.floorMod(preferred + i, workers.size()));
+            if(cancelled.getAsBoolean()) {
+                return null;
+            }
+            if(!worker.isAvailable(System.currentTimeMillis())) {
+                continue;
+            }
+
+            try {
+                List<TxEntry> history = post(worker, request, cancellations);
+                worker.succeeded();
+                if(history != null) {
+                    return history;
+                }
+            } catch(IOException | RuntimeException e) {
+                if(cancelled.getAsBoolean()) {
+                    return null;
+                }
+                if(worker.failed(System.currentTimeMillis())) {
+                    log.warn("Scan worker " + worker.getUrl() + " failed scanning block heights " + request.start_height() + " to " + request.end_height() + ", retrying on another server: " + e.getMessage());
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Sends a slice to a worker, returning null if the worker has not indexed it.
+     */
+    private List<TxEntry> post(Worker worker, ScanSliceRequest request, Queue<AutoCloseable> cancellations) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)URI.create(worker.getUrl() + ScanSliceRequest.PATH).toURL().openConnection();
+        //Disconnecting aborts the request when the subscription is cancelled, and the results of the worker are discarded
+        AutoCloseable cancellation = connection::disconnect;
+        cancellations.add(cancellation);
+        try {
+            connection.setRequestMethod("POST");
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            if(secret != null) {
+                connection.setRequestProperty("Authorization", "Bearer " + secret);
+            }
+
+            try(OutputStream os = connection.getOutputStream()) {
+                MAPPER.writeValue(os, request);
+            }
+
+            int status = connection.getResponseCode();
+            if(status == HttpURLConnection.HTTP_UNAVAILABLE) {
+                return null;
+            }
+            if(status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP status " + status);
+            }
+
+            try(InputStream is = connection.getInputStream()) {
+                return MAPPER.readValue(is, new TypeReference<List<TxEntry>>() {});
+            }
+        } finally {
+            cancellations.remove(cancellation);
+        }
+    }
+
+    static final class Worker {
+        private final String url;
+        private volatile boolean failing;
+        private volatile long retryAt;
+
+        Worker(String url) {
+            this.url = url;
+        }
+
+        String getUrl() {
+            return url;
+        }
+
+        boolean isAvailable(long now) {
+            return !failing || now >= retryAt;
+        }
+
+        void succeeded() {
+            failing = false;
+        }
+
+        /**
+         * Records a failure, skipping the worker until the retry delay has passed. Returns true if the worker was not already failing.
+         */
+        boolean failed(long now) {
+            retryAt = now + RETRY_MILLIS;
+            boolean newlyFailing = !failing;
+            failing = true;
+            return newlyFailing;
+        }
+    }
+}
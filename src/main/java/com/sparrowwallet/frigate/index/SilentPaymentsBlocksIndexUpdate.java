@@ -1,3 +1,7 @@
 package com.sparrowwallet.frigate.index;
 
-public record SilentPaymentsBlocksIndexUpdate(int fromBlockHeight, int toBlockHeight, int totalTransactions) {}
+/**
+ * Posted when a range of blocks has been committed to the index. A backfill update fills a range below blocks already indexed,
+ * rather than extending the index towards the tip.
+ */
+public record SilentPaymentsBlocksIndexUpdate(int fromBlockHeight, int toBlockHeight, int totalTransactions, boolean backfill) {}
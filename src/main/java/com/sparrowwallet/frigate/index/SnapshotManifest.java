@@ -0,0 +1,49 @@
+package com.sparrowwallet.frigate.index;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes an index snapshot exported to Parquet files: the network and mode it was built with, the state of the index it was
+ * taken from, including the hashes of its most recent blocks so that an import can be checked against the chain of the connected
+ * node, and the file and SHA-256 checksum of each partition of each table.
+ */
+public record SnapshotManifest(int version, String network, IndexMode mode, int schemaVersion, int startHeight, int indexedHeight, String tipHash,
+                               Map<Integer, String> recentBlocks, String coverage, int agedHeight, List<Partition> partitions) {
+    public static final String MANIFEST_FILE = "manifest.json";
+    public static final int VERSION = 1;
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    public void write(File dir) throws IOException {
+        try(Writer writer = new OutputStreamWriter(new FileOutputStream(new File(dir, MANIFEST_FILE)), StandardCharsets.UTF_8)) {
+            GSON.toJson(this, writer);
+        }
+    }
+
+    public static SnapshotManifest read(File dir) throws IOException {
+        File manifestFile = new File(dir, MANIFEST_FILE);
+        if(!manifestFile.exists()) {
+            throw new FileNotFoundException("No snapshot manifest found at " + manifestFile.getAbsolutePath());
+        }
+
+        try(Reader reader = new InputStreamReader(new FileInputStream(manifestFile), StandardCharsets.UTF_8)) {
+            return GSON.fromJson(reader, SnapshotManifest.class);
+        }
+    }
+
+    public static String getChecksum(File file) throws IOException {
+        return Files.asByteSource(file).hash(Hashing.sha256()).toString();
+    }
+
+    /**
+     * The rows of a table within a range of block heights, stored in a single zstd compressed Parquet file in the snapshot folder.
+     */
+    public record Partition(String table, int fromHeight, int toHeight, String file, long rows, String sha256) {}
+}
@@ -0,0 +1,123 @@
+package com.sparrowwallet.frigate.index;
+
+import org.duckdb.DuckDBConnection;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Publishes copies of the index database for local read replicas. The database is copied into a new file attached to a duplicate of
+ * the write connection, in a single transaction that sees the rows committed when it started, so commits continue while it is copied.
+ * The copy is renamed over the snapshot path, so that a replica opening it always sees a complete database, and a generation marker
+ * is written next to it last. Replicas watch the marker, and open each new snapshot alongside the previous one before switching to it.
+ */
+public class SnapshotPublisher {
+    public static final String GENERATION_SUFFIX = ".generation";
+    private static final String COPY_ALIAS = "snapshot_copy";
+
+    private final File snapshotFile;
+    private final long intervalMillis;
+    private long generation;
+    private volatile long lastPublished;
+
+    public SnapshotPublisher(File snapshotFile, long intervalMillis) {
+        this.snapshotFile = snapshotFile.getAbsoluteFile();
+        this.intervalMillis = intervalMillis;
+
+        String version = getPublishedVersion(snapshotFile);
+        if(version != null && !version.startsWith("mtime:")) {
+            try {
+                this.generation = Long.parseLong(version.split(" ")[0]);
+            } catch(NumberFormatException e) {
+                this.generation = 0;
+            }
+        }
+    }
+
+    public File getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    public boolean isDue(long now) {
+        return now - lastPublished >= intervalMillis;
+    }
+
+    /**
+     * Copies the database to a temporary file next to the snapshot, returning it with the height the copy is indexed to. The copy runs
+     * on a duplicate of the given write connection, so that commits on the write connection are neither included in nor blocked by it.
+     */
+    Copy copy(Connection connection, int startHeight) throws SQLException, IOException {
+        File tempFile = new File(snapshotFile.getParentFile(), snapshotFile.getName() + ".tmp");
+        Files.deleteIfExists(tempFile.toPath());
+        Files.deleteIfExists(new File(tempFile.getParentFile(), tempFile.getName() + ".wal").toPath());
+
+        try(Connection duplicate = ((DuckDBConnection)connection).duplicate(); Statement stmt = duplicate.createStatement()) {
+            String database;
+            try(ResultSet resultSet = stmt.executeQuery("SELECT current_database()")) {
+                resultSet.next();
+                database = resultSet.getString(1);
+            }
+
+            stmt.execute("ATTACH '" + tempFile.getAbsolutePath() + "' AS " + COPY_ALIAS);
+            try {
+                duplicate.setAutoCommit(false);
+                IndexMeta meta;
+                try {
+                    //The metadata is read in the same transaction as the copy, so it describes exactly the rows copied
+                    meta = IndexMeta.load(duplicate, startHeight);
+                    stmt.execute("COPY FROM DATABASE " + database + " TO " + COPY_ALIAS);
+                    duplicate.commit();
+                } catch(SQLException | RuntimeException e) {
+                    duplicate.rollback();
+                    throw e;
+                } finally {
+                    duplicate.setAutoCommit(true);
+                }
+                stmt.execute("CHECKPOINT " + COPY_ALIAS);
+                return new Copy(tempFile, meta == null ? -1 : meta.getIndexedHeight());
+            } finally {
+                stmt.execute("DETACH " + COPY_ALIAS);
+            }
+        }
+    }
+
+    /**
+     * Replaces the snapshot with a copy, and writes the next generation marker with the height the copy was indexed to.
+     */
+    void publish(File tempFile, int indexedHeight) throws IOException {
+        Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        generation++;
+        File markerFile = new File(snapshotFile.getParentFile(), snapshotFile.getName() + GENERATION_SUFFIX);
+        File tempMarkerFile = new File(snapshotFile.getParentFile(), markerFile.getName() + ".tmp");
+        Files.writeString(tempMarkerFile.toPath(), generation + " " + indexedHeight, StandardCharsets.UTF_8);
+        Files.move(tempMarkerFile.toPath(), markerFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastPublished = System.currentTimeMillis();
+    }
+
+    record Copy(File file, int indexedHeight) {}
+
+    /**
+     * Returns the published version of a database file: the content of its generation marker if one has been written, otherwise its
+     * modification time, or null if the file does not exist.
+     */
+    static String getPublishedVersion(File databaseFile) {
+        File markerFile = new File(databaseFile.getAbsoluteFile().getParentFile(), databaseFile.getName() + GENERATION_SUFFIX);
+        try {
+            if(markerFile.exists()) {
+                return Files.readString(markerFile.toPath(), StandardCharsets.UTF_8).trim();
+            }
+        } catch(IOException e) {
+            //Fall back to the modification time
+        }
+
+        return databaseFile.exists() ? "mtime:" + databaseFile.lastModified() : null;
+    }
+}
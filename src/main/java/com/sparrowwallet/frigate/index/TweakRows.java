@@ -0,0 +1,168 @@
+package com.sparrowwallet.frigate.index;
+
+import com.sparrowwallet.drongo.protocol.ScriptType;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.protocol.TransactionOutput;
+import com.sparrowwallet.drongo.wallet.BlockTransaction;
+
+import java.util.*;
+
+/**
+ * The compact row data appended to the index for a batch of eligible transactions: the txid, height and tweak of each transaction,
+ * and the output index, hash prefix and value of each of its taproot outputs. Outputs are held in primitive arrays indexed from
+ * each transaction's first output, and the arrays are kept when cleared so a single instance can be reused from block to block.
+ */
+public class TweakRows {
+    private int size;
+    private byte[][] txids = new byte[256][];
+    private byte[][] tweaks = new byte[256][];
+    private int[] heights = new int[256];
+    private int[] firstOutputs = new int[257];
+
+    private int outputCount;
+    private int[] outputIndexes = new int[1024];
+    private long[] hashPrefixes = new long[1024];
+    private long[] values = new long[1024];
+
+    public static TweakRows of(Map<BlockTransaction, byte[]> transactions) {
+        TweakRows rows = new TweakRows();
+        for(Map.Entry<BlockTransaction, byte[]> entry : transactions.entrySet()) {
+            BlockTransaction blkTx = entry.getKey();
+            rows.addTransaction(blkTx.getTransaction().getTxId().getBytes(), blkTx.getHeight(), entry.getValue());
+            List<TransactionOutput> outputs = blkTx.getTransaction().getOutputs();
+            for(int i = 0; i < outputs.size(); i++) {
+                TransactionOutput output = outputs.get(i);
+                if(ScriptType.P2TR.isScriptType(output.getScript())) {
+                    rows.addOutput(i, Index.getHashPrefix(output.getScriptBytes(), 2), output.getValue());
+                }
+            }
+        }
+        return rows;
+    }
+
+    public void clear() {
+        Arrays.fill(txids, 0, size, null);
+        Arrays.fill(tweaks, 0, size, null);
+        size = 0;
+        outputCount = 0;
+        firstOutputs[0] = 0;
+    }
+
+    /**
+     * Adds a transaction, to which the outputs added until the next transaction belong.
+     *
+     * @param txid the txid in display byte order
+     * @param height the block height, or 0 for mempool transactions
+     * @param tweak the 64 byte tweak
+     */
+    public void addTransaction(byte[] txid, int height, byte[] tweak) {
+        if(size + 1 == firstOutputs.length) {
+            int capacity = txids.length * 2;
+            txids = Arrays.copyOf(txids, capacity);
+            tweaks = Arrays.copyOf(tweaks, capacity);
+            heights = Arrays.copyOf(heights, capacity);
+            firstOutputs = Arrays.copyOf(firstOutputs, capacity + 1);
+        }
+        txids[size] = txid;
+        tweaks[size] = tweak;
+        heights[size] = height;
+        firstOutputs[size] = outputCount;
+        size++;
+        firstOutputs[size] = outputCount;
+    }
+
+    public void addOutput(int outputIndex, long hashPrefix, long value) {
+        if(outputCount == outputIndexes.length) {
+            int capacity = outputCount * 2;
+            outputIndexes = Arrays.copyOf(outputIndexes, capacity);
+            hashPrefixes = Arrays.copyOf(hashPrefixes, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        outputIndexes[outputCount] = outputIndex;
+        hashPrefixes[outputCount] = hashPrefix;
+        values[outputCount] = value;
+        outputCount++;
+        firstOutputs[size] = outputCount;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public byte[] getTxid(int row) {
+        return txids[row];
+    }
+
+    public byte[] getTweak(int row) {
+        return tweaks[row];
+    }
+
+    public int getHeight(int row) {
+        return heights[row];
+    }
+
+    public int getMaxHeight() {
+        int maxHeight = -1;
+        for(int i = 0; i < size; i++) {
+            maxHeight = Math.max(maxHeight, heights[i]);
+        }
+        return maxHeight;
+    }
+
+    public int getOutputCount(int row) {
+        return firstOutputs[row + 1] - firstOutputs[row];
+    }
+
+    public int getOutputIndex(int row, int output) {
+        return outputIndexes[firstOutputs[row] + output];
+    }
+
+    public long getHashPrefix(int row, int output) {
+        return hashPrefixes[firstOutputs[row] + output];
+    }
+
+    public long getValue(int row, int output) {
+        return values[firstOutputs[row] + output];
+    }
+
+    /**
+     * Returns the largest value of the outputs of a row, as appended to the max_value column of the tweak table.
+     */
+    public long getMaxValue(int row) {
+        long maxValue = 0;
+        for(int i = firstOutputs[row]; i < firstOutputs[row + 1]; i++) {
+            maxValue = Math.max(maxValue, values[i]);
+        }
+        return maxValue;
+    }
+
+    /**
+     * Returns the hash prefixes of all outputs of a row, as appended to the outputs column of the tweak table.
+     */
+    public long[] getHashPrefixes(int row) {
+        return Arrays.copyOfRange(hashPrefixes, firstOutputs[row], firstOutputs[row + 1]);
+    }
+
+    /**
+     * Returns the output indexes of all outputs of a row, as appended to the unspent_outputs column of the tweak table.
+     */
+    public long[] getOutputIndexes(int row) {
+        long[] indexes = new long[getOutputCount(row)];
+        for(int i = 0; i < indexes.length; i++) {
+            indexes[i] = outputIndexes[firstOutputs[row] + i];
+        }
+        return indexes;
+    }
+
+    public Set<Sha256Hash> getTxIds() {
+        Set<Sha256Hash> txIds = new HashSet<>(size * 2);
+        for(int i = 0; i < size; i++) {
+            txIds.add(Sha256Hash.wrap(txids[i]));
+        }
+        return txIds;
+    }
+}
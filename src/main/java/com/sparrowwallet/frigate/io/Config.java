@@ -7,6 +7,7 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.toml.TomlMapper;
+import com.sparrowwallet.frigate.index.Compactor;
 import com.sparrowwallet.frigate.index.IndexMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -253,6 +254,8 @@ public class Config {
         private String authType;
         private String dataDir;
         private String auth;
+        private Boolean zmq;
+        private String zmqEndpoint;
 
         public Boolean getConnect() {
             return connect;
@@ -320,6 +323,27 @@ public class Config {
         public Server getServerObj() {
             return server != null ? Server.fromString(server) : null;
         }
+
+        public Boolean getZmq() {
+            return zmq;
+        }
+
+        public void setZmq(Boolean zmq) {
+            this.zmq = zmq;
+        }
+
+        @JsonIgnore
+        public boolean shouldUseZmq() {
+            return zmq == null || zmq;
+        }
+
+        public String getZmqEndpoint() {
+            return zmqEndpoint;
+        }
+
+        public void setZmqEndpoint(String zmqEndpoint) {
+            this.zmqEndpoint = zmqEndpoint;
+        }
     }
 
     @JsonIgnoreProperties(ignoreUnknown = true)
@@ -330,6 +354,14 @@ public class Config {
         private IndexMode mode;
         private Long utxoMinValue;
         private Integer lastIndexedBlockHeight;
+        private Integer tweakThreads;
+        private Integer backfillWindow;
+        private Integer backfillThreads;
+        private Integer hybridWindow;
+        private Boolean trackSpends;
+        private Integer shardSize;
+        private Double compactThreshold;
+        private Integer compactInterval;
 
         public Integer getStartHeight() {
             return startHeight;
@@ -360,6 +392,71 @@ public class Config {
             this.mode = mode;
         }
 
+        public Integer getHybridWindow() {
+            return hybridWindow;
+        }
+
+        public void setHybridWindow(Integer hybridWindow) {
+            this.hybridWindow = hybridWindow;
+        }
+
+        @JsonIgnore
+        public int getHybridWindowBlocks() {
+            return hybridWindow == null || hybridWindow < 1 ? 26280 : hybridWindow;
+        }
+
+        public Boolean getTrackSpends() {
+            return trackSpends;
+        }
+
+        public void setTrackSpends(Boolean trackSpends) {
+            this.trackSpends = trackSpends;
+        }
+
+        @JsonIgnore
+        public boolean shouldTrackSpends() {
+            return trackSpends != null && trackSpends;
+        }
+
+        public Integer getShardSize() {
+            return shardSize;
+        }
+
+        public void setShardSize(Integer shardSize) {
+            this.shardSize = shardSize;
+        }
+
+        @JsonIgnore
+        public int getShardSizeBlocks() {
+            return shardSize == null || shardSize < 1 ? 0 : shardSize;
+        }
+
+        public Double getCompactThreshold() {
+            return compactThreshold;
+        }
+
+        public void setCompactThreshold(Double compactThreshold) {
+            this.compactThreshold = compactThreshold;
+        }
+
+        @JsonIgnore
+        public double getCompactThresholdFraction() {
+            return compactThreshold == null || compactThreshold < 0 || compactThreshold > 1 ? Compactor.DEFAULT_THRESHOLD : compactThreshold;
+        }
+
+        public Integer getCompactInterval() {
+            return compactInterval;
+        }
+
+        public void setCompactInterval(Integer compactInterval) {
+            this.compactInterval = compactInterval;
+        }
+
+        @JsonIgnore
+        public int getCompactIntervalSeconds() {
+            return compactInterval == null || compactInterval < 0 ? Compactor.DEFAULT_INTERVAL_SECONDS : compactInterval;
+        }
+
         public long getUtxoMinValue() {
             return utxoMinValue == null ? 1000L : utxoMinValue;
         }
@@ -368,6 +465,45 @@ public class Config {
             this.utxoMinValue = utxoMinValue;
         }
 
+        public Integer getTweakThreads() {
+            return tweakThreads;
+        }
+
+        public void setTweakThreads(Integer tweakThreads) {
+            this.tweakThreads = tweakThreads;
+        }
+
+        @JsonIgnore
+        public int getTweakThreadCount() {
+            return tweakThreads == null || tweakThreads < 1 ? Runtime.getRuntime().availableProcessors() : tweakThreads;
+        }
+
+        public Integer getBackfillWindow() {
+            return backfillWindow;
+        }
+
+        public void setBackfillWindow(Integer backfillWindow) {
+            this.backfillWindow = backfillWindow;
+        }
+
+        @JsonIgnore
+        public int getBackfillWindowBlocks() {
+            return backfillWindow == null || backfillWindow < 0 ? 0 : backfillWindow;
+        }
+
+        public Integer getBackfillThreads() {
+            return backfillThreads;
+        }
+
+        public void setBackfillThreads(Integer backfillThreads) {
+            this.backfillThreads = backfillThreads;
+        }
+
+        @JsonIgnore
+        public int getBackfillThreadCount() {
+            return backfillThreads == null || backfillThreads < 1 ? 4 : backfillThreads;
+        }
+
         public Integer getLastIndexedBlockHeight() {
             return lastIndexedBlockHeight;
         }
@@ -391,6 +527,8 @@ public class Config {
         private Integer batchSize;
         private String computeBackend;
         private Integer dbThreads;
+        private List<String> workers;
+        private Integer workerSliceSize;
 
         public int getBatchSize() {
             return batchSize != null ? batchSize : DEFAULT_BATCH_SIZE;
@@ -427,6 +565,27 @@ public class Config {
         public void setDbThreads(Integer dbThreads) {
             this.dbThreads = dbThreads;
         }
+
+        public List<String> getWorkers() {
+            return workers;
+        }
+
+        public void setWorkers(List<String> workers) {
+            this.workers = workers;
+        }
+
+        public Integer getWorkerSliceSize() {
+            return workerSliceSize;
+        }
+
+        public void setWorkerSliceSize(Integer workerSliceSize) {
+            this.workerSliceSize = workerSliceSize;
+        }
+
+        @JsonIgnore
+        public int getWorkerSliceBlocks() {
+            return workerSliceSize == null || workerSliceSize < 1 ? 20000 : workerSliceSize;
+        }
     }
 
     @JsonIgnoreProperties(ignoreUnknown = true)
@@ -434,6 +593,9 @@ public class Config {
     public static class ServerConfig {
         private Integer port;
         private String backendElectrumServer;
+        private Integer workerPort;
+        private String workerAddress;
+        private String workerSecret;
 
         public int getPort() {
             return port != null ? port : com.sparrowwallet.frigate.electrum.ElectrumServerRunnable.DEFAULT_PORT;
@@ -455,6 +617,30 @@ public class Config {
         public Server getBackendElectrumServerObj() {
             return backendElectrumServer != null ? Server.fromString(backendElectrumServer) : null;
         }
+
+        public Integer getWorkerPort() {
+            return workerPort;
+        }
+
+        public void setWorkerPort(Integer workerPort) {
+            this.workerPort = workerPort;
+        }
+
+        public String getWorkerAddress() {
+            return workerAddress != null ? workerAddress : "127.0.0.1";
+        }
+
+        public void setWorkerAddress(String workerAddress) {
+            this.workerAddress = workerAddress;
+        }
+
+        public String getWorkerSecret() {
+            return workerSecret;
+        }
+
+        public void setWorkerSecret(String workerSecret) {
+            this.workerSecret = workerSecret;
+        }
     }
 
     @JsonIgnoreProperties(ignoreUnknown = true)
@@ -462,6 +648,9 @@ public class Config {
     public static class DatabaseConfig {
         private String url;
         private List<String> readUrls;
+        private Integer replicaConcurrency;
+        private String snapshotPath;
+        private Integer snapshotInterval;
 
         public String getUrl() {
             return url;
@@ -478,5 +667,44 @@ public class Config {
         public void setReadUrls(List<String> readUrls) {
             this.readUrls = readUrls;
         }
+
+        public Integer getReplicaConcurrency() {
+            return replicaConcurrency;
+        }
+
+        public void setReplicaConcurrency(Integer replicaConcurrency) {
+            this.replicaConcurrency = replicaConcurrency;
+        }
+
+        @JsonIgnore
+        public int getReplicaConcurrencyLimit() {
+            return replicaConcurrency == null || replicaConcurrency < 1 ? 10 : replicaConcurrency;
+        }
+
+        public String getSnapshotPath() {
+            return snapshotPath;
+        }
+
+        public void setSnapshotPath(String snapshotPath) {
+            this.snapshotPath = snapshotPath;
+        }
+
+        @JsonIgnore
+        public File getSnapshotFile() {
+            return snapshotPath != null ? new File(snapshotPath) : null;
+        }
+
+        public Integer getSnapshotInterval() {
+            return snapshotInterval;
+        }
+
+        public void setSnapshotInterval(Integer snapshotInterval) {
+            this.snapshotInterval = snapshotInterval;
+        }
+
+        @JsonIgnore
+        public int getSnapshotIntervalSeconds() {
+            return snapshotInterval == null || snapshotInterval < 0 ? 600 : snapshotInterval;
+        }
     }
 }
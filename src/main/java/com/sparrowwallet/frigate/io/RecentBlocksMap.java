@@ -10,6 +10,10 @@ import java.util.Collections;
 import java.util.Map;
 import java.util.TreeMap;
 
+/**
+ * The recent block hashes previously written to the recentblocks file, which are now kept in the index_meta table of the index.
+ * This is only read once, to carry the hashes over to a database created before that table.
+ */
 public class RecentBlocksMap {
     private static final String RECENT_BLOCKS_FILENAME = "recentblocks";
 
@@ -22,25 +26,14 @@ public class RecentBlocksMap {
         loadFromDisk();
     }
 
-    public synchronized String put(Integer height, String blockHash) {
-        String oldValue = data.put(height, blockHash);
-        enforceMaxSize();
-        flush();
-        return oldValue;
-    }
-
-    public synchronized String remove(Integer height) {
-        String removedValue = data.remove(height);
-        if(removedValue != null) {
-            flush();
-        }
-        return removedValue;
-    }
-
     public synchronized String get(Integer height) {
         return data.get(height);
     }
 
+    public synchronized Map<Integer, String> getBlockHashes() {
+        return new TreeMap<>(data);
+    }
+
     public synchronized String getTipBlockHash() {
         if(data.isEmpty()) {
             return null;
@@ -55,6 +48,13 @@ public class RecentBlocksMap {
         return data.firstKey();
     }
 
+    public void delete() {
+        File recentBlocksFile = getRecentBlocksFile();
+        if(recentBlocksFile.exists() && !recentBlocksFile.delete()) {
+            recentBlocksFile.deleteOnExit();
+        }
+    }
+
     private void enforceMaxSize() {
         while(data.size() > maxSize) {
             data.pollLastEntry();
@@ -79,23 +79,6 @@ public class RecentBlocksMap {
         }
     }
 
-    private synchronized void flush() {
-        Gson gson = getGson();
-        try {
-            File recentBlocksFile = getRecentBlocksFile();
-            if(!recentBlocksFile.exists()) {
-                Storage.createOwnerOnlyFile(recentBlocksFile);
-            }
-
-            try(Writer writer = new FileWriter(recentBlocksFile)) {
-                gson.toJson(this.data, writer);
-                writer.flush();
-            }
-        } catch(IOException e) {
-            //Ignore
-        }
-    }
-
     private Gson getGson() {
         return new GsonBuilder().setPrettyPrinting().create();
     }
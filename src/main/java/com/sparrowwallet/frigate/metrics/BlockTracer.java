@@ -0,0 +1,161 @@
+package com.sparrowwallet.frigate.metrics;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Traces the path of each new block from detection by the bitcoind poller, through indexing and dispatch of the subscription
+ * scans it triggers, to the last notification written to a client socket.
+ * A span is opened when an index update covers a detected block, keyed by the first height of the update, and is closed once
+ * every scan dispatched for it has completed. Blocks indexed during the initial catch up are not traced.
+ */
+public class BlockTracer {
+    private static final BlockTracer INSTANCE = new BlockTracer();
+    private static final int MAX_DETECTIONS = 100;
+    private static final int MAX_RECENT_SPANS = 20;
+
+    private final NavigableMap<Integer, Long> detections = new TreeMap<>();
+    private final Map<Integer, Span> openSpans = new ConcurrentHashMap<>();
+    private final Deque<SpanSummary> recentSpans = new ArrayDeque<>();
+
+    private final LatencyHistogram indexedLatency = new LatencyHistogram();
+    private final LatencyHistogram notificationLatency = new LatencyHistogram();
+    private final LatencyHistogram completeLatency = new LatencyHistogram();
+
+    public static BlockTracer get() {
+        return INSTANCE;
+    }
+
+    public synchronized void blockDetected(int height) {
+        detections.putIfAbsent(height, System.nanoTime());
+        while(detections.size() > MAX_DETECTIONS) {
+            detections.pollFirstEntry();
+        }
+    }
+
+    /**
+     * Opens a span for an index update covering heights from to to, if a block at or above from was detected before it.
+     */
+    public void blocksIndexed(int fromHeight, int toHeight) {
+        Long detectedNanos;
+        synchronized(this) {
+            Map.Entry<Integer, Long> detection = detections.ceilingEntry(fromHeight);
+            if(detection == null) {
+                return;
+            }
+            detectedNanos = detection.getValue();
+            detections.headMap(toHeight, true).clear();
+        }
+
+        long indexedNanos = System.nanoTime();
+        indexedLatency.recordNanos(indexedNanos - detectedNanos);
+        openSpans.put(fromHeight, new Span(fromHeight, toHeight, detectedNanos, indexedNanos));
+    }
+
+    public void blocksDispatched(int fromHeight) {
+        Span span = openSpans.get(fromHeight);
+        if(span != null) {
+            span.dispatched();
+        }
+    }
+
+    public Span getSpan(Integer fromHeight) {
+        return fromHeight == null ? null : openSpans.get(fromHeight);
+    }
+
+    public LatencyHistogram getIndexedLatency() {
+        return indexedLatency;
+    }
+
+    public LatencyHistogram getNotificationLatency() {
+        return notificationLatency;
+    }
+
+    public LatencyHistogram getCompleteLatency() {
+        return completeLatency;
+    }
+
+    public synchronized List<SpanSummary> getRecentSpans() {
+        return new ArrayList<>(recentSpans);
+    }
+
+    private void close(Span span, long completeNanos) {
+        openSpans.remove(span.fromHeight, span);
+        completeLatency.recordNanos(completeNanos - span.detectedNanos);
+
+        SpanSummary summary = new SpanSummary(span.fromHeight, span.toHeight, (span.indexedNanos - span.detectedNanos) / 1000,
+                (span.dispatchedNanos - span.detectedNanos) / 1000, (completeNanos - span.detectedNanos) / 1000, span.scans, span.notifications);
+        synchronized(this) {
+            recentSpans.addFirst(summary);
+            if(recentSpans.size() > MAX_RECENT_SPANS) {
+                recentSpans.removeLast();
+            }
+        }
+    }
+
+    public class Span {
+        private final int fromHeight;
+        private final int toHeight;
+        private final long detectedNanos;
+        private final long indexedNanos;
+        private long dispatchedNanos;
+        private boolean dispatched;
+        private int pending;
+        private int scans;
+        private int notifications;
+        private long lastNotificationNanos;
+
+        private Span(int fromHeight, int toHeight, long detectedNanos, long indexedNanos) {
+            this.fromHeight = fromHeight;
+            this.toHeight = toHeight;
+            this.detectedNanos = detectedNanos;
+            this.indexedNanos = indexedNanos;
+        }
+
+        public synchronized void scanStarted() {
+            pending++;
+            scans++;
+        }
+
+        public void scanCompleted(boolean notified) {
+            long now = System.nanoTime();
+            if(notified) {
+                notificationLatency.recordNanos(now - detectedNanos);
+            }
+
+            boolean complete;
+            long completeNanos;
+            synchronized(this) {
+                pending--;
+                if(notified) {
+                    notifications++;
+                    lastNotificationNanos = now;
+                }
+                complete = dispatched && pending == 0;
+                completeNanos = notifications > 0 ? lastNotificationNanos : now;
+            }
+
+            if(complete) {
+                close(this, completeNanos);
+            }
+        }
+
+        private void dispatched() {
+            long now = System.nanoTime();
+            boolean complete;
+            long completeNanos;
+            synchronized(this) {
+                dispatched = true;
+                dispatchedNanos = now;
+                complete = pending == 0;
+                completeNanos = notifications > 0 ? lastNotificationNanos : now;
+            }
+
+            if(complete) {
+                close(this, completeNanos);
+            }
+        }
+    }
+
+    public record SpanSummary(int fromHeight, int toHeight, long indexedMicros, long dispatchedMicros, long completeMicros, int scans, int notifications) {}
+}
@@ -23,4 +23,5 @@ module com.sparrowwallet.frigate {
     exports com.sparrowwallet.frigate.http;
     opens com.sparrowwallet.frigate.control to com.google.common;
     opens com.sparrowwallet.frigate.io to com.fasterxml.jackson.databind;
+    opens com.sparrowwallet.frigate.index to com.fasterxml.jackson.databind, com.google.gson;
 }
@@ -0,0 +1,206 @@
+package com.sparrowwallet.frigate.bitcoind;
+
+import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.drongo.protocol.Block;
+import com.sparrowwallet.drongo.protocol.HashIndex;
+import com.sparrowwallet.drongo.protocol.Transaction;
+import com.sparrowwallet.drongo.protocol.TransactionOutput;
+import com.sparrowwallet.drongo.protocol.TransactionOutPoint;
+import com.sparrowwallet.frigate.index.Index;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class RawBlockScannerTest {
+    private static final String GENESIS_BLOCK = "0100000000000000000000000000000000000000000000000000000000000000000000003ba3edfd7a7b12b27ac72c3e67768f617fc81bc3888a51323a9fb8aa4b1e5e4a" +
+            "29ab5f49ffff001d1dac2b7c0101000000010000000000000000000000000000000000000000000000000000000000000000ffffffff4d04ffff001d0104455468652054696d6573" +
+            "2030332f4a616e2f32303039204368616e63656c6c6f72206f6e206272696e6b206f66207365636f6e64206261696c6f757420666f722062616e6b73ffffffff0100f2052a01000000" +
+            "434104678afdb0fe5548271967f1a67130b7105cd6a828e03909a67962e0ea1f61deb649f6bc3f4cef38c4f35504e51ec112de5c384df7ba0b8d578a4c702b6bf11d5fac00000000";
+
+    @Test
+    public void testGenesisBlock() {
+        RawBlockScanner scanner = new RawBlockScanner();
+        scanner.scan(GENESIS_BLOCK);
+
+        Assertions.assertEquals(1231006505L, scanner.getBlockTime());
+        Assertions.assertEquals(1, scanner.getTransactionCount());
+        Assertions.assertEquals("4a5e1e4baab89f3a32518a88c31bc87f618f76673e2cc77ab2127b7afdeda33b", scanner.getTxId(0).toString());
+        Assertions.assertTrue(scanner.isCoinBase(0));
+        Assertions.assertEquals(5_000_000_000L, scanner.getOutputValue(0, 0));
+        Assertions.assertFalse(scanner.isTaprootOutput(0, 0));
+        assertMatchesBlock(scanner, new Block(Utils.hexToBytes(GENESIS_BLOCK)));
+    }
+
+    @Test
+    public void testSegwitBlock() {
+        String blockHex = Utils.bytesToHex(createSegwitBlock(new Random(1L)));
+        RawBlockScanner scanner = new RawBlockScanner();
+        scanner.scan(blockHex);
+
+        Assertions.assertEquals(1_700_000_000L, scanner.getBlockTime());
+        Assertions.assertEquals(4, scanner.getTransactionCount());
+        Assertions.assertTrue(scanner.isCoinBase(0));
+        Assertions.assertFalse(scanner.isCoinBase(1));
+        Assertions.assertTrue(scanner.containsTaprootOutput(1, 10_000L));
+        Assertions.assertFalse(scanner.containsTaprootOutput(1, 1_000_000L));
+        Assertions.assertFalse(scanner.containsTaprootOutput(2, 0L));
+        assertMatchesBlock(scanner, new Block(Utils.hexToBytes(blockHex)));
+
+        //The buffers are reused, so a smaller block scanned next must not show rows of the previous one
+        scanner.scan(GENESIS_BLOCK);
+        Assertions.assertEquals(1, scanner.getTransactionCount());
+        Assertions.assertEquals(1, scanner.getOutputCount(0));
+    }
+
+    @Test
+    public void testTrailingBytes() {
+        RawBlockScanner scanner = new RawBlockScanner();
+        IllegalArgumentException exception = Assertions.assertThrows(IllegalArgumentException.class, () -> scanner.scan(GENESIS_BLOCK + "0000"));
+        Assertions.assertEquals("Block has 2 unexpected trailing bytes", exception.getMessage());
+    }
+
+    private static void assertMatchesBlock(RawBlockScanner scanner, Block block) {
+        List<Transaction> transactions = block.getTransactions();
+        Assertions.assertEquals(transactions.size(), scanner.getTransactionCount());
+        for(int t = 0; t < transactions.size(); t++) {
+            Transaction tx = transactions.get(t);
+            Assertions.assertEquals(tx.getTxId(), scanner.getTxId(t));
+            Assertions.assertEquals(tx.getTxId(), scanner.getTransaction(t).getTxId());
+            Assertions.assertEquals(tx.isCoinBase(), scanner.isCoinBase(t));
+
+            Assertions.assertEquals(tx.getInputs().size(), scanner.getInputCount(t));
+            for(int i = 0; i < tx.getInputs().size(); i++) {
+                TransactionOutPoint outpoint = tx.getInputs().get(i).getOutpoint();
+                HashIndex scanned = scanner.getOutpoint(t, i);
+                Assertions.assertEquals(outpoint.getHash(), scanned.getHash());
+                Assertions.assertEquals(outpoint.getIndex(), scanned.getIndex());
+            }
+
+            Assertions.assertEquals(tx.getOutputs().size(), scanner.getOutputCount(t));
+            for(int o = 0; o < tx.getOutputs().size(); o++) {
+                TransactionOutput output = tx.getOutputs().get(o);
+                byte[] script = output.getScriptBytes();
+                int offset = scanner.getScriptOffset(t, o);
+                Assertions.assertEquals(output.getValue(), scanner.getOutputValue(t, o));
+                Assertions.assertArrayEquals(script, Arrays.copyOfRange(scanner.getData(), offset, offset + scanner.getScriptLength(t, o)));
+
+                boolean taproot = script.length == 34 && script[0] == 0x51 && script[1] == 0x20;
+                Assertions.assertEquals(taproot, scanner.isTaprootOutput(t, o));
+                if(taproot) {
+                    Assertions.assertEquals(Index.getHashPrefix(script, 2), scanner.getTaprootHashPrefix(t, o));
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a block with a segwit coinbase, a segwit spend with taproot, P2WPKH and OP_RETURN outputs and a script long enough to
+     * need a three byte length, a legacy spend with a script signature, and a segwit spend with several witness items per input.
+     */
+    private static byte[] createSegwitBlock(Random random) {
+        byte[] commitment = Utils.concat(Utils.hexToBytes("6a24aa21a9ed"), randomBytes(random, 32));
+        byte[] coinbaseOutpoint = Utils.concat(new byte[32], Utils.hexToBytes("ffffffff"));
+        byte[] coinbase = createTransaction(List.of(coinbaseOutpoint), List.of(Utils.hexToBytes("03a08601")), List.of(List.of(new byte[32])),
+                new long[] { 312_500_000L, 0L }, List.of(createTaprootScript(random), commitment));
+
+        byte[] p2wpkh = Utils.concat(Utils.hexToBytes("0014"), randomBytes(random, 20));
+        byte[] longScript = Utils.concat(Utils.hexToBytes("6a4d2c01"), randomBytes(random, 300));
+        byte[] segwitSpend = createTransaction(List.of(randomOutpoint(random, 0), randomOutpoint(random, 7)), List.of(new byte[0], new byte[0]),
+                List.of(List.of(randomBytes(random, 64)), List.of(randomBytes(random, 71), randomBytes(random, 33))),
+                new long[] { 50_000L, 20_000L, 0L, 1_000L }, List.of(createTaprootScript(random), p2wpkh, longScript, createTaprootScript(random)));
+
+        byte[] legacySpend = createTransaction(List.of(randomOutpoint(random, 1)), List.of(randomBytes(random, 106)), null,
+                new long[] { 90_000L }, List.of(Utils.concat(Utils.hexToBytes("76a914"), Utils.concat(randomBytes(random, 20), Utils.hexToBytes("88ac")))));
+
+        byte[] multiWitnessSpend = createTransaction(List.of(randomOutpoint(random, 2), randomOutpoint(random, 0xfffe)), List.of(new byte[0], new byte[0]),
+                List.of(List.of(new byte[0], randomBytes(random, 72), randomBytes(random, 72), randomBytes(random, 253)), List.of(randomBytes(random, 65))),
+                new long[] { 700_000L }, List.of(createTaprootScript(random)));
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        writeUint(block, 0x20000000L, 4);
+        block.writeBytes(randomBytes(random, 64));
+        writeUint(block, 1_700_000_000L, 4);
+        writeUint(block, 0x17034219L, 4);
+        writeUint(block, random.nextInt() & 0xffffffffL, 4);
+        List<byte[]> txs = List.of(coinbase, segwitSpend, legacySpend, multiWitnessSpend);
+        writeVarInt(block, txs.size());
+        txs.forEach(block::writeBytes);
+        return block.toByteArray();
+    }
+
+    private static byte[] createTransaction(List<byte[]> outpoints, List<byte[]> scriptSigs, List<List<byte[]>> witnesses, long[] values, List<byte[]> scripts) {
+        ByteArrayOutputStream tx = new ByteArrayOutputStream();
+        writeUint(tx, 2, 4);
+        if(witnesses != null) {
+            tx.write(0x00);
+            tx.write(0x01);
+        }
+
+        writeVarInt(tx, outpoints.size());
+        for(int i = 0; i < outpoints.size(); i++) {
+            tx.writeBytes(outpoints.get(i));
+            writeVarInt(tx, scriptSigs.get(i).length);
+            tx.writeBytes(scriptSigs.get(i));
+            writeUint(tx, 0xfffffffdL, 4);
+        }
+
+        writeVarInt(tx, scripts.size());
+        for(int o = 0; o < scripts.size(); o++) {
+            writeUint(tx, values[o], 8);
+            writeVarInt(tx, scripts.get(o).length);
+            tx.writeBytes(scripts.get(o));
+        }
+
+        if(witnesses != null) {
+            for(List<byte[]> witness : witnesses) {
+                writeVarInt(tx, witness.size());
+                for(byte[] item : witness) {
+                    writeVarInt(tx, item.length);
+                    tx.writeBytes(item);
+                }
+            }
+        }
+
+        writeUint(tx, 0, 4);
+        return tx.toByteArray();
+    }
+
+    private static byte[] randomOutpoint(Random random, long index) {
+        ByteArrayOutputStream outpoint = new ByteArrayOutputStream();
+        outpoint.writeBytes(randomBytes(random, 32));
+        writeUint(outpoint, index, 4);
+        return outpoint.toByteArray();
+    }
+
+    private static byte[] createTaprootScript(Random random) {
+        return Utils.concat(new byte[] { 0x51, 0x20 }, randomBytes(random, 32));
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void writeUint(ByteArrayOutputStream out, long value, int bytes) {
+        for(int i = 0; i < bytes; i++) {
+            out.write((int)(value >>> (8 * i)) & 0xff);
+        }
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, long value) {
+        if(value < 0xfd) {
+            out.write((int)value);
+        } else if(value <= 0xffff) {
+            out.write(0xfd);
+            writeUint(out, value, 2);
+        } else {
+            out.write(0xfe);
+            writeUint(out, value, 4);
+        }
+    }
+}
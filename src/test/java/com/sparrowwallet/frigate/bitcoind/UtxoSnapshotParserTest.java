@@ -0,0 +1,155 @@
+package com.sparrowwallet.frigate.bitcoind;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+public class UtxoSnapshotParserTest {
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void testParseGroups() throws Exception {
+        byte[] p2tr = new byte[34];
+        p2tr[0] = 0x51;
+        p2tr[1] = 0x20;
+        Arrays.fill(p2tr, 2, 34, (byte)0x11);
+
+        ByteArrayOutputStream coins = new ByteArrayOutputStream();
+        //Group 1: a P2PKH and two P2TR outputs, one of which is below the minimum value
+        writeGroup(coins, (byte)0x01, 3);
+        writeCoin(coins, 0, 100, false, 50_000, new byte[0], 0);
+        writeCoin(coins, 1, 100, false, 1_000_000, p2tr, -1);
+        writeCoin(coins, 2, 100, false, 500, p2tr, -1);
+        //Group 2: only a P2WPKH output
+        writeGroup(coins, (byte)0x02, 1);
+        writeCoin(coins, 0, 101, false, 10_000, new byte[] { 0x00, 0x14, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20 }, -1);
+        //Group 3: a coinbase P2TR output
+        writeGroup(coins, (byte)0x03, 1);
+        writeCoin(coins, 0, 102, true, 5_000_000_000L, p2tr, -1);
+        //Group 4: a P2PK and a P2TR output
+        writeGroup(coins, (byte)0x04, 2);
+        writeCoin(coins, 0, 103, false, 1000, new byte[0], 2);
+        writeCoin(coins, 5, 103, false, 21_000_000, p2tr, -1);
+
+        File snapshotFile = writeSnapshot(coins.toByteArray(), 7);
+        UtxoSnapshotParser parser = new UtxoSnapshotParser(snapshotFile);
+        List<UtxoSnapshotParser.UtxoGroup> groups = new ArrayList<>();
+        long count = parser.parseP2TRUtxoGroups(1000, null, groups::add);
+
+        Assertions.assertEquals(7, parser.getCoinCount());
+        Assertions.assertEquals("ff".repeat(31) + "00", parser.getBaseBlockHash());
+        Assertions.assertEquals(2, count);
+        Assertions.assertEquals(2, groups.size());
+
+        UtxoSnapshotParser.UtxoGroup first = groups.get(0);
+        Assertions.assertEquals("01".repeat(31) + "aa", first.txid());
+        Assertions.assertEquals(100, first.height());
+        Assertions.assertEquals(1, first.utxos().size());
+        Assertions.assertEquals(1, first.utxos().getFirst().vout());
+        Assertions.assertEquals(1_000_000, first.utxos().getFirst().amount());
+        Assertions.assertArrayEquals(Arrays.copyOfRange(p2tr, 2, 34), first.utxos().getFirst().scriptData());
+
+        UtxoSnapshotParser.UtxoGroup second = groups.get(1);
+        Assertions.assertEquals("04".repeat(31) + "aa", second.txid());
+        Assertions.assertEquals(5, second.utxos().getFirst().vout());
+        Assertions.assertEquals(21_000_000, second.utxos().getFirst().amount());
+
+        List<UtxoSnapshotParser.UtxoGroup> resumed = new ArrayList<>();
+        Assertions.assertEquals(1, parser.parseP2TRUtxoGroups(1000, first.next(), resumed::add));
+        Assertions.assertEquals(1, resumed.size());
+        Assertions.assertEquals(second.txid(), resumed.getFirst().txid());
+        Assertions.assertEquals(second.next(), resumed.getFirst().next());
+    }
+
+    @Test
+    public void testTruncatedSnapshot() throws IOException {
+        ByteArrayOutputStream coins = new ByteArrayOutputStream();
+        writeGroup(coins, (byte)0x01, 2);
+        writeCoin(coins, 0, 100, false, 50_000, new byte[0], 0);
+
+        UtxoSnapshotParser parser = new UtxoSnapshotParser(writeSnapshot(coins.toByteArray(), 2));
+        Assertions.assertThrows(IOException.class, () -> parser.parseP2TRUtxoGroups(0, null, _ -> {}));
+    }
+
+    private File writeSnapshot(byte[] coins, long coinCount) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[] { 0x75, 0x74, 0x78, 0x6f, (byte)0xff, 0x02, 0x00 });
+        out.writeBytes(HexFormat.of().parseHex("fabfb5da"));
+        byte[] blockHash = new byte[32];
+        Arrays.fill(blockHash, (byte)0xff);
+        blockHash[0] = 0;
+        out.writeBytes(blockHash);
+        for(int i = 0; i < 8; i++) {
+            out.write((int)(coinCount >>> (8 * i)));
+        }
+        out.writeBytes(coins);
+
+        File snapshotFile = new File(tempDir, "utxos.dat");
+        Files.write(snapshotFile.toPath(), out.toByteArray());
+        return snapshotFile;
+    }
+
+    private static void writeGroup(ByteArrayOutputStream out, byte txidByte, int coins) {
+        byte[] txid = new byte[32];
+        Arrays.fill(txid, txidByte);
+        txid[0] = (byte)0xaa;
+        out.writeBytes(txid);
+        out.write(coins);
+    }
+
+    private static void writeCoin(ByteArrayOutputStream out, int vout, int height, boolean coinbase, long amount, byte[] script, int scriptType) {
+        out.write(vout);
+        writeVarInt(out, height * 2L + (coinbase ? 1 : 0));
+        writeVarInt(out, compressAmount(amount));
+        if(scriptType >= 0) {
+            writeVarInt(out, scriptType);
+            out.writeBytes(new byte[scriptType < 2 ? 20 : 32]);
+        } else {
+            writeVarInt(out, script.length + 6);
+            out.writeBytes(script);
+        }
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, long n) {
+        byte[] tmp = new byte[10];
+        int len = 0;
+        while(true) {
+            tmp[len] = (byte)((n & 0x7F) | (len > 0 ? 0x80 : 0x00));
+            if(n <= 0x7F) {
+                break;
+            }
+            n = (n >> 7) - 1;
+            len++;
+        }
+        for(int i = len; i >= 0; i--) {
+            out.write(tmp[i]);
+        }
+    }
+
+    private static long compressAmount(long n) {
+        if(n == 0) {
+            return 0;
+        }
+        int e = 0;
+        while(n % 10 == 0 && e < 9) {
+            n /= 10;
+            e++;
+        }
+        if(e < 9) {
+            long d = n % 10;
+            n /= 10;
+            return 1 + (n * 9 + d - 1) * 10 + e;
+        }
+        return 1 + (n - 1) * 10 + 9;
+    }
+}
@@ -0,0 +1,119 @@
+package com.sparrowwallet.frigate.bitcoind;
+
+import com.sparrowwallet.drongo.Utils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class ZmqSubscriberTest {
+    @Test
+    public void testReadyCommand() {
+        Assertions.assertEquals("SUB", ZmqSubscriber.getSocketType(ZmqSubscriber.createReadyCommand("SUB")));
+        Assertions.assertEquals("PUB", ZmqSubscriber.getSocketType(ZmqSubscriber.createReadyCommand("PUB")));
+    }
+
+    @Test
+    public void testLongFrame() throws IOException {
+        byte[] body = new byte[1000];
+        body[999] = 0x42;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZmqSubscriber.writeFrame(out, 0x01, body);
+        ZmqSubscriber.Frame frame = ZmqSubscriber.readFrame(new DataInputStream(new ByteArrayInputStream(out.toByteArray())));
+        Assertions.assertTrue(frame.more());
+        Assertions.assertFalse(frame.command());
+        Assertions.assertArrayEquals(body, frame.body());
+    }
+
+    @Test
+    public void testSubscribe() throws Exception {
+        Set<String> topics = new LinkedHashSet<>(List.of("hashblock", "sequence"));
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        CountDownLatch connected = new CountDownLatch(1);
+
+        try(ServerSocket serverSocket = new ServerSocket(0)) {
+            ZmqSubscriber subscriber = new ZmqSubscriber("tcp://127.0.0.1:" + serverSocket.getLocalPort(), topics, new ZmqSubscriber.Listener() {
+                @Override
+                public void onConnected(ZmqSubscriber subscriber) {
+                    connected.countDown();
+                }
+
+                @Override
+                public void onMessage(String topic, byte[] body, long sequence) {
+                    received.add(topic + ":" + Utils.bytesToHex(body) + ":" + sequence);
+                }
+            });
+            subscriber.start();
+
+            try(Socket socket = serverSocket.accept()) {
+                PublisherStandIn publisher = new PublisherStandIn(socket);
+                Assertions.assertEquals(List.of("hashblock", "sequence"), publisher.handshake(topics.size()));
+                Assertions.assertTrue(connected.await(5, TimeUnit.SECONDS));
+                Assertions.assertTrue(subscriber.isConnected());
+
+                byte[] hash = Utils.hexToBytes("00000000000000000001b9a1c1a9f5e4a5c1e2f7d0c5a1b2c3d4e5f60718293a");
+                publisher.publish("hashblock", hash, 7);
+                byte[] sequenceBody = Arrays.copyOf(hash, hash.length + 9);
+                sequenceBody[hash.length] = 'A';
+                sequenceBody[hash.length + 1] = 1;
+                publisher.publish("sequence", sequenceBody, 8);
+
+                Assertions.assertEquals("hashblock:" + Utils.bytesToHex(hash) + ":7", received.poll(5, TimeUnit.SECONDS));
+                Assertions.assertEquals("sequence:" + Utils.bytesToHex(sequenceBody) + ":8", received.poll(5, TimeUnit.SECONDS));
+            } finally {
+                subscriber.stop();
+            }
+        }
+    }
+
+    private static class PublisherStandIn {
+        private final DataInputStream in;
+        private final OutputStream out;
+
+        public PublisherStandIn(Socket socket) throws IOException {
+            this.in = new DataInputStream(socket.getInputStream());
+            this.out = socket.getOutputStream();
+        }
+
+        public List<String> handshake(int subscriptions) throws IOException {
+            byte[] greeting = new byte[64];
+            in.readFully(greeting);
+            Assertions.assertEquals((byte)0xff, greeting[0]);
+            Assertions.assertEquals(3, greeting[10]);
+            out.write(ZmqSubscriber.createGreeting());
+
+            ZmqSubscriber.Frame ready = ZmqSubscriber.readFrame(in);
+            Assertions.assertTrue(ready.command());
+            Assertions.assertEquals("SUB", ZmqSubscriber.getSocketType(ready.body()));
+            ZmqSubscriber.writeFrame(out, 0x04, ZmqSubscriber.createReadyCommand("PUB"));
+            out.flush();
+
+            List<String> topics = new ArrayList<>();
+            for(int i = 0; i < subscriptions; i++) {
+                byte[] subscription = ZmqSubscriber.readFrame(in).body();
+                Assertions.assertEquals(0x01, subscription[0]);
+                topics.add(new String(subscription, 1, subscription.length - 1, StandardCharsets.US_ASCII));
+            }
+            return topics;
+        }
+
+        public void publish(String topic, byte[] body, long sequence) throws IOException {
+            ZmqSubscriber.writeFrame(out, 0x01, topic.getBytes(StandardCharsets.US_ASCII));
+            ZmqSubscriber.writeFrame(out, 0x01, body);
+            ZmqSubscriber.writeFrame(out, 0x00, new byte[] { (byte)sequence, (byte)(sequence >>> 8), (byte)(sequence >>> 16), (byte)(sequence >>> 24) });
+            out.flush();
+        }
+    }
+}
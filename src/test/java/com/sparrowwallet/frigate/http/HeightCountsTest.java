@@ -0,0 +1,58 @@
+package com.sparrowwallet.frigate.http;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class HeightCountsTest {
+    @Test
+    public void testTotals() {
+        HeightCounts counts = new HeightCounts(new int[] {100, 101, 105, 110}, new long[] {10, 20, 30, 40}, 110, 0L);
+        Assertions.assertEquals(100, counts.getTotal());
+        Assertions.assertEquals(100, counts.getTotal(null, null));
+        Assertions.assertEquals(50, counts.getTotal(101, 105));
+        Assertions.assertEquals(70, counts.getTotal(102, null));
+        Assertions.assertEquals(30, counts.getTotal(null, 104));
+        Assertions.assertEquals(0, counts.getTotal(106, 109));
+        Assertions.assertEquals(0, counts.getTotal(111, null));
+    }
+
+    @Test
+    public void testEndHeight() {
+        HeightCounts counts = new HeightCounts(new int[] {100, 101, 105, 110, 120}, new long[] {10, 20, 30, 40, 50}, 120, 0L);
+        Assertions.assertEquals(100, counts.getEndHeight(0, 5));
+        Assertions.assertEquals(100, counts.getEndHeight(100, 10));
+        Assertions.assertEquals(101, counts.getEndHeight(100, 11));
+        Assertions.assertEquals(105, counts.getEndHeight(102, 30));
+        Assertions.assertEquals(110, counts.getEndHeight(102, 31));
+
+        //Pages reaching the last height counted are not bounded, so that rows indexed since the counts were taken are included
+        Assertions.assertNull(counts.getEndHeight(106, 41));
+        Assertions.assertNull(counts.getEndHeight(121, 1));
+    }
+
+    @Test
+    public void testStale() {
+        HeightCounts counts = new HeightCounts(new int[0], new long[0], 100, 0L);
+        Assertions.assertEquals(0, counts.getTotal());
+        Assertions.assertNull(counts.getEndHeight(0, 1));
+        Assertions.assertFalse(counts.isStale(100, HeightCounts.REFRESH_MILLIS));
+        Assertions.assertFalse(counts.isStale(101, HeightCounts.REFRESH_MILLIS - 1));
+        Assertions.assertTrue(counts.isStale(101, HeightCounts.REFRESH_MILLIS));
+    }
+
+    @Test
+    public void testCursor() {
+        byte[] txid = new byte[32];
+        txid[0] = (byte)0xab;
+        BatchCursor cursor = BatchCursor.decode(new BatchCursor(900000, txid, 3).encode());
+        Assertions.assertEquals(900000, cursor.height());
+        Assertions.assertArrayEquals(txid, cursor.txid());
+        Assertions.assertEquals(3, cursor.outputIndex());
+
+        BatchCursor afterHeight = BatchCursor.decode(BatchCursor.afterHeight(900001).encode());
+        Assertions.assertEquals(900001, afterHeight.height());
+        Assertions.assertNull(afterHeight.txid());
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BatchCursor.decode("not a cursor"));
+    }
+}
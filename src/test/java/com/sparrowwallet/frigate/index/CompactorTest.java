@@ -0,0 +1,57 @@
+package com.sparrowwallet.frigate.index;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class CompactorTest {
+    @Test
+    public void testPlanRewritesFragmentedRowGroups() {
+        Compactor compactor = new Compactor(0.2d, 0L);
+        List<Compactor.RowGroup> rowGroups = List.of(
+                new Compactor.RowGroup(122880, 122880, 0, 99),
+                new Compactor.RowGroup(60000, 122880, 100, 199),
+                new Compactor.RowGroup(100000, 122880, 200, 299),
+                new Compactor.RowGroup(20000, 122880, 300, 399),
+                new Compactor.RowGroup(30000, 40000, 10000, 10009));
+
+        //Adjacent fragmented row groups are merged, while one with few deletes is left in place
+        List<HeightIntervals.Interval> ranges = compactor.plan(Index.TWEAK_TABLE, rowGroups);
+        Assertions.assertEquals(List.of(new HeightIntervals.Interval(100, 199), new HeightIntervals.Interval(300, 399), new HeightIntervals.Interval(10000, 10009)), ranges);
+
+        List<Compactor.RangeStats> stats = compactor.getFragmentation().get(Index.TWEAK_TABLE);
+        Assertions.assertEquals(2, stats.size());
+        Assertions.assertEquals(new Compactor.RangeStats(0, 9999, 302880, 188640), stats.get(0));
+        Assertions.assertEquals(new Compactor.RangeStats(10000, 19999, 30000, 10000), stats.get(1));
+        Assertions.assertEquals(0.25d, stats.get(1).getDeletedFraction());
+    }
+
+    @Test
+    public void testPlanSplitsLargeRanges() {
+        Compactor compactor = new Compactor(0.5d, 0L);
+        List<Compactor.RowGroup> rowGroups = List.of(
+                new Compactor.RowGroup(2_000_000, 4_000_000, 0, 999),
+                new Compactor.RowGroup(500_000, 500_000, 1000, 1999));
+
+        List<HeightIntervals.Interval> ranges = compactor.plan(Index.UTXO_TX_TABLE, rowGroups);
+        Assertions.assertEquals(List.of(new HeightIntervals.Interval(0, 499), new HeightIntervals.Interval(500, 999)), ranges);
+    }
+
+    @Test
+    public void testDue() {
+        Compactor compactor = new Compactor(0.2d, 60_000L);
+        long now = System.currentTimeMillis();
+        compactor.recordDeleted(10);
+        Assertions.assertFalse(compactor.isDue(now));
+        Assertions.assertTrue(compactor.isDue(now + 60_000L));
+
+        Assertions.assertEquals(10, compactor.startCheck(now + 60_000L));
+        Assertions.assertEquals(0, compactor.getPendingDeletedRows());
+        Assertions.assertFalse(compactor.isDue(now + 120_000L));
+
+        compactor.recordDeleted(5);
+        Assertions.assertTrue(compactor.isDue(now + 120_000L));
+        Assertions.assertFalse(new Compactor(0.0d, 0L).isDue(now));
+    }
+}
@@ -0,0 +1,64 @@
+package com.sparrowwallet.frigate.index;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class HeightIntervalsTest {
+    @Test
+    public void testMergesOverlappingAndAdjacentRanges() {
+        HeightIntervals intervals = HeightIntervals.of(900, 999).with(100, 199).with(200, 299).with(250, 400);
+        Assertions.assertEquals("100-400,900-999", intervals.toString());
+
+        intervals = intervals.with(401, 899);
+        Assertions.assertEquals(List.of(new HeightIntervals.Interval(100, 999)), intervals.getIntervals());
+        Assertions.assertEquals(999, intervals.getMaxHeight());
+    }
+
+    @Test
+    public void testGapsAndCounts() {
+        HeightIntervals intervals = HeightIntervals.of(100, 199).with(300, 399);
+        Assertions.assertTrue(intervals.contains(100));
+        Assertions.assertTrue(intervals.contains(399));
+        Assertions.assertFalse(intervals.contains(200));
+
+        Assertions.assertEquals(List.of(new HeightIntervals.Interval(50, 99), new HeightIntervals.Interval(200, 299), new HeightIntervals.Interval(400, 450)),
+                intervals.getGapsWithin(50, 450));
+        Assertions.assertEquals(List.of(new HeightIntervals.Interval(150, 199), new HeightIntervals.Interval(300, 320)), intervals.getIntervalsWithin(150, 320));
+        Assertions.assertEquals(71, intervals.countWithin(150, 320));
+        Assertions.assertTrue(intervals.getGapsWithin(120, 180).isEmpty());
+        Assertions.assertEquals(0, HeightIntervals.EMPTY.countWithin(0, 100));
+    }
+
+    @Test
+    public void testWithoutFrom() {
+        HeightIntervals intervals = HeightIntervals.of(100, 199).with(300, 399);
+        Assertions.assertEquals("100-199,300-349", intervals.withoutFrom(350).toString());
+        Assertions.assertEquals("100-199", intervals.withoutFrom(300).toString());
+        Assertions.assertEquals("100-149", intervals.withoutFrom(150).toString());
+        Assertions.assertTrue(intervals.withoutFrom(100).isEmpty());
+    }
+
+    @Test
+    public void testWithinAndContainsAll() {
+        HeightIntervals intervals = HeightIntervals.of(100, 199).with(300, 399);
+        HeightIntervals within = intervals.within(150, 320);
+        Assertions.assertEquals("150-199,300-320", within.toString());
+        Assertions.assertEquals(71, within.size());
+
+        Assertions.assertTrue(intervals.containsAll(within));
+        Assertions.assertTrue(intervals.containsAll(HeightIntervals.EMPTY));
+        Assertions.assertFalse(intervals.containsAll(HeightIntervals.of(150, 320)));
+        Assertions.assertFalse(intervals.withoutFrom(310).containsAll(within));
+        Assertions.assertFalse(HeightIntervals.EMPTY.containsAll(within));
+    }
+
+    @Test
+    public void testParse() {
+        HeightIntervals intervals = HeightIntervals.of(709632, 850000).with(870000, 871234);
+        Assertions.assertEquals(intervals, HeightIntervals.parse(intervals.toString()));
+        Assertions.assertEquals(HeightIntervals.EMPTY, HeightIntervals.parse(""));
+        Assertions.assertEquals(HeightIntervals.of(5, 5), HeightIntervals.parse("5"));
+    }
+}
@@ -0,0 +1,68 @@
+package com.sparrowwallet.frigate.index;
+
+import com.sparrowwallet.drongo.protocol.HashIndex;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+public class IngestBufferTest {
+    @Test
+    public void testGroupsBlocksFarFromTip() {
+        IngestBuffer buffer = new IngestBuffer();
+        TweakRows blockRows = new TweakRows();
+
+        for(int height = 100; height < 110; height++) {
+            blockRows.clear();
+            blockRows.addTransaction(new byte[32], height, new byte[64]);
+            blockRows.addOutput(0, height, 1000L);
+            blockRows.addOutput(2, -height, 2000L);
+            buffer.addBlock(height, "hash" + height, blockRows, null);
+            Assertions.assertFalse(buffer.shouldCommit(1000));
+        }
+
+        Assertions.assertEquals(100, buffer.getFromHeight());
+        Assertions.assertEquals(109, buffer.getToHeight());
+        Assertions.assertEquals(10, buffer.getRows().size());
+        Assertions.assertEquals(105, buffer.getRows().getHeight(5));
+        Assertions.assertEquals(2, buffer.getRows().getOutputCount(5));
+        Assertions.assertEquals(-105L, buffer.getRows().getHashPrefix(5, 1));
+        Assertions.assertEquals(2000L, buffer.getRows().getValue(5, 1));
+        Assertions.assertEquals(2000L, buffer.getRows().getMaxValue(5));
+        Assertions.assertArrayEquals(new long[] { 0L, 2L }, buffer.getRows().getOutputIndexes(5));
+        Assertions.assertEquals(IndexMeta.MAX_RECENT_BLOCKS, buffer.getBlockHashes().size());
+        Assertions.assertEquals("hash109", buffer.getBlockHashes().get(109));
+    }
+
+    @Test
+    public void testCommitsEachBlockNearTip() {
+        IngestBuffer buffer = new IngestBuffer();
+        Assertions.assertFalse(buffer.shouldCommit(100));
+
+        buffer.addBlock(100 - IngestBuffer.TIP_DISTANCE, "hash", new TweakRows(), null);
+        Assertions.assertFalse(buffer.shouldCommit(100));
+
+        buffer.addBlock(101 - IngestBuffer.TIP_DISTANCE, "hash", new TweakRows(), null);
+        Assertions.assertTrue(buffer.shouldCommit(100));
+    }
+
+    @Test
+    public void testClear() {
+        IngestBuffer buffer = new IngestBuffer();
+        TweakRows blockRows = new TweakRows();
+        blockRows.addTransaction(new byte[32], 5, new byte[64]);
+        blockRows.addOutput(1, 1L, 1000L);
+        buffer.addBlock(5, "hash", blockRows, Set.of(new HashIndex(Sha256Hash.ZERO_HASH, 0)));
+        Assertions.assertEquals(1, buffer.getSpentOutpoints().size());
+
+        buffer.clear();
+        Assertions.assertTrue(buffer.isEmpty());
+        Assertions.assertTrue(buffer.getRows().isEmpty());
+        Assertions.assertTrue(buffer.getSpentOutpoints().isEmpty());
+        Assertions.assertTrue(buffer.getBlockHashes().isEmpty());
+
+        buffer.addBlock(6, "hash", new TweakRows(), null);
+        Assertions.assertEquals(6, buffer.getFromHeight());
+    }
+}
@@ -0,0 +1,77 @@
+package com.sparrowwallet.frigate.index;
+
+import com.sparrowwallet.drongo.protocol.HashIndex;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class OutpointFilterTest {
+    @Test
+    public void testAddAndRemove() {
+        OutpointFilter filter = new OutpointFilter(0);
+        HashIndex outpoint = new HashIndex(Sha256Hash.of(new byte[] { 1 }), 1);
+        Assertions.assertFalse(filter.contains(outpoint));
+
+        filter.add(outpoint);
+        filter.add(outpoint);
+        Assertions.assertTrue(filter.contains(outpoint));
+        Assertions.assertTrue(filter.contains(outpoint.getHash().getBytes(), 1));
+        Assertions.assertFalse(filter.contains(new HashIndex(outpoint.getHash(), 0)));
+        Assertions.assertEquals(1, filter.size());
+
+        filter.remove(outpoint);
+        Assertions.assertFalse(filter.contains(outpoint));
+        Assertions.assertEquals(0, filter.size());
+
+        filter.remove(outpoint);
+        Assertions.assertEquals(0, filter.size());
+    }
+
+    @Test
+    public void testGrowsBeyondExpectedSize() {
+        Random random = new Random(1);
+        OutpointFilter filter = new OutpointFilter(100);
+        List<HashIndex> outpoints = new ArrayList<>();
+        for(int i = 0; i < 50_000; i++) {
+            byte[] txid = new byte[32];
+            random.nextBytes(txid);
+            HashIndex outpoint = new HashIndex(Sha256Hash.wrap(txid), random.nextInt(4));
+            outpoints.add(outpoint);
+            filter.add(outpoint);
+        }
+
+        for(HashIndex outpoint : outpoints) {
+            Assertions.assertTrue(filter.contains(outpoint));
+        }
+
+        //Removing every other outpoint must not make any of the rest unreachable
+        for(int i = 0; i < outpoints.size(); i += 2) {
+            filter.remove(outpoints.get(i));
+        }
+        for(int i = 0; i < outpoints.size(); i++) {
+            Assertions.assertEquals(i % 2 == 1, filter.contains(outpoints.get(i)));
+        }
+        Assertions.assertEquals(outpoints.size() / 2, filter.size());
+    }
+
+    @Test
+    public void testRejectsOutpointsNotAdded() {
+        Random random = new Random(2);
+        OutpointFilter filter = new OutpointFilter(10_000);
+        for(int i = 0; i < 10_000; i++) {
+            byte[] txid = new byte[32];
+            random.nextBytes(txid);
+            filter.add(txid, 0);
+        }
+
+        for(int i = 0; i < 10_000; i++) {
+            byte[] txid = new byte[32];
+            random.nextBytes(txid);
+            Assertions.assertFalse(filter.contains(txid, 0));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.sparrowwallet.frigate.index;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ReadReplicaTest {
+    @Test
+    public void testServesOnlyIndexedHeights() {
+        ReadReplica replica = new ReadReplica("jdbc:duckdb:replica", null, 2);
+        Assertions.assertFalse(replica.canServe(HeightIntervals.of(100, 100)));
+        Assertions.assertTrue(replica.canServe(HeightIntervals.EMPTY));
+
+        replica.checkSucceeded(HeightIntervals.of(0, 199));
+        Assertions.assertTrue(replica.canServe(HeightIntervals.of(100, 199)));
+        Assertions.assertFalse(replica.canServe(HeightIntervals.of(100, 200)));
+    }
+
+    @Test
+    public void testEjectsWithBackoffAndReadmits() {
+        ReadReplica replica = new ReadReplica("jdbc:duckdb:replica", null, 2);
+        replica.checkSucceeded(HeightIntervals.of(0, 199));
+
+        Assertions.assertTrue(replica.checkFailed(1000));
+        Assertions.assertFalse(replica.checkFailed(1000));
+        Assertions.assertFalse(replica.canServe(HeightIntervals.EMPTY));
+        Assertions.assertFalse(replica.isCheckDue(1000 + ReadReplica.MIN_EJECT_MILLIS * 2 - 1));
+        Assertions.assertTrue(replica.isCheckDue(1000 + ReadReplica.MIN_EJECT_MILLIS * 2));
+
+        for(int i = 0; i < 40; i++) {
+            replica.checkFailed(0);
+        }
+        Assertions.assertTrue(replica.isCheckDue(ReadReplica.MAX_EJECT_MILLIS));
+
+        Assertions.assertTrue(replica.checkSucceeded(HeightIntervals.of(0, 199)));
+        Assertions.assertTrue(replica.canServe(HeightIntervals.of(0, 199)));
+    }
+
+    @Test
+    public void testConcurrencyLimit() {
+        ReadReplica replica = new ReadReplica("jdbc:duckdb:replica", null, 2);
+        replica.acquire(1000);
+        Assertions.assertTrue(replica.hasCapacity());
+        replica.acquire(1);
+        Assertions.assertFalse(replica.hasCapacity());
+        Assertions.assertEquals(1001, replica.getOutstandingWork());
+
+        replica.release(1000);
+        Assertions.assertTrue(replica.hasCapacity());
+        Assertions.assertEquals(1, replica.getOutstandingWork());
+    }
+}
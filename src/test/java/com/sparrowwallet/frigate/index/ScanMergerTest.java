@@ -0,0 +1,54 @@
+package com.sparrowwallet.frigate.index;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class ScanMergerTest {
+    @Test
+    public void testDrainWaitsForUnfinishedParts() {
+        ScanMerger merger = new ScanMerger(new int[] {0, 50000});
+        merger.add(1, entry(50010));
+        merger.add(0, entry(10));
+        merger.add(0, entry(20));
+
+        //The first part may still return heights up to its range end, so only rows below its position are released
+        Assertions.assertEquals(List.of(10), heights(merger.drain()));
+
+        merger.add(0, entry(40000));
+        Assertions.assertEquals(List.of(20), heights(merger.drain()));
+        Assertions.assertEquals(0.0d, merger.getCompletedFraction());
+
+        merger.complete(0);
+        Assertions.assertEquals(List.of(40000), heights(merger.drain()));
+        Assertions.assertFalse(merger.isComplete());
+
+        merger.add(1, entry(50020));
+        merger.complete(1);
+        Assertions.assertTrue(merger.isComplete());
+        Assertions.assertEquals(List.of(50010, 50020), heights(merger.drain()));
+        Assertions.assertTrue(merger.drainAll().isEmpty());
+    }
+
+    @Test
+    public void testDrainAllOrdersByHeight() {
+        ScanMerger merger = new ScanMerger(new int[] {100, 0, 200});
+        merger.add(2, entry(250));
+        merger.add(0, entry(150));
+        merger.add(1, entry(5));
+        merger.add(0, entry(150));
+        merger.complete(1);
+
+        Assertions.assertEquals(1.0d / 3, merger.getCompletedFraction(), 0.0001d);
+        Assertions.assertEquals(List.of(5, 150, 150, 250), heights(merger.drainAll()));
+    }
+
+    private static TxEntry entry(int height) {
+        return new TxEntry(height, 0, "00".repeat(32));
+    }
+
+    private static List<Integer> heights(List<TxEntry> entries) {
+        return entries.stream().map(entry -> entry.height).toList();
+    }
+}
@@ -0,0 +1,76 @@
+package com.sparrowwallet.frigate.index;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class ScanWorkersTest {
+    private static final ScanSliceRequest REQUEST = new ScanSliceRequest("01".repeat(32), "02" + "03".repeat(32), new Integer[0], 800000, 819999, null, null);
+
+    @Test
+    public void testRetriesSliceOnNextWorker() throws Exception {
+        HttpServer unindexed = startWorker(503, "{\"error\":\"not indexed\"}");
+        HttpServer worker = startWorker(200, "[{\"height\":800001,\"tx_hash\":\"aa\",\"tweak_key\":\"bb\"},{\"height\":810000,\"tx_hash\":\"cc\",\"tweak_key\":\"dd\"}]");
+        try {
+            //The first worker is not listening, and the second has not indexed the slice
+            ScanWorkers scanWorkers = new ScanWorkers(List.of("http://127.0.0.1:1", getUrl(unindexed), getUrl(worker) + "/"), "secret");
+            Queue<AutoCloseable> cancellations = new ConcurrentLinkedQueue<>();
+            List<TxEntry> history = scanWorkers.scan(REQUEST, 0, cancellations, () -> false);
+
+            Assertions.assertNotNull(history);
+            Assertions.assertEquals(2, history.size());
+            Assertions.assertEquals(800001, history.get(0).height);
+            Assertions.assertEquals("cc", history.get(1).tx_hash);
+            Assertions.assertTrue(cancellations.isEmpty());
+
+            Assertions.assertNull(scanWorkers.scan(REQUEST, 1, cancellations, () -> true));
+        } finally {
+            unindexed.stop(0);
+            worker.stop(0);
+        }
+    }
+
+    @Test
+    public void testNoWorkerScansSlice() {
+        ScanWorkers scanWorkers = new ScanWorkers(List.of("http://127.0.0.1:1"), null);
+        Assertions.assertNull(scanWorkers.scan(REQUEST, 0, new ConcurrentLinkedQueue<>(), () -> false));
+    }
+
+    @Test
+    public void testFailedWorkerRetryDelay() {
+        ScanWorkers.Worker worker = new ScanWorkers.Worker("http://127.0.0.1:57002");
+        Assertions.assertTrue(worker.isAvailable(0));
+        Assertions.assertTrue(worker.failed(1000));
+        Assertions.assertFalse(worker.isAvailable(1000 + ScanWorkers.RETRY_MILLIS - 1));
+        Assertions.assertTrue(worker.isAvailable(1000 + ScanWorkers.RETRY_MILLIS));
+        Assertions.assertFalse(worker.failed(2000));
+        worker.succeeded();
+        Assertions.assertTrue(worker.isAvailable(2000));
+    }
+
+    private static HttpServer startWorker(int status, String response) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(ScanSliceRequest.PATH, exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            boolean authorized = "Bearer secret".equals(exchange.getRequestHeaders().getFirst("Authorization"));
+            byte[] body = (authorized ? response : "{\"error\":\"Unauthorized\"}").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(authorized ? status : 401, body.length);
+            try(OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static String getUrl(HttpServer server) {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+}
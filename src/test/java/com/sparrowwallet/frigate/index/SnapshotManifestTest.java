@@ -0,0 +1,37 @@
+package com.sparrowwallet.frigate.index;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+public class SnapshotManifestTest {
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void testWriteRead() throws Exception {
+        File partitionFile = new File(tempDir, "tweak_0_49999.parquet");
+        Files.writeString(partitionFile.toPath(), "abc");
+        Assertions.assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", SnapshotManifest.getChecksum(partitionFile));
+
+        SnapshotManifest.Partition partition = new SnapshotManifest.Partition("tweak", 0, 49999, partitionFile.getName(), 12L, SnapshotManifest.getChecksum(partitionFile));
+        SnapshotManifest manifest = new SnapshotManifest(SnapshotManifest.VERSION, "signet", IndexMode.FULL, 3, 0, 49999, "00ff",
+                Map.of(49998, "00fe", 49999, "00ff"), "0-49999", -1, List.of(partition));
+        manifest.write(tempDir);
+
+        SnapshotManifest read = SnapshotManifest.read(tempDir);
+        Assertions.assertEquals(manifest, read);
+        Assertions.assertEquals("00ff", read.recentBlocks().get(49999));
+    }
+
+    @Test
+    public void testMissingManifest() {
+        Assertions.assertThrows(FileNotFoundException.class, () -> SnapshotManifest.read(tempDir));
+    }
+}
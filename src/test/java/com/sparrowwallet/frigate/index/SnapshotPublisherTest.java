@@ -0,0 +1,47 @@
+package com.sparrowwallet.frigate.index;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+
+public class SnapshotPublisherTest {
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void testPublishWritesNextGeneration() throws Exception {
+        File snapshotFile = new File(tempDir, "replica.duckdb");
+        Files.writeString(snapshotFile.toPath(), "old");
+        Assertions.assertTrue(SnapshotPublisher.getPublishedVersion(snapshotFile).startsWith("mtime:"));
+
+        SnapshotPublisher publisher = new SnapshotPublisher(snapshotFile, 60_000L);
+        Assertions.assertTrue(publisher.isDue(System.currentTimeMillis()));
+
+        File copy = new File(tempDir, "replica.duckdb.tmp");
+        Files.writeString(copy.toPath(), "new");
+        publisher.publish(copy, 900000);
+        Assertions.assertEquals("new", Files.readString(snapshotFile.toPath()));
+        Assertions.assertFalse(copy.exists());
+        Assertions.assertEquals("1 900000", SnapshotPublisher.getPublishedVersion(snapshotFile));
+        Assertions.assertFalse(publisher.isDue(System.currentTimeMillis()));
+
+        //A new publisher continues from the last generation published
+        SnapshotPublisher restarted = new SnapshotPublisher(snapshotFile, 0L);
+        Files.writeString(copy.toPath(), "newer");
+        restarted.publish(copy, 900001);
+        Assertions.assertEquals("2 900001", SnapshotPublisher.getPublishedVersion(snapshotFile));
+    }
+
+    @Test
+    public void testDatabaseFile() {
+        Assertions.assertEquals(new File("/data/frigate.duckdb"), DbManager.getDatabaseFile("jdbc:duckdb:/data/frigate.duckdb"));
+        Assertions.assertEquals(new File("/data/frigate.duckdb"), DbManager.getDatabaseFile("jdbc:duckdb:/data/frigate.duckdb?access_mode=read_only"));
+        Assertions.assertNull(DbManager.getDatabaseFile("jdbc:duckdb:"));
+        Assertions.assertNull(DbManager.getDatabaseFile("jdbc:duckdb::memory:"));
+        Assertions.assertNull(DbManager.getDatabaseFile("jdbc:duckdb:md:frigate"));
+        Assertions.assertNull(SnapshotPublisher.getPublishedVersion(new File("/nonexistent/frigate.duckdb")));
+    }
+}
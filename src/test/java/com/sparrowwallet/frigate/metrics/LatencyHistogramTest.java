@@ -0,0 +1,42 @@
+package com.sparrowwallet.frigate.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testBuckets() {
+        for(long value : new long[] { 0, 1, 7, 8, 15, 16, 17, 1000, 123_456_789L, Long.MAX_VALUE }) {
+            int bucket = LatencyHistogram.getBucket(value);
+            Assertions.assertTrue(LatencyHistogram.getBucketUpperBound(bucket) >= value);
+            Assertions.assertTrue(bucket == 0 || LatencyHistogram.getBucketUpperBound(bucket - 1) < value);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        Assertions.assertEquals(1000, histogram.getCount());
+        Assertions.assertEquals(1_000_000L, histogram.getMax());
+        Assertions.assertEquals(500_500L, histogram.getMean());
+
+        long p50 = histogram.getPercentile(50);
+        Assertions.assertTrue(p50 >= 500_000L && p50 <= 500_000L * 9 / 8, "p50 was " + p50);
+        long p99 = histogram.getPercentile(99);
+        Assertions.assertTrue(p99 >= 990_000L && p99 <= 1_000_000L, "p99 was " + p99);
+        Assertions.assertEquals(1_000_000L, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assertions.assertEquals(0, histogram.getPercentile(99));
+        histogram.record(42);
+        histogram.reset();
+        Assertions.assertEquals(0, histogram.getCount());
+    }
+}